@@ -0,0 +1,148 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.RentABikeOffEdge;
+import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.impl.MemoryGraphSource;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.standalone.CommandLineParameters;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-to-point searches through GraphPathFinder on a fixed graph, one benchmark per family of modes.
+ *
+ * The graph is the Columbus, OH street network from the test fixtures with the synthetic perpendicular transit routes
+ * from FakeGraph, plus a pair of bike rental stations near the origin and destination. It is built once per fork, so
+ * the numbers only cover the search itself (including origin/destination linking and heuristic initialization), not
+ * graph loading. Run with the GC profiler (see BenchmarkRunner) to get allocation rates alongside throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2G"})
+public class PlanBenchmark {
+
+    private static final GenericLocation FROM = new GenericLocation(39.9308, -83.0118);
+
+    private static final GenericLocation TO = new GenericLocation(39.9998, -83.0198);
+
+    private Router router;
+
+    private TimeZone timeZone;
+
+    /**
+     * Secondary results reported next to the throughput of each benchmark. JMH reports these as a rate per second,
+     * divide by the ops/s of the benchmark to get the number of vertices visited per search.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class SearchCounters {
+        public long visitedVertices;
+        public long paths;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            visitedVertices = 0;
+            paths = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void buildGraph() throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addPerpendicularRoutes(graph);
+        addBikeRentalStation(graph, "origin", FROM);
+        addBikeRentalStation(graph, "destination", TO);
+        FakeGraph.indexGraphAndLinkStations(graph);
+
+        OTPServer otpServer = new OTPServer(new CommandLineParameters(), new GraphService());
+        otpServer.getGraphService().registerGraph("benchmark", new MemoryGraphSource("benchmark", graph));
+        router = otpServer.getGraphService().getRouter("benchmark");
+        timeZone = graph.getTimeZone();
+    }
+
+    @Benchmark
+    public List<GraphPath> walk(SearchCounters counters) {
+        return plan("WALK", counters);
+    }
+
+    @Benchmark
+    public List<GraphPath> bicycle(SearchCounters counters) {
+        return plan("BICYCLE", counters);
+    }
+
+    @Benchmark
+    public List<GraphPath> car(SearchCounters counters) {
+        return plan("CAR", counters);
+    }
+
+    @Benchmark
+    public List<GraphPath> walkTransit(SearchCounters counters) {
+        return plan("WALK,TRANSIT", counters);
+    }
+
+    @Benchmark
+    public List<GraphPath> bicycleRental(SearchCounters counters) {
+        return plan("BICYCLE_RENT", counters);
+    }
+
+    private List<GraphPath> plan(String modes, SearchCounters counters) {
+        RoutingRequest request = new RoutingRequest(modes);
+        request.setDateTime("2016-04-20", "13:00", timeZone);
+        request.from = FROM;
+        request.to = TO;
+        try {
+            List<GraphPath> paths = new GraphPathFinder(router).graphPathFinderEntryPoint(request);
+            counters.paths += paths.size();
+            return paths;
+        } finally {
+            if (request.rctx != null) {
+                counters.visitedVertices += request.rctx.debugOutput.visitedVertices;
+            }
+            request.cleanup();
+        }
+    }
+
+    private static void addBikeRentalStation(Graph graph, String id, GenericLocation location) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = new NonLocalizedString(id);
+        station.x = location.lng;
+        station.y = location.lat;
+        station.bikesAvailable = 100;
+        station.spacesAvailable = 100;
+        BikeRentalStationVertex stationVertex = new BikeRentalStationVertex(graph, station);
+        Set<String> networks = Collections.singleton("default");
+        new RentABikeOnEdge(stationVertex, stationVertex, networks);
+        new RentABikeOffEdge(stationVertex, stationVertex, networks);
+    }
+}
@@ -0,0 +1,76 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of producing a single State by traversing a street edge, without any search around it. Each operation is
+ * one traversal, so with the GC profiler (see BenchmarkRunner) gc.alloc.rate.norm is the number of bytes allocated
+ * per state: the State itself, its StateEditor, and any StateData or RentalDistances copied along the way. Compare
+ * it before and after changes to the fields of State.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1)
+public class StateBenchmark {
+
+    private static final int EDGES = 1000;
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public TraverseMode mode;
+
+    private StreetEdge[] edges;
+
+    private RoutingRequest request;
+
+    @Setup
+    public void buildChain() {
+        Graph graph = new Graph();
+        edges = new StreetEdge[EDGES];
+        IntersectionVertex from = new IntersectionVertex(graph, "0", 0, 45);
+        from.freeFlowing = true;
+        for (int i = 0; i < EDGES; i++) {
+            IntersectionVertex to = new IntersectionVertex(graph, Integer.toString(i + 1), (i + 1) * 0.001, 45);
+            to.freeFlowing = true;
+            edges[i] = new StreetEdge(from, to,
+                    GeometryUtils.makeLineString(from.getLon(), from.getLat(), to.getLon(), to.getLat()),
+                    "street " + i, 80, StreetTraversalPermission.ALL, false);
+            from = to;
+        }
+        request = new RoutingRequest(mode);
+        request.setRoutingContext(graph, edges[0].getFromVertex(), edges[EDGES - 1].getToVertex());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDGES)
+    public State traverse() {
+        State state = new State(request);
+        for (StreetEdge edge : edges) {
+            state = edge.traverse(state);
+        }
+        return state;
+    }
+
+}
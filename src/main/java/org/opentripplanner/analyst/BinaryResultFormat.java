@@ -0,0 +1,201 @@
+package org.opentripplanner.analyst;
+
+import org.opentripplanner.common.geometry.DlugoszVarLenIntPacker;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact binary encoding of analyst results, as an alternative to JSON for large travel time arrays and histograms.
+ * Results are stored column by column: each int array is delta-encoded, since neighbouring values (the travel times to
+ * neighbouring points, or the counts in neighbouring one-minute bins) are usually close to one another, and the deltas
+ * are packed into 1 to 5 bytes each with the DlugoszVarLenIntPacker. In JSON every travel time takes around five
+ * characters plus a separator.
+ *
+ * Every document starts with a header: the magic bytes "OTPA", a version, the kind of object it holds and a flags byte.
+ * When the compressed flag is set the rest of the document is gzipped. Requesting compression is worthwhile when the
+ * transport does not already compress, e.g. when results are stored as files.
+ *
+ * Isochrone geometries are not part of this format, they are only available as GeoJSON.
+ */
+public class BinaryResultFormat {
+
+    /** The media type under which this format is served, used for content negotiation. */
+    public static final String MEDIA_TYPE = "application/x-otp-analyst";
+
+    public static final int VERSION = 1;
+
+    public static final byte RESULT_SET = 1;
+
+    public static final byte RESULT_ENVELOPE = 2;
+
+    public static final byte POINT_SET = 3;
+
+    private static final byte[] MAGIC = { 'O', 'T', 'P', 'A' };
+
+    private static final int COMPRESSED = 0x01;
+
+    /** Multiplier for the fixed-point representation of coordinates, as in CompactLineString. */
+    private static final double FIXED_FLOAT_MULT = 1.0e6;
+
+    /**
+     * Write a header and return a stream for the body of the document. Closing the returned stream finishes the
+     * document and flushes the given stream, but leaves it open, so that Jersey or the caller remains in charge of it.
+     */
+    public static DataOutputStream startDocument(OutputStream output, byte kind, boolean compress) throws IOException {
+        OutputStream target = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        target.write(MAGIC);
+        target.write(VERSION);
+        target.write(kind);
+        target.write(compress ? COMPRESSED : 0);
+        if (compress) {
+            target = new GZIPOutputStream(target);
+        }
+        return new DataOutputStream(target);
+    }
+
+    /**
+     * Read and check a header, and return a stream for the body of the document.
+     * @throws IOException if the stream does not hold a document of the expected kind in a version we can read.
+     */
+    public static DataInputStream openDocument(InputStream input, byte kind) throws IOException {
+        DataInputStream header = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        header.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an analyst binary result.");
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported analyst binary result version " + version + ".");
+        }
+        int storedKind = header.readByte();
+        if (storedKind != kind) {
+            throw new IOException("Expected an analyst binary result of kind " + kind + " but found " + storedKind + ".");
+        }
+        int flags = header.readUnsignedByte();
+        return (flags & COMPRESSED) != 0 ? new DataInputStream(new GZIPInputStream(input)) : header;
+    }
+
+    /** Write the fields of a ResultSet, without a header, so that it can be nested in other documents. */
+    public static void writeResultSet(DataOutput out, ResultSet resultSet) throws IOException {
+        writeString(out, resultSet.id);
+        out.writeInt(resultSet.histograms.size());
+        for (Map.Entry<String, Histogram> entry : resultSet.histograms.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeInts(out, entry.getValue().counts);
+            writeInts(out, entry.getValue().sums);
+        }
+        writeInts(out, resultSet.times);
+    }
+
+    /** Read the fields of a ResultSet written by writeResultSet. */
+    public static ResultSet readResultSet(DataInput in) throws IOException {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = readString(in);
+        int nHistograms = in.readInt();
+        for (int i = 0; i < nHistograms; i++) {
+            String propertyId = in.readUTF();
+            Histogram histogram = new Histogram();
+            histogram.counts = readInts(in);
+            histogram.sums = readInts(in);
+            resultSet.histograms.put(propertyId, histogram);
+        }
+        resultSet.times = readInts(in);
+        return resultSet;
+    }
+
+    /**
+     * Write an int array as its length, followed by the deltas between consecutive values packed with the
+     * DlugoszVarLenIntPacker. Deltas wrap around on overflow, which the decoder undoes, so that any value (including
+     * Integer.MAX_VALUE for unreachable points) survives the round trip.
+     */
+    public static void writeInts(DataOutput out, int[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int[] deltas = new int[values.length];
+        int previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            deltas[i] = values[i] - previous;
+            previous = values[i];
+        }
+        byte[] packed = DlugoszVarLenIntPacker.pack(deltas);
+        out.writeInt(values.length);
+        out.writeInt(packed.length);
+        out.write(packed);
+    }
+
+    /** Read an int array written by writeInts. */
+    public static int[] readInts(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] packed = new byte[in.readInt()];
+        in.readFully(packed);
+        int[] values = DlugoszVarLenIntPacker.unpack(packed);
+        if (values.length != length) {
+            throw new IOException("Expected " + length + " values but found " + values.length + ".");
+        }
+        for (int i = 1; i < values.length; i++) {
+            values[i] += values[i - 1];
+        }
+        return values;
+    }
+
+    /** Write coordinates as delta-encoded fixed-point values, which is precise to about 0.1 meter. */
+    public static void writeCoordinates(DataOutput out, double[] coordinates) throws IOException {
+        int[] fixed = new int[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            fixed[i] = (int) Math.round(coordinates[i] * FIXED_FLOAT_MULT);
+        }
+        writeInts(out, fixed);
+    }
+
+    /** Read coordinates written by writeCoordinates. */
+    public static double[] readCoordinates(DataInput in) throws IOException {
+        int[] fixed = readInts(in);
+        if (fixed == null) {
+            throw new IOException("Expected coordinates but found no values.");
+        }
+        double[] coordinates = new double[fixed.length];
+        for (int i = 0; i < fixed.length; i++) {
+            coordinates[i] = fixed[i] / FIXED_FLOAT_MULT;
+        }
+        return coordinates;
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+}
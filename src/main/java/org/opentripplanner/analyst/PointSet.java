@@ -35,6 +35,8 @@ import org.opentripplanner.routing.services.GraphService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -632,6 +634,56 @@ public class PointSet implements Serializable {
         }
     }
 
+    /**
+     * Write this PointSet in the compact BinaryResultFormat, one column at a time: the feature IDs, the coordinates of
+     * the points and the value of each property. Polygons and property styles are left out, this is meant for clients
+     * that only need the points and their magnitudes, e.g. to match them with the times in a ResultSet.
+     */
+    public void writeBinary(OutputStream output, boolean compress) throws IOException {
+        try (DataOutputStream out = BinaryResultFormat.startDocument(output, BinaryResultFormat.POINT_SET, compress)) {
+            BinaryResultFormat.writeString(out, id);
+            BinaryResultFormat.writeString(out, label);
+            BinaryResultFormat.writeString(out, description);
+            out.writeInt(capacity);
+            for (int i = 0; i < capacity; i++) {
+                BinaryResultFormat.writeString(out, ids[i]);
+            }
+            BinaryResultFormat.writeCoordinates(out, lats);
+            BinaryResultFormat.writeCoordinates(out, lons);
+            out.writeInt(properties.size());
+            for (Entry<String, int[]> entry : properties.entrySet()) {
+                PropertyMetadata metadata = propMetadata.get(entry.getKey());
+                out.writeUTF(entry.getKey());
+                BinaryResultFormat.writeString(out, metadata == null ? null : metadata.label);
+                BinaryResultFormat.writeInts(out, entry.getValue());
+            }
+        }
+    }
+
+    /** Read a PointSet written by writeBinary. */
+    public static PointSet readBinary(InputStream input) throws IOException {
+        DataInputStream in = BinaryResultFormat.openDocument(input, BinaryResultFormat.POINT_SET);
+        String id = BinaryResultFormat.readString(in);
+        String label = BinaryResultFormat.readString(in);
+        String description = BinaryResultFormat.readString(in);
+        PointSet pointSet = new PointSet(in.readInt());
+        pointSet.id = id;
+        pointSet.label = label;
+        pointSet.description = description;
+        for (int i = 0; i < pointSet.capacity; i++) {
+            pointSet.ids[i] = BinaryResultFormat.readString(in);
+        }
+        pointSet.lats = BinaryResultFormat.readCoordinates(in);
+        pointSet.lons = BinaryResultFormat.readCoordinates(in);
+        int nProperties = in.readInt();
+        for (int p = 0; p < nProperties; p++) {
+            String propertyId = in.readUTF();
+            pointSet.getOrCreatePropertyForId(propertyId).label = BinaryResultFormat.readString(in);
+            pointSet.properties.put(propertyId, BinaryResultFormat.readInts(in));
+        }
+        return pointSet;
+    }
+
     public void writeJsonProperties(JsonGenerator jgen) throws JsonGenerationException, IOException {
         jgen.writeObjectFieldStart("properties");
         {
@@ -14,7 +14,9 @@ import org.opentripplanner.profile.IsochroneGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.StringWriter;
@@ -216,6 +218,22 @@ public class ResultSet implements Serializable{
         }
     }
 
+    /**
+     * Serialize this ResultSet to the given output stream in the compact BinaryResultFormat: the histograms and the
+     * times, but not the isochrones. This is much smaller than the JSON representation when times are included.
+     * @param compress whether to gzip the document, when the transport does not already do so.
+     */
+    public void writeBinary(OutputStream output, boolean compress) throws IOException {
+        try (DataOutputStream out = BinaryResultFormat.startDocument(output, BinaryResultFormat.RESULT_SET, compress)) {
+            BinaryResultFormat.writeResultSet(out, this);
+        }
+    }
+
+    /** Read a ResultSet written by writeBinary. */
+    public static ResultSet readBinary(InputStream input) throws IOException {
+        return BinaryResultFormat.readResultSet(BinaryResultFormat.openDocument(input, BinaryResultFormat.RESULT_SET));
+    }
+
     /** Write the isochrones as GeoJSON */
     public void writeIsochrones(JsonGenerator jgen) throws IOException {
         if (this.isochrones == null)
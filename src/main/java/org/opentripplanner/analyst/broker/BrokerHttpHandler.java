@@ -11,6 +11,7 @@ import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
 import org.glassfish.grizzly.http.util.HttpStatus;
+import org.opentripplanner.analyst.BinaryResultFormat;
 import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
 import org.opentripplanner.api.model.FeedScopedIdSerializer;
 import org.opentripplanner.api.model.JodaLocalDateSerializer;
@@ -118,6 +119,11 @@ class BrokerHttpHandler extends HttpHandler {
                         // Enqueue a single priority task
                         AnalystClusterRequest task = mapper.readValue(request.getInputStream(),
                                 AnalystClusterRequest.class);
+                        // The result is sent back as is, so let the worker produce what the client accepts.
+                        String accept = request.getHeader("Accept");
+                        if (accept != null && accept.contains(BinaryResultFormat.MEDIA_TYPE)) {
+                            task.binaryResult = true;
+                        }
                         broker.enqueuePriorityTask(task, response);
                         // Enqueueing the priority task has set its internal taskId.
                         // TODO move all removal listener registration into the broker functions.
@@ -162,6 +168,9 @@ class BrokerHttpHandler extends HttpHandler {
                         return;
                     }
                     // Copy the result back to the connection that was the source of the task.
+                    if (request.getContentType() != null) {
+                        suspendedProducerResponse.setContentType(request.getContentType());
+                    }
                     try {
                         ByteStreams.copy(request.getInputStream(),
                                 suspendedProducerResponse.getOutputStream());
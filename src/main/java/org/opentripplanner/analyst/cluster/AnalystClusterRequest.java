@@ -52,6 +52,12 @@ public class AnalystClusterRequest implements Serializable {
 
 	/** Should times be included in the results (i.e. ResultSetWithTimes rather than ResultSet) */
 	public boolean includeTimes = false;
+
+	/**
+	 * Should the ResultEnvelope be sent back in the compact BinaryResultFormat rather than as JSON? The broker sets
+	 * this for priority tasks when the client accepts that format.
+	 */
+	public boolean binaryResult = false;
 	
 	private AnalystClusterRequest(String destinationPointsetId, String graphId) {
 		this.destinationPointsetId = destinationPointsetId;
@@ -22,10 +22,12 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
+import org.opentripplanner.analyst.BinaryResultFormat;
 import org.opentripplanner.analyst.PointSet;
 import org.opentripplanner.analyst.SampleSet;
 import org.opentripplanner.api.model.FeedScopedIdSerializer;
@@ -40,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -406,6 +409,12 @@ public class AnalystWorker implements Runnable {
                 router.raptorWorkerData = null;
             }
 
+            // A single-point request is the only task running on this machine while a user is waiting for it,
+            // so let it use all the cores. Multi-point jobs are already parallelized across origins.
+            if (singlePoint) {
+                router.raptorParallelism = Runtime.getRuntime().availableProcessors();
+            }
+
             // Run the core repeated-raptor analysis.
             // This result envelope will contain the results of the one-to-many profile or single-departure-time search.
             ResultEnvelope envelope = new ResultEnvelope();
@@ -428,19 +437,26 @@ public class AnalystWorker implements Runnable {
             envelope.jobId = clusterRequest.jobId;
             envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
             if (clusterRequest.outputLocation != null) {
-                // Convert the result envelope and its contents to JSON and gzip it in this thread.
+                // Convert the result envelope and its contents to JSON or the binary format and gzip it in this thread.
                 // Transfer the results to Amazon S3 in another thread, piping between the two.
-                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
+                String extension = clusterRequest.binaryResult ? ".dat.gz" : ".json.gz";
+                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + extension);
                 PipedInputStream inPipe = new PipedInputStream();
                 PipedOutputStream outPipe = new PipedOutputStream(inPipe);
                 new Thread(() -> {
                     s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
                 }).start();
-                OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
-                // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
-                // could consume it in the same way.
-                objectMapper.writeValue(gzipOutputStream, envelope);
-                gzipOutputStream.close();
+                if (clusterRequest.binaryResult) {
+                    // The binary format gzips its own body, leaving the header readable.
+                    envelope.writeBinary(outPipe, true);
+                    outPipe.close();
+                } else {
+                    OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
+                    // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
+                    // could consume it in the same way.
+                    objectMapper.writeValue(gzipOutputStream, envelope);
+                    gzipOutputStream.close();
+                }
                 // Tell the broker the task has been handled and should not be re-delivered to another worker.
                 deleteRequest(clusterRequest);
             } else {
@@ -530,6 +546,7 @@ public class AnalystWorker implements Runnable {
 
     /**
      * Signal the broker that the given high-priority task is completed, providing a result.
+     * A ResultEnvelope is sent in the binary format when the request asks for it, and as JSON otherwise.
      */
     public void finishPriorityTask(AnalystClusterRequest clusterRequest, Object result) {
         String url = BROKER_BASE_URL + String.format("/complete/priority/%s", clusterRequest.taskId);
@@ -537,8 +554,15 @@ public class AnalystWorker implements Runnable {
         try {
             // TODO reveal any errors etc. that occurred on the worker.
             // Really this should probably be done with an InputStreamEntity and a JSON writer thread.
-            byte[] serializedResult = objectMapper.writeValueAsBytes(result);
-            httpPost.setEntity(new ByteArrayEntity(serializedResult));
+            if (clusterRequest.binaryResult && result instanceof ResultEnvelope) {
+                ByteArrayOutputStream serializedResult = new ByteArrayOutputStream();
+                ((ResultEnvelope) result).writeBinary(serializedResult, false);
+                httpPost.setEntity(new ByteArrayEntity(serializedResult.toByteArray(),
+                        ContentType.create(BinaryResultFormat.MEDIA_TYPE)));
+            } else {
+                byte[] serializedResult = objectMapper.writeValueAsBytes(result);
+                httpPost.setEntity(new ByteArrayEntity(serializedResult, ContentType.APPLICATION_JSON));
+            }
             HttpResponse response = httpClient.execute(httpPost);
             // Signal the http client library that we're done with this response object, allowing connection reuse.
             EntityUtils.consumeQuietly(response.getEntity());
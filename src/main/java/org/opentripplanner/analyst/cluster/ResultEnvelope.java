@@ -1,7 +1,13 @@
 package org.opentripplanner.analyst.cluster;
 
+import org.opentripplanner.analyst.BinaryResultFormat;
 import org.opentripplanner.analyst.ResultSet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -132,6 +138,42 @@ public class ResultEnvelope implements Serializable {
 		return exploded;
 	}
 	
+	/**
+	 * Serialize this envelope in the compact BinaryResultFormat, with each of the result sets it contains in the order
+	 * of the Which enum. This is an alternative to JSON for storing or sending the results of a job.
+	 */
+	public void writeBinary (OutputStream output, boolean compress) throws IOException {
+		try (DataOutputStream out = BinaryResultFormat.startDocument(output, BinaryResultFormat.RESULT_ENVELOPE, compress)) {
+			BinaryResultFormat.writeString(out, jobId);
+			BinaryResultFormat.writeString(out, id);
+			BinaryResultFormat.writeString(out, destinationPointsetId);
+			out.writeBoolean(profile);
+			for (Which which : Which.values()) {
+				ResultSet resultSet = this.get(which);
+				out.writeBoolean(resultSet != null);
+				if (resultSet != null) {
+					BinaryResultFormat.writeResultSet(out, resultSet);
+				}
+			}
+		}
+	}
+
+	/** Read a result envelope written by writeBinary. */
+	public static ResultEnvelope readBinary (InputStream input) throws IOException {
+		DataInputStream in = BinaryResultFormat.openDocument(input, BinaryResultFormat.RESULT_ENVELOPE);
+		ResultEnvelope envelope = new ResultEnvelope();
+		envelope.jobId = BinaryResultFormat.readString(in);
+		envelope.id = BinaryResultFormat.readString(in);
+		envelope.destinationPointsetId = BinaryResultFormat.readString(in);
+		envelope.profile = in.readBoolean();
+		for (Which which : Which.values()) {
+			if (in.readBoolean()) {
+				envelope.put(which, BinaryResultFormat.readResultSet(in));
+			}
+		}
+		return envelope;
+	}
+
 	/**
 	 * Build an empty result envelope.
 	 */
@@ -89,7 +89,7 @@ public class SkipStop extends TripPatternFilter {
         boolean anyTripsMatched = false;
         boolean allTripsMatched = true;
 
-        for (TripTimes tt : original.scheduledTimetable.tripTimes) {
+        for (TripTimes tt : original.scheduledTimetable.getTripTimes()) {
             if (!matches(tt.trip)) {
                 // this trip should not be modified
                 allTripsMatched = false;
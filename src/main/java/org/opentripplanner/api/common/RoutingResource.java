@@ -237,6 +237,16 @@ public abstract class RoutingResource {
     @QueryParam("showIntermediateStops")
     protected Boolean showIntermediateStops;
 
+    /** Whether turn-by-turn walk steps should be returned for walking, biking and driving legs. Building them is a
+     *  large part of the work after the search for long bike trips, so clients that only draw the route on a map
+     *  can leave them out. Defaults to true. */
+    @QueryParam("showSteps")
+    protected Boolean showSteps;
+
+    /** Whether the elevation profiles of walk steps should be returned. Defaults to true. */
+    @QueryParam("showElevation")
+    protected Boolean showElevation;
+
     /**
      * Prevents unnecessary transfers by adding a cost for boarding a vehicle. This is the cost that
      * is used when boarding while walking.
@@ -427,6 +437,13 @@ public abstract class RoutingResource {
     @QueryParam("onlyTransitTrips")
     private Boolean onlyTransitTrips;
 
+    /** Whether to search for the first itineraries in parallel, each search shifted by itinerarySearchSlice seconds. */
+    @QueryParam("parallelItinerarySearch")
+    private Boolean parallelItinerarySearch;
+
+    @QueryParam("itinerarySearchSlice")
+    private Integer itinerarySearchSlice;
+
     /**
      * The amount of watts a Micromobility vehicle can sustainably output. A micromobility is a vehicle that has a motor
      * and weighs less than a car. Theoretically, this could also model human power. The default is set to 250 watts.
@@ -589,6 +606,12 @@ public abstract class RoutingResource {
         if (showIntermediateStops != null)
             request.showIntermediateStops = showIntermediateStops;
 
+        if (showSteps != null)
+            request.showSteps = showSteps;
+
+        if (showElevation != null)
+            request.showElevation = showElevation;
+
         if (intermediatePlaces != null)
             request.setIntermediatePlacesFromStrings(intermediatePlaces);
 
@@ -812,6 +835,12 @@ public abstract class RoutingResource {
         if (onlyTransitTrips != null)
             request.onlyTransitTrips = onlyTransitTrips;
 
+        if (parallelItinerarySearch != null)
+            request.parallelItinerarySearch = parallelItinerarySearch;
+
+        if (itinerarySearchSlice != null)
+            request.itinerarySearchSlice = itinerarySearchSlice;
+
         if (watts != null)
             request.watts = watts;
 
@@ -1,5 +1,6 @@
 package org.opentripplanner.api.resource;
 
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.bind.annotation.XmlRootElement;
@@ -36,6 +37,18 @@ public class DebugOutput {
     public long renderingTime;
     public long totalTime;
     public boolean timedOut;
+    /** Number of states dequeued and expanded by all A* searches carried out for this request. */
+    public long visitedVertices;
+    /** Number of states produced by edge traversals in all A* searches carried out for this request. */
+    public long statesCreated;
+    /** Number of those states that were rejected on arrival or later evicted because another state dominated them. */
+    public long statesDominated;
+    /** Largest size the priority queue reached in any single A* search for this request. */
+    public long queuePeakSize;
+    /** Milliseconds spent initializing the remaining weight heuristic, summed over all searches. */
+    public long heuristicInitTime;
+    /** Milliseconds spent in each successive search attempt of GraphPathFinder (one per itinerary sought). */
+    public List<Long> searchAttemptTimes = Lists.newArrayList();
 
     /**
      * Record the time when we first began calculating a path for this request
@@ -69,6 +82,21 @@ public class DebugOutput {
         computeSummary();
     }
 
+    /**
+     * Add the search counters and found paths of another debug output, for searches of this request that ran
+     * separately, e.g. in parallel. Timings of the other output are not otherwise taken into account.
+     */
+    public void addSearches(DebugOutput other) {
+        foundPaths.addAll(other.foundPaths);
+        Collections.sort(foundPaths);
+        timedOut |= other.timedOut;
+        visitedVertices += other.visitedVertices;
+        statesCreated += other.statesCreated;
+        statesDominated += other.statesDominated;
+        queuePeakSize = Math.max(queuePeakSize, other.queuePeakSize);
+        heuristicInitTime += other.heuristicInitTime;
+    }
+
     /** Summarize and calculate elapsed times. */
     private void computeSummary() {
         precalculationTime = finishedPrecalculating - startedCalculating;
@@ -77,6 +77,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * A library class with only static methods used in converting internal GraphPaths to TripPlans, which are
@@ -92,6 +93,16 @@ public abstract class GraphPathToTripPlanConverter {
      * Generates a TripPlan from a set of paths
      */
     public static TripPlan generatePlan(List<GraphPath> paths, RoutingRequest request) {
+        TripPlan plan = generateEmptyPlan(paths, request);
+        generateItineraries(paths, request, plan, plan::addItinerary);
+        request.rctx.debugOutput.finishedRendering();
+        return plan;
+    }
+
+    /**
+     * Generates a TripPlan from a set of paths, with its origin, destination and date but without any itineraries.
+     */
+    public static TripPlan generateEmptyPlan(List<GraphPath> paths, RoutingRequest request) {
 
         Locale requestedLocale = request.locale;
 
@@ -114,25 +125,43 @@ public abstract class GraphPathToTripPlanConverter {
         from.orig = request.from.name;
         to.orig = request.to.name;
 
-        TripPlan plan = new TripPlan(from, to, request.getDateTime());
+        return new TripPlan(from, to, request.getDateTime());
+    }
+
+    /**
+     * Generates the itineraries of a TripPlan from a set of paths, one at a time, and hands each of them to the given
+     * consumer as soon as it is complete. Itineraries that are filtered out are not passed on, and the ones that
+     * are left out because of their walk or bike time are not generated at all.
+     *
+     * @param plan The plan generated by generateEmptyPlan, to which the itineraries are not added
+     */
+    public static void generateItineraries(List<GraphPath> paths, RoutingRequest request, TripPlan plan,
+                                           Consumer<Itinerary> consumer) {
+
+        Locale requestedLocale = request.locale;
+
+        GraphPath exemplar = paths.get(0);
 
-        // Convert GraphPaths to Itineraries, keeping track of the best non-transit (e.g. walk/bike-only) option time
+        // Find the best non-transit (e.g. walk/bike-only) option time. The times only depend on the states, so this
+        // does not need the itineraries themselves.
         long bestNonTransitTime = Long.MAX_VALUE;
-        List<Itinerary> itineraries = new LinkedList<>();
-        for (GraphPath path : paths) {
-            Itinerary itinerary = generateItinerary(path, request.showIntermediateStops, request.disableAlertFiltering, requestedLocale);
-            itinerary = adjustItinerary(request, itinerary);
-            if(itinerary.transitTime == 0 && itinerary.walkTime < bestNonTransitTime) {
-                bestNonTransitTime = itinerary.walkTime;
+        Itinerary[] times = new Itinerary[paths.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = new Itinerary();
+            calculateTimes(times[i], paths.get(i).states.toArray(new State[0]));
+            if(times[i].transitTime == 0 && times[i].walkTime < bestNonTransitTime) {
+                bestNonTransitTime = times[i].walkTime;
             }
-            itineraries.add(itinerary);
         }
 
-        // Filter and add itineraries to plan
-        for (Itinerary itinerary : itineraries) {
+        // Convert GraphPaths to Itineraries, filter them and pass them on
+        for (int i = 0; i < times.length; i++) {
             // If this is a transit option whose walk/bike time is greater than that of the walk/bike-only option,
             // do not include in plan
-            if(itinerary.transitTime > 0 && itinerary.walkTime > bestNonTransitTime) continue;
+            if(times[i].transitTime > 0 && times[i].walkTime > bestNonTransitTime) continue;
+
+            Itinerary itinerary = generateItinerary(paths.get(i), request.showIntermediateStops, request.disableAlertFiltering, requestedLocale);
+            itinerary = adjustItinerary(request, itinerary);
 
             // If this is a transit option and minTransitDistance is specified, do not include in plan if the
             // itinerary's total transit distance is less than minTransitDistance
@@ -159,26 +188,20 @@ public abstract class GraphPathToTripPlanConverter {
             // the requester. It is possible that TNC service may not actually be available, so if
             // the method returns false, don't include this itinerary in the results.
             if (!addTNCData(exemplar, itinerary)) continue;
-            plan.addItinerary(itinerary);
-        }
 
-        if (plan != null) {
-            for (Itinerary i : plan.itinerary) {
-                /* Communicate the fact that the only way we were able to get a response was by removing a slope limit. */
-                i.tooSloped = request.rctx.slopeRestrictionRemoved;
-                /* fix up from/to on first/last legs */
-                if (i.legs.size() == 0) {
-                    LOG.warn("itinerary has no legs");
-                    continue;
-                }
-                Leg firstLeg = i.legs.get(0);
+            /* Communicate the fact that the only way we were able to get a response was by removing a slope limit. */
+            itinerary.tooSloped = request.rctx.slopeRestrictionRemoved;
+            /* fix up from/to on first/last legs */
+            if (itinerary.legs.size() == 0) {
+                LOG.warn("itinerary has no legs");
+            } else {
+                Leg firstLeg = itinerary.legs.get(0);
                 firstLeg.from.orig = plan.from.orig;
-                Leg lastLeg = i.legs.get(i.legs.size() - 1);
+                Leg lastLeg = itinerary.legs.get(itinerary.legs.size() - 1);
                 lastLeg.to.orig = plan.to.orig;
             }
+            consumer.accept(itinerary);
         }
-        request.rctx.debugOutput.finishedRendering();
-        return plan;
     }
 
     /**
@@ -229,7 +252,9 @@ public abstract class GraphPathToTripPlanConverter {
             itinerary.addLeg(generateLeg(graph, legStates, showIntermediateStops, disableAlertFiltering, requestedLocale));
         }
 
-        addWalkSteps(graph, itinerary.legs, legsStates, requestedLocale);
+        if (states[0].getOptions().showSteps) {
+            addWalkSteps(graph, itinerary.legs, legsStates, requestedLocale);
+        }
         fixupLegs(itinerary.legs, legsStates);
 
         itinerary.duration = lastState.getElapsedTimeSeconds();
@@ -1287,8 +1312,11 @@ public abstract class GraphPathToTripPlanConverter {
         step.streetName = en.getName(wantedLocale);
         step.lon = en.getFromVertex().getX();
         step.lat = en.getFromVertex().getY();
-        step.elevation = encodeElevationProfile(s.getBackEdge(), 0,
-                s.getOptions().geoidElevation ? -graph.ellipsoidToGeoidDifference : 0);
+        // Leaving the profile null also keeps the following edges of the step from appending theirs.
+        if (s.getOptions().showElevation) {
+            step.elevation = encodeElevationProfile(s.getBackEdge(), 0,
+                    s.getOptions().geoidElevation ? -graph.ellipsoidToGeoidDifference : 0);
+        }
         step.bogusName = en.hasBogusName();
         step.addAlerts(graph.streetNotesService.getNotes(s), wantedLocale);
         step.angle = DirectionUtils.getFirstAngle(s.getBackEdge().getGeometry());
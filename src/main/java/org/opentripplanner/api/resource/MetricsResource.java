@@ -0,0 +1,33 @@
+package org.opentripplanner.api.resource;
+
+import org.opentripplanner.util.monitoring.SearchMetrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exposes the routing request histograms collected by SearchMetrics in the Prometheus text format, for scraping.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    /** The content type Prometheus expects for its text exposition format. */
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public StreamingOutput getMetrics() {
+        return output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            SearchMetrics.getInstance().writePrometheus(writer);
+            writer.flush();
+        };
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.opentripplanner.api.resource;
 
 import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.jersey.server.CloseableService;
 import org.opentripplanner.api.common.Message;
 import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.api.model.TripPlan;
@@ -8,13 +9,17 @@ import org.opentripplanner.api.model.error.PlannerError;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.impl.GraphPathFinder;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.standalone.RoutingExecutor;
+import org.opentripplanner.util.monitoring.SearchMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriInfo;
@@ -22,6 +27,7 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.opentripplanner.api.resource.ServerInfo.Q;
 
@@ -38,12 +44,65 @@ public class PlannerResource extends RoutingResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(PlannerResource.class);
 
+    /** Closes the TripPlanWriter of a streamed response once the request is done, whether or not it was written. */
+    @Context
+    private CloseableService closeableService;
+
     // We inject info about the incoming request so we can include the incoming query
     // parameters in the outgoing response. This is a TriMet requirement.
     // Jersey uses @Context to inject internal types and @InjectParam or @Resource for DI objects.
     @GET
-    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML + Q, MediaType.TEXT_XML + Q })
+    @Produces({ MediaType.APPLICATION_XML + Q, MediaType.TEXT_XML + Q })
     public Response plan(@Context UriInfo uriInfo, @Context Request grizzlyRequest) {
+        return (Response) plan(uriInfo, grizzlyRequest, false);
+    }
+
+    /**
+     * The JSON response is written by a TripPlanWriter while the itineraries are generated, rather than serialized
+     * from a complete TripPlan. Responses without itineraries are serialized as usual.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Object planJson(@Context UriInfo uriInfo, @Context Request grizzlyRequest) {
+        return plan(uriInfo, grizzlyRequest, true);
+    }
+
+    /** @return the Response, or a TripPlanWriter for it if streaming was asked for and paths were found. */
+    private Object plan(UriInfo uriInfo, Request grizzlyRequest, boolean stream) {
+
+        // Create response object, containing a copy of all request parameters. Maybe they should be in the debug section of the response.
+        Response response = new Response(uriInfo);
+
+        // If the router limits the number of requests routed at once, wait for our turn on one of its threads.
+        RoutingExecutor routingExecutor = null;
+        try {
+            routingExecutor = otpServer.getRouter(routerId).routingExecutor;
+        } catch (GraphNotFoundException e) {
+            // Reported in the response by plan below.
+        }
+        if (routingExecutor == null) {
+            return plan(response, grizzlyRequest, 0, stream);
+        }
+        try {
+            return routingExecutor.execute(queueWaitTime -> plan(response, grizzlyRequest, queueWaitTime, stream));
+        } catch (RejectedExecutionException e) {
+            throw new WebApplicationException(javax.ws.rs.core.Response
+                    .status(javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", 1)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity("Too many trip planning requests are waiting, please try again later.")
+                    .build());
+        }
+    }
+
+    /**
+     * Plan a trip and fill in the given response.
+     * @param queueWaitTime the milliseconds this request already waited for a routing thread, deducted from the
+     *                      search timeouts.
+     * @param stream whether to leave generating the itineraries to a TripPlanWriter, which is returned instead of
+     *               the response when paths are found. Only the search then runs on the routing thread.
+     */
+    private Object plan(Response response, Request grizzlyRequest, long queueWaitTime, boolean stream) {
 
         /*
          * TODO: add Lang / Locale parameter, and thus get localized content (Messages & more...)
@@ -53,32 +112,38 @@ public class PlannerResource extends RoutingResource {
          *       out so it's used here too...
          */
 
-        // Create response object, containing a copy of all request parameters. Maybe they should be in the debug section of the response.
-        Response response = new Response(uriInfo);
         RoutingRequest request = null;
         Router router = null;
         List<GraphPath> paths = null;
+        TripPlanWriter writer = null;
         try {
 
             /* Fill in request fields from query parameters via shared superclass method, catching any errors. */
             request = super.buildRequest();
+            request.queueWaitTime = queueWaitTime;
             router = otpServer.getRouter(request.routerId);
 
             /* Find some good GraphPaths through the OTP Graph. */
             GraphPathFinder gpFinder = new GraphPathFinder(router); // we could also get a persistent router-scoped GraphPathFinder but there's no setup cost here
             paths = gpFinder.graphPathFinderEntryPoint(request);
 
-            /* Convert the internal GraphPaths to a TripPlan object that is included in an OTP web service Response. */
-            TripPlan plan = GraphPathToTripPlanConverter.generatePlan(paths, request);
-
-            // Check for empty plan after filtering
-            if(plan.itinerary.isEmpty()) {
-                // TODO: more descriptive message?
-                PlannerError error = new PlannerError();
-                error.setMsg(Message.NO_PATHS_AFTER_FILTERING);
-                response.setError(error);
+            if (stream) {
+                /* The writer converts the GraphPaths and cleans up the request while the response is written. */
+                writer = new TripPlanWriter(response, request, router.graph, paths);
+                closeableService.add(writer);
+            } else {
+                /* Convert the internal GraphPaths to a TripPlan object that is included in an OTP web service Response. */
+                TripPlan plan = GraphPathToTripPlanConverter.generatePlan(paths, request);
+
+                // Check for empty plan after filtering
+                if(plan.itinerary.isEmpty()) {
+                    // TODO: more descriptive message?
+                    PlannerError error = new PlannerError();
+                    error.setMsg(Message.NO_PATHS_AFTER_FILTERING);
+                    response.setError(error);
+                }
+                else response.setPlan(plan);
             }
-            else response.setPlan(plan);
 
         } catch (Exception e) {
             PlannerError error = new PlannerError(e);
@@ -86,16 +151,17 @@ public class PlannerResource extends RoutingResource {
                 LOG.warn("Error while planning path: ", e);
             response.setError(error);
         } finally {
-            if (request != null) {
+            if (request != null && writer == null) {
                 if (request.rctx != null) {
                     response.debugOutput = request.rctx.debugOutput;
+                    SearchMetrics.getInstance().record(request.rctx.debugOutput);
                 }
                 request.cleanup(); // TODO verify that this cleanup step is being done on Analyst web services
             }
         }
 
         /* Populate up the elevation metadata, only if no error occurred */
-        if (response.getError() == null) {
+        if (writer == null && response.getError() == null) {
             response.elevationMetadata = new ElevationMetadata();
             response.elevationMetadata.ellipsoidToGeoidDifference = router.graph.ellipsoidToGeoidDifference;
             response.elevationMetadata.geoidElevation = request.geoidElevation;
@@ -132,7 +198,7 @@ public class PlannerResource extends RoutingResource {
                 router.requestLogger.info(sb.toString());
             }
         }
-        return response;
+        return writer != null ? writer : response;
     }
 
 }
@@ -1,5 +1,6 @@
 package org.opentripplanner.api.resource;
 
+import org.opentripplanner.analyst.BinaryResultFormat;
 import org.opentripplanner.analyst.PointSet;
 import org.opentripplanner.api.model.PointSetShort;
 import org.opentripplanner.standalone.OTPServer;
@@ -13,6 +14,8 @@ import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import static org.opentripplanner.api.resource.ServerInfo.Q;
+
 /**
  * This Jersey REST Resource creates and lists PointSets.
  *
@@ -58,4 +61,29 @@ public class PointSetResource {
         }).build();
     }
 
+    /**
+     * Send back a PointSet in the compact BinaryResultFormat when the client asks for it. Its lower quality value
+     * keeps JSON the default for clients that accept both. This format is small enough that large PointSets are sent
+     * in full, instead of as a summary.
+     * @param compress if true, gzip the result, for clients that store it as is.
+     */
+    @GET
+    @Path("/{pointSetId}")
+    @Produces(BinaryResultFormat.MEDIA_TYPE + Q)
+    public Response getPointSetBinary (
+            @PathParam("pointSetId") String pointSetId,
+            @QueryParam("compress") boolean compress) {
+
+        final PointSet pset = server.pointSetCache.get(pointSetId);
+        if (pset == null) {
+            return Response.status(Status.NOT_FOUND).entity("Invalid PointSet ID.").build();
+        }
+        return Response.ok().entity(new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                pset.writeBinary(output, compress);
+            }
+        }).build();
+    }
+
 }
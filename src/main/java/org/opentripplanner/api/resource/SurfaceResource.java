@@ -4,6 +4,7 @@ import com.google.common.collect.Maps;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.geometry.Envelope2D;
+import org.opentripplanner.analyst.BinaryResultFormat;
 import org.opentripplanner.analyst.PointSet;
 import org.opentripplanner.analyst.ResultSet;
 import org.opentripplanner.analyst.SampleSet;
@@ -48,6 +49,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import static org.opentripplanner.api.resource.ServerInfo.Q;
+
 /**
  * Surfaces cannot be isolated per-router because sometimes you want to compare two surfaces from different router IDs.
  * Though one could question whether that really makes sense (perhaps alternative scenarios should be "within" the same router)
@@ -125,6 +128,27 @@ public class SurfaceResource extends RoutingResource {
                                   @QueryParam("targets")  String  targetPointSetId,
                                   @QueryParam("origins")  String  originPointSetId,
                                   @QueryParam("detail")   boolean detail) {
+        return indicator(surfaceId, targetPointSetId, detail, false, false);
+    }
+
+    /**
+     * Evaluate a surface at all the points in a PointSet, sending back the ResultSet in the compact BinaryResultFormat
+     * when the client asks for it. Its lower quality value keeps JSON the default for clients that accept both.
+     * Isochrones are not included in that format.
+     * @param compress if true, gzip the result, for clients that store it as is.
+     */
+    @GET @Path("/{surfaceId}/indicator")
+    @Produces(BinaryResultFormat.MEDIA_TYPE + Q)
+    public Response getIndicatorBinary (@PathParam("surfaceId") Integer surfaceId,
+                                        @QueryParam("targets")  String  targetPointSetId,
+                                        @QueryParam("origins")  String  originPointSetId,
+                                        @QueryParam("detail")   boolean detail,
+                                        @QueryParam("compress") boolean compress) {
+        return indicator(surfaceId, targetPointSetId, detail, true, compress);
+    }
+
+    private Response indicator (Integer surfaceId, String targetPointSetId, boolean detail,
+                                boolean binary, boolean compress) {
 
         final TimeSurface surf = otpServer.surfaceCache.get(surfaceId);
         if (surf == null) return badRequest("Invalid TimeSurface ID.");
@@ -134,13 +158,18 @@ public class SurfaceResource extends RoutingResource {
         Router router = otpServer.getRouter(surf.routerId);
         // TODO cache this sampleset
         SampleSet samples = pset.getSampleSet(router.graph);
-        final ResultSet indicator = new ResultSet(samples, surf, detail, detail);
+        // The binary format has no isochrones, don't bother building them.
+        final ResultSet indicator = new ResultSet(samples, surf, detail, detail && !binary);
         if (indicator == null) return badServer("Could not compute indicator as requested.");
 
         return Response.ok().entity(new StreamingOutput() {
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
-                indicator.writeJson(output);
+                if (binary) {
+                    indicator.writeBinary(output, compress);
+                } else {
+                    indicator.writeJson(output);
+                }
             }
         }).build();
 
@@ -0,0 +1,146 @@
+package org.opentripplanner.api.resource;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opentripplanner.api.common.Message;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.JSONObjectMapperProvider;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.monitoring.SearchMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes a trip planner response as JSON while its itineraries are generated from the paths found by the search,
+ * instead of building the whole TripPlan before Jersey serializes it. Each itinerary is written out as soon as it has
+ * been generated, so only one of them, with its walk steps, elevation profiles and geometries, is held in memory at a
+ * time, and the client starts receiving the response before the last one is done.
+ *
+ * The fields are the same as those of a Response serialized by Jersey, with the same ObjectMapper. The plan is only
+ * started once the first itinerary is ready, so that when none is left after filtering an error is written instead,
+ * as PlannerResource does. Generating itineraries needs the temporary vertices and edges of the request, so the
+ * request is only cleaned up once the response has been written. Jersey does not call write when the response is
+ * abandoned before its entity is written (e.g. the client went away or a later step failed), so the writer must also
+ * be closed when the request is done, which PlannerResource leaves to Jersey's CloseableService. Whichever comes first
+ * cleans up the request.
+ */
+public class TripPlanWriter implements StreamingOutput, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TripPlanWriter.class);
+
+    private static final ObjectMapper MAPPER = new JSONObjectMapperProvider().getContext(Response.class);
+
+    private final Response response;
+
+    private final RoutingRequest request;
+
+    private final Graph graph;
+
+    private final List<GraphPath> paths;
+
+    /** Whether the plan and the start of its list of itineraries have been written. */
+    private boolean planStarted = false;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * @param response the response holding the request parameters, to which the plan and debug output are not added
+     * @param paths the paths found for the request, which must not have been cleaned up yet
+     */
+    public TripPlanWriter(Response response, RoutingRequest request, Graph graph, List<GraphPath> paths) {
+        this.response = response;
+        this.request = request;
+        this.graph = graph;
+        this.paths = paths;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+            // Leave the output stream to Jersey, as its own JSON provider does.
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeObjectField("requestParameters", response.requestParameters);
+
+            PlannerError error = null;
+            try {
+                TripPlan plan = GraphPathToTripPlanConverter.generateEmptyPlan(paths, request);
+                GraphPathToTripPlanConverter.generateItineraries(paths, request, plan,
+                        itinerary -> writeItinerary(generator, plan, itinerary));
+                request.rctx.debugOutput.finishedRendering();
+            } catch (UncheckedIOException e) {
+                // The client went away, there is no one left to tell.
+                throw e.getCause();
+            } catch (Exception e) {
+                error = new PlannerError(e);
+                if (!PlannerError.isPlanningError(e.getClass()))
+                    LOG.warn("Error while planning path: ", e);
+            }
+            if (planStarted) {
+                generator.writeEndArray();
+                generator.writeEndObject();
+            } else if (error == null) {
+                // TODO: more descriptive message?
+                error = new PlannerError();
+                error.setMsg(Message.NO_PATHS_AFTER_FILTERING);
+            }
+            if (error != null) {
+                generator.writeObjectField("error", error);
+            }
+
+            if (request.rctx != null) {
+                generator.writeObjectField("debugOutput", request.rctx.debugOutput);
+            }
+
+            /* Populate up the elevation metadata, only if no error occurred */
+            if (error == null) {
+                ElevationMetadata elevationMetadata = new ElevationMetadata();
+                elevationMetadata.ellipsoidToGeoidDifference = graph.ellipsoidToGeoidDifference;
+                elevationMetadata.geoidElevation = request.geoidElevation;
+                generator.writeObjectField("elevationMetadata", elevationMetadata);
+            }
+            generator.writeEndObject();
+        } finally {
+            close();
+        }
+    }
+
+    /** Record the metrics of the search and clean up the request, unless that has already been done. */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (request.rctx != null) {
+            SearchMetrics.getInstance().record(request.rctx.debugOutput);
+        }
+        request.cleanup();
+    }
+
+    private void writeItinerary(JsonGenerator generator, TripPlan plan, Itinerary itinerary) {
+        try {
+            if (!planStarted) {
+                generator.writeObjectFieldStart("plan");
+                generator.writeObjectField("date", plan.date);
+                generator.writeObjectField("from", plan.from);
+                generator.writeObjectField("to", plan.to);
+                generator.writeArrayFieldStart("itineraries");
+                planStarted = true;
+            }
+            generator.writeObject(itinerary);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,467 @@
+package org.opentripplanner.common.geometry;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.ItemVisitor;
+import com.vividsolutions.jts.index.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A spatial index made of a static R-tree, packed with the Sort-Tile-Recursive algorithm into primitive arrays, and
+ * a small concurrent overlay holding the items inserted after the tree was built.
+ *
+ * Unlike HashGridSpatialIndex, which keeps a list of objects per grid bin, the tree keeps the envelope of every item
+ * and of every node in a single array of doubles, so queries return no false positives and can visit items in order
+ * of distance (see nearest). Items removed from the tree are only marked as removed. Once the overlay or the removed
+ * items grow too large compared to the tree, the tree is packed again with all items still in the index.
+ *
+ * Reads need no locking and can run concurrently with writes. Writes are synchronized within the index, so unlike
+ * HashGridSpatialIndex no external lock is needed around them.
+ *
+ * @param <T> Type of objects to be spatially indexed. Objects are told apart by equals, as with HashGridSpatialIndex.
+ */
+public class PackedRTreeSpatialIndex<T> implements SpatialIndex {
+
+    /** The number of children of each node of the tree. */
+    private static final int NODE_CAPACITY = 16;
+
+    /**
+     * The tree is packed again when the overlay, which queries scan linearly, holds more items than this, or when
+     * more items than this (or an eighth of the tree, if more) have been removed from the tree.
+     */
+    private static final int REPACK_SIZE = 4096;
+
+    private volatile Tree tree;
+
+    /** The items inserted since the tree was last packed, with their envelopes. */
+    private final Map<Object, Envelope> overlay = new ConcurrentHashMap<>();
+
+    /** Create an empty index. All items will be kept in the overlay until it is large enough to be packed. */
+    public PackedRTreeSpatialIndex() {
+        this.tree = Tree.pack(new Object[0], new Envelope[0]);
+    }
+
+    /** Create an index packing the given items at once, which is much faster than inserting them one by one. */
+    public PackedRTreeSpatialIndex(Collection<? extends T> items, Function<? super T, Envelope> envelope) {
+        Object[] itemArray = items.toArray();
+        Envelope[] envelopes = new Envelope[itemArray.length];
+        int i = 0;
+        for (T item : items) {
+            envelopes[i++] = envelope.apply(item);
+        }
+        this.tree = Tree.pack(itemArray, envelopes);
+    }
+
+    @Override
+    public synchronized void insert(Envelope envelope, Object item) {
+        overlay.merge(item, new Envelope(envelope), PackedRTreeSpatialIndex::union);
+        repackIfNeeded();
+    }
+
+    private static Envelope union(Envelope a, Envelope b) {
+        Envelope union = new Envelope(a);
+        union.expandToInclude(b);
+        return union;
+    }
+
+    public void insert(LineString geometry, Object item) {
+        insert(geometry.getEnvelopeInternal(), item);
+    }
+
+    @Override
+    public synchronized boolean remove(Envelope envelope, Object item) {
+        boolean removed = overlay.remove(item) != null;
+        Tree tree = this.tree;
+        int[] stack = new int[tree.stackSize()];
+        int top = tree.pushRoot(stack);
+        while (top > 0) {
+            int node = stack[--top];
+            if (!tree.intersects(node, envelope)) continue;
+            if (tree.isItem(node)) {
+                if (!tree.isRemoved(node) && item.equals(tree.items[node])) {
+                    tree.markRemoved(node);
+                    removed = true;
+                }
+            } else {
+                top = tree.pushChildren(node, stack, top);
+            }
+        }
+        repackIfNeeded();
+        return removed;
+    }
+
+    /** @return all items whose envelope intersects the given envelope. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> query(Envelope envelope) {
+        // The overlay is read before the tree: an item moved from the overlay into a newly packed tree meanwhile is
+        // then found in one or both of them, never in neither.
+        Set<T> found = new HashSet<>();
+        for (Map.Entry<Object, Envelope> entry : overlay.entrySet()) {
+            if (entry.getValue().intersects(envelope)) {
+                found.add((T) entry.getKey());
+            }
+        }
+        Tree tree = this.tree;
+        int[] stack = new int[tree.stackSize()];
+        int top = tree.pushRoot(stack);
+        while (top > 0) {
+            int node = stack[--top];
+            if (!tree.intersects(node, envelope)) continue;
+            if (tree.isItem(node)) {
+                if (!tree.isRemoved(node)) {
+                    found.add((T) tree.items[node]);
+                }
+            } else {
+                top = tree.pushChildren(node, stack, top);
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    @Override
+    public void query(Envelope envelope, ItemVisitor visitor) {
+        for (T item : query(envelope)) {
+            visitor.visitItem(item);
+        }
+    }
+
+    /**
+     * Find the items closest to a point, nearest first, without visiting the items farther away. Distances are
+     * measured in a local equirectangular projection, where x coordinates are multiplied by xScale (typically the
+     * cosine of the latitude of the point) so that distances are expressed in degrees of latitude.
+     *
+     * @param maxDistance items farther away than this are not returned.
+     * @param filter only items passing this filter are returned, and their distance is only computed if they do.
+     * @param distance the exact distance from the point to an item, in the projection above. It must not be smaller
+     *                 than the distance from the point to the envelope of the item.
+     */
+    public Nearest<T> nearest(double x, double y, double xScale, double maxDistance, Predicate<? super T> filter,
+            ToDoubleFunction<? super T> distance) {
+        return new Nearest<>(this, x, y, xScale, maxDistance, filter, distance);
+    }
+
+    /** @return the number of items in the index. */
+    public int size() {
+        Tree tree = this.tree;
+        return tree.items.length - tree.removedCount.get() + overlay.size();
+    }
+
+    private void repackIfNeeded() {
+        Tree tree = this.tree;
+        if (overlay.size() <= REPACK_SIZE &&
+                tree.removedCount.get() <= Math.max(REPACK_SIZE, tree.items.length / 8)) return;
+        // Items inserted again after they were packed are packed once, with the union of their envelopes.
+        Map<Object, Envelope> items = new LinkedHashMap<>(tree.items.length + overlay.size());
+        for (int i = 0; i < tree.items.length; i++) {
+            if (!tree.isRemoved(i)) {
+                items.merge(tree.items[i], tree.envelope(i), PackedRTreeSpatialIndex::union);
+            }
+        }
+        for (Map.Entry<Object, Envelope> entry : overlay.entrySet()) {
+            items.merge(entry.getKey(), entry.getValue(), PackedRTreeSpatialIndex::union);
+        }
+        // Publish the new tree before emptying the overlay, see query.
+        this.tree = Tree.pack(items.keySet().toArray(), items.values().toArray(new Envelope[0]));
+        overlay.clear();
+    }
+
+    @Override
+    public String toString() {
+        Tree tree = this.tree;
+        return String.format("PackedRTreeSpatialIndex, %d packed objs (%d removed), %d objs in overlay",
+                tree.items.length, tree.removedCount.get(), overlay.size());
+    }
+
+    /**
+     * An iterator over the items of the index in order of increasing distance, searching the tree best-first.
+     * Items are only found in the overlay or in the tree once, even if the tree is packed again meanwhile.
+     */
+    public static class Nearest<T> implements Iterator<T> {
+
+        private final Tree tree;
+
+        private final double x, y, xScale, maxDistance;
+
+        private final Predicate<? super T> filter;
+
+        private final ToDoubleFunction<? super T> distance;
+
+        /** Nodes of the tree ordered by the distance to their envelope, and items ordered by their exact distance. */
+        private final PriorityQueue<Candidate> queue = new PriorityQueue<>(
+                Comparator.comparingDouble((Candidate c) -> c.distance));
+
+        private final Set<Object> returned = new HashSet<>();
+
+        private Candidate next;
+
+        private double lastDistance = Double.NaN;
+
+        @SuppressWarnings("unchecked")
+        private Nearest(PackedRTreeSpatialIndex<T> index, double x, double y, double xScale, double maxDistance,
+                Predicate<? super T> filter, ToDoubleFunction<? super T> distance) {
+            this.x = x;
+            this.y = y;
+            this.xScale = xScale;
+            this.maxDistance = maxDistance;
+            this.filter = filter;
+            this.distance = distance;
+            // The overlay is read before the tree, see query.
+            for (Map.Entry<Object, Envelope> entry : index.overlay.entrySet()) {
+                Envelope envelope = entry.getValue();
+                if (distanceTo(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY())
+                        <= maxDistance) {
+                    offerItem((T) entry.getKey());
+                }
+            }
+            this.tree = index.tree;
+            if (tree.nodeCount() > 0) {
+                offerNode(tree.nodeCount() - 1);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            while (next == null && !queue.isEmpty()) {
+                Candidate candidate = queue.poll();
+                if (candidate.item != null) {
+                    if (returned.add(candidate.item)) {
+                        next = candidate;
+                    }
+                } else if (tree.isItem(candidate.node)) {
+                    if (!tree.isRemoved(candidate.node)) {
+                        offerItem((T) tree.items[candidate.node]);
+                    }
+                } else {
+                    int end = tree.childrenEnd(candidate.node);
+                    for (int child = tree.childrenStart(candidate.node); child < end; child++) {
+                        offerNode(child);
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            lastDistance = next.distance;
+            T item = (T) next.item;
+            next = null;
+            return item;
+        }
+
+        /** @return the distance to the item last returned by next. */
+        public double distance() {
+            return lastDistance;
+        }
+
+        private void offerNode(int node) {
+            double d = distanceTo(tree.bounds[4 * node], tree.bounds[4 * node + 1], tree.bounds[4 * node + 2],
+                    tree.bounds[4 * node + 3]);
+            if (d <= maxDistance) {
+                queue.add(new Candidate(d, node, null));
+            }
+        }
+
+        private void offerItem(T item) {
+            if (!filter.test(item)) return;
+            double d = distance.applyAsDouble(item);
+            if (d <= maxDistance) {
+                queue.add(new Candidate(d, -1, item));
+            }
+        }
+
+        /** The distance from the point to an envelope, in the local equirectangular projection. */
+        private double distanceTo(double minX, double minY, double maxX, double maxY) {
+            double dx = Math.max(0, Math.max(minX - x, x - maxX)) * xScale;
+            double dy = Math.max(0, Math.max(minY - y, y - maxY));
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+
+        private static class Candidate {
+
+            final double distance;
+
+            final int node;
+
+            final Object item;
+
+            Candidate(double distance, int node, Object item) {
+                this.distance = distance;
+                this.node = node;
+                this.item = item;
+            }
+        }
+    }
+
+    /**
+     * An immutable R-tree packed into arrays. Nodes are numbered level by level, starting with the items themselves
+     * at level 0 and ending with the root, and the children of a node are consecutive nodes of the level below. Only
+     * the flags marking items as removed change after packing.
+     */
+    private static class Tree {
+
+        /** The items, in the order of the leaves of the tree. */
+        final Object[] items;
+
+        /** The envelope of each node as minX, minY, maxX, maxY. */
+        final double[] bounds;
+
+        /** The number of the first node of each level, plus the total number of nodes. */
+        final int[] levelStarts;
+
+        /** One bit per item, set when the item has been removed. */
+        final AtomicLongArray removed;
+
+        final AtomicInteger removedCount = new AtomicInteger();
+
+        private Tree(Object[] items, double[] bounds, int[] levelStarts) {
+            this.items = items;
+            this.bounds = bounds;
+            this.levelStarts = levelStarts;
+            this.removed = new AtomicLongArray((items.length + 63) / 64);
+        }
+
+        /** Pack the given items with the Sort-Tile-Recursive algorithm. */
+        static Tree pack(Object[] items, Envelope[] envelopes) {
+            int n = items.length;
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            // Sort by x into vertical slices of about sqrt(n / NODE_CAPACITY) leaves each, then each slice by y.
+            Arrays.sort(order, Comparator.comparingDouble(i -> envelopes[i].getMinX() + envelopes[i].getMaxX()));
+            int leaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            int sliceSize = Math.max(1, (int) Math.ceil(Math.sqrt(leaves))) * NODE_CAPACITY;
+            for (int start = 0; start < n; start += sliceSize) {
+                Arrays.sort(order, start, Math.min(start + sliceSize, n),
+                        Comparator.comparingDouble(i -> envelopes[i].getMinY() + envelopes[i].getMaxY()));
+            }
+
+            List<Integer> levelSizes = new ArrayList<>();
+            levelSizes.add(n);
+            for (int size = n; size > 1; ) {
+                size = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+                levelSizes.add(size);
+            }
+            int[] levelStarts = new int[levelSizes.size() + 1];
+            for (int level = 0; level < levelSizes.size(); level++) {
+                levelStarts[level + 1] = levelStarts[level] + levelSizes.get(level);
+            }
+
+            Object[] sortedItems = new Object[n];
+            double[] bounds = new double[4 * levelStarts[levelSizes.size()]];
+            for (int i = 0; i < n; i++) {
+                Envelope envelope = envelopes[order[i]];
+                sortedItems[i] = items[order[i]];
+                bounds[4 * i] = envelope.getMinX();
+                bounds[4 * i + 1] = envelope.getMinY();
+                bounds[4 * i + 2] = envelope.getMaxX();
+                bounds[4 * i + 3] = envelope.getMaxY();
+            }
+            Tree tree = new Tree(sortedItems, bounds, levelStarts);
+            for (int level = 1; level < levelSizes.size(); level++) {
+                for (int node = levelStarts[level]; node < levelStarts[level + 1]; node++) {
+                    int start = tree.childrenStart(node);
+                    int end = tree.childrenEnd(node);
+                    bounds[4 * node] = Double.POSITIVE_INFINITY;
+                    bounds[4 * node + 1] = Double.POSITIVE_INFINITY;
+                    bounds[4 * node + 2] = Double.NEGATIVE_INFINITY;
+                    bounds[4 * node + 3] = Double.NEGATIVE_INFINITY;
+                    for (int child = start; child < end; child++) {
+                        bounds[4 * node] = Math.min(bounds[4 * node], bounds[4 * child]);
+                        bounds[4 * node + 1] = Math.min(bounds[4 * node + 1], bounds[4 * child + 1]);
+                        bounds[4 * node + 2] = Math.max(bounds[4 * node + 2], bounds[4 * child + 2]);
+                        bounds[4 * node + 3] = Math.max(bounds[4 * node + 3], bounds[4 * child + 3]);
+                    }
+                }
+            }
+            return tree;
+        }
+
+        int nodeCount() {
+            return levelStarts[levelStarts.length - 1];
+        }
+
+        boolean isItem(int node) {
+            return node < items.length;
+        }
+
+        private int level(int node) {
+            int level = 0;
+            while (node >= levelStarts[level + 1]) level++;
+            return level;
+        }
+
+        int childrenStart(int node) {
+            int level = level(node);
+            return levelStarts[level - 1] + (node - levelStarts[level]) * NODE_CAPACITY;
+        }
+
+        int childrenEnd(int node) {
+            int level = level(node);
+            return Math.min(childrenStart(node) + NODE_CAPACITY, levelStarts[level]);
+        }
+
+        boolean isRemoved(int item) {
+            return (removed.get(item >> 6) & (1L << item)) != 0;
+        }
+
+        void markRemoved(int item) {
+            long bit = 1L << item;
+            if ((removed.getAndAccumulate(item >> 6, bit, (a, b) -> a | b) & bit) == 0) {
+                removedCount.incrementAndGet();
+            }
+        }
+
+        boolean intersects(int node, Envelope envelope) {
+            return bounds[4 * node] <= envelope.getMaxX() && bounds[4 * node + 2] >= envelope.getMinX() &&
+                    bounds[4 * node + 1] <= envelope.getMaxY() && bounds[4 * node + 3] >= envelope.getMinY();
+        }
+
+        Envelope envelope(int node) {
+            return new Envelope(bounds[4 * node], bounds[4 * node + 2], bounds[4 * node + 1], bounds[4 * node + 3]);
+        }
+
+        /** @return a stack large enough for a depth-first traversal of this tree. */
+        int stackSize() {
+            return NODE_CAPACITY * levelStarts.length + 1;
+        }
+
+        /** Push the root on an empty stack, if the tree is not empty, and return the new stack size. */
+        int pushRoot(int[] stack) {
+            if (nodeCount() == 0) return 0;
+            stack[0] = nodeCount() - 1;
+            return 1;
+        }
+
+        /** Push the children of a node on a stack, and return the new stack size. */
+        int pushChildren(int node, int[] stack, int top) {
+            int end = childrenEnd(node);
+            for (int child = childrenStart(node); child < end; child++) {
+                stack[top++] = child;
+            }
+            return top;
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap with double priorities that supports decrease-key and removal of arbitrary elements in O(log n).
+ *
+ * Priorities are kept in a primitive double[] parallel to the element array, as in {@link BinHeap}. In addition every
+ * element stores its own position in the heap (see {@link IndexedHeapElement}), so an element can be located in
+ * constant time. This allows A* to drop states that have been dominated while they were still waiting in the queue,
+ * rather than leaving them there until they are popped and discarded. That keeps the queue much smaller on long
+ * street searches.
+ *
+ * The method names follow those of BinHeap so the two can be used interchangeably.
+ */
+public class IndexedBinHeap<T extends IndexedHeapElement> {
+
+    private static final double GROW_FACTOR = 2.0;
+
+    private double[] prio;
+    private T[] elem;
+    private int size;
+    private int capacity;
+
+    public IndexedBinHeap() {
+        this(1000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public IndexedBinHeap(int capacity) {
+        if (capacity < 10) capacity = 10;
+        this.capacity = capacity;
+        elem = (T[]) new IndexedHeapElement[capacity + 1]; // erasure voodoo
+        prio = new double[capacity + 1];                   // 1-based indexing
+        size = 0;
+        prio[0] = Double.NEGATIVE_INFINITY;                // set sentinel
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[1];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    public T peek_min() {
+        if (size > 0)
+            return elem[1];
+        else
+            return null;
+    }
+
+    /** @return true if the given element is currently in this queue. */
+    public boolean contains(T e) {
+        int i = e.getHeapIndex();
+        return i > 0 && i <= size && elem[i] == e;
+    }
+
+    /** @return the priority of the given element, which must be in the queue. */
+    public double key(T e) {
+        if (!contains(e))
+            throw new IllegalArgumentException("Element is not in the queue.");
+        return prio[e.getHeapIndex()];
+    }
+
+    /**
+     * Insert the element if it is not yet in the queue. Otherwise lower its priority to p, unless its current
+     * priority is already lower or equal.
+     */
+    public void insert_or_dec_key(T e, double p) {
+        if (contains(e)) {
+            if (p < prio[e.getHeapIndex()]) siftUp(e.getHeapIndex(), e, p);
+        } else {
+            insert(e, p);
+        }
+    }
+
+    /** Change the priority of an element that is already in the queue, moving it up or down as needed. */
+    public void rekey(T e, double p) {
+        if (!contains(e))
+            return;
+        int i = e.getHeapIndex();
+        if (p > prio[i]) siftDown(i, e, p);
+        else siftUp(i, e, p);
+    }
+
+    /**
+     * Remove the given element from the queue.
+     * @return false if the element was not in the queue.
+     */
+    public boolean remove(T e) {
+        if (!contains(e))
+            return false;
+        int i = e.getHeapIndex();
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        elem[size] = null;
+        size -= 1;
+        if (i <= size) {
+            // Move the last element into the hole, then restore heap order in whichever direction is needed.
+            if (lastPrio < prio[i / 2]) siftUp(i, lastElem, lastPrio);
+            else siftDown(i, lastElem, lastPrio);
+        }
+        return true;
+    }
+
+    public void reset() {
+        // empties the queue in one operation, releasing element references for garbage collection
+        Arrays.fill(elem, 1, size + 1, null);
+        size = 0;
+    }
+
+    public void insert(T e, double p) {
+        size += 1;
+        if (size > capacity)
+            resize((int) (capacity * GROW_FACTOR));
+        siftUp(size, e, p);
+    }
+
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[1];
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        elem[size] = null;
+        size -= 1;
+        if (size > 0) siftDown(1, lastElem, lastPrio);
+        return minElem;
+    }
+
+    public void resize(int capacity) {
+        if (capacity < size)
+            throw new IllegalStateException("IndexedBinHeap contains too many elements to fit in new capacity.");
+        this.capacity = capacity;
+        prio = Arrays.copyOf(prio, capacity + 1);
+        elem = Arrays.copyOf(elem, capacity + 1);
+    }
+
+    /** Place e with priority p at hole i, moving parents down until the heap property holds. Uses the sentinel. */
+    private void siftUp(int i, T e, double p) {
+        while (prio[i / 2] > p) {
+            place(i, elem[i / 2], prio[i / 2]);
+            i /= 2;
+        }
+        place(i, e, p);
+    }
+
+    /** Place e with priority p at hole i, moving smaller children up until the heap property holds. */
+    private void siftDown(int i, T e, double p) {
+        while (i * 2 <= size) {
+            int child = i * 2;
+            if (child != size && prio[child + 1] < prio[child])
+                child++;
+            if (p > prio[child]) {
+                place(i, elem[child], prio[child]);
+                i = child;
+            } else break;
+        }
+        place(i, e, p);
+    }
+
+    private void place(int i, T e, double p) {
+        elem[i] = e;
+        prio[i] = p;
+        e.setHeapIndex(i);
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.opentripplanner.common.pqueue;
+
+/**
+ * An object that can be stored in an {@link IndexedBinHeap}. The heap records the position of each element inside the
+ * element itself, which allows finding an element in constant time for decrease-key and removal without any auxiliary
+ * hash map. An element may only be in one IndexedBinHeap at a time.
+ */
+public interface IndexedHeapElement {
+
+    /** @return the position last recorded by the heap via setHeapIndex. The value is meaningless to anyone else. */
+    int getHeapIndex();
+
+    /** Called by the heap whenever this element moves. Implementations should just store the value. */
+    void setHeapIndex(int heapIndex);
+
+}
@@ -2,8 +2,11 @@ package org.opentripplanner.graph_builder;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import org.opentripplanner.common.walk.WalkComfortCalculator;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.ContractionHierarchyModule;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GraphBuilderModuleSummary;
@@ -21,9 +24,13 @@ import org.opentripplanner.graph_builder.services.GraphBuilderModule;
 import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
 import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
+import org.opentripplanner.profile.StopClusterMode;
 import org.opentripplanner.reflect.ReflectionLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphFormat;
+import org.opentripplanner.routing.graph.MappedStreetNetwork;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.standalone.CommandLineParameters;
 import org.opentripplanner.standalone.GraphBuilderParameters;
@@ -38,7 +45,11 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -61,15 +72,28 @@ public class GraphBuilder implements Runnable {
     private List<RoutingRequest> modeList;
     
     private String baseGraph = null;
+
+    /** The modes of the contraction hierarchies the base graph was built with, which are rebuilt on top of it. */
+    private List<TraverseMode> baseGraphHierarchyModes = new ArrayList<>();
     
     private Graph graph = new Graph();
 
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /** The format used when serializing the graph to disk. */
+    private GraphFormat graphFormat;
+
+    /** If not null, the street network is written to this file and its geometries are left out of the graph. */
+    private File streetNetworkFile;
+
     public GraphBuilder(File path, GraphBuilderParameters builderParams) {
         graphFile = new File(path, "Graph.obj");
         graph.stopClusterMode = builderParams.stopClusterMode;
+        graphFormat = builderParams.graphFormat;
+        if (builderParams.mapStreetNetwork) {
+            streetNetworkFile = new File(path, MappedStreetNetwork.FILENAME);
+        }
     }
 
     public void addModule(GraphBuilderModule loader) {
@@ -86,11 +110,52 @@ public class GraphBuilder implements Runnable {
     
     public void setBaseGraph(String baseGraph) {
         this.baseGraph = baseGraph;
+        StopClusterMode stopClusterMode = graph.stopClusterMode;
         try {
             graph = Graph.load(new File(baseGraph), LoadLevel.FULL);
         } catch (Exception e) {
-            throw new RuntimeException("error loading base graph");
+            throw new RuntimeException("error loading base graph " + baseGraph, e);
+        }
+        graph.stopClusterMode = stopClusterMode;
+        // Linking transit splits the street edges these hierarchies refer to, so they have to be built again.
+        baseGraphHierarchyModes = new ArrayList<>(graph.contractionHierarchies.keySet());
+        graph.contractionHierarchies.clear();
+    }
+
+    /**
+     * Check that the base graph can have transit built on top of it using the given OSM files.
+     * @return a description of the problem, or null if the base graph can be used.
+     */
+    private String checkBaseGraph(List<File> osmFiles) {
+        if (graph.hasTransit) {
+            return "The base graph already contains transit data. Build it with transit disabled.";
+        }
+        if (!graph.hasStreets || graph.osmInputHashes == null) {
+            return "The base graph does not record the OSM files it was built from. Build it again with this version.";
+        }
+        if (osmFiles.isEmpty()) {
+            return "The OSM files the base graph was built from must be in the build directory, to check that they " +
+                    "have not changed.";
         }
+        if (!hashFiles(osmFiles).equals(graph.osmInputHashes)) {
+            return "The OSM files in the build directory are not those the base graph was built from " +
+                    graph.osmInputHashes.keySet() + ". Build the base graph again.";
+        }
+        return null;
+    }
+
+    /** @return the SHA-1 hash of each of the given files, by file name. */
+    private static Map<String, String> hashFiles(List<File> files) {
+        Map<String, String> hashes = new TreeMap<>();
+        for (File file : files) {
+            LOG.info("Hashing {}", file);
+            try {
+                hashes.put(file.getName(), Files.hash(file, Hashing.sha1()).toString());
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read " + file, e);
+            }
+        }
+        return hashes;
     }
 
     public void addMode(RoutingRequest mo) {
@@ -148,13 +213,21 @@ public class GraphBuilder implements Runnable {
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                if (streetNetworkFile != null) {
+                    graph.mapStreetNetwork(streetNetworkFile);
+                } else {
+                    // A base graph may have been built with mapped geometries, this graph must hold its own.
+                    graph.unmapStreetNetwork();
+                }
+                graph.save(graphFile, graphFormat);
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
         } else {
             LOG.info("Not saving graph to disk, as requested.");
         }
+        // The graph is complete: store its edge lists compactly for the searches run on it if it is kept in memory.
+        graph.buildEdgeAdjacency();
 
         long endTime = System.currentTimeMillis();
         LOG.info(String.format("Graph building took %.1f minutes.", (endTime - startTime) / 1000 / 60.0));
@@ -213,13 +286,26 @@ public class GraphBuilder implements Runnable {
                     LOG.warn("Skipping unrecognized file '{}'", file);
             }
         }
-        boolean hasOSM  = builderParams.streets && !osmFiles.isEmpty();
+        // With a base graph the streets are already built, and only the transit and linking modules are run.
+        boolean hasBaseGraph = builderParams.baseGraph != null;
+        if ( hasBaseGraph ) {
+            File baseGraphFile = dir.toPath().resolve(builderParams.baseGraph).toFile();
+            LOG.info("Building on top of the street graph {}", baseGraphFile);
+            graphBuilder.setBaseGraph(baseGraphFile.getPath());
+            String problem = graphBuilder.checkBaseGraph(osmFiles);
+            if (problem != null) {
+                LOG.error("Cannot use base graph {}: {}", baseGraphFile, problem);
+                return null;
+            }
+        }
+        boolean hasOSM  = builderParams.streets && !osmFiles.isEmpty() && !hasBaseGraph;
         boolean hasGTFS = builderParams.transit && !gtfsFiles.isEmpty();
-        if ( ! ( hasOSM || hasGTFS )) {
+        if ( ! ( hasOSM || hasGTFS || hasBaseGraph )) {
             LOG.error("Found no input files from which to build a graph in {}", dir);
             return null;
         }
         if ( hasOSM ) {
+            graphBuilder.graph.osmInputHashes = hashFiles(osmFiles);
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
                 OpenStreetMapProvider osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
@@ -240,6 +326,7 @@ public class GraphBuilder implements Runnable {
             osmModule.banDiscouragedBiking = builderParams.banDiscouragedBiking;
             osmModule.walkConfig = OTPMain.loadJson(new File(dir, WalkComfortCalculator.WALK_CONFIG_FILENAME));
             osmModule.includeOsmTags = builderParams.includeOsmTags;
+            osmModule.nodeStorage = builderParams.osmNodeStorage;
             osmModule.loadMicromobilityTravelRestrictions(builderParams);
             graphBuilder.addModule(osmModule);
             PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
@@ -263,7 +350,7 @@ public class GraphBuilder implements Runnable {
             GtfsModule gtfsModule = new GtfsModule(gtfsBundles);
             gtfsModule.setFareServiceFactory(builderParams.fareServiceFactory);
             graphBuilder.addModule(gtfsModule);
-            if ( hasOSM ) {
+            if ( hasOSM || hasBaseGraph ) {
                 graphBuilder.addModule(new TransitToTaggedStopsModule());
             }
         }
@@ -275,7 +362,9 @@ public class GraphBuilder implements Runnable {
         // Load elevation data and apply it to the streets.
         // We want to do run this module after loading the OSM street network but before finding transfers.
         ElevationGridCoverageFactory gcf = null;
-        if (builderParams.elevationBucket != null) {
+        if (hasBaseGraph) {
+            LOG.info("Skipping elevation, which is already part of the base graph.");
+        } else if (builderParams.elevationBucket != null) {
             // Download the elevation tiles from an Amazon S3 bucket
             S3BucketConfig bucketConfig = builderParams.elevationBucket;
             File cacheDirectory = new File(params.cacheDirectory, "ned");
@@ -310,6 +399,12 @@ public class GraphBuilder implements Runnable {
                 graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance));
             }
         }
+        Set<TraverseMode> hierarchyModes = new LinkedHashSet<>(builderParams.contractionHierarchies);
+        hierarchyModes.addAll(graphBuilder.baseGraphHierarchyModes);
+        if ( ! hierarchyModes.isEmpty()) {
+            // Last of the modules that depend on the street network, since it captures the network as it is.
+            graphBuilder.addModule(new ContractionHierarchyModule(new ArrayList<>(hierarchyModes)));
+        }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
         if (builderParams.htmlAnnotations) {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
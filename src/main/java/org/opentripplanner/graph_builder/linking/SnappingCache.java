@@ -0,0 +1,85 @@
+package org.opentripplanner.graph_builder.linking;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vividsolutions.jts.linearref.LinearLocation;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A size-bounded cache of where origins and destinations were snapped to the street network, shared by all requests
+ * on one graph. Linking a coordinate means querying the spatial index for every street edge within
+ * StreetSplitter.MAX_SEARCH_RADIUS_METERS, and measuring the distance to each of them, before the closest ones are
+ * split. Mobile apps and kiosks send the same coordinates over and over, so for those the closest edges and the
+ * locations along them are kept here, and only the temporary vertices and edges of the request are created again.
+ *
+ * Coordinates are rounded to COORDINATE_PRECISION (about a centimeter) to form the key, along with the modes the
+ * street edges must allow. Entries only refer to permanent and semi-permanent edges, which StreetSplitter checks are
+ * still in the graph before using an entry. The cache is emptied whenever the spatial index of street edges changes
+ * or vertices or edges are added to or removed from the graph.
+ */
+public class SnappingCache {
+
+    /** Coordinates closer than this many degrees to each other are considered the same. */
+    public static final double COORDINATE_PRECISION = 1e-7;
+
+    /** The street edges or, failing those, the transit stops a coordinate was linked to. */
+    static class Snap {
+
+        final List<StreetEdge> edges;
+
+        /** The location along each edge where the coordinate was projected, in the equirectangular projection. */
+        final List<LinearLocation> locations;
+
+        final List<TransitStop> stops;
+
+        Snap(List<StreetEdge> edges, List<LinearLocation> locations, List<TransitStop> stops) {
+            this.edges = edges;
+            this.locations = locations;
+            this.stops = stops;
+        }
+
+        /** @return true if all the edges of this snap are still part of the graph. */
+        boolean isValid() {
+            for (StreetEdge edge : edges) {
+                if (!edge.getToVertex().getIncoming().contains(edge)) return false;
+            }
+            return true;
+        }
+    }
+
+    private final Cache<List<Object>, Snap> cache;
+
+    public SnappingCache(int maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /** @return the cached snap for the given key, or null if there is none. */
+    Snap get(List<Object> key) {
+        return cache.getIfPresent(key);
+    }
+
+    void put(List<Object> key, Snap snap) {
+        cache.put(key, snap);
+    }
+
+    /** Forget all cached snaps, because the street network has changed. */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    static List<Object> key(Vertex vertex, TraverseModeSet traverseModeSet) {
+        return Arrays.asList(Math.round(vertex.getLat() / COORDINATE_PRECISION),
+                Math.round(vertex.getLon() / COORDINATE_PRECISION), traverseModeSet);
+    }
+
+}
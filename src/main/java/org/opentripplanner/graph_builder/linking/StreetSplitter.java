@@ -12,7 +12,7 @@ import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 import jersey.repackaged.com.google.common.collect.Lists;
 import org.opentripplanner.common.geometry.GeometryUtils;
-import org.opentripplanner.common.geometry.HashGridSpatialIndex;
+import org.opentripplanner.common.geometry.PackedRTreeSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.P2;
@@ -62,10 +62,13 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -113,7 +116,7 @@ public class StreetSplitter {
 
     private Graph graph;
 
-    private HashGridSpatialIndex<Edge> idx;
+    private PackedRTreeSpatialIndex<Edge> idx;
 
     private SpatialIndex transitStopIndex;
 
@@ -129,12 +132,12 @@ public class StreetSplitter {
      * newly-created split edges in this street splitter won't show up in the index of the other street splitters
      * (and potentially StreetVertexIndexServices).
      *
-     * @param hashGridSpatialIndex If not null this index is used instead of creating new one
+     * @param edgeIndex If not null this index is used instead of creating new one
      * @param transitStopIndex Index of all transitStops which is generated in {@link org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl}
      */
     public StreetSplitter(
         Graph graph,
-        HashGridSpatialIndex<Edge> hashGridSpatialIndex,
+        PackedRTreeSpatialIndex<Edge> edgeIndex,
         SpatialIndex transitStopIndex
     ) {
         this.graph = graph;
@@ -146,17 +149,14 @@ public class StreetSplitter {
         this.transitStopIndex = transitStopIndex;
 
         //We build a spatial index if it isn't provided
-        if (hashGridSpatialIndex == null) {
+        if (edgeIndex == null) {
             // build a nice private spatial index, since we're adding and removing edges
-            // place a lock while doing this to ensure thread-safe writes to the index
-            synchronized (this) {
-                idx = new HashGridSpatialIndex<>();
-                for (StreetEdge se : Iterables.filter(graph.getEdges(), StreetEdge.class)) {
-                    idx.insert(se.getGeometry(), se);
-                }
-            }
+            idx = new PackedRTreeSpatialIndex<>(
+                Lists.newArrayList(Iterables.filter(graph.getEdges(), StreetEdge.class)),
+                edge -> edge.getGeometry().getEnvelopeInternal()
+            );
         } else {
-            idx = hashGridSpatialIndex;
+            idx = edgeIndex;
         }
 
     }
@@ -173,21 +173,74 @@ public class StreetSplitter {
     }
 
     /**
-     * Link all relevant vertices to the street network.
+     * Link all relevant vertices to the street network, using one thread per available processor to find the
+     * closest edges.
      * This is to be called only during graph building in order to destructively split edges in order to create
      * permanent edges.
      */
     public void linkAllStationsToGraph() {
+        linkAllStationsToGraph(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Link all relevant vertices to the street network. The closest edges of all stations are first looked up
+     * concurrently on the given number of threads, which only reads the spatial index. The stations are then linked
+     * one by one, in the order of the graph's vertices, so that edges are split in the same order as when linking them
+     * one after the other. A station whose closest edges, or the edges just beyond them, were split while linking an
+     * earlier station is looked up again at that point, so the resulting graph is the same as a sequential build.
+     *
+     * @param parallelism The number of threads finding closest edges. With 1, each station is looked up right before
+     *                    it is linked.
+     */
+    public void linkAllStationsToGraph(int parallelism) {
+        List<Vertex> stations = new ArrayList<>();
         for (Vertex v : graph.getVertices()) {
-            if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
-                if (!linkToClosestWalkableEdge(v, DESTRUCTIVE_SPLIT, false)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
-                };
+            // Bike rental stations and bike parks are already linked when building on top of a saved street graph.
+            if (v instanceof TransitStop || (v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
+                    && !isLinked(v))
+                stations.add(v);
+        }
+
+        List<ClosestEdges> closestEdges = null;
+        if (parallelism > 1 && stations.size() > 1) {
+            final TraverseModeSet walk = new TraverseModeSet(TraverseMode.WALK);
+            ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+            try {
+                closestEdges = forkJoinPool.submit(() -> stations.parallelStream()
+                    .map(v -> findClosestEdges(v, walk, false, true))
+                    .collect(Collectors.toList())
+                ).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Finding the closest edges of stations failed.", e);
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+
+        int nLookedUpAgain = 0;
+        for (int i = 0; i < stations.size(); i++) {
+            Vertex v = stations.get(i);
+            ClosestEdges closest = closestEdges == null ? null : closestEdges.get(i);
+            boolean linked;
+            if (closest != null && !closest.edges.isEmpty() && closest.isValid()) {
+                linkToClosestEdges(v, closest, null, DESTRUCTIVE_SPLIT, false);
+                linked = true;
+            } else {
+                if (closest != null) nLookedUpAgain++;
+                linked = linkToClosestWalkableEdge(v, DESTRUCTIVE_SPLIT, false);
+            }
+            if (!linked) {
+                if (v instanceof TransitStop)
+                    LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+                else if (v instanceof BikeRentalStationVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+                else if (v instanceof BikeParkVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+            }
+        }
+        if (closestEdges != null) {
+            LOG.info("Linked {} stations to the street network, {} of which were looked up again after nearby splits.",
+                stations.size(), nLookedUpAgain);
         }
     }
 
@@ -255,63 +308,34 @@ public class StreetSplitter {
         final boolean destructiveSplitting,
         boolean createSemiPermanentEdges
     ) {
-        // find nearby street edges
-        // TODO: we used to use an expanding-envelope search, which is more efficient in
-        // dense areas. but first let's see how inefficient this is. I suspect it's not too
-        // bad and the gains in simplicity are considerable.
-        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
-
-        Envelope env = new Envelope(vertex.getCoordinate());
-
-        // Perform a simple local equirectangular projection, so distances are expressed in degrees latitude.
-        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
-
-        // Expand more in the longitude direction than the latitude direction to account for converging meridians.
-        env.expandBy(radiusDeg / xscale, radiusDeg);
-
-        final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
-
-        // We sort the list of candidate edges by distance to the stop
-        // This should remove any issues with things coming out of the spatial index in different orders
-        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of the best distance
-        // so that we capture back edges and duplicate ways.
-        List<StreetEdge> candidateEdges = idx.query(env).stream()
-            .filter(
-                streetEdge -> streetEdge instanceof StreetEdge &&
-                    // Do not find SemiPermanentPartialStreetEdges if creating new SemiPermanentPartialStreetEdges.
-                    // Use only permanent StreetEdges instead
-                    (!createSemiPermanentEdges || !(streetEdge instanceof SemiPermanentPartialStreetEdge))
-            )
-            .map(edge -> (StreetEdge) edge)
-            // note: not filtering by radius here as distance calculation is expensive
-            // we do that below.
-            .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                // only link to edges still in the graph.
-                edge.getToVertex().getIncoming().contains(edge))
-            .collect(Collectors.toList());
-
-        // Make a map of distances to all edges.
-        final TIntDoubleMap distances = new TIntDoubleHashMap();
-        for (StreetEdge e : candidateEdges) {
-            distances.put(e.getId(), distance(vertex, e, xscale));
+        // Origins and destinations at a coordinate that was linked before are linked to the same edges again.
+        SnappingCache snappingCache = graph.snappingCache;
+        List<Object> snapKey = null;
+        if (snappingCache != null && vertex instanceof TemporaryStreetLocation && !destructiveSplitting &&
+                !createSemiPermanentEdges) {
+            snapKey = SnappingCache.key(vertex, traverseModeSet);
+            SnappingCache.Snap snap = snappingCache.get(snapKey);
+            if (snap != null && snap.isValid()) {
+                linkToSnap((TemporaryStreetLocation) vertex, snap, options);
+                return true;
+            }
         }
 
-        // Sort the list.
-        Collections.sort(candidateEdges, (o1, o2) -> {
-            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
-            // A Comparator must return an integer but our distances are doubles.
-            if (diff < 0) return -1;
-            if (diff > 0) return 1;
-            return 0;
-        });
-
         // find the closest candidate edges
-        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+        ClosestEdges closest = findClosestEdges(vertex, traverseModeSet, createSemiPermanentEdges, false);
+        if (closest.edges.isEmpty()) {
             // We only link to stops if we are searching for origin/destination and for that we need transitStopIndex.
             if (destructiveSplitting || transitStopIndex == null) {
                 return false;
             }
             LOG.debug("No street edge was found for {}", vertex);
+            final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+            final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+            final double DUPLICATE_WAY_EPSILON_DEGREES =
+                SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+            // Expand more in the longitude direction than the latitude direction to account for converging meridians.
+            Envelope env = new Envelope(vertex.getCoordinate());
+            env.expandBy(radiusDeg / xscale, radiusDeg);
             // We search for closest stops (since this is only used in origin/destination linking if no edges were found)
             // in the same way the closest edges are found.
             List<TransitStop> candidateStops = new ArrayList<>();
@@ -351,40 +375,144 @@ public class StreetSplitter {
                     LOG.debug("Linking vertex to stop: {}", stop.getName());
                     makeTemporaryEdges((TemporaryStreetLocation)vertex, stop, destructiveSplitting);
                 }
+                if (snapKey != null) {
+                    snappingCache.put(snapKey,
+                        new SnappingCache.Snap(Collections.emptyList(), Collections.emptyList(), bestStops));
+                }
                 return true;
             }
         } else {
+            List<LinearLocation> locations =
+                linkToClosestEdges(vertex, closest, options, destructiveSplitting, createSemiPermanentEdges);
+            if (snapKey != null) {
+                snappingCache.put(snapKey, new SnappingCache.Snap(closest.edges, locations, Collections.emptyList()));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The street edges a vertex is linked to: the closest one and every following one until there is a break of
+     * DUPLICATE_WAY_EPSILON_METERS, ordered by distance and then by edge id.
+     */
+    private static class ClosestEdges {
+
+        final List<StreetEdge> edges = new ArrayList<>();
+
+        /**
+         * The edges less than DUPLICATE_WAY_EPSILON_METERS past the break, if requested. Splitting one of these could
+         * change which edges are the closest ones, splitting an edge further away cannot.
+         */
+        final List<StreetEdge> neighbors = new ArrayList<>();
 
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
-
-            for (StreetEdge edge : bestEdges) {
-                linkToEdge(vertex, edge, xscale, options, destructiveSplitting, createSemiPermanentEdges);
+        /** The distance to the closest edge, in degrees latitude. */
+        double distance = Double.NaN;
+
+        /** @return true if none of the edges found has been split since. */
+        boolean isValid() {
+            for (StreetEdge edge : Iterables.concat(edges, neighbors)) {
+                if (!edge.getToVertex().getIncoming().contains(edge)) return false;
             }
+            return true;
+        }
+    }
 
-            // Warn if a linkage was made, but the linkage was suspiciously long.
-            if (vertex instanceof TransitStop) {
-                double distanceDegreesLatitude = distances.get(candidateEdges.get(0).getId());
-                int distanceMeters = (int)SphericalDistanceLibrary.degreesLatitudeToMeters(distanceDegreesLatitude);
-                if (distanceMeters > WARNING_DISTANCE_METERS) {
-                    // Registering an annotation but not logging because tests produce thousands of these warnings.
-                    graph.addBuilderAnnotation(new StopLinkedTooFar((TransitStop)vertex, distanceMeters));
+    /**
+     * Find the street edges closest to a vertex that allow one of the given modes. This only reads the spatial
+     * index and the graph, so it may be called from several threads as long as no edges are being split.
+     *
+     * @param withNeighbors If true, also keep the edges just past the closest ones, see ClosestEdges.neighbors.
+     */
+    private ClosestEdges findClosestEdges(
+        Vertex vertex,
+        TraverseModeSet traverseModeSet,
+        boolean createSemiPermanentEdges,
+        boolean withNeighbors
+    ) {
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+
+        // Perform a simple local equirectangular projection, so distances are expressed in degrees latitude.
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+
+        final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+
+        // The spatial index returns the candidate edges nearest first, only measuring the distance to the edges that
+        // might be closer than the ones already returned. We link to the closest edge and to every following one
+        // until there is a break of DUPLICATE_WAY_EPSILON_METERS, so that we capture back edges and duplicate ways.
+        // We do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
+        // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things
+        // can fall just inside or beyond the cutoff depending on floating-point operations.
+        PackedRTreeSpatialIndex.Nearest<Edge> nearestEdges = idx.nearest(
+            vertex.getLon(),
+            vertex.getLat(),
+            xscale,
+            withNeighbors ? radiusDeg + DUPLICATE_WAY_EPSILON_DEGREES : radiusDeg,
+            edge -> edge instanceof StreetEdge &&
+                // Do not find SemiPermanentPartialStreetEdges if creating new SemiPermanentPartialStreetEdges.
+                // Use only permanent StreetEdges instead
+                (!createSemiPermanentEdges || !(edge instanceof SemiPermanentPartialStreetEdge)) &&
+                ((StreetEdge) edge).canTraverse(traverseModeSet) &&
+                // only link to edges still in the graph.
+                edge.getToVertex().getIncoming().contains(edge),
+            edge -> distance(vertex, (StreetEdge) edge, xscale)
+        );
+        ClosestEdges closest = new ClosestEdges();
+        double lastDistance = Double.NaN;
+        double breakDistance = Double.NaN;
+        while (nearestEdges.hasNext()) {
+            StreetEdge edge = (StreetEdge) nearestEdges.next();
+            double distance = nearestEdges.distance();
+            if (Double.isNaN(breakDistance)) {
+                if (distance <= radiusDeg &&
+                    (closest.edges.isEmpty() || distance - lastDistance < DUPLICATE_WAY_EPSILON_DEGREES)) {
+                    closest.edges.add(edge);
+                    lastDistance = distance;
+                    continue;
                 }
+                breakDistance = distance;
             }
+            if (!withNeighbors || distance - breakDistance >= DUPLICATE_WAY_EPSILON_DEGREES) break;
+            closest.neighbors.add(edge);
+        }
+        if (!closest.edges.isEmpty()) {
+            // Edges at exactly the same distance, such as an edge and its back edge, come out of the index in an order
+            // that depends on how it was built. Linking to them in order of id makes the split vertices independent of it.
+            closest.edges.sort(Comparator
+                .comparingDouble((StreetEdge edge) -> distance(vertex, edge, xscale))
+                .thenComparingInt(Edge::getId));
+            closest.distance = distance(vertex, closest.edges.get(0), xscale);
+        }
+        return closest;
+    }
 
-            return true;
+    /**
+     * Link a vertex to the closest edges found for it.
+     * @return the location along each edge where the vertex was linked, in the equirectangular projection.
+     */
+    private List<LinearLocation> linkToClosestEdges(
+        Vertex vertex,
+        ClosestEdges closest,
+        RoutingRequest options,
+        final boolean destructiveSplitting,
+        boolean createSemiPermanentEdges
+    ) {
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        List<LinearLocation> locations = new ArrayList<>(closest.edges.size());
+        for (StreetEdge edge : closest.edges) {
+            LinearLocation ll = project(vertex, edge, xscale);
+            locations.add(ll);
+            linkToEdge(vertex, edge, ll, options, destructiveSplitting, createSemiPermanentEdges);
+        }
+
+        // Warn if a linkage was made, but the linkage was suspiciously long.
+        if (vertex instanceof TransitStop) {
+            int distanceMeters = (int)SphericalDistanceLibrary.degreesLatitudeToMeters(closest.distance);
+            if (distanceMeters > WARNING_DISTANCE_METERS) {
+                // Registering an annotation but not logging because tests produce thousands of these warnings.
+                graph.addBuilderAnnotation(new StopLinkedTooFar((TransitStop)vertex, distanceMeters));
+            }
         }
+        return locations;
     }
 
     /**
@@ -411,11 +539,36 @@ public class StreetSplitter {
         }
     }
 
+    /**
+     * Link a temporary origin or destination to the edges or stops that a vertex at the same coordinate was linked to
+     * before, without searching the spatial index again.
+     */
+    private void linkToSnap(TemporaryStreetLocation vertex, SnappingCache.Snap snap, RoutingRequest options) {
+        for (int i = 0; i < snap.edges.size(); i++) {
+            linkToEdge(vertex, snap.edges.get(i), snap.locations.get(i), options, NON_DESTRUCTIVE_SPLIT, false);
+        }
+        for (TransitStop stop : snap.stops) {
+            makeTemporaryEdges(vertex, stop, NON_DESTRUCTIVE_SPLIT);
+        }
+    }
+
+    /**
+     * Project a vertex onto an edge.
+     * @param xscale The longitude scale factor in Equirectangular projection.
+     * @return the location of the closest point of the edge, in the equirectangular projection.
+     */
+    private static LinearLocation project(Vertex vertex, StreetEdge edge, double xscale) {
+        // TODO: we've already built this line string, we should save it
+        LineString transformed = equirectangularProject(edge.getGeometry(), xscale);
+        LocationIndexedLine il = new LocationIndexedLine(transformed);
+        return il.project(new Coordinate(vertex.getLon() * xscale, vertex.getLat()));
+    }
+
     /**
      * Split the edge and link in the transit stop.
      * @param vertex An object of Vertex to be linked to an edge.
      * @param edge An object of StreetEdge to be linked to.
-     * @param xscale The longitude scale factor in Equirectangular projection.
+     * @param ll The location along the edge to link to, as returned by project.
      * @param options An object of RoutingRequest
      * @param destructiveSplitting If true splitting is permanent (Used when linking transit stops etc.) when
      *                             false the original edge is kept in the graph after creating split edges.
@@ -429,16 +582,12 @@ public class StreetSplitter {
     private void linkToEdge(
         Vertex vertex,
         StreetEdge edge,
-        double xscale,
+        LinearLocation ll,
         RoutingRequest options,
         final boolean destructiveSplitting,
         boolean createSemiPermanentEdges
     ) {
-        // TODO: we've already built this line string, we should save it
         LineString orig = edge.getGeometry();
-        LineString transformed = equirectangularProject(orig, xscale);
-        LocationIndexedLine il = new LocationIndexedLine(transformed);
-        LinearLocation ll = il.project(new Coordinate(vertex.getLon() * xscale, vertex.getLat()));
 
         // if we're very close to one end of the line or the other, or endwise, don't bother to split,
         // cut to the chase and link directly
@@ -574,16 +723,14 @@ public class StreetSplitter {
 
         if (destructiveSplitting || createSemiPermanentEdges) {
             // update indices of new edges
-            synchronized (this) {
-                // Note: Write operations are not synchronized in HashGridSpatialIndex, hence the lock.
-                idx.insert(edges.first.getGeometry(), edges.first);
-                idx.insert(edges.second.getGeometry(), edges.second);
-
-                // if destructively splitting, remove the edge from the index
-                if (destructiveSplitting) {
-                    idx.remove(edge.getGeometry().getEnvelopeInternal(), edge);
-                }
+            idx.insert(edges.first.getGeometry(), edges.first);
+            idx.insert(edges.second.getGeometry(), edges.second);
+
+            // if destructively splitting, remove the edge from the index
+            if (destructiveSplitting) {
+                idx.remove(edge.getGeometry().getEnvelopeInternal(), edge);
             }
+            graph.invalidateSnappingCache();
         }
 
         if (destructiveSplitting) {
@@ -640,6 +787,13 @@ public class StreetSplitter {
         }
     }
 
+    private static boolean isLinked(Vertex v) {
+        for (Edge e : v.getOutgoing()) {
+            if (e instanceof StreetBikeRentalLink || e instanceof StreetBikeParkLink) return true;
+        }
+        return false;
+    }
+
     /** Make bike park edges */
     private void makeBikeParkEdges(BikeParkVertex from, StreetVertex to, final boolean destructiveSplitting) {
         if (!destructiveSplitting) {
@@ -858,8 +1012,7 @@ public class StreetSplitter {
     }
 
     public void removeEdgeFromIdx (StreetEdge edge) {
-        synchronized (this) {
-            idx.remove(edge.getGeometry().getEnvelopeInternal(), edge);
-        }
+        idx.remove(edge.getGeometry().getEnvelopeInternal(), edge);
+        graph.invalidateSnappingCache();
     }
 }
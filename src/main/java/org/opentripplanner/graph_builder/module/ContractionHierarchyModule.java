@@ -0,0 +1,51 @@
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.algorithm.ch.ContractionHierarchy;
+import org.opentripplanner.routing.algorithm.ch.ContractionHierarchyBuilder;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Precomputes a contraction hierarchy over the street network for each of the configured street modes, so that
+ * street-only requests can be answered without an A* search. This must run after every module that changes the
+ * street network, since the hierarchy refers to the street edges as they are when it is built.
+ */
+public class ContractionHierarchyModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyModule.class);
+
+    private final List<TraverseMode> modes;
+
+    public ContractionHierarchyModule(List<TraverseMode> modes) {
+        this.modes = modes;
+    }
+
+    public List<String> provides() {
+        return Collections.emptyList();
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, GraphBuilderModuleSummary graphBuilderModuleSummary) {
+        for (TraverseMode mode : modes) {
+            LOG.info("Building contraction hierarchy for {}...", mode);
+            ContractionHierarchy hierarchy = ContractionHierarchyBuilder.build(graph, mode);
+            graph.contractionHierarchies.put(mode, hierarchy);
+        }
+    }
+
+    @Override
+    public void checkInputs() {
+        // no inputs to check
+    }
+}
@@ -11,17 +11,21 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
  * routing in long-distance mode.
  *
  * It will use the street network if OSM data has already been loaded into the graph.
- * Otherwise it will use straight-line distance between stops.
+ * Otherwise it will use straight-line distance between stops. The searches from different stops run in parallel.
  *
  * TODO make tests for this that are sensitive to the presence of trip patterns
  */
@@ -29,8 +33,14 @@ public class DirectTransferGenerator implements GraphBuilderModule {
 
     private static Logger LOG = LoggerFactory.getLogger(DirectTransferGenerator.class);
 
+    /** The nearby stops of this many stops are found at once before making their transfers. */
+    private static final int BATCH_SIZE = 1000;
+
     final double radiusMeters;
 
+    /** The number of threads searching for nearby stops. */
+    final int parallelism;
+
     public List<String> provides() {
         return Arrays.asList("linking");
     }
@@ -40,7 +50,12 @@ public class DirectTransferGenerator implements GraphBuilderModule {
     }
 
     public DirectTransferGenerator (double radiusMeters) {
+        this(radiusMeters, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DirectTransferGenerator (double radiusMeters, int parallelism) {
         this.radiusMeters = radiusMeters;
+        this.parallelism = parallelism;
     }
 
     @Override
@@ -58,42 +73,69 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> linkableStops = new ArrayList<>();
+        for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            if (ts0.isStreetLinkable()) linkableStops.add(ts0);
+        }
+
         int nTransfersTotal = 0;
         int nLinkableStops = 0;
 
-        for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+        // The searches only read the graph, and a search from one stop never uses the transfers made from other stops
+        // because transfers are only traversed right at the origin. So the nearby stops of a batch of stops are found
+        // concurrently, then the transfers of that batch are made one stop after the other, in the same order as they
+        // would be without threads.
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+        try {
+            for (int batchStart = 0; batchStart < linkableStops.size(); batchStart += BATCH_SIZE) {
+                List<TransitStop> batch = linkableStops.subList(batchStart,
+                        Math.min(batchStart + BATCH_SIZE, linkableStops.size()));
+                List<Set<NearbyStopFinder.StopAtDistance>> nearbyStops;
+                try {
+                    nearbyStops = forkJoinPool.submit(() -> batch.parallelStream()
+                            .map(nearbyStopFinder::findNearbyStopsConsideringPatterns)
+                            .collect(Collectors.toList())
+                    ).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException("Finding stops near transit stops failed.", e);
+                }
 
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
-            }
-            LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
-
-            /* Determine the set of stops that are already reachable via other pathways or transfers */
-            Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
-            for (Edge e : ts0.getOutgoing()) {
-                if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
-                    if (e.getToVertex() instanceof TransitStop) {
-                        TransitStop to = (TransitStop) e.getToVertex();
-                        pathwayDestinations.add(to);
+                for (int i = 0; i < batch.size(); i++) {
+                    TransitStop ts0 = batch.get(i);
+                    if (++nLinkableStops % 1000 == 0) {
+                        LOG.info("Linked {} stops", nLinkableStops);
+                    }
+                    LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
+
+                    /* Determine the set of stops that are already reachable via other pathways or transfers */
+                    Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
+                    for (Edge e : ts0.getOutgoing()) {
+                        if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
+                            if (e.getToVertex() instanceof TransitStop) {
+                                TransitStop to = (TransitStop) e.getToVertex();
+                                pathwayDestinations.add(to);
+                            }
+                        }
                     }
-                }
-            }
 
-            /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
-            int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
-                /* Skip the origin stop, loop transfers are not needed. */
-                if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
-                new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
-                n += 1;
-            }
-            LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), n);
-            if (n == 0) {
-                LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
+                    /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
+                    int n = 0;
+                    for (NearbyStopFinder.StopAtDistance sd : nearbyStops.get(i)) {
+                        /* Skip the origin stop, loop transfers are not needed. */
+                        if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+                        new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
+                        n += 1;
+                    }
+                    LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), n);
+                    if (n == 0) {
+                        LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
+                    }
+                    nTransfersTotal += n;
+                }
             }
-            nTransfersTotal += n;
+        } finally {
+            forkJoinPool.shutdown();
         }
         LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, nLinkableStops);
         graph.hasDirectTransfers = true;
@@ -4,6 +4,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -27,8 +29,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    /* All nodes used in ways/areas keyed by their OSM ID */
+    private final OSMNodeStore nodesById;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -66,10 +68,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<Long> areaWayIds = new HashSet<Long>();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -102,6 +104,17 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    public OSMDatabase() {
+        this(OSMNodeStore.Storage.HEAP);
+    }
+
+    /**
+     * @param nodeStorage Where to keep the nodes of the loaded ways, see OSMNodeStore.
+     */
+    public OSMDatabase(OSMNodeStore.Storage nodeStorage) {
+        nodesById = new OSMNodeStore(nodeStorage);
+    }
+
     public OSMNode getNode(Long nodeId) {
         return nodesById.get(nodeId);
     }
@@ -184,7 +197,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         if (nodesById.containsKey(node.getId()))
             return;
 
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
 
         if (nodesById.size() % 100000 == 0)
             LOG.debug("nodes=" + nodesById.size());
@@ -283,6 +296,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
         markNodesForKeeping(waysById.values(), waysNodeIds);
         markNodesForKeeping(areaWaysById.values(), areaNodeIds);
+        nodesById.ensureCapacity(waysNodeIds.size() + areaNodeIds.size());
     }
 
     /**
@@ -541,7 +555,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         node.setId(virtualNodeId);
         virtualNodeId--;
         waysNodeIds.add(node.getId());
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
         return node;
     }
 
@@ -569,13 +583,15 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
             List<Long> nodes = way.getNodeRefs();
             if (nodes.size() > 1) {
-                nodeSet.addAll(nodes);
+                for (int i = 0; i < nodes.size(); i++) {
+                    nodeSet.add(nodes.get(i));
+                }
             }
         }
     }
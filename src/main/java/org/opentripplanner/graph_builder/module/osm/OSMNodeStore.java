@@ -0,0 +1,248 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The OSM nodes kept while loading OSM data, keyed by their OSM ID.
+ *
+ * With HEAP storage every node is kept as an OSMNode object, as OSMDatabase always did. Nearly all the nodes of a
+ * street network are plain points along ways without any tags though, and as objects in a map each of them costs
+ * around a hundred bytes of heap. With OFF_HEAP or MAPPED storage only the nodes with tags (and the virtual nodes
+ * created while building) are kept as objects. The coordinates of the others are rounded to 1e-7 degrees, the
+ * precision of OSM data, and packed into a primitive hash table outside the Java heap, using 32 bytes per node.
+ * OFF_HEAP keeps that table in direct memory (see -XX:MaxDirectMemorySize), MAPPED keeps it in a temporary
+ * memory-mapped file, which the OS can page out when memory is short. An OSMNode is created again each time one of
+ * these nodes is requested, which is why OSMNode equality is based on the OSM ID.
+ */
+public class OSMNodeStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OSMNodeStore.class);
+
+    public enum Storage {
+        HEAP, OFF_HEAP, MAPPED
+    }
+
+    /** Coordinates are stored as integer multiples of this many degrees. */
+    private static final double COORDINATE_PRECISION = 1e-7;
+
+    private final TLongObjectMap<OSMNode> objects = new TLongObjectHashMap<>();
+
+    /** The coordinates of the nodes without tags, or null if all nodes are kept as objects. */
+    private final CoordinateTable coordinates;
+
+    public OSMNodeStore(Storage storage) {
+        this.coordinates = storage == Storage.HEAP ? null : new CoordinateTable(storage == Storage.MAPPED);
+    }
+
+    /** Store the given node, replacing any node with the same ID. */
+    public void put(OSMNode node) {
+        // Virtual nodes have negative IDs. They are few, and their coordinates are computed so they are kept exactly.
+        if (coordinates == null || node.getTags() != null || node.getId() < 0) {
+            objects.put(node.getId(), node);
+        } else {
+            int lat = (int) Math.round(node.lat / COORDINATE_PRECISION);
+            int lon = (int) Math.round(node.lon / COORDINATE_PRECISION);
+            coordinates.put(node.getId(), ((long) lat << 32) | (lon & 0xFFFFFFFFL));
+        }
+    }
+
+    /** @return the node with the given ID, or null if there is none. */
+    public OSMNode get(long id) {
+        OSMNode node = objects.get(id);
+        if (node != null || coordinates == null) {
+            return node;
+        }
+        long slot = coordinates.find(id);
+        if (slot < 0) {
+            return null;
+        }
+        long packed = coordinates.value(slot);
+        node = new OSMNode();
+        node.setId(id);
+        node.lat = (int) (packed >> 32) * COORDINATE_PRECISION;
+        node.lon = (int) packed * COORDINATE_PRECISION;
+        return node;
+    }
+
+    public boolean containsKey(long id) {
+        return objects.containsKey(id) || (coordinates != null && coordinates.find(id) >= 0);
+    }
+
+    public long size() {
+        return objects.size() + (coordinates == null ? 0 : coordinates.size);
+    }
+
+    /** Make room for the given total number of nodes, to avoid growing the table several times while loading. */
+    public void ensureCapacity(long expectedSize) {
+        if (coordinates != null) {
+            coordinates.ensureCapacity(expectedSize);
+        }
+    }
+
+    /**
+     * An open-addressing hash table from long keys to long values, with linear probing, stored in direct or
+     * memory-mapped buffers of at most 1 GiB each. Each slot holds a key and a value, and a zero key marks an empty
+     * slot, since newly allocated buffers are filled with zeros. The key zero itself is stored apart.
+     */
+    private static class CoordinateTable {
+
+        /** Each buffer holds 2^26 slots of 16 bytes, that is 1 GiB. */
+        private static final int SEGMENT_BITS = 26;
+
+        private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+        private static final long MIN_CAPACITY = 1 << 16;
+
+        private final boolean mapped;
+
+        private LongBuffer[] segments;
+
+        /** The number of slots, always a power of two. */
+        private long capacity;
+
+        private long size;
+
+        private boolean hasZeroKey;
+
+        private long zeroKeyValue;
+
+        CoordinateTable(boolean mapped) {
+            this.mapped = mapped;
+            allocate(MIN_CAPACITY);
+        }
+
+        /** @return the slot holding the given key, Long.MAX_VALUE for the key zero, or -1 if there is none. */
+        long find(long key) {
+            if (key == 0) {
+                return hasZeroKey ? Long.MAX_VALUE : -1;
+            }
+            long mask = capacity - 1;
+            for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long k = key(slot);
+                if (k == key) return slot;
+                if (k == 0) return -1;
+            }
+        }
+
+        long value(long slot) {
+            if (slot == Long.MAX_VALUE) return zeroKeyValue;
+            return segments[(int) (slot >>> SEGMENT_BITS)].get((int) (slot & SEGMENT_MASK) * 2 + 1);
+        }
+
+        void put(long key, long value) {
+            if (key == 0) {
+                if (!hasZeroKey) size++;
+                hasZeroKey = true;
+                zeroKeyValue = value;
+                return;
+            }
+            // Keep the table at most half full, so that probe sequences stay short.
+            if ((size + 1) * 2 > capacity) {
+                resize(capacity * 2);
+            }
+            if (insert(key, value)) {
+                size++;
+            }
+        }
+
+        void ensureCapacity(long expectedSize) {
+            long newCapacity = capacity;
+            while (expectedSize * 2 > newCapacity) {
+                newCapacity *= 2;
+            }
+            if (newCapacity > capacity) {
+                resize(newCapacity);
+            }
+        }
+
+        /** @return true if the key was not in the table yet. */
+        private boolean insert(long key, long value) {
+            long mask = capacity - 1;
+            for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                LongBuffer segment = segments[(int) (slot >>> SEGMENT_BITS)];
+                int index = (int) (slot & SEGMENT_MASK) * 2;
+                long k = segment.get(index);
+                if (k == 0 || k == key) {
+                    segment.put(index, key);
+                    segment.put(index + 1, value);
+                    return k == 0;
+                }
+            }
+        }
+
+        private long key(long slot) {
+            return segments[(int) (slot >>> SEGMENT_BITS)].get((int) (slot & SEGMENT_MASK) * 2);
+        }
+
+        private void resize(long newCapacity) {
+            LongBuffer[] oldSegments = segments;
+            long oldCapacity = capacity;
+            allocate(newCapacity);
+            for (long slot = 0; slot < oldCapacity; slot++) {
+                LongBuffer segment = oldSegments[(int) (slot >>> SEGMENT_BITS)];
+                int index = (int) (slot & SEGMENT_MASK) * 2;
+                long k = segment.get(index);
+                if (k != 0) {
+                    insert(k, segment.get(index + 1));
+                }
+            }
+            LOG.debug("Resized OSM node coordinate table to {} slots.", newCapacity);
+        }
+
+        private void allocate(long newCapacity) {
+            long slotsPerSegment = Math.min(newCapacity, 1L << SEGMENT_BITS);
+            int nSegments = (int) (newCapacity / slotsPerSegment);
+            long segmentBytes = slotsPerSegment * 16;
+            LongBuffer[] newSegments = new LongBuffer[nSegments];
+            if (mapped) {
+                try {
+                    File file = Files.createTempFile("otp-osm-nodes", ".bin").toFile();
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE)) {
+                        for (int i = 0; i < nSegments; i++) {
+                            newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes,
+                                    segmentBytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+                        }
+                    }
+                    // The mappings stay valid once the file is deleted, and the space is freed when they are
+                    // garbage collected. Some platforms do not allow deleting a mapped file.
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not map a temporary file for OSM node coordinates.", e);
+                }
+            } else {
+                for (int i = 0; i < nSegments; i++) {
+                    newSegments[i] = ByteBuffer.allocateDirect((int) segmentBytes).order(ByteOrder.nativeOrder())
+                            .asLongBuffer();
+                }
+            }
+            segments = newSegments;
+            capacity = newCapacity;
+        }
+
+        /** The finalizer of MurmurHash3, to spread sequential OSM IDs over the whole table. */
+        private static long hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            key *= 0xc4ceb93fe1a85ec3L;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+}
@@ -125,6 +125,11 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     public boolean includeOsmTags = false;
 
+    /**
+     * Where the OSM nodes are kept while building, see OSMNodeStore.
+     */
+    public OSMNodeStore.Storage nodeStorage = OSMNodeStore.Storage.HEAP;
+
     // Areas where travel with the Micromobility mode is forbidden.
     private PreparedGeometry restrictedMicromobilityTravelGeometry;
 
@@ -182,7 +187,7 @@ public class OpenStreetMapModule implements GraphBuilderModule {
     @Override
     public void buildGraph(Graph graph, GraphBuilderModuleSummary graphBuilderModuleSummary) {
         walkLTSGenerator = new WalkComfortCalculator(walkConfig);
-        OSMDatabase osmdb = new OSMDatabase();
+        OSMDatabase osmdb = new OSMDatabase(nodeStorage);
         Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             GraphBuilderTaskSummary providerGatherTask = graphBuilderModuleSummary.addSubTask(
@@ -0,0 +1,247 @@
+package org.opentripplanner.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.Execution;
+import graphql.execution.ExecutionStrategy;
+import graphql.execution.SimpleExecutionStrategy;
+import graphql.language.Definition;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.TypeName;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLInterfaceType;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.validation.Validator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs GraphQL queries against the index schema. Clients send the same few query strings over and over, with only
+ * the variables changing, so the parsed and validated documents of recent queries are kept and only executed again.
+ *
+ * Before a query is executed its depth (the deepest nesting of fields) and its complexity are checked against the
+ * given limits. The complexity is the number of fields the query selects, where the fields below a list count
+ * LIST_FACTOR times, since they are resolved once for each element of the list: a query for the stop times of every
+ * trip of every pattern of a route costs a hundred times as much as one for the stop times of a single trip.
+ */
+public class GraphQLQueryExecutor {
+
+    /** How many parsed and validated queries to keep. */
+    private static final int DOCUMENT_CACHE_SIZE = 500;
+
+    /** The assumed number of elements in each list, when estimating the complexity of a query. */
+    public static final int LIST_FACTOR = 10;
+
+    /**
+     * How many fields to walk through at most when only the depth is limited. Fragments spread several times in each
+     * other make the number of fields grow exponentially with the length of the query.
+     */
+    private static final int MAX_FIELDS = 100000;
+
+    /** Thrown when a query is deeper or more complex than allowed. */
+    public static class QueryRejectedException extends RuntimeException {
+        public QueryRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private final GraphQLSchema schema;
+
+    private final ExecutionStrategy queryStrategy;
+
+    /** Produces the usual error results for queries that do not parse or validate, which are not cached. */
+    private final GraphQL graphQL;
+
+    private final Cache<String, Document> documents =
+            CacheBuilder.newBuilder().maximumSize(DOCUMENT_CACHE_SIZE).build();
+
+    public GraphQLQueryExecutor(GraphQLSchema schema, ExecutionStrategy queryStrategy) {
+        this.schema = schema;
+        this.queryStrategy = queryStrategy;
+        this.graphQL = new GraphQL(schema, queryStrategy);
+    }
+
+    /**
+     * @param maxDepth the maximum depth of the query, or 0 for no limit.
+     * @param maxComplexity the maximum complexity of the query, or 0 for no limit.
+     * @param responseCache where to look up and store the result, or null to always execute the query.
+     * @param snapshot the current realtime timetable snapshot, which cached results must have been computed from.
+     * @throws QueryRejectedException if the query is over one of the limits.
+     */
+    public ExecutionResult execute(String query, String operationName, Map<String, Object> variables,
+                                   int maxDepth, int maxComplexity, GraphQLResponseCache responseCache,
+                                   Object snapshot) {
+        if (variables == null) {
+            variables = Collections.emptyMap();
+        }
+        Document document = documents.getIfPresent(query);
+        if (document == null) {
+            try {
+                document = new Parser().parseDocument(query);
+            } catch (RuntimeException e) {
+                return graphQL.execute(query, operationName, null, variables);
+            }
+            if (!new Validator().validateDocument(schema, document).isEmpty()) {
+                return graphQL.execute(query, operationName, null, variables);
+            }
+            documents.put(query, document);
+        }
+        if (maxDepth > 0 || maxComplexity > 0) {
+            checkLimits(document, operationName, maxDepth, maxComplexity);
+        }
+        List<Object> key = null;
+        if (responseCache != null) {
+            key = GraphQLResponseCache.key(query, operationName, variables);
+            ExecutionResult result = responseCache.get(key, snapshot);
+            if (result != null) {
+                return result;
+            }
+        }
+        ExecutionResult result = new Execution(queryStrategy, new SimpleExecutionStrategy())
+                .execute(schema, null, document, operationName, variables);
+        if (responseCache != null) {
+            responseCache.put(key, snapshot, result);
+        }
+        return result;
+    }
+
+    private void checkLimits(Document document, String operationName, int maxDepth, int maxComplexity) {
+        Map<String, FragmentDefinition> fragments = new HashMap<>();
+        OperationDefinition operation = null;
+        for (Definition definition : document.getDefinitions()) {
+            if (definition instanceof FragmentDefinition) {
+                FragmentDefinition fragment = (FragmentDefinition) definition;
+                fragments.put(fragment.getName(), fragment);
+            } else if (definition instanceof OperationDefinition) {
+                OperationDefinition candidate = (OperationDefinition) definition;
+                if (operation == null && (operationName == null || operationName.equals(candidate.getName()))) {
+                    operation = candidate;
+                }
+            }
+        }
+        if (operation == null) {
+            // Execution reports the unknown operation.
+            return;
+        }
+        Cost cost = new Cost(schema, fragments, maxDepth, maxComplexity);
+        GraphQLType rootType = operation.getOperation() == OperationDefinition.Operation.MUTATION
+                ? schema.getMutationType() : schema.getQueryType();
+        long complexity = cost.of(operation.getSelectionSet(), rootType, 1);
+        if (maxDepth > 0 && cost.depth > maxDepth) {
+            throw new QueryRejectedException(String.format("The query is nested more than %d levels deep.",
+                    maxDepth));
+        }
+        if (maxComplexity > 0 && complexity > maxComplexity) {
+            throw new QueryRejectedException(String.format(
+                    "The query has a complexity of %d, more than the maximum of %d.", complexity, maxComplexity));
+        }
+    }
+
+    /** Walks the selections of a query, following fragments, to measure its depth and complexity. */
+    private static class Cost {
+
+        /** Complexities are capped at this, to keep deeply nested lists from overflowing. */
+        private static final long MAX_COMPLEXITY = Long.MAX_VALUE / (4 * LIST_FACTOR);
+
+        private final GraphQLSchema schema;
+
+        private final Map<String, FragmentDefinition> fragments;
+
+        /** Where to stop descending, so that even cyclic or very deep fragments end quickly. */
+        private final int depthLimit;
+
+        /** How many fields to walk through before giving up. Each field adds at least one to the complexity. */
+        private final long maxFields;
+
+        private long fields = 0;
+
+        int depth = 0;
+
+        Cost(GraphQLSchema schema, Map<String, FragmentDefinition> fragments, int maxDepth, int maxComplexity) {
+            this.schema = schema;
+            this.fragments = fragments;
+            this.depthLimit = maxDepth > 0 ? maxDepth + 1 : 100;
+            this.maxFields = maxComplexity > 0 ? maxComplexity : MAX_FIELDS;
+        }
+
+        /** @return the complexity of the given selections, on an object of the given type (null if unknown). */
+        long of(SelectionSet selectionSet, GraphQLType type, int level) {
+            if (selectionSet == null || level > depthLimit) {
+                return 0;
+            }
+            long complexity = 0;
+            for (Selection selection : selectionSet.getSelections()) {
+                if (selection instanceof Field) {
+                    Field field = (Field) selection;
+                    if (++fields > maxFields) {
+                        throw new QueryRejectedException(String.format("The query selects more than %d fields.",
+                                maxFields));
+                    }
+                    depth = Math.max(depth, level);
+                    GraphQLType fieldType = fieldType(type, field.getName());
+                    long children = of(field.getSelectionSet(), unwrap(fieldType), level + 1);
+                    complexity = Math.min(MAX_COMPLEXITY,
+                            complexity + 1 + (isList(fieldType) ? LIST_FACTOR : 1) * children);
+                } else if (selection instanceof FragmentSpread) {
+                    FragmentDefinition fragment = fragments.get(((FragmentSpread) selection).getName());
+                    if (fragment != null) {
+                        complexity = Math.min(MAX_COMPLEXITY, complexity + of(fragment.getSelectionSet(),
+                                typeCondition(fragment.getTypeCondition(), type), level));
+                    }
+                } else if (selection instanceof InlineFragment) {
+                    InlineFragment fragment = (InlineFragment) selection;
+                    complexity = Math.min(MAX_COMPLEXITY, complexity + of(fragment.getSelectionSet(),
+                            typeCondition(fragment.getTypeCondition(), type), level));
+                }
+            }
+            return complexity;
+        }
+
+        private GraphQLType typeCondition(TypeName typeName, GraphQLType type) {
+            return typeName == null ? type : schema.getType(typeName.getName());
+        }
+
+        private static GraphQLType fieldType(GraphQLType type, String name) {
+            GraphQLFieldDefinition definition = null;
+            if (type instanceof GraphQLObjectType) {
+                definition = ((GraphQLObjectType) type).getFieldDefinition(name);
+            } else if (type instanceof GraphQLInterfaceType) {
+                definition = ((GraphQLInterfaceType) type).getFieldDefinition(name);
+            }
+            return definition == null ? null : definition.getType();
+        }
+
+        private static boolean isList(GraphQLType type) {
+            if (type instanceof GraphQLNonNull) {
+                type = ((GraphQLNonNull) type).getWrappedType();
+            }
+            return type instanceof GraphQLList;
+        }
+
+        private static GraphQLType unwrap(GraphQLType type) {
+            while (type instanceof GraphQLNonNull || type instanceof GraphQLList) {
+                type = type instanceof GraphQLNonNull ? ((GraphQLNonNull) type).getWrappedType()
+                        : ((GraphQLList) type).getWrappedType();
+            }
+            return type;
+        }
+    }
+
+}
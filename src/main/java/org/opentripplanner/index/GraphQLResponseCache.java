@@ -0,0 +1,67 @@
+package org.opentripplanner.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import graphql.ExecutionResult;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short-lived cache of GraphQL index responses, shared by all requests on one graph. Departure boards and maps
+ * poll the same queries with the same variables every few seconds, and each of those queries may walk thousands of
+ * trip times. A response is reused for at most the configured number of seconds, and only as long as the realtime
+ * timetable snapshot it was computed from is still the current one, so that realtime updates show up as soon as
+ * they are committed. Only responses without errors are kept.
+ */
+public class GraphQLResponseCache {
+
+    private static class Entry {
+
+        /** The timetable snapshot the response was computed from, or null if there was none. */
+        final Object snapshot;
+
+        final ExecutionResult result;
+
+        Entry(Object snapshot, ExecutionResult result) {
+            this.snapshot = snapshot;
+            this.result = result;
+        }
+    }
+
+    private final Cache<List<Object>, Entry> cache;
+
+    public GraphQLResponseCache(int seconds, int maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(seconds, TimeUnit.SECONDS)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /** @return the cached result of the given query, or null if there is none for the given timetable snapshot. */
+    ExecutionResult get(List<Object> key, Object snapshot) {
+        Entry entry = cache.getIfPresent(key);
+        return entry != null && entry.snapshot == snapshot ? entry.result : null;
+    }
+
+    void put(List<Object> key, Object snapshot, ExecutionResult result) {
+        if (result.getErrors().isEmpty()) {
+            cache.put(key, new Entry(snapshot, result));
+        }
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    static List<Object> key(String query, String operationName, Map<String, Object> variables) {
+        return Arrays.asList(query, operationName, variables);
+    }
+
+}
@@ -9,6 +9,22 @@ public class OSMNode extends OSMWithTags {
         return "osm node " + id;
     }
 
+    /**
+     * Nodes are equal when they have the same OSM ID. OSMDatabase may return a new copy of a node each time it is
+     * requested (see OSMNodeStore), so they cannot be compared by identity.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof OSMNode)) return false;
+        return id == ((OSMNode) other).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
     /**
      * Returns the capacity of this node if defined, or 0.
      * 
@@ -1,11 +1,15 @@
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import gnu.trove.TDecorators;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.List;
 
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> nodes = new ArrayList<Long>();
+    /* The node IDs are kept in a primitive list, which takes a third of the memory of a list of Longs. */
+    private TLongList nodes = new TLongArrayList(4);
 
     public void addNodeRef(OSMNodeRef nodeRef) {
         nodes.add(nodeRef.getRef());
@@ -16,11 +20,14 @@ public class OSMWay extends OSMWithTags {
     }
 
     public void addNodeRef(long nodeRef, int index) {
-        nodes.add(index, nodeRef);
+        nodes.insert(index, nodeRef);
     }
 
+    /**
+     * @return a view of the node IDs of this way. It boxes the IDs as they are read, so compare them with equals.
+     */
     public List<Long> getNodeRefs() {
-        return nodes;
+        return TDecorators.wrap(nodes);
     }
 
     public String toString() {
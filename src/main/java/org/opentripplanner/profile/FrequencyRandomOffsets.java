@@ -13,11 +13,24 @@ public class FrequencyRandomOffsets {
     public final TIntObjectMap<int[]> offsets = new TIntObjectHashMap<>();
     public final RaptorWorkerData data;
 
-    /** The mersenne twister is a higher quality random number generator than the one included with Java */
-    private MersenneTwister mt = new MersenneTwister();
+    /**
+     * The mersenne twister is a higher quality random number generator than the one included with Java.
+     * Null in copies, which cannot be randomized.
+     */
+    private final MersenneTwister mt;
 
     public FrequencyRandomOffsets(RaptorWorkerData data) {
+        this(data, new MersenneTwister());
+    }
+
+    /** Create offsets drawn from a seeded generator, so that a sequence of draws is reproducible. */
+    public FrequencyRandomOffsets(RaptorWorkerData data, long seed) {
+        this(data, new MersenneTwister(seed));
+    }
+
+    private FrequencyRandomOffsets(RaptorWorkerData data, MersenneTwister mt) {
         this.data = data;
+        this.mt = mt;
 
         if (!data.hasFrequencies)
             return;
@@ -28,6 +41,20 @@ public class FrequencyRandomOffsets {
                 });
     }
 
+    /**
+     * @return an immutable snapshot of the current offsets, which is not affected by later calls to randomize. This is
+     * cheap since randomize replaces the offset arrays rather than modifying them.
+     */
+    public FrequencyRandomOffsets copy () {
+        return new FrequencyRandomOffsets(this);
+    }
+
+    private FrequencyRandomOffsets(FrequencyRandomOffsets other) {
+        this.data = other.data;
+        this.mt = null;
+        offsets.putAll(other.offsets);
+    }
+
     public void randomize () {
         for (TIntObjectIterator<int[]> it = offsets.iterator(); it.hasNext();) {
             it.advance();
@@ -12,9 +12,14 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.IntStream;
 
 /**
@@ -28,6 +33,11 @@ import java.util.stream.IntStream;
  * or struct-like byte array using something like the FastSerialization library).
  *
  * This implements the RAPTOR algorithm; see http://research.microsoft.com/pubs/156567/raptor_alenex.pdf
+ *
+ * The scheduled range-RAPTOR search reuses its state from one departure minute to the next, so it always runs on the
+ * calling thread. The frequency (Monte Carlo) searches for each minute only start from a copy of that state, so they
+ * can be run in parallel, see the parallelism field. Their random offsets are drawn in sequence on the calling thread
+ * and each search writes to its own row of results, so the output does not depend on the parallelism.
  */
 public class RaptorWorker {
 
@@ -62,6 +72,15 @@ public class RaptorWorker {
     /** If there are no schedules, the number of Monte Carlo draws to take */
     public static final int TOTAL_MONTE_CARLO_COUNT = 99;
 
+    /** Shared by all workers, the parallelism field of each worker limits how many of its searches run at once. */
+    private static final ForkJoinPool frequencySearchPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The maximum number of frequency searches of this worker that may run at the same time. With the default of 1
+     * all searches run on the calling thread. Higher values make single-point requests use several cores.
+     */
+    public int parallelism = 1;
+
     int max_time = 0;
     int round = 0;
     List<int[]> timesPerStopPerRound;
@@ -109,10 +128,17 @@ public class RaptorWorker {
 
     private ProfileRequest req;
 
-    private long totalPropagationTime = 0;
+    /** Shared with the scratch workers running frequency searches. */
+    private final LongAdder totalPropagationTime;
 
     private FrequencyRandomOffsets offsets;
 
+    /**
+     * The boarding assumption for frequency trips in the current search. This is usually the one from the request, but
+     * the extrema searches use the best and worst case.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -127,6 +153,29 @@ public class RaptorWorker {
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
+        boardingAssumption = req.boardingAssumption;
+        totalPropagationTime = new LongAdder();
+    }
+
+    /**
+     * Create a worker holding the scratch state for a single frequency search, sharing the data and request of the
+     * given worker. The best times arrays are supplied by the caller for each search.
+     */
+    private RaptorWorker(RaptorWorker parent, FrequencyRandomOffsets offsets,
+            RaptorWorkerTimetable.BoardingAssumption boardingAssumption) {
+        this.data = parent.data;
+        this.req = parent.req;
+        this.offsets = offsets;
+        this.boardingAssumption = boardingAssumption;
+        this.totalPropagationTime = parent.totalPropagationTime;
+        allStopsTouched = new BitSet(data.nStops);
+        stopsTouched = new BitSet(data.nStops);
+        patternsTouched = new BitSet(data.nPatterns);
+    }
+
+    /** Seed the random number generator used for Monte Carlo draws, making the results reproducible. */
+    public void setRandomSeed(long seed) {
+        offsets = new FrequencyRandomOffsets(data, seed);
     }
 
     public void advance () {
@@ -195,6 +244,21 @@ public class RaptorWorker {
         // current iteration
         int iteration = 0;
 
+        // frequency searches running in parallel, if any
+        Semaphore permits = parallelism > 1 ? new Semaphore(parallelism) : null;
+        List<ForkJoinTask<?>> frequencySearches = new ArrayList<>();
+
+        // On the calling thread each search is done before the next one starts, so they all use the same scratch
+        // worker, random offsets and copies of the scheduled state.
+        RaptorWorker sequentialScratch = null;
+        int[] sequentialBestTimes = null, sequentialBestNonTransferTimes = null, sequentialPreviousPatterns = null;
+        if (permits == null && data.hasFrequencies) {
+            sequentialScratch = new RaptorWorker(this, offsets, req.boardingAssumption);
+            sequentialBestTimes = new int[data.nStops];
+            sequentialBestNonTransferTimes = new int[data.nStops];
+            sequentialPreviousPatterns = new int[data.nStops];
+        }
+
         // FIXME this should be changed to tolerate a zero-width time range
         for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
             if (n % 15 == 0) {
@@ -215,52 +279,62 @@ public class RaptorWorker {
             // run the frequency searches
             if (data.hasFrequencies) {
                 for (int i = 0; i < monteCarloDraws + 2; i++) {
-                    // make copies for just this search. We need copies because we can't use dynamic
-                    // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
-
                     // special cases: calculate the best and the worst cases as well
                     // Note that this (intentionally) does not affect searches where the user has requested
                     // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
+                    RaptorWorkerTimetable.BoardingAssumption searchBoardingAssumption = req.boardingAssumption;
 
                     if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                        searchBoardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
                         // don't include extrema in averages
                         includeIterationInAverages[iteration] = false;
                     }
                     else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                        searchBoardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
                         // don't include extrema in averages
                         includeIterationInAverages[iteration] = false;
                     }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        // use a new Monte Carlo draw each time
+                    else if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+                        // use a new Monte Carlo draw each time, always in the same order
                         // included in averages by default
                         offsets.randomize();
 
-                    this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
-                            previousPatternsCopy);
-
-                    req.boardingAssumption = requestedBoardingAssumption;
-
-                    // do propagation
+                    // the search updates timesAtTargetsEachIteration directly because it has a reference into the array.
                     int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
                     System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
                             scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
-
-                    // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
+
+                    // make copies for just this search. We need copies because we can't use dynamic
+                    // programming/range-raptor with randomized schedules
+                    if (permits == null) {
+                        System.arraycopy(bestTimes, 0, sequentialBestTimes, 0, bestTimes.length);
+                        System.arraycopy(bestNonTransferTimes, 0, sequentialBestNonTransferTimes, 0,
+                                bestNonTransferTimes.length);
+                        System.arraycopy(previousPatterns, 0, sequentialPreviousPatterns, 0, previousPatterns.length);
+                        sequentialScratch.boardingAssumption = searchBoardingAssumption;
+                        sequentialScratch.runFrequencySearch(departureTime, sequentialBestTimes,
+                                sequentialBestNonTransferTimes, sequentialPreviousPatterns, frequencyTimesAtTargets);
+                        continue;
                     }
+
+                    // Bound the number of searches waiting to run, each of them holds copies of the router state.
+                    permits.acquireUninterruptibly();
+                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
+                    int[] bestNonTransferTimesCopy = Arrays
+                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
+                    int[] previousPatternsCopy = Arrays
+                            .copyOf(previousPatterns, previousPatterns.length);
+
+                    RaptorWorker scratch = new RaptorWorker(this, offsets.copy(), searchBoardingAssumption);
+                    final int dt = departureTime;
+                    frequencySearches.add(frequencySearchPool.submit(() -> {
+                        try {
+                            scratch.runFrequencySearch(dt, bestTimesCopy, bestNonTransferTimesCopy,
+                                    previousPatternsCopy, frequencyTimesAtTargets);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
                 }
             } else {
                 final int dt = departureTime;
@@ -270,6 +344,11 @@ public class RaptorWorker {
             }
         }
 
+        // wait for the parallel searches to complete, rethrowing any exception
+        for (ForkJoinTask<?> frequencySearch : frequencySearches) {
+            frequencySearch.join();
+        }
+
         // make sure we filled the array, otherwise results are garbage.
         // This implies a bug in OTP, but it has happened in the past when we did
         // not set the number of iterations correctly.
@@ -279,10 +358,12 @@ public class RaptorWorker {
 
         long calcTime = System.currentTimeMillis() - beginCalcTime;
         LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
+        // with parallel searches the propagation time is summed over all threads, it can exceed the calc time
+        long propagationTime = totalPropagationTime.sum();
+        LOG.info("  propagation {}sec", propagationTime / 1000.0);
+        LOG.info("  raptor {}sec", (calcTime - propagationTime) / 1000.0);
+        ts.propagation = (int) propagationTime;
+        ts.transitSearch = (int) Math.max(0, calcTime - propagationTime);
         //dumpVariableByte(timesAtTargetsEachMinute);
         // we can use min_max here as we've also run it once with best case and worst case board,
         // so the best and worst cases are meaningful.
@@ -335,6 +416,22 @@ public class RaptorWorker {
         }
     }
 
+    /**
+     * Run one frequency search starting from copies of the scheduled search state, and propagate its results to the
+     * targets as elapsed times. This only touches the given arrays and the scratch state of this worker.
+     */
+    private void runFrequencySearch (int departureTime, int[] bestTimes, int[] bestNonTransferTimes,
+            int[] previousPatterns, int[] timesAtTargets) {
+        this.runRaptorFrequency(departureTime, bestTimes, bestNonTransferTimes, previousPatterns);
+        this.doPropagation(bestNonTransferTimes, timesAtTargets, departureTime);
+
+        // convert to elapsed time
+        for (int t = 0; t < timesAtTargets.length; t++) {
+            if (timesAtTargets[t] != UNREACHED)
+                timesAtTargets[t] -= departureTime;
+        }
+    }
+
     /** Run a RAPTOR search using frequencies */
     public void runRaptorFrequency (int departureTime, int[] bestTimes, int[] bestNonTransferTimes, int[] previousPatterns) {
         max_time = departureTime + MAX_DURATION;
@@ -391,7 +488,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
@@ -549,7 +646,7 @@ public class RaptorWorker {
                 }
             }
         }
-        totalPropagationTime += (System.currentTimeMillis() - beginPropagationTime);
+        totalPropagationTime.add(System.currentTimeMillis() - beginPropagationTime);
     }
 
     /** Mark all the patterns passing through the given stop. */
@@ -148,7 +148,7 @@ public class RaptorWorkerData implements Serializable {
             if (!frequencies.isEmpty()) {
                 // apply the operations
                 List<TripTimes> scheduled = graphPatterns.stream()
-                        .flatMap(p -> p.scheduledTimetable.tripTimes.stream())
+                        .flatMap(p -> p.scheduledTimetable.getTripTimes().stream())
                         .collect(Collectors.toList());
 
                 List<FrequencyEntry> frequencyEntries = graphPatterns.stream()
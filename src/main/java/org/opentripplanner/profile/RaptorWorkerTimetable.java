@@ -255,7 +255,7 @@ public class RaptorWorkerTimetable implements Serializable {
         // This filtering can reduce number of trips and run time by 80 percent
         BitSet servicesRunning = window.servicesRunning;
         List<TripTimes> tripTimes = Lists.newArrayList();
-        TT: for (TripTimes tt : pattern.scheduledTimetable.tripTimes) {
+        TT: for (TripTimes tt : pattern.scheduledTimetable.getTripTimes()) {
             if (servicesRunning.get(tt.serviceCode) &&
                     tt.getArrivalTime(0) < window.to &&
                     tt.getDepartureTime(tt.getNumStops() - 1) >= window.from) {
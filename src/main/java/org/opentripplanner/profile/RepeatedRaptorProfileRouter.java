@@ -89,6 +89,15 @@ public class RepeatedRaptorProfileRouter {
     // Set this field to true before routing if you want the full travel times included in your response.
     public boolean includeTimes = false;
 
+    /**
+     * The number of frequency searches the RAPTOR worker may run in parallel, see RaptorWorker.parallelism. Worth
+     * raising for single-point requests, which would otherwise leave most cores idle.
+     */
+    public int raptorParallelism = 1;
+
+    /** If not null, seeds the Monte Carlo draws of the RAPTOR worker so that results are reproducible. */
+    public Long randomSeed = null;
+
     /**
      * Make a router to use for making time surfaces only.
      *
@@ -177,6 +186,10 @@ public class RepeatedRaptorProfileRouter {
 
         if (transit) {
             RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
+            worker.parallelism = raptorParallelism;
+            if (randomSeed != null) {
+                worker.setRandomSeed(randomSeed);
+            }
             propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
             ts.initialStopCount = transitStopAccessTimes.size();
         } else {
@@ -201,7 +201,7 @@ public class Ride {
         // TODO include exact-times frequency trips along with non-frequency trips
         // non-exact (headway-based) frequency trips will be handled elsewhere since they don't have specific boarding times.
         for (PatternRide patternRide : patternRides) {
-            for (TripTimes tt : patternRide.pattern.scheduledTimetable.tripTimes) {
+            for (TripTimes tt : patternRide.pattern.scheduledTimetable.getTripTimes()) {
                 if (window.servicesRunning.get(tt.serviceCode)) {
                     int t = arrivals ? tt.getArrivalTime(patternRide.toIndex)
                                      : tt.getDepartureTime(patternRide.fromIndex);
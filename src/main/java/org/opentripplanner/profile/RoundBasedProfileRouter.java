@@ -167,7 +167,7 @@ public class RoundBasedProfileRouter {
                         int maxRideTime = Integer.MIN_VALUE;
                         
                         // how long does it take to get to stop j from stop i?
-                        for (TripTimes tripTimes : pattern.scheduledTimetable.tripTimes) {
+                        for (TripTimes tripTimes : pattern.scheduledTimetable.getTripTimes()) {
                             int depart = tripTimes.getDepartureTime(i);
                             int arrive = tripTimes.getArrivalTime(j);
                             if (window.includes (depart) && 
@@ -139,7 +139,7 @@ class Stats implements Cloneable {
         /* Scan through all non-frequency trips accumulating them into stats. */
         // TODO maybe we should prefilter the triptimes so we aren't constantly iterating over
         // the trips whose service is not running
-        for (TripTimes tripTimes : pattern.scheduledTimetable.tripTimes) {
+        for (TripTimes tripTimes : pattern.scheduledTimetable.getTripTimes()) {
             int depart = tripTimes.getDepartureTime(stop0);
             int arrive = tripTimes.getArrivalTime(stop1);
             if (window.includes (depart) && 
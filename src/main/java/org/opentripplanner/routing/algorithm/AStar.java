@@ -1,7 +1,8 @@
 package org.opentripplanner.routing.algorithm;
 
 import com.beust.jcommander.internal.Lists;
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -9,7 +10,9 @@ import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.EdgeAdjacency;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.graph.VertexEdges;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.util.DateUtils;
@@ -50,7 +53,7 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        IndexedBinHeap<State> pq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
@@ -60,6 +63,9 @@ public class AStar {
         private SearchTerminationStrategy terminationStrategy;
         public Vertex u_vertex;
         Double foundPathWeight = null;
+        long nStatesCreated;
+        long nStatesDominated;
+        int queuePeakSize;
 
         public RunState(RoutingRequest options, SearchTerminationStrategy terminationStrategy) {
             this.options = options;
@@ -107,7 +113,9 @@ public class AStar {
         // Since initial states can be multiple, heuristic cannot depend on the initial state.
         // Initializing the bidirectional heuristic is a pretty complicated operation that involves searching through
         // the streets around the origin and destination.
+        long heuristicStartTime = System.currentTimeMillis();
         runState.heuristic.initialize(runState.options, abortTime);
+        options.rctx.debugOutput.heuristicInitTime += System.currentTimeMillis() - heuristicStartTime;
         if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
             LOG.warn("Timeout during initialization of goal direction heuristic.");
             options.rctx.debugOutput.timedOut = true;
@@ -121,7 +129,12 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        runState.pq = new IndexedBinHeap<>(initialSize);
+        // States dominated while still waiting in the queue are removed immediately rather than popped and dropped.
+        runState.spt.setDominatedStateListener(dominated -> {
+            runState.pq.remove(dominated);
+            runState.nStatesDominated += 1;
+        });
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -164,60 +177,91 @@ public class AStar {
 
         runState.nVisited += 1;
         
-        Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
-        for (Edge edge : edges) {
+        // Walk the compact graph-level edge lists when this vertex is part of them, then the edges that are not
+        // (e.g. temporary edges for this request, or all edges of a vertex without a row). The row and the overlay are
+        // read from a single snapshot, so they stay consistent if the vertex changes.
+        VertexEdges vertexEdges = runState.u_vertex.getVertexEdges();
+        EdgeAdjacency adjacency = vertexEdges.getAdjacency();
+        int row = vertexEdges.getRow();
+        if (runState.options.arriveBy) {
+            if (adjacency != null) {
+                for (int i = adjacency.incomingStart(row), end = adjacency.incomingEnd(row); i < end; i++) {
+                    relaxEdge(adjacency.getIncomingEdge(i));
+                }
+            }
+            for (Edge edge : vertexEdges.getOverlayIncoming()) {
+                relaxEdge(edge);
+            }
+        } else {
+            if (adjacency != null) {
+                for (int e = adjacency.outgoingStart(row), end = adjacency.outgoingEnd(row); e < end; e++) {
+                    relaxEdge(adjacency.getEdge(e));
+                }
+            }
+            for (Edge edge : vertexEdges.getOverlayOutgoing()) {
+                relaxEdge(edge);
+            }
+        }
+        
+        return true;
+    }
 
-            // Iterate over traversal results. When an edge leads nowhere (as indicated by
-            // returning NULL), the iteration is over. TODO Use this to board multiple trips.
-            for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
-                // Could be: for (State v : traverseEdge...)
+    /** Traverse one edge from the current state and enqueue every hopeful resulting state. */
+    private void relaxEdge(Edge edge) {
+        // Iterate over traversal results. When an edge leads nowhere (as indicated by
+        // returning NULL), the iteration is over. TODO Use this to board multiple trips.
+        for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
+            // Could be: for (State v : traverseEdge...)
+            runState.nStatesCreated += 1;
 
-                if (traverseVisitor != null) {
-                    traverseVisitor.visitEdge(edge, v);
-                }
+            if (traverseVisitor != null) {
+                traverseVisitor.visitEdge(edge, v);
+            }
 
-                double remaining_w = runState.heuristic.estimateRemainingWeight(v);
+            double remaining_w = runState.heuristic.estimateRemainingWeight(v);
 
 //                LOG.info("{} {}", v, remaining_w);
 
-                if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
-                    continue;
-                }
-                double estimate = v.getWeight() + remaining_w;
+            if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
+                continue;
+            }
+            double estimate = v.getWeight() + remaining_w;
 
-                if (verbose) {
-                    System.out.println("      edge " + edge);
-                    System.out.println("      " + runState.u.getWeight() + " -> " + v.getWeight()
-                            + "(w) + " + remaining_w + "(heur) = " + estimate + " vert = "
-                            + v.getVertex());
-                }
+            if (verbose) {
+                System.out.println("      edge " + edge);
+                System.out.println("      " + runState.u.getWeight() + " -> " + v.getWeight()
+                        + "(w) + " + remaining_w + "(heur) = " + estimate + " vert = "
+                        + v.getVertex());
+            }
 
-                // avoid enqueuing useless branches 
-                if (estimate > runState.options.maxWeight) {
-                    // too expensive to get here
-                    if (verbose)
-                        System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
-                    continue;
-                }
-                if (isWorstTimeExceeded(v, runState.options)) {
-                    // too much time to get here
-                    if (verbose)
-                        System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
-                    continue;
+            // avoid enqueuing useless branches 
+            if (estimate > runState.options.maxWeight) {
+                // too expensive to get here
+                if (verbose)
+                    System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
+                continue;
+            }
+            if (isWorstTimeExceeded(v, runState.options)) {
+                // too much time to get here
+                if (verbose)
+                    System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
+                continue;
+            }
+        
+            // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
+            if (runState.spt.add(v)) {
+                // report to the visitor if there is one
+                if (traverseVisitor != null)
+                    traverseVisitor.visitEnqueue(v);
+                //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
+                runState.pq.insert(v, estimate);
+                if (runState.pq.size() > runState.queuePeakSize) {
+                    runState.queuePeakSize = runState.pq.size();
                 }
-                
-                // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
-                if (runState.spt.add(v)) {
-                    // report to the visitor if there is one
-                    if (traverseVisitor != null)
-                        traverseVisitor.visitEnqueue(v);
-                    //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
-                    runState.pq.insert(v, estimate);
-                } 
+            } else {
+                runState.nStatesDominated += 1;
             }
         }
-        
-        return true;
     }
     
     void runSearch(long abortTime){
@@ -283,6 +327,11 @@ public class AStar {
             }
 
         }
+        DebugOutput debugOutput = runState.options.rctx.debugOutput;
+        debugOutput.visitedVertices += runState.nVisited;
+        debugOutput.statesCreated += runState.nStatesCreated;
+        debugOutput.statesDominated += runState.nStatesDominated;
+        debugOutput.queuePeakSize = Math.max(debugOutput.queuePeakSize, runState.queuePeakSize);
     }
 
     /** @return the shortest path, or null if none is found */
@@ -0,0 +1,215 @@
+package org.opentripplanner.routing.algorithm.ch;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.ElevatorEdge;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.io.Serializable;
+
+/**
+ * A contraction hierarchy over the street network for the default weights of one street mode. It is built over turns
+ * rather than intersections: every node is a street edge, and an original arc from node a to node b is the turn from
+ * edge a onto edge b, weighted with the cost of that turn plus the cost of traversing b. Turn costs and turn
+ * restrictions are therefore part of the weights, exactly as StreetEdge applies them. Every node has a rank, and the
+ * other arcs are shortcuts that each stand for a pair of arcs through a lower-ranked node. A shortest path can then be
+ * found by a bidirectional search that only ever moves up in rank, which settles a tiny number of nodes compared to a
+ * plain A* search (see ContractionHierarchyRouter).
+ *
+ * The weights are those of a depart-after request for the given mode with all default parameters. A turn restriction
+ * that only applies at certain times cannot be represented by a fixed weight, so such a turn gets the weight of its
+ * second edge alone, which is a lower bound. Paths found through the hierarchy are traversed with the real request
+ * before they are returned, and only kept if they weigh what the hierarchy predicted. Requests that change any
+ * weight-related parameter must be routed with A* instead (see accepts()).
+ *
+ * Instances are built by ContractionHierarchyBuilder during graph building. They are not part of the serialized Graph
+ * object but saved after its edges, see Graph.save().
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    final TraverseMode mode;
+
+    /** The street edge of each node. Nodes are numbered densely and in no particular order. */
+    final Edge[] edges;
+
+    /* Arcs. Shortcut arcs have a first and second child arc; original arcs (turns) have children -1. */
+
+    final int[] arcFrom;
+
+    final int[] arcTo;
+
+    final double[] arcWeight;
+
+    final int[] arcFirst;
+
+    final int[] arcSecond;
+
+    /** The upward arcs leaving node n (towards higher ranks) are upArcs[upOffsets[n]] to upArcs[upOffsets[n+1]-1]. */
+    final int[] upOffsets;
+
+    final int[] upArcs;
+
+    /** The arcs entering node n from higher-ranked nodes, used by the backward search. */
+    final int[] downOffsets;
+
+    final int[] downArcs;
+
+    private transient TObjectIntMap<Edge> nodeForEdge;
+
+    ContractionHierarchy(TraverseMode mode, Edge[] edges, int[] arcFrom, int[] arcTo, double[] arcWeight,
+            int[] arcFirst, int[] arcSecond, int[] upOffsets, int[] upArcs, int[] downOffsets, int[] downArcs) {
+        this.mode = mode;
+        this.edges = edges;
+        this.arcFrom = arcFrom;
+        this.arcTo = arcTo;
+        this.arcWeight = arcWeight;
+        this.arcFirst = arcFirst;
+        this.arcSecond = arcSecond;
+        this.upOffsets = upOffsets;
+        this.upArcs = upArcs;
+        this.downOffsets = downOffsets;
+        this.downArcs = downArcs;
+    }
+
+    public TraverseMode getMode() {
+        return mode;
+    }
+
+    public int getNodeCount() {
+        return edges.length;
+    }
+
+    public int getArcCount() {
+        return arcFrom.length;
+    }
+
+    /** @return the number of arcs that are shortcuts rather than turns. */
+    public int getShortcutCount() {
+        int shortcuts = 0;
+        for (int first : arcFirst) {
+            if (first >= 0) shortcuts++;
+        }
+        return shortcuts;
+    }
+
+    /** @return the node of the given edge, or -1 if the edge is not part of this hierarchy. */
+    public int getNode(Edge edge) {
+        TObjectIntMap<Edge> index = nodeForEdge;
+        if (index == null) {
+            // Edge hash codes depend on vertex hash codes, which are reassigned when a graph is loaded, so the index
+            // cannot be saved with the graph.
+            index = new TObjectIntHashMap<>(edges.length, 0.5f, -1);
+            for (int n = 0; n < edges.length; n++) {
+                index.put(edges[n], n);
+            }
+            nodeForEdge = index;
+        }
+        return index.get(edge);
+    }
+
+    /**
+     * @return the request whose weights this hierarchy is built with: the default request for the given mode, with a
+     * routing context for the graph but no origin or destination.
+     */
+    public static RoutingRequest profileRequest(TraverseMode mode, Graph graph) {
+        RoutingRequest request = new RoutingRequest(mode);
+        request.useTraffic = false;
+        request.setRoutingContext(graph, (Vertex) null, (Vertex) null);
+        return request;
+    }
+
+    /** @return whether edges of this type have weights that can be put in a hierarchy. */
+    static boolean isContractible(Edge edge) {
+        return !(edge instanceof TemporaryEdge) &&
+                (edge instanceof StreetEdge || edge instanceof FreeEdge || edge instanceof ElevatorEdge);
+    }
+
+    /**
+     * @return the state after traversing the given edge on its own, without any turn onto it, with the given
+     * request. Null if the edge cannot be traversed.
+     */
+    static State traverseAlone(Edge edge, RoutingRequest request) {
+        return edge.traverse(new State(edge.getFromVertex(), request));
+    }
+
+    /**
+     * @return whether some turn restriction from the given edge only applies at certain times, so that whether the
+     * turn is allowed depends on the time of the request.
+     */
+    static boolean hasTimedTurnRestrictions(Edge edge, Graph graph) {
+        if (!(edge instanceof StreetEdge)) return false;
+        for (TurnRestriction restriction : graph.getTurnRestrictions(edge)) {
+            if (restriction.time != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether paths found through this hierarchy are optimal for the given request, i.e. whether the request
+     * is a depart-after street-only request in this hierarchy's mode with every parameter that affects the weight of
+     * a street edge or of a turn at its default value.
+     *
+     * Arrive-by searches are not accepted: they apply turn restrictions and no-through-traffic areas while walking
+     * backwards from the destination, and a bicycle turned back by a restriction walks the edge before the turn
+     * instead of the edge after it, so their weights can differ from those of the hierarchy.
+     */
+    public boolean accepts(RoutingRequest request, Graph graph) {
+        RoutingRequest profile = new RoutingRequest(mode);
+        if (!profile.modes.equals(request.modes) || request.arriveBy) return false;
+        if (request.useTraffic && graph.streetSpeedSource != null) return false;
+        // Walk limits, soft or hard, only apply to transit requests and batch requests (see
+        // StateEditor.weHaveWalkedTooFar), so maxWalkDistance and softWalkLimiting do not matter otherwise.
+        if (request.modes.isTransit() || request.batch) return false;
+        if (request.wheelchairAccessible) return false;
+        if (request.allowBikeRental || request.allowCarRental || request.allowVehicleRental ||
+                request.parkAndRide || request.kissAndRide || request.bikeParkAndRide ||
+                request.useTransportationNetworkCompany) {
+            return false;
+        }
+        if (request.getIntersectionTraversalCostModel().getClass() !=
+                profile.getIntersectionTraversalCostModel().getClass()) {
+            return false;
+        }
+        return request.optimize == profile.optimize &&
+                request.walkSpeed == profile.walkSpeed &&
+                request.bikeSpeed == profile.bikeSpeed &&
+                request.carSpeed == profile.carSpeed &&
+                request.walkReluctance == profile.walkReluctance &&
+                request.stairsReluctance == profile.stairsReluctance &&
+                request.turnReluctance == profile.turnReluctance &&
+                request.driveOnRight == profile.driveOnRight &&
+                request.maxSlope == profile.maxSlope &&
+                request.driveTimeReluctance == profile.driveTimeReluctance &&
+                request.driveDistanceReluctance == profile.driveDistanceReluctance &&
+                request.triangleTimeFactor == profile.triangleTimeFactor &&
+                request.triangleSlopeFactor == profile.triangleSlopeFactor &&
+                request.triangleSafetyFactor == profile.triangleSafetyFactor &&
+                request.elevatorBoardTime == profile.elevatorBoardTime &&
+                request.elevatorBoardCost == profile.elevatorBoardCost &&
+                request.elevatorHopTime == profile.elevatorHopTime &&
+                request.elevatorHopCost == profile.elevatorHopCost &&
+                request.bikeSwitchTime == profile.bikeSwitchTime &&
+                request.bikeSwitchCost == profile.bikeSwitchCost &&
+                request.walkingBike == profile.walkingBike &&
+                request.watts == profile.watts &&
+                request.weight == profile.weight &&
+                request.minimumMicromobilitySpeed == profile.minimumMicromobilitySpeed &&
+                request.maximumMicromobilitySpeed == profile.maximumMicromobilitySpeed &&
+                request.bikeWalkingOptions.walkSpeed == profile.bikeWalkingOptions.walkSpeed &&
+                request.bikeWalkingOptions.walkReluctance == profile.bikeWalkingOptions.walkReluctance &&
+                request.bikeWalkingOptions.stairsReluctance == profile.bikeWalkingOptions.stairsReluctance &&
+                request.bikeWalkingOptions.turnReluctance == profile.bikeWalkingOptions.turnReluctance;
+    }
+
+}
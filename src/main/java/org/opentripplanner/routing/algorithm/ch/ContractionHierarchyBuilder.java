@@ -0,0 +1,296 @@
+package org.opentripplanner.routing.algorithm.ch;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a ContractionHierarchy by contracting the street edges of a graph (the nodes of the hierarchy) one at a time,
+ * in an order chosen by the usual edge difference plus contracted neighbors priority with lazy updates. Contracting a
+ * node adds a shortcut between each pair of its remaining neighbors unless a local witness search finds a path between
+ * them that is at least as good without going through the node.
+ */
+public class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    /**
+     * Witness searches give up after settling this many nodes. Giving up early only adds a shortcut that was not
+     * strictly needed, so this trades a slightly larger hierarchy for a much faster build.
+     */
+    private static final int WITNESS_SETTLED_LIMIT = 100;
+
+    private final TraverseMode mode;
+
+    private final Edge[] edges;
+
+    private final TIntArrayList arcFrom = new TIntArrayList();
+
+    private final TIntArrayList arcTo = new TIntArrayList();
+
+    private final TDoubleArrayList arcWeight = new TDoubleArrayList();
+
+    private final TIntArrayList arcFirst = new TIntArrayList();
+
+    private final TIntArrayList arcSecond = new TIntArrayList();
+
+    /** Ids of the arcs leaving and entering each node, including arcs to nodes that have already been contracted. */
+    private final TIntArrayList[] out;
+
+    private final TIntArrayList[] in;
+
+    private final boolean[] contracted;
+
+    private final int[] rank;
+
+    private final int[] contractedNeighbors;
+
+    private ContractionHierarchyBuilder(TraverseMode mode, Edge[] edges) {
+        this.mode = mode;
+        this.edges = edges;
+        int n = edges.length;
+        out = new TIntArrayList[n];
+        in = new TIntArrayList[n];
+        for (int v = 0; v < n; v++) {
+            out[v] = new TIntArrayList(4);
+            in[v] = new TIntArrayList(4);
+        }
+        contracted = new boolean[n];
+        rank = new int[n];
+        contractedNeighbors = new int[n];
+    }
+
+    /**
+     * Build a contraction hierarchy over the turns between the street edges of the given graph, weighted for the
+     * default request of the given mode.
+     */
+    public static ContractionHierarchy build(Graph graph, TraverseMode mode) {
+        RoutingRequest profile = ContractionHierarchy.profileRequest(mode, graph);
+        // Every edge that can be traversed on its own becomes a node.
+        List<Edge> edges = new ArrayList<>();
+        TDoubleArrayList weights = new TDoubleArrayList();
+        TObjectIntMap<Edge> nodeForEdge = new TObjectIntHashMap<>(graph.countEdges(), 0.5f, -1);
+        for (Vertex vertex : graph.getVertices()) {
+            for (Edge edge : vertex.getOutgoing()) {
+                if (edge.getToVertex() == vertex || !ContractionHierarchy.isContractible(edge)) continue;
+                State state = ContractionHierarchy.traverseAlone(edge, profile);
+                if (state == null) continue;
+                nodeForEdge.put(edge, edges.size());
+                edges.add(edge);
+                weights.add(state.getWeight());
+            }
+        }
+        ContractionHierarchyBuilder builder =
+                new ContractionHierarchyBuilder(mode, edges.toArray(new Edge[edges.size()]));
+        // Every allowed turn from one node onto another is an arc, weighted with the turn and the second edge as
+        // StreetEdge computes them when the first edge is the back edge of the state.
+        for (int from = 0; from < edges.size(); from++) {
+            Edge edge = edges.get(from);
+            State state = ContractionHierarchy.traverseAlone(edge, profile);
+            boolean timedRestrictions = ContractionHierarchy.hasTimedTurnRestrictions(edge, graph);
+            for (Edge next : edge.getToVertex().getOutgoing()) {
+                int to = nodeForEdge.get(next);
+                if (to < 0 || to == from || next.isReverseOf(edge) || edge.isReverseOf(next)) continue;
+                State nextState = next.traverse(state);
+                if (nextState != null) {
+                    builder.addArc(from, to, nextState.getWeight() - state.getWeight(), -1, -1);
+                } else if (timedRestrictions) {
+                    // The turn may be allowed at other times, so keep it with a weight that cannot be too high.
+                    builder.addArc(from, to, weights.get(to), -1, -1);
+                }
+            }
+        }
+        profile.cleanup();
+        LOG.info("Contracting {} nodes and {} {} turns.", edges.size(), builder.arcFrom.size(), mode);
+        builder.contractAll();
+        ContractionHierarchy hierarchy = builder.finish();
+        LOG.info("Contraction hierarchy for {} has {} arcs of which {} shortcuts.", mode, hierarchy.getArcCount(),
+                hierarchy.getShortcutCount());
+        return hierarchy;
+    }
+
+    private int addArc(int from, int to, double weight, int first, int second) {
+        int arc = arcFrom.size();
+        arcFrom.add(from);
+        arcTo.add(to);
+        arcWeight.add(weight);
+        arcFirst.add(first);
+        arcSecond.add(second);
+        out[from].add(arc);
+        in[to].add(arc);
+        return arc;
+    }
+
+    private void contractAll() {
+        int n = edges.length;
+        BinHeap<Integer> queue = new BinHeap<>(n);
+        for (int v = 0; v < n; v++) {
+            queue.insert(v, priority(v));
+        }
+        int nextRank = 0;
+        while (!queue.empty()) {
+            int v = queue.extract_min();
+            // Priorities go stale as neighbors are contracted. Re-evaluate lazily, and only contract the node if it
+            // still comes first.
+            double priority = priority(v);
+            if (!queue.empty() && priority > queue.peek_min_key()) {
+                queue.insert(v, priority);
+                continue;
+            }
+            contract(v, true);
+            contracted[v] = true;
+            rank[v] = nextRank++;
+            for (TIntArrayList arcs : new TIntArrayList[] {in[v], out[v]}) {
+                for (int i = 0; i < arcs.size(); i++) {
+                    int arc = arcs.get(i);
+                    int neighbor = arcFrom.get(arc) == v ? arcTo.get(arc) : arcFrom.get(arc);
+                    if (!contracted[neighbor]) contractedNeighbors[neighbor]++;
+                }
+            }
+            if (nextRank % 100000 == 0) {
+                LOG.info("Contracted {} of {} nodes.", nextRank, n);
+            }
+        }
+    }
+
+    /** Edge difference plus the number of contracted neighbors, which spreads contraction evenly over the graph. */
+    private double priority(int v) {
+        int liveArcs = 0;
+        for (TIntArrayList arcs : new TIntArrayList[] {in[v], out[v]}) {
+            for (int i = 0; i < arcs.size(); i++) {
+                int arc = arcs.get(i);
+                int neighbor = arcFrom.get(arc) == v ? arcTo.get(arc) : arcFrom.get(arc);
+                if (!contracted[neighbor]) liveArcs++;
+            }
+        }
+        return contract(v, false) - liveArcs + contractedNeighbors[v];
+    }
+
+    /**
+     * Find the shortcuts needed to contract node v, adding them to the graph if apply is true.
+     * @return the number of shortcuts needed.
+     */
+    private int contract(int v, boolean apply) {
+        TIntDoubleMap inWeight = new TIntDoubleHashMap();
+        TIntIntMap inArc = new TIntIntHashMap();
+        lightestLiveArcs(in[v], arcFrom, inWeight, inArc);
+        TIntDoubleMap outWeight = new TIntDoubleHashMap();
+        TIntIntMap outArc = new TIntIntHashMap();
+        lightestLiveArcs(out[v], arcTo, outWeight, outArc);
+        if (inWeight.isEmpty() || outWeight.isEmpty()) return 0;
+        double maxOut = 0;
+        for (double weight : outWeight.values()) {
+            maxOut = Math.max(maxOut, weight);
+        }
+        int shortcuts = 0;
+        for (int u : inWeight.keys()) {
+            double toV = inWeight.get(u);
+            TIntDoubleMap witness = witnessSearch(u, v, toV + maxOut);
+            for (int w : outWeight.keys()) {
+                if (w == u) continue;
+                double via = toV + outWeight.get(w);
+                if (witness.get(w) <= via) continue;
+                shortcuts++;
+                if (apply) {
+                    addArc(u, w, via, inArc.get(u), outArc.get(w));
+                }
+            }
+        }
+        return shortcuts;
+    }
+
+    /** For each uncontracted neighbor at the given end of the arcs, keep the lightest arc and its weight. */
+    private void lightestLiveArcs(TIntArrayList arcs, TIntArrayList neighborEnd, TIntDoubleMap weights,
+            TIntIntMap arcIds) {
+        for (int i = 0; i < arcs.size(); i++) {
+            int arc = arcs.get(i);
+            int neighbor = neighborEnd.get(arc);
+            if (contracted[neighbor]) continue;
+            if (!weights.containsKey(neighbor) || arcWeight.get(arc) < weights.get(neighbor)) {
+                weights.put(neighbor, arcWeight.get(arc));
+                arcIds.put(neighbor, arc);
+            }
+        }
+    }
+
+    /**
+     * A Dijkstra search from the source over uncontracted nodes other than the excluded one, limited in weight and
+     * in the number of nodes settled.
+     * @return the best known weight to each node reached, infinity for the others.
+     */
+    private TIntDoubleMap witnessSearch(int source, int excluded, double maxWeight) {
+        TIntDoubleMap weights = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntSet settled = new TIntHashSet();
+        BinHeap<Integer> queue = new BinHeap<>();
+        weights.put(source, 0);
+        queue.insert(source, 0);
+        while (!queue.empty() && settled.size() < WITNESS_SETTLED_LIMIT) {
+            double weight = queue.peek_min_key();
+            int node = queue.extract_min();
+            if (weight > maxWeight) break;
+            if (!settled.add(node)) continue;
+            TIntArrayList arcs = out[node];
+            for (int i = 0; i < arcs.size(); i++) {
+                int arc = arcs.get(i);
+                int to = arcTo.get(arc);
+                if (to == excluded || contracted[to]) continue;
+                double newWeight = weight + arcWeight.get(arc);
+                if (newWeight < weights.get(to)) {
+                    weights.put(to, newWeight);
+                    queue.insert(to, newWeight);
+                }
+            }
+        }
+        return weights;
+    }
+
+    /** Sort every arc into the upward lists of its tail or the downward lists of its head, according to rank. */
+    private ContractionHierarchy finish() {
+        int n = edges.length;
+        int nArcs = arcFrom.size();
+        int[] upOffsets = new int[n + 1];
+        int[] downOffsets = new int[n + 1];
+        for (int arc = 0; arc < nArcs; arc++) {
+            int from = arcFrom.get(arc);
+            int to = arcTo.get(arc);
+            if (rank[to] > rank[from]) upOffsets[from + 1]++;
+            else downOffsets[to + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        int[] upArcs = new int[upOffsets[n]];
+        int[] downArcs = new int[downOffsets[n]];
+        int[] upFill = upOffsets.clone();
+        int[] downFill = downOffsets.clone();
+        for (int arc = 0; arc < nArcs; arc++) {
+            int from = arcFrom.get(arc);
+            int to = arcTo.get(arc);
+            if (rank[to] > rank[from]) upArcs[upFill[from]++] = arc;
+            else downArcs[downFill[to]++] = arc;
+        }
+        return new ContractionHierarchy(mode, edges, arcFrom.toArray(), arcTo.toArray(), arcWeight.toArray(),
+                arcFirst.toArray(), arcSecond.toArray(), upOffsets, upArcs, downOffsets, downArcs);
+    }
+
+}
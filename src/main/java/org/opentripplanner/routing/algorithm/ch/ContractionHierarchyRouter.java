@@ -0,0 +1,302 @@
+package org.opentripplanner.routing.algorithm.ch;
+
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers street-only requests with a bidirectional search over a ContractionHierarchy. The origin and destination
+ * of a request are usually temporary vertices linked into the street network by temporary edges, which are not part
+ * of the hierarchy. A small search from the origin finds the states in which a path first traverses an edge of the
+ * hierarchy, and the temporary paths into the destination give the cost of leaving the hierarchy after each edge
+ * that leads to them. Both are computed with the real request, including the turns onto and off the hierarchy.
+ *
+ * The resulting edges are traversed in order with the real request to produce ordinary states. The weights of the
+ * hierarchy are never higher than those of an accepted request, so if the traversed path weighs what the hierarchy
+ * predicted it is optimal. Otherwise, for instance because a turn restriction that only applies at certain times is in
+ * force, no path is returned and the caller should fall back on A*.
+ */
+public class ContractionHierarchyRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyRouter.class);
+
+    /**
+     * Bound on the number of states expanded or temporary edges followed around each endpoint before reaching the
+     * hierarchy. Beyond it the hierarchy is not used, since some way into or out of it may have been missed.
+     */
+    private static final int MAX_LOCAL_STATES = 100;
+
+    /** Relative difference allowed between the weight of the traversed path and that predicted by the hierarchy. */
+    private static final double WEIGHT_TOLERANCE = 1e-6;
+
+    private final ContractionHierarchy hierarchy;
+
+    public ContractionHierarchyRouter(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * @return the path for a request whose routing context has been set, or null if no path was found through the
+     * hierarchy. Whether the hierarchy accepts the request should be checked beforehand.
+     */
+    public GraphPath route(RoutingRequest request) {
+        Vertex fromVertex = request.rctx.fromVertex;
+        Vertex toVertex = request.rctx.toVertex;
+        if (request.arriveBy || fromVertex == null || toVertex == null || fromVertex == toVertex) return null;
+
+        Entries entries = enter(request, toVertex);
+        Map<Integer, Exit> exits = exits(request, toVertex);
+        if (entries == null || exits == null) {
+            LOG.debug("Too many temporary edges around the endpoints to use the contraction hierarchy.");
+            return null;
+        }
+
+        // Bidirectional Dijkstra, each side only moving up in rank.
+        TIntDoubleMap forwardWeight = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntDoubleMap backwardWeight = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntIntMap forwardArc = new TIntIntHashMap(64, 0.5f, -1, -1);
+        TIntIntMap backwardArc = new TIntIntHashMap(64, 0.5f, -1, -1);
+        BinHeap<Integer> forwardQueue = new BinHeap<>();
+        BinHeap<Integer> backwardQueue = new BinHeap<>();
+        for (Map.Entry<Integer, State> entry : entries.states.entrySet()) {
+            forwardWeight.put(entry.getKey(), entry.getValue().getWeight());
+            forwardQueue.insert(entry.getKey(), entry.getValue().getWeight());
+        }
+        for (Map.Entry<Integer, Exit> exit : exits.entrySet()) {
+            backwardWeight.put(exit.getKey(), exit.getValue().weight);
+            backwardQueue.insert(exit.getKey(), exit.getValue().weight);
+        }
+        TIntSet forwardSettled = new TIntHashSet();
+        TIntSet backwardSettled = new TIntHashSet();
+        double best = entries.direct == null ? Double.POSITIVE_INFINITY : entries.direct.getWeight();
+        int meeting = -1;
+        while (true) {
+            boolean forwardDone = forwardQueue.empty() || forwardQueue.peek_min_key() >= best;
+            boolean backwardDone = backwardQueue.empty() || backwardQueue.peek_min_key() >= best;
+            if (forwardDone && backwardDone) break;
+            boolean forward = !forwardDone && (backwardDone ||
+                    forwardQueue.peek_min_key() <= backwardQueue.peek_min_key());
+            BinHeap<Integer> queue = forward ? forwardQueue : backwardQueue;
+            TIntDoubleMap weights = forward ? forwardWeight : backwardWeight;
+            TIntDoubleMap otherWeights = forward ? backwardWeight : forwardWeight;
+            TIntIntMap parentArcs = forward ? forwardArc : backwardArc;
+            double weight = queue.peek_min_key();
+            int node = queue.extract_min();
+            if (!(forward ? forwardSettled : backwardSettled).add(node)) continue;
+            double total = weight + otherWeights.get(node);
+            if (total < best) {
+                best = total;
+                meeting = node;
+            }
+            int[] offsets = forward ? hierarchy.upOffsets : hierarchy.downOffsets;
+            int[] arcs = forward ? hierarchy.upArcs : hierarchy.downArcs;
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int arc = arcs[i];
+                int next = forward ? hierarchy.arcTo[arc] : hierarchy.arcFrom[arc];
+                double newWeight = weight + hierarchy.arcWeight[arc];
+                if (newWeight < weights.get(next)) {
+                    weights.put(next, newWeight);
+                    parentArcs.put(next, arc);
+                    queue.insert(next, newWeight);
+                }
+            }
+        }
+
+        if (meeting < 0) {
+            return entries.direct == null ? null : found(request, entries.direct);
+        }
+        // Walk back from the meeting node to the node where the path entered the hierarchy, then forward to the node
+        // where it leaves it.
+        Deque<Integer> forwardArcs = new ArrayDeque<>();
+        int node = meeting;
+        for (int arc = forwardArc.get(node); arc >= 0; arc = forwardArc.get(node)) {
+            forwardArcs.push(arc);
+            node = hierarchy.arcFrom[arc];
+        }
+        State state = entries.states.get(node);
+        List<Edge> edges = new ArrayList<>();
+        for (int arc : forwardArcs) {
+            unpack(arc, edges);
+        }
+        node = meeting;
+        for (int arc = backwardArc.get(node); arc >= 0; arc = backwardArc.get(node)) {
+            unpack(arc, edges);
+            node = hierarchy.arcTo[arc];
+        }
+        edges.addAll(exits.get(node).edges);
+        for (Edge edge : edges) {
+            state = edge.traverse(state);
+            if (state == null) {
+                LOG.debug("Edge {} of the contraction hierarchy path cannot be traversed with this request.", edge);
+                return null;
+            }
+        }
+        if (state.getVertex() != request.rctx.target) return null;
+        if (Math.abs(state.getWeight() - best) > WEIGHT_TOLERANCE * Math.max(1, best)) {
+            LOG.debug("Contraction hierarchy path weighs {} instead of {}.", state.getWeight(), best);
+            return null;
+        }
+        return found(request, state);
+    }
+
+    /**
+     * Search from the origin over temporary edges until traversing edges of the hierarchy. States are compared by
+     * back edge, since the weight of the next edge only depends on the previous one.
+     *
+     * @return the cheapest state after each edge of the hierarchy reached, and the cheapest state at the destination
+     * reached without entering the hierarchy, or null if the search had to give up.
+     */
+    private Entries enter(RoutingRequest request, Vertex toVertex) {
+        Entries entries = new Entries();
+        Map<Edge, Double> weights = new HashMap<>();
+        BinHeap<State> queue = new BinHeap<>();
+        State start = new State(request);
+        queue.insert(start, start.getWeight());
+        int nExpanded = 0;
+        while (!queue.empty()) {
+            State state = queue.extract_min();
+            Edge backEdge = state.getBackEdge();
+            if (backEdge != null && weights.containsKey(backEdge) && state.getWeight() > weights.get(backEdge)) {
+                continue;
+            }
+            if (state.getVertex() == toVertex) {
+                if (entries.direct == null || state.getWeight() < entries.direct.getWeight()) entries.direct = state;
+                continue;
+            }
+            if (++nExpanded > MAX_LOCAL_STATES) return null;
+            for (Edge edge : state.getVertex().getOutgoing()) {
+                int node = hierarchy.getNode(edge);
+                if (node < 0 && !(edge instanceof TemporaryEdge)) continue;
+                State next = edge.traverse(state);
+                if (next == null) continue;
+                if (node >= 0) {
+                    State known = entries.states.get(node);
+                    if (known == null || next.getWeight() < known.getWeight()) entries.states.put(node, next);
+                } else {
+                    Double known = weights.get(edge);
+                    if (known == null || next.getWeight() < known) {
+                        weights.put(edge, next.getWeight());
+                        queue.insert(next, next.getWeight());
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Follow temporary edges backwards from the destination to find the edges of the hierarchy that lead to it.
+     *
+     * @return for each such edge, the cheapest temporary path from it to the destination in travel order and its
+     * weight after that edge, turn included, or null if the search had to give up.
+     */
+    private Map<Integer, Exit> exits(RoutingRequest request, Vertex toVertex) {
+        Map<Integer, Exit> exits = new HashMap<>();
+        Deque<List<Edge>> paths = new ArrayDeque<>();
+        paths.add(Collections.<Edge>emptyList());
+        int nFollowed = 0;
+        while (!paths.isEmpty()) {
+            List<Edge> path = paths.poll();
+            Vertex vertex = path.isEmpty() ? toVertex : path.get(0).getFromVertex();
+            for (Edge edge : vertex.getIncoming()) {
+                int node = hierarchy.getNode(edge);
+                if (node >= 0) {
+                    addExit(request, node, edge, path, exits);
+                } else if (edge instanceof TemporaryEdge && !visits(path, toVertex, edge.getFromVertex())) {
+                    if (++nFollowed > MAX_LOCAL_STATES) return null;
+                    List<Edge> longer = new ArrayList<>(path.size() + 1);
+                    longer.add(edge);
+                    longer.addAll(path);
+                    paths.add(longer);
+                }
+            }
+        }
+        return exits;
+    }
+
+    /** @return whether the given temporary path to the destination already goes through the given vertex. */
+    private static boolean visits(List<Edge> path, Vertex toVertex, Vertex vertex) {
+        if (vertex == toVertex) return true;
+        for (Edge edge : path) {
+            if (edge.getFromVertex() == vertex) return true;
+        }
+        return false;
+    }
+
+    private static void addExit(RoutingRequest request, int node, Edge edge, List<Edge> path, Map<Integer, Exit> exits) {
+        State state = ContractionHierarchy.traverseAlone(edge, request);
+        if (state == null) return;
+        double edgeWeight = state.getWeight();
+        for (Edge next : path) {
+            state = next.traverse(state);
+            if (state == null) return;
+        }
+        double weight = state.getWeight() - edgeWeight;
+        Exit known = exits.get(node);
+        if (known == null || weight < known.weight) {
+            exits.put(node, new Exit(path, weight));
+        }
+    }
+
+    /** Append the edges entered by the turns an arc represents, in order, without recursion. */
+    private void unpack(int arc, List<Edge> edges) {
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.pop();
+            if (hierarchy.arcFirst[a] < 0) {
+                edges.add(hierarchy.edges[hierarchy.arcTo[a]]);
+            } else {
+                stack.push(hierarchy.arcSecond[a]);
+                stack.push(hierarchy.arcFirst[a]);
+            }
+        }
+    }
+
+    private static GraphPath found(RoutingRequest request, State state) {
+        request.rctx.debugOutput.foundPath();
+        return new GraphPath(state, true);
+    }
+
+    /** The states in which the origin search enters the hierarchy, by node, and the best path bypassing it. */
+    private static class Entries {
+
+        final Map<Integer, State> states = new HashMap<>();
+
+        State direct;
+    }
+
+    /** The temporary edges from a node of the hierarchy to the destination, and their weight after that node. */
+    private static class Exit {
+
+        final List<Edge> edges;
+
+        final double weight;
+
+        Exit(List<Edge> edges, double weight) {
+            this.edges = edges;
+            this.weight = weight;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic.StreetSearch;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SimpleIntersectionTraversalCostModel;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A size-bounded cache of the street searches carried out by InterleavedBidirectionalHeuristic before each transit
+ * search, shared by all requests on one graph. Much of the traffic of a typical deployment goes to or from a few
+ * hundred places (airports, stadiums, downtown hubs), and for those places the same street search around the
+ * destination is repeated with every request. When the result of a search is found here, the heuristic skips that
+ * search entirely.
+ *
+ * A search is only cached when its result depends on nothing but the endpoint and the street-related parameters
+ * of the request, which make up the key. Requests involving vehicle rental, park and ride, ride hailing, cars or
+ * real-time traffic are never cached, since their street searches depend on real-time state or on the other
+ * endpoint. Neither are requests with an intersection traversal cost model other than the default, whose settings
+ * are not part of the key. Endpoints that are temporary vertices (i.e. coordinates rather than stops or other
+ * vertices of the graph) are identified by their coordinates, since they are linked to the graph the same way by
+ * every request.
+ *
+ * The cache belongs to a single graph, so it goes away when the graph is reloaded. It is emptied whenever vertices or
+ * edges are added to or removed from the graph, or when street notes are updated.
+ */
+public class HeuristicStreetSearchCache {
+
+    private final Cache<List<Object>, StreetSearch> cache;
+
+    public HeuristicStreetSearchCache(int maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /** @return the cached street search for the given key, or null if there is none. */
+    StreetSearch get(List<Object> key) {
+        return cache.getIfPresent(key);
+    }
+
+    void put(List<Object> key, StreetSearch search) {
+        cache.put(key, search);
+    }
+
+    /** Forget all cached searches, because the street network or something tied to it has changed. */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the key identifying the street search around the origin (or around the target if fromTarget is true)
+     * for the given request, or null if that search cannot be cached.
+     */
+    static List<Object> key(RoutingRequest rr, boolean fromTarget) {
+        if (rr.modes.getCar() || rr.allowBikeRental || rr.allowCarRental || rr.allowVehicleRental ||
+                rr.parkAndRide || rr.kissAndRide || rr.bikeParkAndRide || rr.useTransportationNetworkCompany ||
+                (rr.useTraffic && rr.rctx.graph.streetSpeedSource != null)) {
+            return null;
+        }
+        // Other cost models carry settings of their own that the key cannot see, so only the default is cached.
+        if (rr.traversalCostModel.getClass() != SimpleIntersectionTraversalCostModel.class) return null;
+        Vertex endpoint = fromTarget ? rr.rctx.target : rr.rctx.origin;
+        if (endpoint == null) return null;
+        Object endpointKey = endpoint instanceof TemporaryVertex
+                ? Arrays.asList(endpoint.getLat(), endpoint.getLon(), ((TemporaryVertex) endpoint).isEndVertex())
+                : endpoint;
+        return Arrays.asList(endpointKey, fromTarget, rr.arriveBy, rr.modes, rr.maxWalkDistance,
+                rr.maxPreTransitTime, rr.wheelchairAccessible, rr.maxSlope, rr.optimize, rr.walkSpeed, rr.bikeSpeed,
+                rr.walkReluctance, rr.stairsReluctance, rr.turnReluctance, rr.walkingBike, rr.bikeSwitchTime,
+                rr.bikeSwitchCost, rr.triangleTimeFactor, rr.triangleSlopeFactor, rr.triangleSafetyFactor,
+                rr.watts, rr.weight, rr.bikeWalkingOptions.walkSpeed, rr.bikeWalkingOptions.walkReluctance,
+                rr.bikeWalkingOptions.stairsReluctance, rr.minimumMicromobilitySpeed, rr.maximumMicromobilitySpeed,
+                rr.elevatorBoardTime, rr.elevatorBoardCost, rr.elevatorHopTime, rr.elevatorHopCost,
+                rr.softWalkLimiting, rr.softWalkPenalty, rr.softWalkOverageRate, rr.softPreTransitLimiting,
+                rr.preTransitPenalty, rr.preTransitOverageRate);
+    }
+
+}
@@ -1,5 +1,7 @@
 package org.opentripplanner.routing.algorithm.strategies;
 
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.map.TObjectDoubleMap;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -20,7 +22,9 @@ import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -210,15 +214,26 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         request.bikeWalkingOptions.softPreTransitLimiting = false;
         transitQueue = new BinHeap<>();
         // Forward street search first, mark street vertices around the origin so H evaluates to 0.
-        preTransitVertices = streetSearch(request, false, abortTime);
-        if (preTransitVertices == null) {
+        StreetSearch originSearch = cachedStreetSearch(request, false, abortTime);
+        if (originSearch == null) {
             return; // Search timed out
         }
+        preTransitVertices = originSearch.vertices;
         LOG.debug("end forward street search {} ms", System.currentTimeMillis() - start);
-        postTransitVertices = streetSearch(request, true, abortTime);
-        if (postTransitVertices == null) {
+        StreetSearch targetSearch = cachedStreetSearch(request, true, abortTime);
+        if (targetSearch == null) {
             return; // Search timed out
         }
+        postTransitVertices = targetSearch.vertices;
+        // Place the transit stops reached around the target on the transit queue so we can explore the transit
+        // network backward later.
+        for (int i = 0; i < targetSearch.stops.length; i++) {
+            double weight = targetSearch.stopWeights[i];
+            transitQueue.insert(targetSearch.stops[i], weight);
+            if (weight > maxWeightSeen) {
+                maxWeightSeen = weight;
+            }
+        }
         LOG.debug("end backward street search {} ms", System.currentTimeMillis() - start);
 
         // initialize the transit vertices to be an empty map.  Transit vertices will be added later
@@ -404,6 +419,30 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
     }
 
+    /**
+     * Look up the street search around the origin or target in the graph's HeuristicStreetSearchCache if there is
+     * one, carrying out and caching the search if it is not found there.
+     *
+     * @return the result of the search, or null if it timed out.
+     */
+    private StreetSearch cachedStreetSearch(RoutingRequest rr, boolean fromTarget, long abortTime) {
+        HeuristicStreetSearchCache cache = graph.heuristicStreetSearchCache;
+        List<Object> key = cache == null ? null : HeuristicStreetSearchCache.key(rr, fromTarget);
+        if (key == null) {
+            return streetSearch(rr, fromTarget, abortTime);
+        }
+        StreetSearch search = cache.get(key);
+        if (search != null) {
+            LOG.debug("Reusing cached heuristic street search around the {}.", fromTarget ? "target" : "origin");
+            return search;
+        }
+        search = streetSearch(rr, fromTarget, abortTime);
+        if (search != null) {
+            cache.put(key, search.withoutTemporaryVertices());
+        }
+        return search;
+    }
+
     /**
      * Explore the streets around the origin or target, recording the minimum weight of a path to each street vertex.
      * When searching around the target, also retain the states that reach transit stops since we'll want to
@@ -444,7 +483,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      * of the estimated remaining weight after transit will be the largest weight seen, we can
      * safely cut off the post-transit search once the origin is found.
      */
-    private Map<Vertex, VertexModeWeight> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
+    private StreetSearch streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
         LOG.debug("Heuristic street search around the {}.", fromTarget ? "target" : "origin");
         rr = rr.clone();
         if (fromTarget) {
@@ -452,6 +491,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
         // Create a map that returns Infinity when it does not contain a vertex.
         Map<Vertex, VertexModeWeight> vertices = new HashMap<>();
+        List<Vertex> stops = new ArrayList<>();
+        TDoubleList stopWeights = new TDoubleArrayList();
         ShortestPathTree spt = new DominanceFunction.MinimumWeight().getNewShortestPathTree(rr);
         // TODO use normal OTP search for this.
         BinHeap<State> pq = new BinHeap<State>();
@@ -470,11 +511,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                 // We don't want to continue into the transit network yet, but when searching around the target
                 // place vertices on the transit queue so we can explore the transit network backward later.
                 if (fromTarget) {
-                    double weight = s.getWeight();
-                    transitQueue.insert(v, weight);
-                    if (weight > maxWeightSeen) {
-                        maxWeightSeen = weight;
-                    }
+                    stops.add(v);
+                    stopWeights.add(s.getWeight());
                 }
                 continue;
             }
@@ -523,8 +561,42 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             }
         }
         LOG.debug("Heuristic street search hit {} vertices.", vertices.size());
-        LOG.debug("Heuristic street search hit {} transit stops.", transitQueue.size());
-        return vertices;
+        LOG.debug("Heuristic street search hit {} transit stops.", stops.size());
+        return new StreetSearch(vertices, stops.toArray(new Vertex[stops.size()]), stopWeights.toArray());
+    }
+
+    /**
+     * The result of a street search around the origin or target: the lower bound weights of the vertices explored,
+     * and the weights at which transit stops were reached (possibly several times), in the order they were reached.
+     * Once built, instances are never modified, so they can be shared between requests.
+     */
+    static class StreetSearch {
+
+        final Map<Vertex, VertexModeWeight> vertices;
+
+        final Vertex[] stops;
+
+        final double[] stopWeights;
+
+        StreetSearch(Map<Vertex, VertexModeWeight> vertices, Vertex[] stops, double[] stopWeights) {
+            this.vertices = vertices;
+            this.stops = stops;
+            this.stopWeights = stopWeights;
+        }
+
+        /**
+         * @return a copy of this search leaving out the temporary vertices of the request that made it. The heuristic
+         * does not look up temporary vertices, and keeping them would retain the request's temporary edges.
+         */
+        StreetSearch withoutTemporaryVertices() {
+            Map<Vertex, VertexModeWeight> permanentVertices = new HashMap<>();
+            for (Map.Entry<Vertex, VertexModeWeight> entry : vertices.entrySet()) {
+                if (!(entry.getKey() instanceof TemporaryVertex)) {
+                    permanentVertices.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return new StreetSearch(permanentVertices, stops, stopWeights);
+        }
     }
 
     /**
@@ -0,0 +1,44 @@
+package org.opentripplanner.routing.core;
+
+/**
+ * The distances traveled in rented or hailed vehicles up to a State. Walk, bicycle, car and transit searches never
+ * travel any such distance, so rather than carrying three doubles on every State these are grouped in this object,
+ * and all states share the ZERO instance until one of the distances changes. Instances are immutable: a State that
+ * travels in a rented or hailed vehicle gets a new instance, and its children share it until they travel further.
+ */
+final class RentalDistances {
+
+    static final RentalDistances ZERO = new RentalDistances(0, 0, 0);
+
+    // The distance traveled in a transportation network company vehicle
+    final double transportationNetworkCompanyDriveDistance;
+
+    // The distance traveled in a car rental
+    final double carRentalDriveDistance;
+
+    // The distance traveled in a vehicle rental
+    final double vehicleRentalDistance;
+
+    private RentalDistances(double transportationNetworkCompanyDriveDistance, double carRentalDriveDistance,
+            double vehicleRentalDistance) {
+        this.transportationNetworkCompanyDriveDistance = transportationNetworkCompanyDriveDistance;
+        this.carRentalDriveDistance = carRentalDriveDistance;
+        this.vehicleRentalDistance = vehicleRentalDistance;
+    }
+
+    RentalDistances withTransportationNetworkCompanyDriveDistance(double distance) {
+        if (distance == transportationNetworkCompanyDriveDistance) return this;
+        return new RentalDistances(distance, carRentalDriveDistance, vehicleRentalDistance);
+    }
+
+    RentalDistances withCarRentalDriveDistance(double distance) {
+        if (distance == carRentalDriveDistance) return this;
+        return new RentalDistances(transportationNetworkCompanyDriveDistance, distance, vehicleRentalDistance);
+    }
+
+    RentalDistances withVehicleRentalDistance(double distance) {
+        if (distance == vehicleRentalDistance) return this;
+        return new RentalDistances(transportationNetworkCompanyDriveDistance, carRentalDriveDistance, distance);
+    }
+
+}
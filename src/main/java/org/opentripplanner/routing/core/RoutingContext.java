@@ -397,6 +397,27 @@ public class RoutingContext implements Cloneable {
         return true;
     }
 
+    /**
+     * @return a copy of this routing context for another request with the same origin and destination, which can be
+     * searched at the same time as this one. The temporary vertices, snapshots and service days are shared, while the
+     * debug output, abort flags and heuristic are the copy's own. The copy must not be destroyed, only this context.
+     */
+    public RoutingContext copyForRequest(RoutingRequest request, RemainingWeightHeuristic heuristic) {
+        try {
+            RoutingContext copy = (RoutingContext) super.clone();
+            copy.opt = request;
+            copy.remainingWeightHeuristic = heuristic;
+            copy.debugOutput = new DebugOutput();
+            copy.debugOutput.startedCalculating();
+            copy.aborted = false;
+            copy.searchAbortTime = 0;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since our super is the cloneable object */
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Tear down this routing context, removing any temporary edges from
      * the "permanent" graph objects. This enables all temporary objects
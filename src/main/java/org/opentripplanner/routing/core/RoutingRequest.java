@@ -134,6 +134,12 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** Whether the planner should return intermediate stops lists for transit legs. */
     public boolean showIntermediateStops = false;
 
+    /** Whether the planner should return turn-by-turn walk steps for non-transit legs. */
+    public boolean showSteps = true;
+
+    /** Whether the planner should return the elevation profiles of walk steps. */
+    public boolean showElevation = true;
+
     /** max walking speed along streets, in meters per second */
     public double walkSpeed;
 
@@ -411,6 +417,23 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public boolean compactLegsByReversedSearch = false;
 
+    /**
+     * When true, look for the first itineraries of a transit request with several searches running at the same time,
+     * each departing (or arriving, for arrive-by requests) itinerarySearchSlice seconds later (earlier) than the
+     * previous one, instead of one search after another with the trips of earlier results banned. The results are
+     * merged and deduplicated, and any missing itineraries are then searched for sequentially as usual.
+     */
+    public boolean parallelItinerarySearch = false;
+
+    /** The offset in seconds between the departure (or arrival) times of the searches of parallelItinerarySearch. */
+    public int itinerarySearchSlice = 15 * 60;
+
+    /**
+     * When true, searches keep their states in arrays indexed on vertex indexes (see VertexIndexedShortestPathTree)
+     * rather than in a map keyed on vertices. Both give the same results.
+     */
+    public boolean vertexIndexedShortestPathTree = true;
+
     /**
      * If true, cost turns as they would be in a country where driving occurs on the right; otherwise, cost them as they would be in a country where
      * driving occurs on the left.
@@ -566,6 +589,12 @@ public class RoutingRequest implements Cloneable, Serializable {
     // units are in milliseconds
     public long searchTimeout = -1;
 
+    /**
+     * Milliseconds this request already spent waiting for a routing thread before its search began. They are deducted
+     * from the search timeouts, which thus apply to the time since the request was accepted.
+     */
+    public long queueWaitTime = 0;
+
     /** Which path comparator to use */
     public String pathComparator = null;
 
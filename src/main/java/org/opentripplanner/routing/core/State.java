@@ -1,5 +1,6 @@
 package org.opentripplanner.routing.core;
 
+import org.opentripplanner.common.pqueue.IndexedHeapElement;
 import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.model.Stop;
 import org.opentripplanner.model.Trip;
@@ -26,7 +27,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class State implements Cloneable {
+public class State implements Cloneable, IndexedHeapElement {
     /* Data which is likely to change at most traversals */
     
     // the current time at this state, in milliseconds
@@ -57,17 +58,11 @@ public class State implements Cloneable {
     // The time traveled pre-transit, for park and ride or kiss and ride searches
     int preTransitTime;
 
-    // The current distance traveled in a transportation network company vehicle
-    public double transportationNetworkCompanyDriveDistance;
+    // The distances traveled in rented or hailed vehicles, shared with the back state until they change
+    RentalDistances rentalDistances = RentalDistances.ZERO;
 
-    // The current distance traveled in a car rental
-    public double carRentalDriveDistance;
-
-    // The current distance traveled in a vehicle rental
-    public double vehicleRentalDistance;
-
-    // track the states of all path parsers -- probably changes frequently
-    protected int[] pathParserStates;
+    // position of this state in the A* priority queue, maintained by the queue itself
+    private int heapIndex;
 
     private static final Logger LOG = LoggerFactory.getLogger(State.class);
 
@@ -195,8 +190,6 @@ public class State implements Cloneable {
         }
         this.walkDistance = 0;
         this.preTransitTime = 0;
-        this.transportationNetworkCompanyDriveDistance = 0;
-        this.carRentalDriveDistance = 0;
         stateData.routeSequence = new FeedScopedId[0];
     }
 
@@ -221,6 +214,16 @@ public class State implements Cloneable {
         return ret;
     }
 
+    @Override
+    public int getHeapIndex() {
+        return heapIndex;
+    }
+
+    @Override
+    public void setHeapIndex(int heapIndex) {
+        this.heapIndex = heapIndex;
+    }
+
     /*
      * FIELD ACCESSOR METHODS States are immutable, so they have only get methods. The corresponding
      * set methods are in StateEditor.
@@ -395,6 +398,21 @@ public class State implements Cloneable {
         return preTransitTime;
     }
 
+    /** @return the distance traveled in a transportation network company vehicle since it was last boarded. */
+    public double getTransportationNetworkCompanyDriveDistance() {
+        return rentalDistances.transportationNetworkCompanyDriveDistance;
+    }
+
+    /** @return the distance traveled in the current (or last) rented car. */
+    public double getCarRentalDriveDistance() {
+        return rentalDistances.carRentalDriveDistance;
+    }
+
+    /** @return the distance traveled on the current (or last) rented vehicle. */
+    public double getVehicleRentalDistance() {
+        return rentalDistances.vehicleRentalDistance;
+    }
+
     public Vertex getVertex() {
         return this.vertex;
     }
@@ -435,21 +453,21 @@ public class State implements Cloneable {
 
     public double getTransportationNetworkCompanyDistanceDelta() {
         if (backState != null)
-            return Math.abs(this.transportationNetworkCompanyDriveDistance - backState.transportationNetworkCompanyDriveDistance);
+            return Math.abs(this.getTransportationNetworkCompanyDriveDistance() - backState.getTransportationNetworkCompanyDriveDistance());
         else
             return 0;
     }
 
     public double getCarRentalDistanceDelta() {
         if (backState != null)
-            return Math.abs(this.carRentalDriveDistance - backState.carRentalDriveDistance);
+            return Math.abs(this.getCarRentalDriveDistance() - backState.getCarRentalDriveDistance());
         else
             return 0;
     }
 
     public double getVehicleRentalDistanceDelta() {
         if (backState != null)
-            return Math.abs(this.vehicleRentalDistance - backState.vehicleRentalDistance);
+            return Math.abs(this.getVehicleRentalDistance() - backState.getVehicleRentalDistance());
         else
             return 0;
     }
@@ -727,16 +745,6 @@ public class State implements Cloneable {
         return foundAlternatePaths;
     }
     
-    public String getPathParserStates() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("( ");
-        for (int i : pathParserStates) {
-            sb.append(String.format("%02d ", i));
-        }
-        sb.append(")");
-        return sb.toString();
-    }
-
     /** @return the last TripPattern used in this path (which is set when leaving the vehicle). */
     public TripPattern getLastPattern() {
         return stateData.lastPattern;
@@ -845,7 +853,7 @@ public class State implements Cloneable {
                     editor.endCarRenting();
                 } else if (!orig.isCarRenting() && origBackState.isCarRenting()) {
                     editor.beginCarRenting(
-                        orig.carRentalDriveDistance,
+                        orig.getCarRentalDriveDistance(),
                         orig.getCarRentalNetworks(),
                         orig.stateData.rentedCarAllowsFloatingDropoffs
                     );
@@ -854,7 +862,7 @@ public class State implements Cloneable {
                     editor.endVehicleRenting();
                 } else if (!orig.isVehicleRenting() && origBackState.isVehicleRenting()) {
                     editor.beginVehicleRenting(
-                        orig.vehicleRentalDistance,
+                        orig.getVehicleRentalDistance(),
                         orig.getVehicleRentalNetworks(),
                         orig.stateData.rentedVehicleAllowsFloatingDropoffs
                     );
@@ -930,8 +938,6 @@ public class State implements Cloneable {
                         + reversed.stateData.initialWaitTime + ", should be " + newInitialWaitTime);
 
             // copy the path parser states so this path is not thrown out going forward
-//            reversed.pathParserStates = 
-//                    Arrays.copyOf(this.pathParserStates, this.pathParserStates.length, newLength);
             
             // copy things that didn't get copied
             reversed.initializeFieldsFrom(this);
@@ -1044,7 +1050,7 @@ public class State implements Cloneable {
 
         // Add the initial TNC distance as the first StreetEdge traversed is done so while the usingHailedCar flag is
         // still set to false
-        transportationNetworkCompanyDriveDistance = initialEdgeDistance;
+        rentalDistances = rentalDistances.withTransportationNetworkCompanyDriveDistance(initialEdgeDistance);
     }
 
     public boolean isTNCStopAllowed() {
@@ -1053,7 +1059,7 @@ public class State implements Cloneable {
 
     public boolean isTNCStopAllowed (StreetEdge theEdge) {
         // Make sure travel distance in car is greater than minimum distance
-        if (this.transportationNetworkCompanyDriveDistance <
+        if (this.getTransportationNetworkCompanyDriveDistance() <
             this.stateData.opt.minimumTransportationNetworkCompanyDistance) {
             return false;
         }
@@ -1133,7 +1139,7 @@ public class State implements Cloneable {
         // If not searching backwards, make sure travel distance in car is greater than minimum distance
         if (
             !options.arriveBy &&
-                this.carRentalDriveDistance < this.stateData.opt.minimumCarRentalDistance
+                this.getCarRentalDriveDistance() < this.stateData.opt.minimumCarRentalDistance
         ) {
             // haven't traveled far enough, dropoff not possible
             return false;
@@ -1205,7 +1211,7 @@ public class State implements Cloneable {
         } else {
             stateData.hasRentedCarPreTransit = true;
         }
-        carRentalDriveDistance = initialEdgeDistance;
+        rentalDistances = rentalDistances.withCarRentalDriveDistance(initialEdgeDistance);
     }
 
     /**
@@ -1290,7 +1296,7 @@ public class State implements Cloneable {
         // If not searching backwards, make sure travel distance in vehicle is greater than minimum distance
         if (
             !options.arriveBy &&
-                this.vehicleRentalDistance < this.stateData.opt.minimumVehicleRentalDistance
+                this.getVehicleRentalDistance() < this.stateData.opt.minimumVehicleRentalDistance
         ) {
             // vehicle hasn't been ridden far enough
             return false;
@@ -1371,6 +1377,6 @@ public class State implements Cloneable {
         } else {
             stateData.hasRentedVehiclePreTransit = true;
         }
-        vehicleRentalDistance = initialEdgeDistance;
+        rentalDistances = rentalDistances.withVehicleRentalDistance(initialEdgeDistance);
     }
 }
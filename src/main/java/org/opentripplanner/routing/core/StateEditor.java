@@ -234,18 +234,19 @@ public class StateEditor {
     }
 
     public void incrementTransportationNetworkCompanyDistance(double distance) {
-        cloneStateDataAsNeeded();
-        child.transportationNetworkCompanyDriveDistance += distance;
+        RentalDistances distances = child.rentalDistances;
+        child.rentalDistances = distances.withTransportationNetworkCompanyDriveDistance(
+                distances.transportationNetworkCompanyDriveDistance + distance);
     }
 
     public void incrementCarRentalDistance(double distance) {
-        cloneStateDataAsNeeded();
-        child.carRentalDriveDistance += distance;
+        RentalDistances distances = child.rentalDistances;
+        child.rentalDistances = distances.withCarRentalDriveDistance(distances.carRentalDriveDistance + distance);
     }
 
     public void incrementVehicleRentalDistance(double distance) {
-        cloneStateDataAsNeeded();
-        child.vehicleRentalDistance += distance;
+        RentalDistances distances = child.rentalDistances;
+        child.rentalDistances = distances.withVehicleRentalDistance(distances.vehicleRentalDistance + distance);
     }
 
     /* Basic Setters */
@@ -557,7 +558,7 @@ public class StateEditor {
      *
      * This method is called from the traverse method of the StreetEdge class.  The edge will be traversed in CAR mode,
      * but since the determination to board a hailed car happens after that, the initial distance traveled in the car
-     * must be added here to the transportationNetworkCompanyDriveDistance variable.
+     * must be added here to the transportationNetworkCompanyDriveDistance of the state.
      */
     public void boardHailedCar(double initialEdgeDistance) {
         cloneStateDataAsNeeded();
@@ -83,7 +83,7 @@ public class RentACarOnEdge extends RentACarAbstractEdge {
             }
 
             // make sure the minimum car rental distance has been traveled
-            if (s0.carRentalDriveDistance < options.minimumCarRentalDistance)
+            if (s0.getCarRentalDriveDistance() < options.minimumCarRentalDistance)
                 return null;
 
             // make sure the car that is about to be rented has floating dropoff capabilities if it
@@ -91,7 +91,7 @@ public class RentAVehicleOnEdge extends RentAVehicleAbstractEdge {
             }
 
             // make sure the minimum vehicle rental distance has been traveled
-            if (s0.vehicleRentalDistance < options.minimumVehicleRentalDistance) {
+            if (s0.getVehicleRentalDistance() < options.minimumVehicleRentalDistance) {
                 // not enough distance has been traveled in order to do the rental, return null
                 return null;
             }
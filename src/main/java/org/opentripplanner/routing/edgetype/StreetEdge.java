@@ -18,6 +18,7 @@ import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.MappedStreetNetwork;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.vertextype.BarrierVertex;
@@ -96,6 +97,14 @@ public class StreetEdge extends Edge implements Cloneable {
     protected float bicycleSafetyFactor;
 
     private int[] compactGeometry;
+
+    /**
+     * Index of this edge in the MappedStreetNetwork its geometry is read from, or -1 if compactGeometry holds it. Only
+     * meaningful once mappedNetwork is set, see Graph.mapStreetNetwork.
+     */
+    private int mappedGeometry = -1;
+
+    private transient MappedStreetNetwork mappedNetwork;
     
     private I18NString name;
 
@@ -281,6 +290,11 @@ public class StreetEdge extends Edge implements Cloneable {
         return length_mm / 1000.0; // CONVERT FROM FIXED MILLIMETERS TO FLOAT METERS
     }
 
+    /** @return the exact stored length of this edge, in millimeters. */
+    public int getLength_mm() {
+        return length_mm;
+    }
+
     @Override
     public State traverse(State s0) {
         final RoutingRequest options = s0.getOptions();
@@ -1157,9 +1171,49 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
+		MappedStreetNetwork network = mappedNetwork;
+		if (network != null) {
+			return network.getGeometry(mappedGeometry);
+		}
 		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
 	}
 
+	/**
+	 * Read the geometry of this edge from the given edge of a mapped street network from now on, and drop the copy
+	 * held on the heap. Straight edges have no geometry to drop and are left alone.
+	 */
+	public void mapGeometry(MappedStreetNetwork network, int edge) {
+		if (compactGeometry == null) return;
+		mappedGeometry = edge;
+		mappedNetwork = network;
+		compactGeometry = null;
+	}
+
+	/**
+	 * Read the geometry of this edge, if it was written to a mapped street network, from the given network after it
+	 * has been loaded.
+	 * @return whether the geometry of this edge is read from the network.
+	 * @throws IllegalStateException if the network does not hold this edge at the expected index.
+	 */
+	public boolean attachMappedGeometry(MappedStreetNetwork network) {
+		if (mappedGeometry < 0) return false;
+		if (mappedGeometry >= network.getEdgeCount() || network.getOriginalEdgeId(mappedGeometry) != getId()) {
+			throw new IllegalStateException("The mapped street network does not match the geometry of " + this);
+		}
+		mappedNetwork = network;
+		return true;
+	}
+
+	/** Copy the geometry of this edge back onto the heap if it is read from a mapped street network. */
+	public void unmapGeometry() {
+		if (mappedNetwork != null) {
+			LineString geometry = mappedNetwork.getGeometry(mappedGeometry);
+			setGeometry(geometry);
+			mappedNetwork = null;
+		}
+		mappedGeometry = -1;
+	}
+
 	private void setGeometry(LineString geometry) {
 		this.compactGeometry = CompactLineString.compactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), isBack() ? (LineString)geometry.reverse() : geometry, isBack());
 	}
@@ -2,10 +2,14 @@ package org.opentripplanner.routing.edgetype;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.stream.IntStream;
 
 import com.beust.jcommander.internal.Lists;
 
@@ -47,8 +51,9 @@ public class Timetable implements Serializable {
     /**
      * Contains one TripTimes object for each scheduled trip (even cancelled ones) and possibly
      * additional TripTimes objects for unscheduled trips. Frequency entries are stored separately.
+     * Only changed through addTripTimes and setTripTimes, which keep track of the trips to sort again.
      */
-    public final List<TripTimes> tripTimes = Lists.newArrayList();
+    private final List<TripTimes> tripTimes = Lists.newArrayList();
 
     /**
      * Contains one FrequencyEntry object for each block of frequency-based trips.
@@ -74,7 +79,21 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
-    
+
+    /**
+     * The trips sorted by their departure and arrival times at each stop, allowing getNextTrip to skip the trips that
+     * leave too early or arrive too late. Null until this Timetable is finished. Only the order of the trips is kept,
+     * their times are read from the TripTimes, and that order is shared between consecutive stops and between
+     * departures and arrivals wherever it is the same, so this takes much less memory than the stop times themselves.
+     */
+    private transient SortedStopTimes departures, arrivals;
+
+    /**
+     * The indexes of the trips set or added since the sorted stop times were built, which are merged into them when
+     * this Timetable is finished again. The sorted stop times are only used when this is empty.
+     */
+    private transient BitSet changedTrips;
+
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
         this.pattern = pattern;
@@ -88,6 +107,12 @@ public class Timetable implements Serializable {
         tripTimes.addAll(tt.tripTimes);
         this.serviceDate = serviceDate;
         this.pattern = tt.pattern;
+        // Realtime updates copy a timetable and change a few of its trips, so keep the sorted stop times to update them.
+        if (tt.departures != null) {
+            this.departures = tt.departures;
+            this.arrivals = tt.arrivals;
+            this.changedTrips = (BitSet) tt.changedTrips.clone();
+        }
     }
 
     /**
@@ -133,37 +158,75 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
+        if (departures != null && changedTrips.isEmpty()) {
+            // Trips from different service IDs are combined on a pattern, and they may overtake each other, so the
+            // trips cannot simply be kept in order. Instead walk through the trips in the order they depart (arrive)
+            // at this stop, starting at the search time, until one of them can be used. Transfer rules can only
+            // delay boarding (advance alighting), so the first usable trip is the best one.
+            int[] trips = (boarding ? departures : arrivals).trips[stopIndex];
             if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
+                for (int i = SortedStopTimes.firstAtOrAfter(tripTimes, trips, stopIndex, true, time);
+                        i < trips.length; i++) {
+                    TripTimes tt = tripTimes.get(trips[i]);
+                    if (tt.isCanceled()) continue;
+                    if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                    if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                    int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                    if (adjustedTime == -1) continue;
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue;
+                    if (depTime >= adjustedTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                        break;
+                    }
                 }
             } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+                // Trips arriving at the same time are sorted by index. Like the linear search below, keep the first.
+                for (int i = SortedStopTimes.firstAtOrAfter(tripTimes, trips, stopIndex, false, time + 1) - 1;
+                        i >= 0; i--) {
+                    TripTimes tt = tripTimes.get(trips[i]);
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0 || (bestTrip != null && arvTime < bestTime)) break;
+                    if (tt.isCanceled()) continue;
+                    if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                    if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                    int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                    if (adjustedTime == -1) continue;
+                    if (arvTime <= adjustedTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
+                }
+            }
+        } else {
+            // Linear search through the timetable looking for the best departure, when it has not been finished since
+            // its trips were last changed.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -202,6 +265,23 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /**
+     * @return the indexes of the trips departing from the given stop at or after the given time, in order of departure
+     * (then of index). When this Timetable is finished, only the trips that are consumed from the stream are visited.
+     */
+    public IntStream tripsDepartingFrom(int stopIndex, int time) {
+        if (departures != null && changedTrips.isEmpty()) {
+            int[] trips = departures.trips[stopIndex];
+            return IntStream.range(SortedStopTimes.firstAtOrAfter(tripTimes, trips, stopIndex, true, time), trips.length)
+                    .map(i -> trips[i]);
+        }
+        return IntStream.range(0, tripTimes.size())
+                .filter(i -> tripTimes.get(i).getDepartureTime(stopIndex) >= time)
+                .boxed()
+                .sorted(Comparator.comparingInt(i -> tripTimes.get(i).getDepartureTime(stopIndex)))
+                .mapToInt(Integer::intValue);
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -282,6 +362,15 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        /* Sort the trips by time at each stop, or only re-sort those that changed since the last time. */
+        if (departures == null) {
+            departures = SortedStopTimes.sort(tripTimes, nStops, true, null);
+            arrivals = SortedStopTimes.sort(tripTimes, nStops, false, departures);
+        } else if ( ! changedTrips.isEmpty()) {
+            departures = departures.update(tripTimes, changedTrips, true, null);
+            arrivals = arrivals.update(tripTimes, changedTrips, false, departures);
+        }
+        changedTrips = new BitSet();
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -306,6 +395,11 @@ public class Timetable implements Serializable {
         return -1;
     }
 
+    /** @return a read-only view of the TripTimes of the trips of this Timetable, not including frequency entries. */
+    public List<TripTimes> getTripTimes() {
+        return Collections.unmodifiableList(tripTimes);
+    }
+
     public TripTimes getTripTimes(int tripIndex) {
         return tripTimes.get(tripIndex);
     }
@@ -325,6 +419,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        if (changedTrips != null) changedTrips.set(tripIndex);
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -505,6 +600,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        if (changedTrips != null) changedTrips.set(tripTimes.size());
         tripTimes.add(tt);
     }
 
@@ -559,4 +655,113 @@ public class Timetable implements Serializable {
         }
     }
 
+    /**
+     * For each stop, the indexes of the trips of a Timetable sorted by their departure (or arrival) time at that stop.
+     * Trips with the same time are sorted by index. The times themselves are not copied, they are read from the
+     * TripTimes of the Timetable, which saves an int per stop time for each of departures and arrivals at the cost of
+     * an indirection per step of the binary search. Stops where the trips come in the same order as at the previous
+     * stop, which is most of them, share its array of trip indexes, and the arrivals share the arrays of the
+     * departures where their order is the same.
+     */
+    private static class SortedStopTimes {
+
+        final int[][] trips;
+
+        private SortedStopTimes(int nStops) {
+            trips = new int[nStops][];
+        }
+
+        /** @param shared sorted stop times whose arrays are reused where the order is the same, or null */
+        static SortedStopTimes sort(List<TripTimes> tripTimes, int nStops, boolean departures, SortedStopTimes shared) {
+            SortedStopTimes sorted = new SortedStopTimes(nStops);
+            long[] keys = new long[tripTimes.size()];
+            for (int s = 0; s < nStops; s++) {
+                for (int t = 0; t < keys.length; t++) {
+                    keys[t] = key(time(tripTimes.get(t), s, departures), t);
+                }
+                Arrays.sort(keys);
+                sorted.set(s, keys, keys.length, shared);
+            }
+            return sorted;
+        }
+
+        /**
+         * @return a copy of these sorted stop times in which the given trips, which were replaced or added, are sorted
+         * again. This merges them with the other trips instead of sorting all the trips again. The times of the other
+         * trips are read from the given TripTimes, in which they have not changed.
+         * @param shared sorted stop times whose arrays are reused where the order is the same, or null
+         */
+        SortedStopTimes update(List<TripTimes> tripTimes, BitSet changedTrips, boolean departures,
+                               SortedStopTimes shared) {
+            SortedStopTimes updated = new SortedStopTimes(trips.length);
+            int[] changed = changedTrips.stream().toArray();
+            long[] changedKeys = new long[changed.length];
+            long[] keys = new long[tripTimes.size()];
+            for (int s = 0; s < trips.length; s++) {
+                for (int c = 0; c < changed.length; c++) {
+                    changedKeys[c] = key(time(tripTimes.get(changed[c]), s, departures), changed[c]);
+                }
+                Arrays.sort(changedKeys);
+                int[] oldTrips = trips[s];
+                int i = 0, c = 0, k = 0;
+                while (k < keys.length) {
+                    if (i < oldTrips.length && changedTrips.get(oldTrips[i])) {
+                        i++;
+                        continue;
+                    }
+                    long oldKey = i < oldTrips.length
+                            ? key(time(tripTimes.get(oldTrips[i]), s, departures), oldTrips[i]) : Long.MAX_VALUE;
+                    if (c == changedKeys.length || (i < oldTrips.length && oldKey < changedKeys[c])) {
+                        keys[k++] = oldKey;
+                        i++;
+                    } else {
+                        keys[k++] = changedKeys[c++];
+                    }
+                }
+                updated.set(s, keys, k, shared);
+            }
+            return updated;
+        }
+
+        private void set(int s, long[] keys, int n, SortedStopTimes shared) {
+            int[] stopTrips = new int[n];
+            for (int i = 0; i < n; i++) {
+                stopTrips[i] = (int) keys[i];
+            }
+            if (s > 0 && Arrays.equals(stopTrips, trips[s - 1])) {
+                stopTrips = trips[s - 1];
+            } else if (shared != null && Arrays.equals(stopTrips, shared.trips[s])) {
+                stopTrips = shared.trips[s];
+            }
+            trips[s] = stopTrips;
+        }
+
+        /**
+         * @return the index of the first of the given trips, sorted by their time at the given stop, whose time there
+         * is not before the given time.
+         */
+        static int firstAtOrAfter(List<TripTimes> tripTimes, int[] trips, int stop, boolean departures, int time) {
+            int low = 0;
+            int high = trips.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (time(tripTimes.get(trips[mid]), stop, departures) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** Sort by time, then by trip index, which is never negative. */
+        private static long key(int time, int trip) {
+            return ((long) time << 32) | trip;
+        }
+
+        private static int time(TripTimes tt, int stop, boolean departures) {
+            return departures ? tt.getDepartureTime(stop) : tt.getArrivalTime(stop);
+        }
+    }
+
 } 
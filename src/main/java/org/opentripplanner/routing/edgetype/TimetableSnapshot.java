@@ -332,6 +332,14 @@ public class TimetableSnapshot {
         return modified;
     }
 
+    /**
+     * @return the number of timetables modified since the last commit. These are the only timetables the next commit
+     * will index, all others are shared with the previous snapshot.
+     */
+    public int getDirtyTimetableCount() {
+        return dirtyTimetables.size();
+    }
+
     public boolean isDirty() {
         if (readOnly) return false;
         return dirty;
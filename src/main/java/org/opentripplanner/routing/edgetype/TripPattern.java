@@ -667,8 +667,8 @@ public class TripPattern implements Cloneable, Serializable {
     public FrequencyEntry getSingleFrequencyEntry() {
         Timetable table = this.scheduledTimetable;
         List<FrequencyEntry> freqs = this.scheduledTimetable.frequencyEntries;
-        if ( ! table.tripTimes.isEmpty()) {
-            LOG.debug("Timetable has {} non-frequency entries and {} frequency entries.", table.tripTimes.size(),
+        if ( ! table.getTripTimes().isEmpty()) {
+            LOG.debug("Timetable has {} non-frequency entries and {} frequency entries.", table.getTripTimes().size(),
                     table.frequencyEntries.size());
             return null;
         }
@@ -496,7 +496,7 @@ public class PatternHopFactory {
         for (TripPattern pattern : tripPatterns) {
             Timetable timetable = pattern.scheduledTimetable;
             /* TODO: Block semantics seem undefined for frequency trips, so skip them? */
-            for (TripTimes tripTimes : timetable.tripTimes) {
+            for (TripTimes tripTimes : timetable.getTripTimes()) {
                 Trip trip = tripTimes.trip;
                 if ( ! Strings.isNullOrEmpty(trip.getBlockId())) {
                     tripTimesForBlock.put(new BlockIdAndServiceId(trip), tripTimes);
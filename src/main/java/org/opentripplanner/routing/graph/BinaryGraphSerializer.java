@@ -0,0 +1,117 @@
+package org.opentripplanner.routing.graph;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.opentripplanner.common.MavenVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Low-level reading and writing of the binary graph format. The object sequence itself (graph, edges, debug data) is
+ * driven by Graph.save(WritableByteChannel) and Graph.load(ReadableByteChannel, ...), mirroring the Java serialization
+ * path.
+ *
+ * A binary graph file consists of a fixed header followed by an FST object stream:
+ * <pre>
+ *   8 bytes   magic number "OTPGRAPH"
+ *   4 bytes   binary format version, see FORMAT_VERSION
+ *   4 bytes   length n of the OTP version string
+ *   n bytes   UTF-8 OTP version string, for diagnostics only
+ *   ...       FST payload
+ * </pre>
+ * The header can be checked without deserializing anything, so a file written by an incompatible version of this
+ * format is rejected immediately. FST is much faster than ObjectInputStream and reads its input in chunks, so edges
+ * are deserialized and registered one at a time instead of through one huge intermediate list.
+ */
+public class BinaryGraphSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGraphSerializer.class);
+
+    static final byte[] MAGIC = "OTPGRAPH".getBytes(StandardCharsets.US_ASCII);
+
+    /** Increment this whenever the layout of the header or the sequence of objects in the payload changes. */
+    public static final int FORMAT_VERSION = 2;
+
+    /** Sanity limit on the version string length, to fail cleanly on corrupt headers. */
+    private static final int MAX_VERSION_STRING_LENGTH = 1024;
+
+    public static void writeHeader(WritableByteChannel channel) throws IOException {
+        byte[] version = MavenVersion.VERSION.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 8 + version.length);
+        header.put(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(version.length);
+        header.put(version);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Read and check the header, leaving the channel positioned at the start of the FST payload.
+     * @throws IllegalStateException if this is not a binary graph or was written with another format version.
+     */
+    public static void readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, MAGIC.length + 8);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IllegalStateException("Input is not a graph in the binary format.");
+            }
+        }
+        int formatVersion = header.getInt();
+        if (formatVersion != FORMAT_VERSION) {
+            LOG.error("Binary graph format version {} is not supported by this OTP (expected {}), please rebuild it.",
+                    formatVersion, FORMAT_VERSION);
+            throw new IllegalStateException("Stored graph binary format version error");
+        }
+        int versionLength = header.getInt();
+        if (versionLength < 0 || versionLength > MAX_VERSION_STRING_LENGTH) {
+            throw new IllegalStateException("Corrupt binary graph header.");
+        }
+        ByteBuffer version = readFully(channel, versionLength);
+        LOG.info("Binary graph written by OTP {}", new String(version.array(), StandardCharsets.UTF_8));
+    }
+
+    public static FSTObjectOutput newObjectOutput(WritableByteChannel channel) {
+        return new FSTObjectOutput(Channels.newOutputStream(channel), newConfiguration(null));
+    }
+
+    /**
+     * @param classLoader an alternate class loader for graph classes (see org.opentripplanner.customize), or null.
+     */
+    public static FSTObjectInput newObjectInput(ReadableByteChannel channel, ClassLoader classLoader) {
+        return new FSTObjectInput(Channels.newInputStream(channel), newConfiguration(classLoader));
+    }
+
+    private static FSTConfiguration newConfiguration(ClassLoader classLoader) {
+        FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+        if (classLoader != null) {
+            conf.setClassLoader(classLoader);
+        }
+        return conf;
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of binary graph header.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.opentripplanner.routing.graph;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * A compact, read-only copy of the edge lists of every vertex in a graph, stored in compressed sparse row form. All
+ * edges are held in one array ordered by origin vertex, so the outgoing edges of a vertex are a contiguous slice of
+ * that array and the incoming edges are a contiguous slice of an int array of positions in it. This is built once
+ * when the graph is loaded or finished building (see Graph.buildEdgeAdjacency) and is walked by AStar, which keeps the
+ * search inner loop on a few large arrays rather than chasing one small array per vertex.
+ *
+ * Each vertex that is part of the adjacency knows its row, through the immutable VertexEdges it publishes, and drops
+ * its own edge arrays: the adjacency is then the only copy of its edge lists. Edges added to such a vertex afterwards
+ * (typically the temporary edges linking a request origin or destination into the street network) are kept in a
+ * small overlay next to the row and are visited after it. If an edge that is part of the row is removed, the vertex
+ * leaves the adjacency and gets its own edge arrays back until the adjacency is rebuilt. Vertices that are not in the
+ * graph at all, such as temporary vertices, never have a row.
+ */
+public class EdgeAdjacency {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EdgeAdjacency.class);
+
+    /** All edges of the adjacency, grouped by origin vertex row. */
+    private final Edge[] edges;
+
+    /** The outgoing edges of row r are edges[outOffsets[r]] until edges[outOffsets[r + 1] - 1]. */
+    private final int[] outOffsets;
+
+    /** The incoming edges of row r are edges[inEdges[inOffsets[r]]] until edges[inEdges[inOffsets[r + 1] - 1]]. */
+    private final int[] inOffsets;
+
+    private final int[] inEdges;
+
+    private EdgeAdjacency(Edge[] edges, int[] outOffsets, int[] inOffsets, int[] inEdges) {
+        this.edges = edges;
+        this.outOffsets = outOffsets;
+        this.inOffsets = inOffsets;
+        this.inEdges = inEdges;
+    }
+
+    /**
+     * Build the adjacency of the given vertices and attach each of them to its row. A vertex whose edge lists change
+     * while the adjacency is being built, or whose incoming edges are not all outgoing edges of some vertex in the
+     * collection, is left detached and keeps its own edge arrays.
+     */
+    public static EdgeAdjacency build(Collection<Vertex> vertices) {
+        Vertex[] rows = vertices.toArray(new Vertex[vertices.size()]);
+        int nRows = rows.length;
+        // First pass: snapshot the edge lists, whose outgoing edges together contain every edge exactly once.
+        VertexEdges[] snapshots = new VertexEdges[nRows];
+        int[] outOffsets = new int[nRows + 1];
+        for (int r = 0; r < nRows; r++) {
+            snapshots[r] = rows[r].getVertexEdges();
+            outOffsets[r + 1] = outOffsets[r] + snapshots[r].getOutgoing().length;
+        }
+        Edge[] edges = new Edge[outOffsets[nRows]];
+        TIntIntMap positionById = new TIntIntHashMap(edges.length, 0.5f, Integer.MIN_VALUE, -1);
+        for (int r = 0; r < nRows; r++) {
+            Edge[] outgoing = snapshots[r].getOutgoing();
+            System.arraycopy(outgoing, 0, edges, outOffsets[r], outgoing.length);
+        }
+        for (int e = 0; e < edges.length; e++) {
+            positionById.put(edges[e].getId(), e);
+        }
+        int[] inOffsets = new int[nRows + 1];
+        int[] inEdges = new int[edges.length];
+        EdgeAdjacency adjacency = new EdgeAdjacency(edges, outOffsets, inOffsets, inEdges);
+        // Second pass: translate the incoming edge lists into positions and attach every consistent vertex. The row
+        // is complete before the vertex publishes it, so a search never sees a partly filled row.
+        int nDetached = 0;
+        for (int r = 0; r < nRows; r++) {
+            Vertex vertex = rows[r];
+            int start = inOffsets[r];
+            int end = start;
+            boolean consistent = true;
+            for (Edge edge : snapshots[r].getIncoming()) {
+                int position = positionById.get(edge.getId());
+                if (position < 0 || edges[position] != edge || end == inEdges.length) {
+                    consistent = false;
+                    break;
+                }
+                inEdges[end++] = position;
+            }
+            if (!consistent) end = start;
+            inOffsets[r + 1] = end;
+            synchronized (vertex) {
+                if (consistent && vertex.getVertexEdges() == snapshots[r]) {
+                    vertex.attachAdjacencyRow(adjacency, r);
+                } else {
+                    vertex.detachAdjacencyRow();
+                    nDetached++;
+                }
+            }
+        }
+        if (nDetached > 0) {
+            LOG.warn("{} vertices have inconsistent edge lists and were left out of the edge adjacency.", nDetached);
+        }
+        return adjacency;
+    }
+
+    public int getRowCount() {
+        return outOffsets.length - 1;
+    }
+
+    public int getEdgeCount() {
+        return edges.length;
+    }
+
+    /** @return the edge at the given position, which is in [0, getEdgeCount()). */
+    public Edge getEdge(int position) {
+        return edges[position];
+    }
+
+    /** @return the position of the first outgoing edge of the given row. */
+    public int outgoingStart(int row) {
+        return outOffsets[row];
+    }
+
+    /** @return one past the position of the last outgoing edge of the given row. */
+    public int outgoingEnd(int row) {
+        return outOffsets[row + 1];
+    }
+
+    /** @return the index of the first incoming edge of the given row, to be passed to getIncomingEdge. */
+    public int incomingStart(int row) {
+        return inOffsets[row];
+    }
+
+    /** @return one past the index of the last incoming edge of the given row. */
+    public int incomingEnd(int row) {
+        return inOffsets[row + 1];
+    }
+
+    /** @return the incoming edge at index i, which is between incomingStart(row) and incomingEnd(row). */
+    public Edge getIncomingEdge(int i) {
+        return edges[inEdges[i]];
+    }
+
+}
@@ -10,6 +10,8 @@ import gnu.trove.list.TDoubleList;
 import gnu.trove.list.linked.TDoubleLinkedList;
 import org.apache.commons.math3.stat.descriptive.rank.Median;
 import org.joda.time.DateTime;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
 import org.opentripplanner.calendar.impl.CalendarServiceImpl;
 import org.opentripplanner.graph_builder.module.GraphBuilderModuleSummary;
 import org.opentripplanner.model.Agency;
@@ -26,11 +28,15 @@ import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.geometry.GraphUtils;
 import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.NoFutureDates;
+import org.opentripplanner.graph_builder.linking.SnappingCache;
+import org.opentripplanner.index.GraphQLResponseCache;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.profile.StopClusterMode;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
+import org.opentripplanner.routing.algorithm.ch.ContractionHierarchy;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicStreetSearchCache;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.EdgeWithCleanup;
 import org.opentripplanner.routing.edgetype.StreetEdge;
@@ -49,6 +55,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.Preferences;
@@ -95,6 +106,20 @@ public class Graph implements Serializable {
 
     private transient Map<Integer, Edge> edgeById;
 
+    /** Compact edge lists of all vertices, walked by AStar. Null until buildEdgeAdjacency() is called. */
+    private transient EdgeAdjacency edgeAdjacency;
+
+    /**
+     * Whether the geometries of the street edges of this graph are left out of it and stored in a MappedStreetNetwork
+     * file next to it instead, see mapStreetNetwork.
+     */
+    private boolean streetNetworkMapped = false;
+
+    private transient MappedStreetNetwork mappedStreetNetwork;
+
+    /** One more than the highest index of any vertex of this graph when the vertex index was last rebuilt. */
+    private transient int vertexIndexBound;
+
     public transient StreetVertexIndexService streetIndex;
 
     public transient GraphIndex index;
@@ -170,6 +195,12 @@ public class Graph implements Serializable {
     /** True if OSM data was loaded into this Graph. */
     public boolean hasStreets = false;
 
+    /**
+     * SHA-1 hashes of the OSM files this Graph's streets were built from, by file name. Used to check that a street
+     * graph reused as the base of another build is still up to date.
+     */
+    public Map<String, String> osmInputHashes = null;
+
     /** True if GTFS data was loaded into this Graph. */
     public boolean hasTransit = false;
 
@@ -190,6 +221,27 @@ public class Graph implements Serializable {
 
     /** A speed source for traffic data */
     public transient StreetSpeedSnapshotSource streetSpeedSource;
+
+    /**
+     * Contraction hierarchies for street-only routing, by mode. Only present if built with contractionHierarchies.
+     * They are saved after the edges they refer to rather than with the graph object, and not read at LoadLevel.BASIC.
+     */
+    public transient Map<TraverseMode, ContractionHierarchy> contractionHierarchies = new HashMap<>();
+
+    /** Street searches of the transit heuristic shared between requests, if enabled with heuristicCacheSize. */
+    public transient HeuristicStreetSearchCache heuristicStreetSearchCache;
+
+    /** Street edges that origins and destinations were linked to, if enabled with snappingCacheSize. */
+    public transient SnappingCache snappingCache;
+
+    /** The deepest nesting of fields allowed in GraphQL index queries, or 0 for no limit. */
+    public transient int graphQLMaxDepth;
+
+    /** The highest complexity allowed for GraphQL index queries (see GraphQLQueryExecutor), or 0 for no limit. */
+    public transient int graphQLMaxComplexity;
+
+    /** Recent GraphQL index responses, if enabled with graphQLResponseCacheSeconds. */
+    public transient GraphQLResponseCache graphQLResponseCache;
     
     /** How should we cluster stops? By 'proximity' or 'ParentStation' */
     public StopClusterMode stopClusterMode = StopClusterMode.proximity;
@@ -218,6 +270,8 @@ public class Graph implements Serializable {
      * Add the given vertex to the graph. Ideally, only vertices should add themselves to the graph, when they are constructed or deserialized.
      */
     public void addVertex(Vertex v) {
+        invalidateHeuristicStreetSearchCache();
+        invalidateSnappingCache();
         Vertex old = vertices.put(v.getLabel(), v);
         if (old != null) {
             if (old == v)
@@ -227,6 +281,25 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Forget the street searches shared between requests, after a change to the street network or to the notes
+     * attached to it.
+     */
+    public void invalidateHeuristicStreetSearchCache() {
+        HeuristicStreetSearchCache cache = heuristicStreetSearchCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /** Forget where origins and destinations were linked, after a change to the street network. */
+    public void invalidateSnappingCache() {
+        SnappingCache cache = snappingCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
     /**
      * Removes a vertex from the graph.
      *
@@ -235,6 +308,8 @@ public class Graph implements Serializable {
      * @param v
      */
     public void removeVertex(Vertex v) {
+        invalidateHeuristicStreetSearchCache();
+        invalidateSnappingCache();
         if (vertices.remove(v.getLabel()) != v) {
             LOG.error(
                     "attempting to remove vertex that is not in graph (or mapping value was null): {}",
@@ -248,6 +323,8 @@ public class Graph implements Serializable {
      */
     public void removeEdge(Edge e) {
         if (e != null) {
+            invalidateHeuristicStreetSearchCache();
+            invalidateSnappingCache();
             synchronized (alertPatches) {   // This synchronization is somewhat silly because this
                 alertPatches.remove(e);     // method isn't thread-safe anyway, but it is consistent
             }
@@ -606,9 +683,12 @@ public class Graph implements Serializable {
     public void rebuildVertexAndEdgeIndices() {
         this.vertexById = new HashMap<Integer, Vertex>(Vertex.getMaxIndex());
         Collection<Vertex> vertices = getVertices();
+        int indexBound = 0;
         for (Vertex v : vertices) {
             vertexById.put(v.getIndex(), v);
+            indexBound = Math.max(indexBound, v.getIndex() + 1);
         }
+        this.vertexIndexBound = indexBound;
 
         // Create map from edge ids to edges.
         this.edgeById = new HashMap<Integer, Edge>();
@@ -623,6 +703,83 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * @return the compact edge lists built by buildEdgeAdjacency(), or null if they have not been built. Vertices whose
+     * getVertexEdges() has no adjacency are not part of it.
+     */
+    public EdgeAdjacency getEdgeAdjacency() {
+        return edgeAdjacency;
+    }
+
+    /** @return the mapped street network the street edge geometries are read from, or null if they are on the heap. */
+    public MappedStreetNetwork getMappedStreetNetwork() {
+        return mappedStreetNetwork;
+    }
+
+    /**
+     * Write the street network of this graph to the given file (see MappedStreetNetwork) and read the street edge
+     * geometries from it from now on. The geometries are then left out when this graph is saved, and the file must be
+     * kept next to the saved graph under the name MappedStreetNetwork.FILENAME.
+     */
+    public void mapStreetNetwork(File file) throws IOException {
+        List<StreetEdge> streetEdges = MappedStreetNetwork.write(this, file);
+        MappedStreetNetwork network = MappedStreetNetwork.open(file);
+        for (int e = 0; e < streetEdges.size(); e++) {
+            streetEdges.get(e).mapGeometry(network, e);
+        }
+        this.mappedStreetNetwork = network;
+        this.streetNetworkMapped = true;
+    }
+
+    /**
+     * Copy the street edge geometries read from a mapped street network back onto the heap, so that this graph can be
+     * saved without the file, e.g. a base graph that the transit is built upon.
+     */
+    public void unmapStreetNetwork() {
+        if (!streetNetworkMapped) return;
+        for (StreetEdge edge : Iterables.filter(getEdges(), StreetEdge.class)) {
+            edge.unmapGeometry();
+        }
+        this.mappedStreetNetwork = null;
+        this.streetNetworkMapped = false;
+    }
+
+    /** Map the street network file of a graph that was saved with mapped geometries, before anything reads them. */
+    private void attachMappedStreetNetwork(File file) throws IOException {
+        if (file == null || !file.exists()) {
+            throw new IllegalStateException("This graph was built with mapStreetNetwork, but its street network file "
+                    + (file == null ? MappedStreetNetwork.FILENAME : file) + " cannot be found next to it.");
+        }
+        MappedStreetNetwork network = MappedStreetNetwork.open(file);
+        int nMapped = 0;
+        for (StreetEdge edge : Iterables.filter(getEdges(), StreetEdge.class)) {
+            if (edge.attachMappedGeometry(network)) nMapped++;
+        }
+        LOG.info("Reading the geometries of {} street edges from {}", nMapped, file);
+        this.mappedStreetNetwork = network;
+    }
+
+    /**
+     * Copy the edge lists of all vertices into one EdgeAdjacency and attach the vertices to it, after which they no
+     * longer hold their own edge arrays. This should be done once the street network is complete, i.e. when the graph
+     * has been loaded or at the end of the graph build, since every module that adds edges to an attached vertex
+     * grows its overlay. Calling it again rebuilds the adjacency from the current edges.
+     */
+    public void buildEdgeAdjacency() {
+        LOG.info("Building edge adjacency");
+        this.edgeAdjacency = EdgeAdjacency.build(this.getVertices());
+        LOG.info("Edge adjacency built: {} rows, {} edges", edgeAdjacency.getRowCount(), edgeAdjacency.getEdgeCount());
+    }
+
+    /**
+     * @return one more than the highest index of the vertices in this graph when its vertex index was last rebuilt,
+     * or 0 if it has never been built. Vertex indexes are assigned from a global counter, so vertices created
+     * afterwards (including all temporary vertices created for requests) have indexes at or above this bound.
+     */
+    public int getVertexIndexBound() {
+        return vertexIndexBound;
+    }
+
     private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException,
             IOException {
         inputStream.defaultReadObject();
@@ -682,24 +839,58 @@ public class Graph implements Serializable {
         BASIC, FULL, DEBUG;
     }
 
+    /** Load a graph from a file in any of the supported formats, detecting the format automatically. */
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
+        File streetNetworkFile = streetNetworkFile(file);
+        if (GraphFormat.detect(file) == GraphFormat.BINARY) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return load(channel, level, null, streetNetworkFile);
+            }
+        }
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        return load(in, level, streetNetworkFile);
     }
 
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
+        File streetNetworkFile = streetNetworkFile(file);
+        if (GraphFormat.detect(file) == GraphFormat.BINARY) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return load(channel, level, classLoader, streetNetworkFile);
+            }
+        }
         ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
                 new FileInputStream(file)), classLoader);
-        return load(in, level);
+        return load(in, level, streetNetworkFile);
     }
 
+    /** Load a graph from a stream in any of the supported formats, detecting the format automatically. */
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        return load(is, level, null);
+    }
+
+    /**
+     * Load a graph from a stream in any of the supported formats, detecting the format automatically.
+     *
+     * @param streetNetworkFile the MappedStreetNetwork file saved with the graph, which is only read if the graph was
+     *                          built with mapStreetNetwork. May be null if the graph is known not to need one.
+     */
+    public static Graph load(InputStream is, LoadLevel level, File streetNetworkFile) throws ClassNotFoundException,
+            IOException {
+        BufferedInputStream in = new BufferedInputStream(is);
+        if (GraphFormat.detect(in) == GraphFormat.BINARY) {
+            return load(Channels.newChannel(in), level, null, streetNetworkFile);
+        }
+        return load(new ObjectInputStream(in), level, streetNetworkFile);
+    }
+
+    /** @return the file holding the mapped street network of the given graph file, see mapStreetNetwork. */
+    public static File streetNetworkFile(File graphFile) {
+        return new File(graphFile.getAbsoluteFile().getParentFile(), MappedStreetNetwork.FILENAME);
     }
     
     /** 
@@ -760,15 +951,22 @@ public class Graph implements Serializable {
      * @throws IOException
      * @throws ClassNotFoundException
      */
-    @SuppressWarnings("unchecked")
     public static Graph load(ObjectInputStream in, LoadLevel level) throws IOException, ClassNotFoundException {
+        return load(in, level, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Graph load(ObjectInputStream in, LoadLevel level, File streetNetworkFile)
+            throws IOException, ClassNotFoundException {
         try {
             Graph graph = (Graph) in.readObject();
             LOG.debug("Basic graph info read.");
             if (graph.graphVersionMismatch())
                 throw new RuntimeException("Graph version mismatch detected.");
-            if (level == LoadLevel.BASIC)
+            if (level == LoadLevel.BASIC) {
+                graph.contractionHierarchies = new HashMap<>();
                 return graph;
+            }
             // vertex edge lists are transient to avoid excessive recursion depth
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
@@ -776,14 +974,18 @@ public class Graph implements Serializable {
             graph.vertices = new HashMap<String, Vertex>();
             
             for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+                graph.addLoadedEdge(e);
             }
 
             LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+            if (graph.streetNetworkMapped) {
+                graph.attachMappedStreetNetwork(streetNetworkFile);
+            }
             // Make sure the graph index has been initialized. The streetIndex should be able to be safely recreated
             // because the streetIndexes used during build will not be visible outside of this method.
             graph.index(true);
+            graph.buildEdgeAdjacency();
+            graph.contractionHierarchies = (Map<TraverseMode, ContractionHierarchy>) in.readObject();
 
             if (level == LoadLevel.FULL) {
                 return graph;
@@ -802,6 +1004,64 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Load a graph saved in the binary format by {@link #save(WritableByteChannel)}. Edges are read and registered one
+     * at a time as they come off the channel, so no list of all edges is ever materialized.
+     *
+     * @param classLoader an alternate class loader for graph classes, or null to use the default one.
+     */
+    public static Graph load(ReadableByteChannel channel, LoadLevel level, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException {
+        return load(channel, level, classLoader, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Graph load(ReadableByteChannel channel, LoadLevel level, ClassLoader classLoader,
+            File streetNetworkFile) throws IOException, ClassNotFoundException {
+        BinaryGraphSerializer.readHeader(channel);
+        FSTObjectInput in = BinaryGraphSerializer.newObjectInput(channel, classLoader);
+        Graph graph = (Graph) in.readObject();
+        LOG.debug("Basic graph info read.");
+        if (graph.graphVersionMismatch())
+            throw new RuntimeException("Graph version mismatch detected.");
+        if (level == LoadLevel.BASIC) {
+            graph.contractionHierarchies = new HashMap<>();
+            return graph;
+        }
+        LOG.debug("Loading edges...");
+        graph.vertices = new HashMap<String, Vertex>();
+        // The edge sequence is terminated by a null.
+        for (Object edge = in.readObject(); edge != null; edge = in.readObject()) {
+            graph.addLoadedEdge((Edge) edge);
+        }
+        LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        if (graph.streetNetworkMapped) {
+            graph.attachMappedStreetNetwork(streetNetworkFile);
+        }
+        graph.index(true);
+        graph.buildEdgeAdjacency();
+        graph.contractionHierarchies = (Map<TraverseMode, ContractionHierarchy>) in.readObject();
+        if (level == LoadLevel.FULL) {
+            return graph;
+        }
+        if (graph.debugData) {
+            graph.graphBuilderAnnotations = (List<GraphBuilderAnnotation>) in.readObject();
+            LOG.debug("Debug info read.");
+        } else {
+            LOG.warn("Graph file does not contain debug data.");
+        }
+        return graph;
+    }
+
+    /**
+     * Register the endpoints of an edge read from a serialized graph. The vertex map is not serialized, it is
+     * reconstructed from the edges (edges re-attach themselves to their vertices upon deserialization).
+     */
+    private void addLoadedEdge(Edge e) {
+        vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+        vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -866,6 +1126,8 @@ public class Graph implements Serializable {
         LOG.debug("Writing edges...");
         out.writeObject(this);
         out.writeObject(edges);
+        // The hierarchies only refer to edges written above, so they only add back references and arrays.
+        out.writeObject(this.contractionHierarchies);
         if (debugData) {
             // should we make debug info generation conditional?
             LOG.debug("Writing debug data...");
@@ -878,6 +1140,57 @@ public class Graph implements Serializable {
         LOG.info("Graph written.");
     }
 
+    /** Save this graph to a file in the given format. */
+    public void save(File file, GraphFormat format) throws IOException {
+        if (format == GraphFormat.JAVA) {
+            save(file);
+            return;
+        }
+        LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
+        LOG.info("Writing graph " + file.getAbsolutePath() + " in binary format ...");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            save(channel);
+        } catch (RuntimeException e) {
+            file.delete(); // remove half-written file
+            throw e;
+        }
+    }
+
+    /**
+     * Save this graph in the binary format. The payload mirrors the Java serialization format: the graph object, then
+     * the edges (from which the vertices are reconstructed), then the contraction hierarchies, then the debug data.
+     * Edges are written one by one followed by a null terminator rather than as a single list, allowing them to be
+     * loaded incrementally.
+     */
+    public void save(WritableByteChannel channel) throws IOException {
+        LOG.debug("Assigning vertex/edge ID numbers...");
+        this.rebuildVertexAndEdgeIndices();
+        BinaryGraphSerializer.writeHeader(channel);
+        FSTObjectOutput out = BinaryGraphSerializer.newObjectOutput(channel);
+        out.writeObject(this);
+        LOG.debug("Writing edges...");
+        for (Vertex v : getVertices()) {
+            // there are assumed to be no edges in an incoming list that are not
+            // in an outgoing list
+            for (Edge e : v.getOutgoing()) {
+                out.writeObject(e);
+            }
+            if (v.getDegreeOut() + v.getDegreeIn() == 0)
+                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+        }
+        out.writeObject(null);
+        out.writeObject(this.contractionHierarchies);
+        if (debugData) {
+            LOG.debug("Writing debug data...");
+            out.writeObject(this.graphBuilderAnnotations);
+        } else {
+            LOG.debug("Skipping debug data.");
+        }
+        out.flush();
+        LOG.info("Graph written.");
+    }
+
     /* deserialization for org.opentripplanner.customize */
     private static class GraphObjectInputStream extends ObjectInputStream {
         ClassLoader classLoader;
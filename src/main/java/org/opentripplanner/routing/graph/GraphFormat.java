@@ -0,0 +1,47 @@
+package org.opentripplanner.routing.graph;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The on-disk formats a Graph can be saved in. Both are accepted by Graph.load, which detects the format from the first
+ * bytes of the file, so a server does not need to be told how a graph was built.
+ */
+public enum GraphFormat {
+
+    /** Plain Java serialization through ObjectOutputStream. This is the historical Graph.obj format. */
+    JAVA,
+
+    /** Versioned binary container written through NIO channels, see {@link BinaryGraphSerializer}. */
+    BINARY;
+
+    /**
+     * Detect the format of a serialized graph by peeking at its first bytes. The stream is left at its initial
+     * position, so it must support mark/reset (e.g. a BufferedInputStream).
+     */
+    public static GraphFormat detect(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("Detecting the graph format requires a stream supporting mark/reset.");
+        }
+        byte[] head = new byte[BinaryGraphSerializer.MAGIC.length];
+        in.mark(head.length);
+        int n = ByteStreams.read(in, head, 0, head.length);
+        in.reset();
+        return (n == head.length && Arrays.equals(head, BinaryGraphSerializer.MAGIC)) ? BINARY : JAVA;
+    }
+
+    /** Detect the format of a serialized graph file. */
+    public static GraphFormat detect(File file) throws IOException {
+        byte[] head = new byte[BinaryGraphSerializer.MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int n = ByteStreams.read(in, head, 0, head.length);
+            return (n == head.length && Arrays.equals(head, BinaryGraphSerializer.MAGIC)) ? BINARY : JAVA;
+        }
+    }
+
+}
@@ -1,8 +1,12 @@
 package org.opentripplanner.routing.graph;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ArrayListMultimap;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -18,7 +22,9 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import graphql.ExecutionResult;
 import graphql.GraphQL;
+import graphql.execution.ExecutionStrategy;
 import graphql.execution.ExecutorServiceExecutionStrategy;
+import graphql.schema.GraphQLSchema;
 import org.apache.lucene.util.PriorityQueue;
 import org.joda.time.LocalDate;
 import org.opentripplanner.model.Agency;
@@ -34,6 +40,8 @@ import org.opentripplanner.common.geometry.HashGridSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.common.model.T2;
+import org.opentripplanner.index.GraphQLQueryExecutor;
 import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.index.model.TripTimeShort;
@@ -102,6 +110,11 @@ public class GraphIndex {
     private final CalendarService calendarService;
     private final Map<FeedScopedId,Integer> serviceCodes;
 
+    /** ServiceDays by agency ID and service date, reused by the departure boards of all stops. */
+    private final LoadingCache<T2<String, ServiceDate>, ServiceDay> serviceDays = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build(CacheLoader.from(key -> new ServiceDay(graph, key.second, calendarService, key.first)));
+
     /* Full-text search extensions */
     public LuceneIndex luceneIndex;
 
@@ -117,6 +130,9 @@ public class GraphIndex {
 
     public GraphQL graphQL;
 
+    /** Runs the queries of the GraphQL API, within the limits and with the response cache configured on the graph. */
+    public GraphQLQueryExecutor graphQLExecutor;
+
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
@@ -179,11 +195,12 @@ public class GraphIndex {
         calendarService = graph.getCalendarService();
         serviceCodes = graph.serviceCodes;
         this.graph = graph;
-        graphQL = new GraphQL(
-                new IndexGraphQLSchema(this).indexSchema,
-                new ExecutorServiceExecutionStrategy(Executors.newCachedThreadPool(
-                        new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d").build()
-                )));
+        GraphQLSchema indexSchema = new IndexGraphQLSchema(this).indexSchema;
+        ExecutionStrategy executionStrategy = new ExecutorServiceExecutionStrategy(Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d").build()
+        ));
+        graphQL = new GraphQL(indexSchema, executionStrategy);
+        graphQLExecutor = new GraphQLQueryExecutor(indexSchema, executionStrategy);
         LOG.info("Done indexing graph.");
     }
 
@@ -439,7 +456,7 @@ public class GraphIndex {
 
             // Loop through all possible days
             for (ServiceDate serviceDate : serviceDates) {
-                ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService, pattern.route.getAgency().getId());
+                ServiceDay sd = getServiceDay(pattern, serviceDate);
                 Timetable tt;
                 if (snapshot != null){
                     tt = snapshot.resolve(pattern, serviceDate);
@@ -450,34 +467,31 @@ public class GraphIndex {
                 if (!tt.temporallyViable(sd, startTime, timeRange, true)) continue;
 
                 int secondsSinceMidnight = sd.secondsSinceMidnight(startTime);
-                int sidx = 0;
-                for (Stop currStop : pattern.stopPattern.stops) {
-                    if (currStop.getId().equals(stop.getId())) {
-                        if(omitNonPickups && pattern.stopPattern.pickups[sidx] == pattern.stopPattern.PICKDROP_NONE) continue;
-                        for (TripTimes t : tt.tripTimes) {
-                            if (!sd.serviceRunning(t.serviceCode)) continue;
-                            if (t.getDepartureTime(sidx) != -1 &&
-                                    t.getDepartureTime(sidx) >= secondsSinceMidnight) {
-                                pq.insertWithOverflow(new TripTimeShort(t, sidx, stop, sd));
-                            }
-                        }
-
-                        // TODO: This needs to be adapted after #1647 is merged
-                        for (FrequencyEntry freq : tt.frequencyEntries) {
-                            if (!sd.serviceRunning(freq.tripTimes.serviceCode)) continue;
-                            int departureTime = freq.nextDepartureTime(sidx, secondsSinceMidnight);
-                            if (departureTime == -1) continue;
-                            int lastDeparture = freq.endTime + freq.tripTimes.getArrivalTime(sidx) -
-                                    freq.tripTimes.getDepartureTime(0);
-                            int i = 0;
-                            while (departureTime <= lastDeparture && i < numberOfDepartures) {
-                                pq.insertWithOverflow(new TripTimeShort(freq.materialize(sidx, departureTime, true), sidx, stop, sd));
-                                departureTime += freq.headway;
-                                i++;
-                            }
+                for (int sidx = 0; sidx < pattern.stopPattern.stops.length; sidx++) {
+                    if (!pattern.stopPattern.stops[sidx].getId().equals(stop.getId())) continue;
+                    if(omitNonPickups && pattern.stopPattern.pickups[sidx] == pattern.stopPattern.PICKDROP_NONE) continue;
+                    final int stopIndex = sidx;
+                    // The trips come in order of departure, so only the first ones running on this day can be kept.
+                    tt.tripsDepartingFrom(sidx, secondsSinceMidnight)
+                            .mapToObj(tt::getTripTimes)
+                            .filter(t -> sd.serviceRunning(t.serviceCode) && t.getDepartureTime(stopIndex) != -1)
+                            .limit(numberOfDepartures)
+                            .forEach(t -> pq.insertWithOverflow(new TripTimeShort(t, stopIndex, stop, sd)));
+
+                    // TODO: This needs to be adapted after #1647 is merged
+                    for (FrequencyEntry freq : tt.frequencyEntries) {
+                        if (!sd.serviceRunning(freq.tripTimes.serviceCode)) continue;
+                        int departureTime = freq.nextDepartureTime(sidx, secondsSinceMidnight);
+                        if (departureTime == -1) continue;
+                        int lastDeparture = freq.endTime + freq.tripTimes.getArrivalTime(sidx) -
+                                freq.tripTimes.getDepartureTime(0);
+                        int i = 0;
+                        while (departureTime <= lastDeparture && i < numberOfDepartures) {
+                            pq.insertWithOverflow(new TripTimeShort(freq.materialize(sidx, departureTime, true), sidx, stop, sd));
+                            departureTime += freq.headway;
+                            i++;
                         }
                     }
-                    sidx++;
                 }
             }
 
@@ -515,12 +529,12 @@ public class GraphIndex {
             } else {
                 tt = pattern.scheduledTimetable;
             }
-            ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService, pattern.route.getAgency().getId());
+            ServiceDay sd = getServiceDay(pattern, serviceDate);
             int sidx = 0;
             for (Stop currStop : pattern.stopPattern.stops) {
                 if (currStop == stop) {
                     if(omitNonPickups && pattern.stopPattern.pickups[sidx] == pattern.stopPattern.PICKDROP_NONE) continue;
-                    for (TripTimes t : tt.tripTimes) {
+                    for (TripTimes t : tt.getTripTimes()) {
                         if (!sd.serviceRunning(t.serviceCode)) continue;
                         stopTimes.times.add(new TripTimeShort(t, sidx, stop, sd));
                     }
@@ -532,6 +546,11 @@ public class GraphIndex {
         return ret;
     }
 
+    /** @return the ServiceDay of the given date for the agency of the given pattern. */
+    private ServiceDay getServiceDay(TripPattern pattern, ServiceDate serviceDate) {
+        return serviceDays.getUnchecked(new T2<>(pattern.route.getAgency().getId(), serviceDate));
+    }
+
     /** Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed. */
     public StopTreeCache getStopTreeCache() {
         if (stopTreeCache == null) {
@@ -650,9 +669,18 @@ public class GraphIndex {
     }
     
     public Response getGraphQLResponse(String query, Map<String, Object> variables, String operationName) {
-        ExecutionResult executionResult = graphQL.execute(query, operationName, null, variables);
-        Response.ResponseBuilder res = Response.status(Response.Status.OK);
         HashMap<String, Object> content = new HashMap<>();
+        TimetableSnapshot snapshot = graph.timetableSnapshotSource == null ? null
+                : graph.timetableSnapshotSource.getTimetableSnapshot();
+        ExecutionResult executionResult;
+        try {
+            executionResult = graphQLExecutor.execute(query, operationName, variables, graph.graphQLMaxDepth,
+                    graph.graphQLMaxComplexity, graph.graphQLResponseCache, snapshot);
+        } catch (GraphQLQueryExecutor.QueryRejectedException e) {
+            content.put("errors", Collections.singletonList(Collections.singletonMap("message", e.getMessage())));
+            return Response.status(Response.Status.BAD_REQUEST).entity(content).build();
+        }
+        Response.ResponseBuilder res = Response.status(Response.Status.OK);
         if (!executionResult.getErrors().isEmpty()) {
             res = Response.status(Response.Status.INTERNAL_SERVER_ERROR);
             content.put("errors", executionResult.getErrors());
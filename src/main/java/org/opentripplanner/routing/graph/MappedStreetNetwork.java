@@ -0,0 +1,418 @@
+package org.opentripplanner.routing.graph;
+
+import com.vividsolutions.jts.geom.LineString;
+import org.opentripplanner.common.geometry.CompactLineString;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only copy of the street network topology stored in a memory-mapped file. It holds the coordinates of all
+ * street vertices, their incoming and outgoing street edges in compressed sparse row form, and for every StreetEdge
+ * its length, permission, flags, car speed and compact geometry.
+ *
+ * The data is never copied onto the heap: it is accessed through reusable flyweight views (VertexView and EdgeView)
+ * positioned on a vertex or edge index. Since the file is mapped read-only, several JVMs serving the same graph share
+ * the same pages of the OS page cache, and opening the file costs almost nothing whatever the size of the network.
+ *
+ * When a graph is built with the mapStreetNetwork parameter, this file is written next to Graph.obj and the street
+ * edge geometries, which are by far the largest part of the street network, are left out of Graph.obj. Loading the
+ * graph maps the file and each StreetEdge decodes its geometry from it on demand (see Graph.mapStreetNetwork and
+ * StreetEdge.getGeometry), so the geometries are neither deserialized nor held on the heap of any server process.
+ *
+ * Vertices and edges are numbered densely from zero in the order they are written. The index of the original Vertex
+ * or Edge (see Vertex.getIndex() and Edge.getId()) is stored alongside so the two representations can be related.
+ *
+ * File layout, all values big-endian:
+ * <pre>
+ *   header     magic "OTPSTRNW", int format version, int vertex count V, int edge count E, long geometry size G
+ *   vertices   V * (double lon, double lat, int original index)
+ *   outgoing   (V + 1) int offsets, then E int edge indexes
+ *   incoming   (V + 1) int offsets, then E int edge indexes
+ *   edges      E * (int from, int to, int original id, int length_mm, float car speed, int permission,
+ *                   int flags, int geometry offset, int geometry length)
+ *   geometry   G bytes of var-len packed geometries, see CompactLineString
+ * </pre>
+ */
+public class MappedStreetNetwork {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedStreetNetwork.class);
+
+    private static final byte[] MAGIC = "OTPSTRNW".getBytes(StandardCharsets.US_ASCII);
+
+    /** The name of the file written next to Graph.obj when the mapStreetNetwork build parameter is set. */
+    public static final String FILENAME = "StreetNetwork.map";
+
+    /** Increment this whenever the file layout changes. */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = MAGIC.length + 4 + 4 + 4 + 8;
+
+    private static final int VERTEX_BYTES = 8 + 8 + 4;
+
+    private static final int EDGE_INTS = 9;
+
+    public static final int FLAG_BACK = 1;
+    public static final int FLAG_ROUNDABOUT = 1 << 1;
+    public static final int FLAG_BOGUS_NAME = 1 << 2;
+    public static final int FLAG_NO_THRU_TRAFFIC = 1 << 3;
+    public static final int FLAG_STAIRS = 1 << 4;
+    public static final int FLAG_SLOPE_OVERRIDE = 1 << 5;
+    public static final int FLAG_WHEELCHAIR_ACCESSIBLE = 1 << 6;
+
+    private final int nVertices;
+
+    private final int nEdges;
+
+    private final ByteBuffer vertices;
+
+    private final IntBuffer outgoing;
+
+    private final IntBuffer incoming;
+
+    private final IntBuffer edges;
+
+    private final ByteBuffer geometry;
+
+    private MappedStreetNetwork(int nVertices, int nEdges, ByteBuffer vertices, IntBuffer outgoing,
+            IntBuffer incoming, IntBuffer edges, ByteBuffer geometry) {
+        this.nVertices = nVertices;
+        this.nEdges = nEdges;
+        this.vertices = vertices;
+        this.outgoing = outgoing;
+        this.incoming = incoming;
+        this.edges = edges;
+        this.geometry = geometry;
+    }
+
+    /**
+     * Map a street network file written by {@link #write(Graph, File)}. The channel is closed before returning, the
+     * mapping stays valid until the returned object is garbage collected.
+     */
+    public static MappedStreetNetwork open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IllegalStateException("File " + file + " is not a mapped street network.");
+            }
+            int formatVersion = header.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalStateException("Mapped street network format version " + formatVersion
+                        + " is not supported (expected " + FORMAT_VERSION + "), please rebuild the graph.");
+            }
+            int nVertices = header.getInt();
+            int nEdges = header.getInt();
+            long geometryBytes = header.getLong();
+            long position = HEADER_BYTES;
+            ByteBuffer vertices = map(channel, position, (long) nVertices * VERTEX_BYTES);
+            position += (long) nVertices * VERTEX_BYTES;
+            long adjacencyBytes = 4L * (nVertices + 1 + nEdges);
+            IntBuffer outgoing = map(channel, position, adjacencyBytes).asIntBuffer();
+            position += adjacencyBytes;
+            IntBuffer incoming = map(channel, position, adjacencyBytes).asIntBuffer();
+            position += adjacencyBytes;
+            IntBuffer edges = map(channel, position, 4L * EDGE_INTS * nEdges).asIntBuffer();
+            position += 4L * EDGE_INTS * nEdges;
+            ByteBuffer geometry = map(channel, position, geometryBytes);
+            LOG.info("Mapped street network {}: |V|={} |E|={}", file, nVertices, nEdges);
+            return new MappedStreetNetwork(nVertices, nEdges, vertices, outgoing, incoming, edges, geometry);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Mapped street network section is too large to be mapped: " + size);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Write the street vertices and street edges of the given graph to a file that can later be mapped with
+     * {@link #open(File)}. Any other vertices and edges (transit, bike rental, etc.) are left out. The file is written
+     * next to its destination and moved into place, so that a server still mapping a previous version of it keeps
+     * reading the old pages rather than a half-written file.
+     *
+     * @return the street edges written, in the order of their edge indexes in the file.
+     */
+    public static List<StreetEdge> write(Graph graph, File file) throws IOException {
+        List<Vertex> streetVertices = new ArrayList<>();
+        Map<Vertex, Integer> vertexIndex = new IdentityHashMap<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex) {
+                vertexIndex.put(v, streetVertices.size());
+                streetVertices.add(v);
+            }
+        }
+        List<StreetEdge> streetEdges = new ArrayList<>();
+        Map<Edge, Integer> edgeIndex = new IdentityHashMap<>();
+        for (Vertex v : streetVertices) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof StreetEdge && vertexIndex.containsKey(e.getToVertex())) {
+                    edgeIndex.put(e, streetEdges.size());
+                    streetEdges.add((StreetEdge) e);
+                }
+            }
+        }
+        // Pack all geometries up front, their total size is part of the header.
+        ByteArrayOutputStream geometries = new ByteArrayOutputStream();
+        int[] geometryOffsets = new int[streetEdges.size() + 1];
+        for (int i = 0; i < streetEdges.size(); i++) {
+            StreetEdge e = streetEdges.get(i);
+            Vertex from = e.getFromVertex();
+            Vertex to = e.getToVertex();
+            byte[] packed = CompactLineString.compackLineString(from.getLon(), from.getLat(), to.getLon(),
+                    to.getLat(), e.getGeometry(), false);
+            geometries.write(packed, 0, packed.length);
+            geometryOffsets[i + 1] = geometries.size();
+        }
+
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(streetVertices.size());
+            out.writeInt(streetEdges.size());
+            out.writeLong(geometries.size());
+            for (Vertex v : streetVertices) {
+                out.writeDouble(v.getLon());
+                out.writeDouble(v.getLat());
+                out.writeInt(v.getIndex());
+            }
+            writeAdjacency(out, streetVertices, edgeIndex, true);
+            writeAdjacency(out, streetVertices, edgeIndex, false);
+            for (int i = 0; i < streetEdges.size(); i++) {
+                StreetEdge e = streetEdges.get(i);
+                out.writeInt(vertexIndex.get(e.getFromVertex()));
+                out.writeInt(vertexIndex.get(e.getToVertex()));
+                out.writeInt(e.getId());
+                out.writeInt(e.getLength_mm());
+                out.writeFloat(e.getCarSpeed());
+                out.writeInt(e.getPermission().code);
+                out.writeInt(flags(e));
+                out.writeInt(geometryOffsets[i]);
+                out.writeInt(geometryOffsets[i + 1] - geometryOffsets[i]);
+            }
+            geometries.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            temporary.delete();
+            throw e;
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Wrote mapped street network {}: |V|={} |E|={}", file, streetVertices.size(), streetEdges.size());
+        return streetEdges;
+    }
+
+    private static void writeAdjacency(DataOutputStream out, List<Vertex> vertices, Map<Edge, Integer> edgeIndex,
+            boolean outgoing) throws IOException {
+        List<Integer> adjacent = new ArrayList<>();
+        out.writeInt(0);
+        for (Vertex v : vertices) {
+            for (Edge e : outgoing ? v.getOutgoing() : v.getIncoming()) {
+                Integer index = edgeIndex.get(e);
+                if (index != null) {
+                    adjacent.add(index);
+                }
+            }
+            out.writeInt(adjacent.size());
+        }
+        for (int index : adjacent) {
+            out.writeInt(index);
+        }
+    }
+
+    private static int flags(StreetEdge e) {
+        int flags = 0;
+        if (e.isBack()) flags |= FLAG_BACK;
+        if (e.isRoundabout()) flags |= FLAG_ROUNDABOUT;
+        if (e.hasBogusName()) flags |= FLAG_BOGUS_NAME;
+        if (e.isNoThruTraffic()) flags |= FLAG_NO_THRU_TRAFFIC;
+        if (e.isStairs()) flags |= FLAG_STAIRS;
+        if (e.isSlopeOverride()) flags |= FLAG_SLOPE_OVERRIDE;
+        if (e.isWheelchairAccessible()) flags |= FLAG_WHEELCHAIR_ACCESSIBLE;
+        return flags;
+    }
+
+    public int getVertexCount() {
+        return nVertices;
+    }
+
+    public int getEdgeCount() {
+        return nEdges;
+    }
+
+    /** @return the id of the StreetEdge the given edge was written from, see Edge.getId(). */
+    public int getOriginalEdgeId(int edge) {
+        return edges.get(edge * EDGE_INTS + 2);
+    }
+
+    /**
+     * Decode the geometry of the given edge, in the direction of the edge. Unlike the views this can be called from
+     * any number of threads at once. It allocates the returned geometry.
+     */
+    public LineString getGeometry(int edge) {
+        int position = edge * EDGE_INTS;
+        byte[] packed = new byte[edges.get(position + 8)];
+        ByteBuffer slice = geometry.duplicate();
+        slice.position(edges.get(position + 7));
+        slice.get(packed);
+        int from = edges.get(position) * VERTEX_BYTES;
+        int to = edges.get(position + 1) * VERTEX_BYTES;
+        return CompactLineString.uncompackLineString(vertices.getDouble(from), vertices.getDouble(from + 8),
+                vertices.getDouble(to), vertices.getDouble(to + 8), packed, false);
+    }
+
+    /** @return a new flyweight view, to be positioned with VertexView.seek. Views are not thread-safe. */
+    public VertexView newVertexView() {
+        return new VertexView();
+    }
+
+    /** @return a new flyweight view, to be positioned with EdgeView.seek. Views are not thread-safe. */
+    public EdgeView newEdgeView() {
+        return new EdgeView();
+    }
+
+    /** A reusable view of one vertex of the mapped network. */
+    public class VertexView {
+
+        private int index = -1;
+
+        private int position;
+
+        private VertexView() { }
+
+        public VertexView seek(int index) {
+            if (index < 0 || index >= nVertices) {
+                throw new IndexOutOfBoundsException("No vertex " + index + " in mapped street network.");
+            }
+            this.index = index;
+            this.position = index * VERTEX_BYTES;
+            return this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public double getLon() {
+            return vertices.getDouble(position);
+        }
+
+        public double getLat() {
+            return vertices.getDouble(position + 8);
+        }
+
+        /** @return the index of the Vertex this was written from, see Vertex.getIndex(). */
+        public int getOriginalIndex() {
+            return vertices.getInt(position + 16);
+        }
+
+        public int getDegreeOut() {
+            return outgoing.get(index + 1) - outgoing.get(index);
+        }
+
+        public int getDegreeIn() {
+            return incoming.get(index + 1) - incoming.get(index);
+        }
+
+        /** @return the edge index of the i-th outgoing edge of this vertex. */
+        public int getOutgoingEdge(int i) {
+            return outgoing.get(nVertices + 1 + outgoing.get(index) + i);
+        }
+
+        /** @return the edge index of the i-th incoming edge of this vertex. */
+        public int getIncomingEdge(int i) {
+            return incoming.get(nVertices + 1 + incoming.get(index) + i);
+        }
+    }
+
+    /** A reusable view of one street edge of the mapped network. */
+    public class EdgeView {
+
+        private int index = -1;
+
+        private int position;
+
+        private EdgeView() { }
+
+        public EdgeView seek(int index) {
+            if (index < 0 || index >= nEdges) {
+                throw new IndexOutOfBoundsException("No edge " + index + " in mapped street network.");
+            }
+            this.index = index;
+            this.position = index * EDGE_INTS;
+            return this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getFromVertex() {
+            return edges.get(position);
+        }
+
+        public int getToVertex() {
+            return edges.get(position + 1);
+        }
+
+        /** @return the id of the StreetEdge this was written from, see Edge.getId(). */
+        public int getOriginalId() {
+            return edges.get(position + 2);
+        }
+
+        public int getLength_mm() {
+            return edges.get(position + 3);
+        }
+
+        public double getDistance() {
+            return getLength_mm() / 1000.0;
+        }
+
+        public float getCarSpeed() {
+            return Float.intBitsToFloat(edges.get(position + 4));
+        }
+
+        public StreetTraversalPermission getPermission() {
+            return StreetTraversalPermission.get(edges.get(position + 5));
+        }
+
+        /** @return the edge flags, a combination of the FLAG_* constants. */
+        public int getFlags() {
+            return edges.get(position + 6);
+        }
+
+        public boolean hasFlag(int flag) {
+            return (getFlags() & flag) != 0;
+        }
+
+        /** Decode the geometry of this edge. This allocates, unlike the other accessors. */
+        public LineString getGeometry() {
+            return MappedStreetNetwork.this.getGeometry(index);
+        }
+    }
+
+}
@@ -43,9 +43,8 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private final double y;
     
-    private transient Edge[] incoming = new Edge[0];
-
-    private transient Edge[] outgoing = new Edge[0];
+    /* Edge lists and adjacency row, replaced as a whole (under the vertex lock) whenever they change. */
+    private transient volatile VertexEdges edges = VertexEdges.EMPTY;
 
     
     /* CONSTRUCTORS */
@@ -132,57 +131,104 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     public void addOutgoing(Edge edge) {
         synchronized (this) {
-            outgoing = addEdge(outgoing, edge);
+            VertexEdges current = edges;
+            if (current.isOutgoingInRow(edge)) {
+                LOG.error("repeatedly added edge {}", edge);
+                return;
+            }
+            // An edge added to a vertex that is part of the EdgeAdjacency is not in its row, keep it in the overlay.
+            Edge[] overlay = addEdge(current.getOverlayOutgoing(), edge);
+            if (overlay != current.getOverlayOutgoing()) edges = current.withOverlayOutgoing(overlay);
         }
     }
 
     /** @return whether the edge was found and removed. */
     public boolean removeOutgoing(Edge edge) {
         synchronized (this) {
-            int n = outgoing.length;
-            outgoing = removeEdge(outgoing, edge);
-            return (outgoing.length < n);
+            VertexEdges current = edges;
+            if (current.isOutgoingInRow(edge)) {
+                // The row no longer matches the edges of this vertex: leave the EdgeAdjacency.
+                VertexEdges detached = current.detach();
+                edges = detached.withOverlayOutgoing(removeEdge(detached.getOverlayOutgoing(), edge));
+                return true;
+            }
+            Edge[] overlay = removeEdge(current.getOverlayOutgoing(), edge);
+            if (overlay == current.getOverlayOutgoing()) return false;
+            edges = current.withOverlayOutgoing(overlay);
+            return true;
         }
     }
 
-
     public void addIncoming(Edge edge) {
         synchronized (this) {
-            incoming = addEdge(incoming, edge);
+            VertexEdges current = edges;
+            if (current.isIncomingInRow(edge)) {
+                LOG.error("repeatedly added edge {}", edge);
+                return;
+            }
+            Edge[] overlay = addEdge(current.getOverlayIncoming(), edge);
+            if (overlay != current.getOverlayIncoming()) edges = current.withOverlayIncoming(overlay);
         }
     }
 
     /** @return whether the edge was found and removed. */
     public boolean removeIncoming(Edge edge) {
         synchronized (this) {
-            int n = incoming.length;
-            incoming = removeEdge(incoming, edge);
-            return (incoming.length < n);
+            VertexEdges current = edges;
+            if (current.isIncomingInRow(edge)) {
+                VertexEdges detached = current.detach();
+                edges = detached.withOverlayIncoming(removeEdge(detached.getOverlayIncoming(), edge));
+                return true;
+            }
+            Edge[] overlay = removeEdge(current.getOverlayIncoming(), edge);
+            if (overlay == current.getOverlayIncoming()) return false;
+            edges = current.withOverlayIncoming(overlay);
+            return true;
         }
     }
 
+    /**
+     * @return the edges of this vertex and its row in the graph's EdgeAdjacency, as one consistent snapshot. Searches
+     * should read this once per vertex rather than combining several calls, since the edges can change at any time.
+     */
+    public VertexEdges getVertexEdges() {
+        return edges;
+    }
+
+    /* Package-private accessors used by EdgeAdjacency to attach this vertex. Both must hold the vertex lock. */
+
+    void attachAdjacencyRow(EdgeAdjacency adjacency, int row) {
+        edges = edges.attach(adjacency, row);
+    }
+
+    void detachAdjacencyRow() {
+        edges = edges.detach();
+    }
+
     /**
      * Get a collection containing all the edges leading from this vertex to other vertices.
      * There is probably some overhead to creating the wrapper ArrayList objects, but this
      * allows filtering and combining edge lists using stock Collection-based methods.
+     * The collection is a read-only view of the edges at the time of the call: once this vertex is part of the graph's
+     * EdgeAdjacency it reads its row in place, without copying it.
      */
     public Collection<Edge> getOutgoing() {
-        return Arrays.asList(outgoing);
+        return edges.outgoingList();
     }
 
     /** Get a collection containing all the edges leading from other vertices to this vertex. */
     public Collection<Edge> getIncoming() {
-        return Arrays.asList(incoming);
+        return edges.incomingList();
     }
 
     @XmlTransient
     public int getDegreeOut() {
-        return outgoing.length;
+        return edges.getDegreeOut();
     }
 
     @XmlTransient
     public int getDegreeIn() {
-        return incoming.length;
+        return edges.getDegreeIn();
     }
     
     /** Get the longitude of the vertex */
@@ -265,8 +311,7 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        this.incoming = new Edge[0];
-        this.outgoing = new Edge[0];
+        this.edges = VertexEdges.EMPTY;
         index = maxIndex++;
     }
 
@@ -0,0 +1,187 @@
+package org.opentripplanner.routing.graph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The edges of a vertex, together with its row in the graph's EdgeAdjacency. Instances are immutable: a vertex
+ * publishes a new one whenever its edges change, so a search that reads it once sees a row and an overlay that belong
+ * together, even while a realtime updater adds or removes edges on the live graph.
+ *
+ * A vertex that is not part of an EdgeAdjacency keeps all its edges in the overlay arrays. Once it is attached to a
+ * row the edges of that row are only held by the EdgeAdjacency, and the overlay arrays hold the edges added since
+ * (typically temporary edges), so the edge lists of the street network are not stored twice.
+ */
+public final class VertexEdges {
+
+    static final Edge[] NO_EDGES = new Edge[0];
+
+    /** The edges of a vertex that has none and is not part of an EdgeAdjacency. */
+    static final VertexEdges EMPTY = new VertexEdges(NO_EDGES, NO_EDGES, null, -1);
+
+    private final Edge[] overlayOutgoing;
+
+    private final Edge[] overlayIncoming;
+
+    private final EdgeAdjacency adjacency;
+
+    private final int row;
+
+    private VertexEdges(Edge[] overlayOutgoing, Edge[] overlayIncoming, EdgeAdjacency adjacency, int row) {
+        this.overlayOutgoing = overlayOutgoing;
+        this.overlayIncoming = overlayIncoming;
+        this.adjacency = adjacency;
+        this.row = row;
+    }
+
+    /**
+     * @return the EdgeAdjacency the vertex is part of, or null if it is not part of one and all its edges are in the
+     * overlay arrays.
+     */
+    public EdgeAdjacency getAdjacency() {
+        return adjacency;
+    }
+
+    /** @return the row of the vertex in getAdjacency(), or -1 if it is not part of one. */
+    public int getRow() {
+        return row;
+    }
+
+    /** @return the outgoing edges of the vertex that are not part of its row, i.e. all of them if it has no row. */
+    public Edge[] getOverlayOutgoing() {
+        return overlayOutgoing;
+    }
+
+    /** @return the incoming edges of the vertex that are not part of its row, i.e. all of them if it has no row. */
+    public Edge[] getOverlayIncoming() {
+        return overlayIncoming;
+    }
+
+    /** @return all outgoing edges of the vertex, as a view of its row and overlay that does not copy them. */
+    List<Edge> outgoingList() {
+        if (adjacency == null) return Arrays.asList(overlayOutgoing);
+        return new RowAndOverlay(adjacency, false, adjacency.outgoingStart(row), adjacency.outgoingEnd(row),
+                overlayOutgoing);
+    }
+
+    /** @return all incoming edges of the vertex, as a view of its row and overlay that does not copy them. */
+    List<Edge> incomingList() {
+        if (adjacency == null) return Arrays.asList(overlayIncoming);
+        return new RowAndOverlay(adjacency, true, adjacency.incomingStart(row), adjacency.incomingEnd(row),
+                overlayIncoming);
+    }
+
+    /** @return all outgoing edges of the vertex, in a new array if part of them are in its row. */
+    Edge[] getOutgoing() {
+        if (adjacency == null) return overlayOutgoing;
+        int start = adjacency.outgoingStart(row);
+        int end = adjacency.outgoingEnd(row);
+        Edge[] outgoing = new Edge[end - start + overlayOutgoing.length];
+        for (int e = start; e < end; e++) {
+            outgoing[e - start] = adjacency.getEdge(e);
+        }
+        System.arraycopy(overlayOutgoing, 0, outgoing, end - start, overlayOutgoing.length);
+        return outgoing;
+    }
+
+    /** @return all incoming edges of the vertex, in a new array if part of them are in its row. */
+    Edge[] getIncoming() {
+        if (adjacency == null) return overlayIncoming;
+        int start = adjacency.incomingStart(row);
+        int end = adjacency.incomingEnd(row);
+        Edge[] incoming = new Edge[end - start + overlayIncoming.length];
+        for (int i = start; i < end; i++) {
+            incoming[i - start] = adjacency.getIncomingEdge(i);
+        }
+        System.arraycopy(overlayIncoming, 0, incoming, end - start, overlayIncoming.length);
+        return incoming;
+    }
+
+    int getDegreeOut() {
+        int degree = overlayOutgoing.length;
+        if (adjacency != null) degree += adjacency.outgoingEnd(row) - adjacency.outgoingStart(row);
+        return degree;
+    }
+
+    int getDegreeIn() {
+        int degree = overlayIncoming.length;
+        if (adjacency != null) degree += adjacency.incomingEnd(row) - adjacency.incomingStart(row);
+        return degree;
+    }
+
+    /** @return whether the given edge is one of the outgoing edges of the row, rather than of the overlay. */
+    boolean isOutgoingInRow(Edge edge) {
+        if (adjacency == null) return false;
+        for (int e = adjacency.outgoingStart(row), end = adjacency.outgoingEnd(row); e < end; e++) {
+            if (adjacency.getEdge(e) == edge) return true;
+        }
+        return false;
+    }
+
+    /** @return whether the given edge is one of the incoming edges of the row, rather than of the overlay. */
+    boolean isIncomingInRow(Edge edge) {
+        if (adjacency == null) return false;
+        for (int i = adjacency.incomingStart(row), end = adjacency.incomingEnd(row); i < end; i++) {
+            if (adjacency.getIncomingEdge(i) == edge) return true;
+        }
+        return false;
+    }
+
+    /** The edges of one side of a row followed by those of the overlay, read in place without copying them. */
+    private static final class RowAndOverlay extends AbstractList<Edge> implements RandomAccess {
+
+        private final EdgeAdjacency adjacency;
+
+        private final boolean incoming;
+
+        private final int start;
+
+        private final int rowSize;
+
+        private final Edge[] overlay;
+
+        RowAndOverlay(EdgeAdjacency adjacency, boolean incoming, int start, int end, Edge[] overlay) {
+            this.adjacency = adjacency;
+            this.incoming = incoming;
+            this.start = start;
+            this.rowSize = end - start;
+            this.overlay = overlay;
+        }
+
+        @Override
+        public Edge get(int i) {
+            if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("Index " + i + ", size " + size());
+            if (i >= rowSize) return overlay[i - rowSize];
+            return incoming ? adjacency.getIncomingEdge(start + i) : adjacency.getEdge(start + i);
+        }
+
+        @Override
+        public int size() {
+            return rowSize + overlay.length;
+        }
+    }
+
+    VertexEdges withOverlayOutgoing(Edge[] overlayOutgoing) {
+        return new VertexEdges(overlayOutgoing, overlayIncoming, adjacency, row);
+    }
+
+    VertexEdges withOverlayIncoming(Edge[] overlayIncoming) {
+        return new VertexEdges(overlayOutgoing, overlayIncoming, adjacency, row);
+    }
+
+    /**
+     * @return the same edges as part of the given row, which must hold exactly the edges of this instance, with an
+     * empty overlay.
+     */
+    VertexEdges attach(EdgeAdjacency adjacency, int row) {
+        return new VertexEdges(NO_EDGES, NO_EDGES, adjacency, row);
+    }
+
+    /** @return the same edges, not part of any EdgeAdjacency and all held in the overlay arrays. */
+    VertexEdges detach() {
+        return adjacency == null ? this : new VertexEdges(getOutgoing(), getIncoming(), null, -1);
+    }
+
+}
@@ -5,10 +5,13 @@ import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.api.resource.DebugOutput;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.ch.ContractionHierarchy;
+import org.opentripplanner.routing.algorithm.ch.ContractionHierarchyRouter;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
@@ -16,6 +19,7 @@ import org.opentripplanner.routing.edgetype.TransitBoardAlight;
 import org.opentripplanner.routing.error.PathNotFoundException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
@@ -24,6 +28,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
@@ -53,6 +59,12 @@ public class GraphPathFinder {
     private static final double DEFAULT_MAX_WALK = 2000;
     private static final double CLAMP_MAX_WALK = 15000;
 
+    /** Upper bound on the number of searches run at the same time for a single request. */
+    private static final int MAX_PARALLEL_SEARCHES = 8;
+
+    /** The parallel itinerary searches of all requests share this pool, which bounds the number of routing threads. */
+    private static final ForkJoinPool itinerarySearchPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     Router router;
 
     public GraphPathFinder(Router router) {
@@ -95,21 +107,8 @@ public class GraphPathFinder {
         LOG.debug("rreq={}", options);
 
         // Choose an appropriate heuristic for goal direction.
-        RemainingWeightHeuristic heuristic;
-        RemainingWeightHeuristic reversedSearchHeuristic;
-        if (options.disableRemainingWeightHeuristic) {
-            heuristic = new TrivialRemainingWeightHeuristic();
-            reversedSearchHeuristic = new TrivialRemainingWeightHeuristic();
-        } else if (options.modes.isTransit()) {
-            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
-            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
-            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic();
-            reversedSearchHeuristic = new InterleavedBidirectionalHeuristic();
-        } else {
-            heuristic = new EuclideanRemainingWeightHeuristic();
-            reversedSearchHeuristic = new EuclideanRemainingWeightHeuristic();
-        }
+        RemainingWeightHeuristic heuristic = createHeuristic(options);
+        RemainingWeightHeuristic reversedSearchHeuristic = createHeuristic(options);
         options.rctx.remainingWeightHeuristic = heuristic;
 
 
@@ -133,9 +132,28 @@ public class GraphPathFinder {
          */
         if (options.maxWalkDistance == Double.MAX_VALUE) options.maxWalkDistance = DEFAULT_MAX_WALK;
         if (options.maxWalkDistance > CLAMP_MAX_WALK) options.maxWalkDistance = CLAMP_MAX_WALK;
-        long searchBeginTime = System.currentTimeMillis();
+
+        // The timeouts also cover any time spent waiting for a routing thread.
+        long searchBeginTime = System.currentTimeMillis() - options.queueWaitTime;
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
+        // Street-only requests with default weights can be answered from a precomputed contraction hierarchy.
+        if (!options.modes.isTransit() && findPathWithContractionHierarchy(options, searchBeginTime, paths)) {
+            LOG.debug("END SEARCH ({} msec) in contraction hierarchy", System.currentTimeMillis() - searchBeginTime);
+            return paths;
+        }
+        if (options.parallelItinerarySearch && options.modes.isTransit() && options.numItineraries > 1 &&
+                !options.compactLegsByReversedSearch && router.graphVisualizer == null) {
+            // Find the first itineraries all at once, then let the sequential searches below fill in any missing ones.
+            paths.addAll(findPathsInParallel(options, searchBeginTime));
+            if (paths.isEmpty()) {
+                LOG.debug("END SEARCH ({} msec), no paths found in parallel", System.currentTimeMillis() - searchBeginTime);
+                return paths;
+            }
+            for (GraphPath path : paths) {
+                banTrips(options, path);
+            }
+        }
         while (paths.size() < options.numItineraries) {
             // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
             int timeoutIndex = paths.size();
@@ -153,14 +171,17 @@ public class GraphPathFinder {
                 options.rctx.aborted = true;
                 break;
             }
+            long attemptStartTime = System.currentTimeMillis();
             // Don't dig through the SPT object, just ask the A star algorithm for the states that reached the target.
             aStar.getShortestPathTree(options, timeout);
 
             if (options.rctx.aborted) {
+                options.rctx.debugOutput.searchAttemptTimes.add(System.currentTimeMillis() - attemptStartTime);
                 break; // Search timed out or was gracefully aborted for some other reason.
             }
             List<GraphPath> newPaths = aStar.getPathsToTarget();
             if (newPaths.isEmpty()) {
+                options.rctx.debugOutput.searchAttemptTimes.add(System.currentTimeMillis() - attemptStartTime);
                 break;
             }
 
@@ -171,27 +192,13 @@ public class GraphPathFinder {
 
             // Find all trips used in this path and ban them for the remaining searches
             for (GraphPath path : newPaths) {
-                // path.dump();
-                List<FeedScopedId> tripIds = path.getTrips();
-                for (FeedScopedId tripId : tripIds) {
-                    options.banTrip(tripId);
-                }
-                if (tripIds.isEmpty()) {
-                    // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
-                    options.onlyTransitTrips = true;
-                }
+                banTrips(options, path);
             }
 
             paths.addAll(newPaths.stream()
-                    .filter(path -> {
-                        double duration = options.useRequestedDateTimeInMaxHours
-                            ? options.arriveBy
-                                ? options.dateTime - path.getStartTime()
-                                : path.getEndTime() - options.dateTime
-                            : path.getDuration();
-                        return duration < options.maxHours * 60 * 60;
-                    })
+                    .filter(path -> isWithinMaxHours(options, path))
                     .collect(Collectors.toList()));
+            options.rctx.debugOutput.searchAttemptTimes.add(System.currentTimeMillis() - attemptStartTime);
 
             LOG.debug("we have {} paths", paths.size());
         }
@@ -200,6 +207,134 @@ public class GraphPathFinder {
         return paths;
     }
 
+    /** @return a new instance of the goal direction heuristic appropriate for the given request. */
+    private static RemainingWeightHeuristic createHeuristic(RoutingRequest options) {
+        if (options.disableRemainingWeightHeuristic) {
+            return new TrivialRemainingWeightHeuristic();
+        } else if (options.modes.isTransit()) {
+            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
+            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
+            return new InterleavedBidirectionalHeuristic();
+        } else {
+            return new EuclideanRemainingWeightHeuristic();
+        }
+    }
+
+    /** Ban all trips used in the given path from the remaining searches of the given request. */
+    private static void banTrips(RoutingRequest options, GraphPath path) {
+        List<FeedScopedId> tripIds = path.getTrips();
+        for (FeedScopedId tripId : tripIds) {
+            options.banTrip(tripId);
+        }
+        if (tripIds.isEmpty()) {
+            // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
+            options.onlyTransitTrips = true;
+        }
+    }
+
+    private static boolean isWithinMaxHours(RoutingRequest options, GraphPath path) {
+        double duration = options.useRequestedDateTimeInMaxHours
+            ? options.arriveBy
+                ? options.dateTime - path.getStartTime()
+                : path.getEndTime() - options.dateTime
+            : path.getDuration();
+        return duration < options.maxHours * 60 * 60;
+    }
+
+    /**
+     * Search for the first itineraries of a request with several searches running at the same time on a shared pool.
+     * Rather than banning the trips found by one search before starting the next, the searches are diversified by
+     * time: search N departs (or arrives, for arrive-by requests) N * itinerarySearchSlice seconds after (before) the
+     * requested time. Each search has its own copy of the request and routing context, sharing the temporary
+     * vertices of the original one. All searches are bound by the timeout of the first itinerary.
+     *
+     * @return the paths found, without those using the same trips as a path found by an earlier search, and without
+     * those exceeding maxHours. If no path was found and every search was aborted, the request is marked as aborted.
+     */
+    private List<GraphPath> findPathsInParallel(RoutingRequest options, long searchBeginTime) {
+        double timeoutMillis = options.searchTimeout < 0 ? router.timeouts[0] * 1000 : options.searchTimeout;
+        final double timeout = (searchBeginTime + timeoutMillis - System.currentTimeMillis()) / 1000;
+        if (timeout <= 0) {
+            options.rctx.aborted = true;
+            return Collections.emptyList();
+        }
+        int nSearches = Math.min(options.numItineraries, MAX_PARALLEL_SEARCHES);
+        List<RoutingRequest> requests = new ArrayList<>(nSearches);
+        List<ForkJoinTask<List<GraphPath>>> searches = new ArrayList<>(nSearches);
+        for (int i = 0; i < nSearches; i++) {
+            RoutingRequest request = options.clone();
+            long offset = (long) i * options.itinerarySearchSlice;
+            request.dateTime = options.arriveBy ? options.dateTime - offset : options.dateTime + offset;
+            request.rctx = options.rctx.copyForRequest(request, createHeuristic(options));
+            requests.add(request);
+            searches.add(itinerarySearchPool.submit(() -> {
+                long attemptStartTime = System.currentTimeMillis();
+                AStar aStar = new AStar();
+                aStar.getShortestPathTree(request, timeout);
+                List<GraphPath> found = request.rctx.aborted ? Collections.emptyList() : aStar.getPathsToTarget();
+                request.rctx.debugOutput.searchAttemptTimes.add(System.currentTimeMillis() - attemptStartTime);
+                return found;
+            }));
+        }
+        List<GraphPath> paths = new ArrayList<>();
+        Set<List<FeedScopedId>> tripsFound = new HashSet<>();
+        boolean allAborted = true;
+        for (int i = 0; i < nSearches; i++) {
+            List<GraphPath> found = searches.get(i).join();
+            RoutingContext rctx = requests.get(i).rctx;
+            options.rctx.debugOutput.addSearches(rctx.debugOutput);
+            options.rctx.debugOutput.searchAttemptTimes.addAll(rctx.debugOutput.searchAttemptTimes);
+            allAborted &= rctx.aborted;
+            for (GraphPath path : found) {
+                // Searches at neighbouring times often find the same trips. Keep the path of the earliest search.
+                if (isWithinMaxHours(options, path) && tripsFound.add(path.getTrips())) {
+                    paths.add(path);
+                }
+            }
+        }
+        if (paths.isEmpty() && allAborted) {
+            options.rctx.aborted = true;
+        }
+        LOG.debug("{} parallel searches found {} distinct paths", nSearches, paths.size());
+        return paths;
+    }
+
+    /**
+     * Find the path of a street-only request through the contraction hierarchy of its mode, if the graph has one that
+     * accepts the request. The path is subject to the same timeout and maxHours limits as those found by A*.
+     *
+     * @param paths receives the path found, unless it exceeds maxHours.
+     * @return whether the request has been answered, false if it should be routed with A* as usual because the graph
+     * has no such hierarchy, the request changes weights it was built with, or no usable path was found through it.
+     */
+    private boolean findPathWithContractionHierarchy(RoutingRequest options, long searchBeginTime,
+            List<GraphPath> paths) {
+        Graph graph = router.graph;
+        if (graph.contractionHierarchies == null || options.rctx.fromVertex == null) return false;
+        for (ContractionHierarchy hierarchy : graph.contractionHierarchies.values()) {
+            if (!hierarchy.accepts(options, graph)) continue;
+            double timeoutMillis = options.searchTimeout < 0 ? router.timeouts[0] * 1000 : options.searchTimeout;
+            if (searchBeginTime + timeoutMillis <= System.currentTimeMillis()) {
+                options.rctx.aborted = true;
+                return true;
+            }
+            long attemptStartTime = System.currentTimeMillis();
+            GraphPath path = new ContractionHierarchyRouter(hierarchy).route(options);
+            options.rctx.debugOutput.searchAttemptTimes.add(System.currentTimeMillis() - attemptStartTime);
+            if (path == null) {
+                LOG.debug("No usable path in the {} contraction hierarchy, falling back on A*.", hierarchy.getMode());
+                return false;
+            }
+            // The path is optimal, so A* would find the same one and filter it the same way.
+            if (isWithinMaxHours(options, path)) {
+                paths.add(path);
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Do a full reversed search to compact the legs of the path.
      *
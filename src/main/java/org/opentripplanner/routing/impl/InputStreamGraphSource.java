@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.node.MissingNode;
 import com.google.common.io.ByteStreams;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.MappedStreetNetwork;
 import org.opentripplanner.routing.services.GraphSource;
 import org.opentripplanner.standalone.Router;
 import org.slf4j.Logger;
@@ -189,7 +190,8 @@ public class InputStreamGraphSource implements GraphSource {
         try (InputStream is = streams.getGraphInputStream()) {
             LOG.info("Loading graph...");
             try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel);
+                // The graph format (Java serialization or binary) is detected from the stream header.
+                newGraph = Graph.load(is, loadLevel, streams.getStreetNetworkFile());
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId, ex);
                 return null;
@@ -236,6 +238,9 @@ public class InputStreamGraphSource implements GraphSource {
         public abstract InputStream getConfigInputStream() throws IOException;
 
         public abstract long getLastModified();
+
+        /** @return the memory-mapped street network file saved with the graph, or null if it cannot be mapped. */
+        public abstract File getStreetNetworkFile();
     }
 
     private static class FileStreams implements Streams {
@@ -269,6 +274,11 @@ public class InputStreamGraphSource implements GraphSource {
             // Note: this returns 0L if the file does not exists
             return new File(path, GRAPH_FILENAME).lastModified();
         }
+
+        @Override
+        public File getStreetNetworkFile() {
+            return new File(path, MappedStreetNetwork.FILENAME);
+        }
     }
 
     private static class ClasspathStreams implements Streams {
@@ -303,6 +313,12 @@ public class InputStreamGraphSource implements GraphSource {
         public long getLastModified() {
             return 0L;
         }
+
+        /** Classpath resources cannot be memory-mapped. */
+        @Override
+        public File getStreetNetworkFile() {
+            return null;
+        }
     }
 
     /**
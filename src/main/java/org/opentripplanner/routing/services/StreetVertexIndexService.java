@@ -7,6 +7,7 @@ import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.request.SampleFactory;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.HashGridSpatialIndex;
+import org.opentripplanner.common.geometry.PackedRTreeSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.P2;
@@ -48,9 +49,10 @@ public class StreetVertexIndexService {
     private Graph graph;
 
     /**
-     * Contains only instances of {@link StreetEdge}
+     * All edges with a geometry except transit edges, packed once when the index is created. Edges split at runtime
+     * by the StreetSplitter (e.g. for rental vehicles) are added to and removed from it concurrently with requests.
      */
-    private HashGridSpatialIndex edgeTree;
+    private PackedRTreeSpatialIndex<Edge> edgeTree;
     private HashGridSpatialIndex transitStopTree;
     private HashGridSpatialIndex verticesTree;
 
@@ -98,7 +100,6 @@ public class StreetVertexIndexService {
             LOG.warn("Multiple StreetVertexIndexServices detected on the same graph! Make sure only the most recently created one is used going forward!");
         }
         graphsWithStreetVertexIndexServices.add(graph);
-        edgeTree = new HashGridSpatialIndex<>();
         transitStopTree = new HashGridSpatialIndex<>();
         verticesTree = new HashGridSpatialIndex<>();
         postSetup();
@@ -200,28 +201,22 @@ public class StreetVertexIndexService {
 
     @SuppressWarnings("rawtypes")
     private void postSetup() {
+        List<Edge> edges = new ArrayList<>();
         for (Vertex gv : graph.getVertices()) {
             Vertex v = gv;
             /*
              * We add all edges with geometry, skipping transit, filtering them out after. We do not
              * index transit edges as we do not need them and some GTFS do not have shape data, so
-             * long straight lines between 2 faraway stations will wreck performance on a hash grid
-             * spatial index.
-             *
-             * If one need to store transit edges in the index, we could improve the hash grid
-             * rasterizing splitting long segments.
+             * long straight lines between 2 faraway stations would have huge envelopes and slow
+             * down every query of the spatial index.
              */
-            synchronized (this) {
-                // place a lock here in order to ensure writes are thread-safe to the edgeTree
-                for (Edge e : gv.getOutgoing()) {
-                    if (e instanceof PatternEdge || e instanceof SimpleTransfer)
-                        continue;
-                    LineString geometry = e.getGeometry();
-                    if (geometry == null) {
-                        continue;
-                    }
-                    edgeTree.insert(geometry, e);
+            for (Edge e : gv.getOutgoing()) {
+                if (e instanceof PatternEdge || e instanceof SimpleTransfer)
+                    continue;
+                if (e.getGeometry() == null) {
+                    continue;
                 }
+                edges.add(e);
             }
             if (v instanceof TransitStop) {
                 Envelope env = new Envelope(v.getCoordinate());
@@ -230,6 +225,7 @@ public class StreetVertexIndexService {
             Envelope env = new Envelope(v.getCoordinate());
             verticesTree.insert(env, v);
         }
+        edgeTree = new PackedRTreeSpatialIndex<>(edges, e -> e.getGeometry().getEnvelopeInternal());
     }
 
     /**
@@ -274,17 +270,9 @@ public class StreetVertexIndexService {
      * @param envelope
      * @return
      */
-    @SuppressWarnings("unchecked")
     public Collection<Edge> getEdgesForEnvelope(Envelope envelope) {
-        List<Edge> edges = edgeTree.query(envelope);
-        for (Iterator<Edge> ie = edges.iterator(); ie.hasNext();) {
-            Edge e = ie.next();
-            Envelope eenv = e.getGeometry().getEnvelopeInternal();
-            //Envelope eenv = e.getEnvelope();
-            if (!envelope.intersects(eenv))
-                ie.remove();
-        }
-        return edges;
+        // The packed tree keeps the envelope of each edge, so there are no false positives to filter out.
+        return edgeTree.query(envelope);
     }
 
     /**
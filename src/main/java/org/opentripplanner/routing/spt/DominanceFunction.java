@@ -1,5 +1,6 @@
 package org.opentripplanner.routing.spt;
 
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.SimpleTransfer;
@@ -141,8 +142,15 @@ public abstract class DominanceFunction implements Serializable {
     /**
      * Create a new shortest path tree using this function, considering whether it allows co-dominant States.
      * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
+     * The tree stores its states in arrays indexed on vertex indexes when the request's graph has a vertex index,
+     * unless the request disables this with vertexIndexedShortestPathTree.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        RoutingContext rctx = routingRequest.rctx;
+        if (routingRequest.vertexIndexedShortestPathTree && rctx != null && rctx.graph != null &&
+                rctx.graph.getVertexIndexBound() > 0) {
+            return new VertexIndexedShortestPathTree(routingRequest, this, rctx.graph.getVertexIndexBound());
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
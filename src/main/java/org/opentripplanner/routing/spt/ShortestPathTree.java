@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * This class keeps track which graph vertices have been visited and their associated states,
@@ -22,6 +23,9 @@ import java.util.*;
  * Note that turn restrictions make all searches multi-state; however turn restrictions do not apply when walking.
  * The turn restriction handling is done in the base dominance function implementation, and applies to all subclasses.
  * It essentially splits each vertex into N vertices depending on the incoming edge being taken.
+ *
+ * This implementation keeps the states in a map keyed on vertices. VertexIndexedShortestPathTree stores them in arrays
+ * indexed on vertex indexes instead, which is faster for large searches.
  */
 public class ShortestPathTree {
 
@@ -33,6 +37,9 @@ public class ShortestPathTree {
 
     private Map<Vertex, List<State>> stateSets;
 
+    /** If not null, informed of every state that is pruned from this tree because a newly added state dominates it. */
+    private Consumer<State> dominatedStateListener;
+
     public ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
         this.options = options;
         this.dominanceFunction = dominanceFunction;
@@ -76,8 +83,8 @@ public class ShortestPathTree {
         Multiset<Integer> histogram = HashMultiset.create();
         int statesCount = 0;
         int maxSize = 0;
-        for (Map.Entry<Vertex, List<State>> kv : stateSets.entrySet()) {
-            List<State> states = kv.getValue();
+        for (Vertex vertex : getVertices()) {
+            List<State> states = getStates(vertex);
             int size = states.size();
             histogram.add(size);
             statesCount += size;
@@ -85,9 +92,9 @@ public class ShortestPathTree {
                 maxSize = size;
             }
         }
-        LOG.info("SPT: vertices: " + stateSets.size() + " states: total: "
+        LOG.info("SPT: vertices: " + getVertexCount() + " states: total: "
                 + statesCount + " per vertex max: " + maxSize + " avg: "
-                + (statesCount * 1.0 / stateSets.size()));
+                + (statesCount * 1.0 / getVertexCount()));
         List<Integer> nStates = new ArrayList<Integer>(histogram.elementSet());
         Collections.sort(nStates);
         for (Integer nState : nStates) {
@@ -95,6 +102,15 @@ public class ShortestPathTree {
         }
     }
 
+    /**
+     * Register a callback that receives each state removed from this tree by add() because it was dominated.
+     * The search uses this to take such states out of its priority queue right away instead of popping and
+     * discarding them later.
+     */
+    public void setDominatedStateListener(Consumer<State> dominatedStateListener) {
+        this.dominatedStateListener = dominatedStateListener;
+    }
+
     public Set<Vertex> getVertices() {
         return stateSets.keySet();
     }
@@ -120,7 +136,16 @@ public class ShortestPathTree {
             states.add(newState);
             return true;
         }
+        return addToStates(states, newState);
+    }
 
+    /**
+     * Add a new state to the non-empty list of states at its vertex, unless one of them dominates it, removing any
+     * states that it dominates.
+     *
+     * @return whether the state was added to the list
+     */
+    protected boolean addToStates(List<State> states, State newState) {
         // if the vertex has any states that dominate the new state, don't add the state
         // if the new state dominates any old states, remove them
         Iterator<State> it = states.iterator();
@@ -130,8 +155,10 @@ public class ShortestPathTree {
             // we want to reject the new state
             if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
                 return false;
-            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState))
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
                 it.remove();
+                stateDominated(oldState);
+            }
         }
 
         // any states remaining are co-dominant with the new state
@@ -139,6 +166,13 @@ public class ShortestPathTree {
         return true;
     }
 
+    /** Inform the listener, if any, that the given state was removed from this tree because it was dominated. */
+    protected void stateDominated(State state) {
+        if (dominatedStateListener != null) {
+            dominatedStateListener.accept(state);
+        }
+    }
+
     /**
      * Returns the 'best' state for the given Vertex, where 'best' depends on the implementation.
      *
@@ -146,7 +180,7 @@ public class ShortestPathTree {
      * @return a 'best' state at that vertex
      */
     public State getState(Vertex dest) {
-        Collection<State> states = stateSets.get(dest);
+        Collection<State> states = getStates(dest);
         if (states == null)
             return null;
         State ret = null;
@@ -174,7 +208,7 @@ public class ShortestPathTree {
 
     /** @return number of vertices referenced in this SPT */
     public int getVertexCount() {
-        return stateSets.keySet().size();
+        return stateSets.size();
     }
 
     /**
@@ -188,7 +222,8 @@ public class ShortestPathTree {
      * which indicates that it has not been ruled out as a state on an optimal path. Many shortest 
      * path algorithms will decrease the key of a vertex in the priority queue when it is updated, but we store states
      * in the queue rather than vertices, and states do not get updated or change their weight.
-     * TODO consider just removing states from the priority queue.
+     * AStar now removes dominated states from its queue through the dominated state listener, but other users of
+     * this class (and states that tie on dominance) still rely on this check.
      *
      * When the Fibonacci heap was replaced with a binary heap, the decrease-key operation was 
      * removed for the same reason: both improve theoretical run time complexity, at the cost of 
@@ -202,7 +237,7 @@ public class ShortestPathTree {
      */
     public boolean visit(State state) {
         boolean ret = false;
-        for (State s : stateSets.get(state.getVertex())) {
+        for (State s : getStates(state.getVertex())) {
             if (s == state) {
                 ret = true;
                 break;
@@ -221,7 +256,7 @@ public class ShortestPathTree {
     }
 
     public String toString() {
-        return "ShortestPathTree(" + this.stateSets.size() + " vertices)";
+        return "ShortestPathTree(" + getVertexCount() + " vertices)";
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package org.opentripplanner.routing.spt;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A ShortestPathTree keeping the states of the vertices of a graph in an array indexed on vertex indexes rather than
+ * in a map. This avoids hashing and repeatedly growing a large IdentityHashMap in big searches, as well as allocating
+ * a list for every vertex reached: a vertex holding a single state, which is the case for most of them, stores that
+ * state directly. The array is split into pages that are only allocated when first touched, so that small searches
+ * over a large graph stay cheap.
+ *
+ * Vertices whose index is beyond the vertex index bound of the graph, which includes all temporary vertices, are kept
+ * in the map of the superclass. States are accepted, rejected and pruned by the same rules and in the same order as
+ * in ShortestPathTree, so searches produce identical results with either implementation.
+ */
+public class VertexIndexedShortestPathTree extends ShortestPathTree {
+
+    private static final int PAGE_BITS = 10;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int indexBound;
+
+    /** For each vertex index: null, the only state at that vertex, or the list of its co-dominant states. */
+    private final Object[][] pages;
+
+    private int indexedVertexCount = 0;
+
+    /**
+     * @param indexBound vertices with an index below this bound are stored in arrays, usually the vertex index bound
+     *                   of the graph being searched.
+     */
+    public VertexIndexedShortestPathTree(RoutingRequest options, DominanceFunction dominanceFunction, int indexBound) {
+        super(options, dominanceFunction);
+        this.indexBound = indexBound;
+        this.pages = new Object[(indexBound + PAGE_SIZE - 1) >> PAGE_BITS][];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean add(State newState) {
+        int index = newState.getVertex().getIndex();
+        if (index >= indexBound) {
+            return super.add(newState);
+        }
+        Object[] page = pages[index >> PAGE_BITS];
+        if (page == null) {
+            page = new Object[PAGE_SIZE];
+            pages[index >> PAGE_BITS] = page;
+        }
+        int slot = index & PAGE_MASK;
+        Object states = page[slot];
+        if (states == null) {
+            page[slot] = newState;
+            indexedVertexCount++;
+            return true;
+        }
+        if (states instanceof State) {
+            State oldState = (State) states;
+            // order is important, because in the case of a tie we want to reject the new state
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState)) {
+                return false;
+            }
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                page[slot] = newState;
+                stateDominated(oldState);
+            } else {
+                // The states are co-dominant, only now does this vertex need a list.
+                List<State> list = new ArrayList<>(2);
+                list.add(oldState);
+                list.add(newState);
+                page[slot] = list;
+            }
+            return true;
+        }
+        return addToStates((List<State>) states, newState);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<State> getStates(Vertex dest) {
+        int index = dest.getIndex();
+        if (index >= indexBound) {
+            return super.getStates(dest);
+        }
+        Object states = getSlot(index);
+        if (states instanceof State) {
+            return Collections.singletonList((State) states);
+        }
+        return (List<State>) states;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean visit(State state) {
+        int index = state.getVertex().getIndex();
+        if (index >= indexBound) {
+            return super.visit(state);
+        }
+        Object states = getSlot(index);
+        if (states instanceof State) {
+            return states == state;
+        }
+        if (states != null) {
+            for (State s : (List<State>) states) {
+                if (s == state) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> vertices = new HashSet<>(super.getVertices());
+        for (Object[] page : pages) {
+            if (page == null) continue;
+            for (Object states : page) {
+                if (states instanceof State) {
+                    vertices.add(((State) states).getVertex());
+                } else if (states != null && !((List<?>) states).isEmpty()) {
+                    vertices.add(((State) ((List<?>) states).get(0)).getVertex());
+                }
+            }
+        }
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return super.getVertexCount() + indexedVertexCount;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Collection<State> getAllStates() {
+        Collection<State> allStates = super.getAllStates();
+        for (Object[] page : pages) {
+            if (page == null) continue;
+            for (Object states : page) {
+                if (states instanceof State) {
+                    allStates.add((State) states);
+                } else if (states != null) {
+                    allStates.addAll((List<State>) states);
+                }
+            }
+        }
+        return allStates;
+    }
+
+    private Object getSlot(int index) {
+        Object[] page = pages[index >> PAGE_BITS];
+        return page == null ? null : page[index & PAGE_MASK];
+    }
+
+}
@@ -1,15 +1,19 @@
 package org.opentripplanner.standalone;
 
 import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.graph_builder.module.osm.OSMNodeStore;
 import org.opentripplanner.graph_builder.module.osm.WayPropertySetSource;
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
 import org.opentripplanner.profile.StopClusterMode;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.GraphFormat;
 import org.opentripplanner.routing.graph.GraphIndex;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.services.FareServiceFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -209,6 +213,42 @@ public class GraphBuilderParameters {
      */
     public boolean includeEllipsoidToGeoidDifference;
 
+    /**
+     * The format in which the graph is saved: JAVA (plain Java serialization, the default) or BINARY (a versioned
+     * binary format that loads several times faster, see BinaryGraphSerializer). Servers detect the format
+     * automatically when loading a graph.
+     */
+    public final GraphFormat graphFormat;
+
+    /**
+     * If true, also write the street network to a read-only file next to the graph (see MappedStreetNetwork) and leave
+     * the street edge geometries out of the graph. Servers memory-map the file when loading the graph, so the
+     * geometries are not deserialized and are shared between all server processes through the OS page cache.
+     */
+    public final boolean mapStreetNetwork;
+
+    /**
+     * Street modes (CAR, WALK and/or BICYCLE) for which a contraction hierarchy is precomputed. Depart-after
+     * street-only requests in one of these modes that keep the default weight parameters are then answered from the
+     * hierarchy instead of with an A* search. The hierarchy is built over turns, so it has about as many nodes as the
+     * graph has street edges; each one adds to build time and graph size.
+     */
+    public final List<TraverseMode> contractionHierarchies;
+
+    /**
+     * Where the nodes of OSM ways are kept while the street network is built: HEAP (as Java objects, the default),
+     * OFF_HEAP (packed coordinates in direct memory) or MAPPED (packed coordinates in a temporary memory-mapped file).
+     * The last two need several times less heap for large OSM extracts, see OSMNodeStore.
+     */
+    public final OSMNodeStore.Storage osmNodeStorage;
+
+    /**
+     * Path to a graph built with transit disabled, relative to the build directory. When set, that graph is loaded
+     * and only the transit modules are run on top of it: OSM loading, island pruning and elevation are skipped. The
+     * build is refused if the OSM files in the build directory are not the ones the street graph was built from.
+     */
+    public final String baseGraph;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -249,6 +289,20 @@ public class GraphBuilderParameters {
         readCachedElevations = config.path("readCachedElevations").asBoolean(true);
         writeCachedElevations = config.path("writeCachedElevations").asBoolean(false);
         includeEllipsoidToGeoidDifference = config.path("includeEllipsoidToGeoidDifference").asBoolean(false);
+        graphFormat = enumValueOf(config, "graphFormat", GraphFormat.JAVA);
+        mapStreetNetwork = config.path("mapStreetNetwork").asBoolean(false);
+        contractionHierarchies = new ArrayList<>();
+        for (JsonNode mode : config.path("contractionHierarchies")) {
+            TraverseMode traverseMode = TraverseMode.valueOf(mode.asText());
+            if (traverseMode != TraverseMode.CAR && traverseMode != TraverseMode.WALK
+                    && traverseMode != TraverseMode.BICYCLE) {
+                throw new IllegalArgumentException("The graph build parameter contractionHierarchies only accepts the "
+                        + "modes CAR, WALK and BICYCLE, not " + traverseMode + ".");
+            }
+            contractionHierarchies.add(traverseMode);
+        }
+        osmNodeStorage = enumValueOf(config, "osmNodeStorage", OSMNodeStore.Storage.HEAP);
+        baseGraph = config.path("baseGraph").asText(null);
     }
 
 
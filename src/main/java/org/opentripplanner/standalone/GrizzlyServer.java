@@ -14,6 +14,7 @@ import org.glassfish.grizzly.ssl.SSLContextConfigurator;
 import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
 import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.server.ContainerFactory;
+import org.opentripplanner.util.monitoring.SearchMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.bridge.SLF4JBridgeHandler;
@@ -147,6 +148,9 @@ public class GrizzlyServer {
         Thread shutdownThread = new Thread(httpServer::shutdown);
         Runtime.getRuntime().addShutdownHook(shutdownThread);
 
+        /* Make the per-request search histograms available to JMX clients (they are also served at /otp/metrics). */
+        SearchMetrics.registerMBean();
+
         /* RELINQUISH CONTROL TO THE SERVER THREAD */
         try {
             httpServer.start();
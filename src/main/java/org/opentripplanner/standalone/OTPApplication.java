@@ -97,6 +97,7 @@ public class OTPApplication extends Application {
             ScenarioResource.class,
             RepeatedRaptorTestResource.class,
             TransportationNetworkCompanyResource.class,
+            MetricsResource.class,
             /* Features and Filters: extend Jersey, manipulate requests and responses. */
             CorsFilter.class,
             MultiPartFeature.class,
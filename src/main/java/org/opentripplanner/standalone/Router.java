@@ -9,8 +9,11 @@ import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
+import org.opentripplanner.graph_builder.linking.SnappingCache;
+import org.opentripplanner.index.GraphQLResponseCache;
 import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicStreetSearchCache;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
@@ -59,6 +62,9 @@ public class Router {
     /** A graphical window that is used for visualizing search progress (debugging). */
     public GraphVisualizer graphVisualizer = null;
 
+    /** Limits the number of trip planning requests routed at once, or null to route each on its own HTTP thread. */
+    public RoutingExecutor routingExecutor = null;
+
     /** Storage for non-destructive alternatives analysis scenarios. */
     public ScenarioStore scenarioStore = new ScenarioStore();
 
@@ -154,6 +160,88 @@ public class Router {
             }
         }
 
+        JsonNode heuristicCacheSize = config.get("heuristicCacheSize");
+        if (heuristicCacheSize != null) {
+            if (heuristicCacheSize.isInt() && heuristicCacheSize.intValue() >= 0) {
+                int size = heuristicCacheSize.intValue();
+                graph.heuristicStreetSearchCache = size > 0 ? new HeuristicStreetSearchCache(size) : null;
+                LOG.info("Caching up to {} heuristic street searches for router '{}'", size, this.id);
+            } else {
+                LOG.error("The 'heuristicCacheSize' configuration option should be a non-negative number of searches.");
+            }
+        }
+
+        JsonNode snappingCacheSize = config.get("snappingCacheSize");
+        if (snappingCacheSize != null) {
+            if (snappingCacheSize.isInt() && snappingCacheSize.intValue() >= 0) {
+                int size = snappingCacheSize.intValue();
+                graph.snappingCache = size > 0 ? new SnappingCache(size) : null;
+                LOG.info("Caching up to {} linked origins and destinations for router '{}'", size, this.id);
+            } else {
+                LOG.error("The 'snappingCacheSize' configuration option should be a non-negative number of locations.");
+            }
+        }
+
+        JsonNode graphQLMaxDepth = config.get("graphQLMaxDepth");
+        if (graphQLMaxDepth != null) {
+            if (graphQLMaxDepth.isInt() && graphQLMaxDepth.intValue() >= 0) {
+                graph.graphQLMaxDepth = graphQLMaxDepth.intValue();
+                LOG.info("Limiting GraphQL queries to a depth of {} for router '{}'", graph.graphQLMaxDepth, this.id);
+            } else {
+                LOG.error("The 'graphQLMaxDepth' configuration option should be a non-negative number of levels.");
+            }
+        }
+
+        JsonNode graphQLMaxComplexity = config.get("graphQLMaxComplexity");
+        if (graphQLMaxComplexity != null) {
+            if (graphQLMaxComplexity.isInt() && graphQLMaxComplexity.intValue() >= 0) {
+                graph.graphQLMaxComplexity = graphQLMaxComplexity.intValue();
+                LOG.info("Limiting GraphQL queries to a complexity of {} for router '{}'", graph.graphQLMaxComplexity,
+                        this.id);
+            } else {
+                LOG.error("The 'graphQLMaxComplexity' configuration option should be a non-negative number.");
+            }
+        }
+
+        JsonNode graphQLResponseCacheSeconds = config.get("graphQLResponseCacheSeconds");
+        if (graphQLResponseCacheSeconds != null) {
+            if (graphQLResponseCacheSeconds.isInt() && graphQLResponseCacheSeconds.intValue() >= 0) {
+                int seconds = graphQLResponseCacheSeconds.intValue();
+                int size = 1000;
+                JsonNode graphQLResponseCacheSize = config.get("graphQLResponseCacheSize");
+                if (graphQLResponseCacheSize != null) {
+                    if (graphQLResponseCacheSize.isInt() && graphQLResponseCacheSize.intValue() > 0) {
+                        size = graphQLResponseCacheSize.intValue();
+                    } else {
+                        LOG.error("The 'graphQLResponseCacheSize' configuration option should be a positive number of responses.");
+                    }
+                }
+                graph.graphQLResponseCache = seconds > 0 ? new GraphQLResponseCache(seconds, size) : null;
+                LOG.info("Caching up to {} GraphQL responses for {} seconds for router '{}'", size, seconds, this.id);
+            } else {
+                LOG.error("The 'graphQLResponseCacheSeconds' configuration option should be a non-negative number of seconds.");
+            }
+        }
+
+        JsonNode routingConcurrency = config.get("routingConcurrency");
+        if (routingConcurrency != null) {
+            if (routingConcurrency.isInt() && routingConcurrency.intValue() > 0) {
+                int concurrency = routingConcurrency.intValue();
+                int queueSize = concurrency * 2;
+                JsonNode routingQueueSize = config.get("routingQueueSize");
+                if (routingQueueSize != null) {
+                    if (routingQueueSize.isInt() && routingQueueSize.intValue() >= 0) {
+                        queueSize = routingQueueSize.intValue();
+                    } else {
+                        LOG.error("The 'routingQueueSize' configuration option should be a non-negative number of requests.");
+                    }
+                }
+                this.routingExecutor = new RoutingExecutor(this.id, concurrency, queueSize);
+            } else {
+                LOG.error("The 'routingConcurrency' configuration option should be a positive number of requests.");
+            }
+        }
+
         /* Create Graph updater modules from JSON config. */
         GraphUpdaterConfigurator.setupGraph(this.graph, config);
 
@@ -172,6 +260,9 @@ public class Router {
     /** Shut down this router when evicted or (auto-)reloaded. Stop any real-time updater threads. */
     public void shutdown() {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
+        if (routingExecutor != null) {
+            routingExecutor.shutdown();
+        }
     }
 
     /**
@@ -0,0 +1,101 @@
+package org.opentripplanner.standalone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.opentripplanner.util.monitoring.SearchMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the routing requests of a router on a fixed number of threads, with a bounded queue of requests waiting for a
+ * thread. Without it every HTTP worker thread searches at the same time: under a burst of requests they all compete
+ * for the same cores, each of them runs up to its timeout, and few or none of them get an answer in time. Here at most
+ * `concurrency` searches run at once, and a request arriving while the queue is full is rejected right away, so that
+ * the client can retry later or elsewhere instead of waiting for a response that would come too late anyway.
+ *
+ * The time a request spent in the queue is handed to the task, so that it can be deducted from its search timeout.
+ * Queue depth, queue wait and rejections are recorded in SearchMetrics.
+ */
+public class RoutingExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingExecutor.class);
+
+    /** A routing task, told how many milliseconds it waited in the queue before starting. */
+    public interface Task<T> {
+        T run(long queueWaitTime);
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param concurrency the number of requests routed at the same time.
+     * @param queueSize the number of requests that may wait for one of those threads. With a queue size of zero,
+     *                  requests are rejected whenever all threads are busy.
+     */
+    public RoutingExecutor(String routerId, int concurrency, int queueSize) {
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat("Routing-" + routerId + "-%d").build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        LOG.info("Routing at most {} requests at once for router '{}', with up to {} waiting.", concurrency, routerId,
+                queueSize);
+    }
+
+    /**
+     * Run the given task on one of the routing threads and wait for its result.
+     *
+     * @throws RejectedExecutionException if the queue is full or the executor has been shut down.
+     */
+    public <T> T execute(Task<T> task) {
+        SearchMetrics metrics = SearchMetrics.getInstance();
+        long queuedAt = System.currentTimeMillis();
+        metrics.requestQueued();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long queueWaitTime = System.currentTimeMillis() - queuedAt;
+                metrics.requestLeftQueue();
+                metrics.recordQueueWait(queueWaitTime);
+                return task.run(queueWaitTime);
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.requestLeftQueue();
+            metrics.requestRejected();
+            throw e;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            // If the task has not started yet, it is no use running it any more.
+            if (executor.remove((Runnable) future)) {
+                metrics.requestLeftQueue();
+            }
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a routing request.", e);
+        }
+    }
+
+    /** The number of requests waiting for a routing thread. */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /** Stop accepting requests. Those already accepted are still routed. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -75,7 +75,7 @@ public class GtfsRealtimeFuzzyTripMatcher {
         BitSet services = index.servicesRunning(date);
         for (TripPattern pattern : index.patternsForRoute.get(route)) {
             if (pattern.directionId != direction) continue;
-            for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
+            for (TripTimes times : pattern.scheduledTimetable.getTripTimes()) {
                 if (times.getScheduledDepartureTime(0) == startTime &&
                         services.get(times.serviceCode)) {
                     return times.trip;
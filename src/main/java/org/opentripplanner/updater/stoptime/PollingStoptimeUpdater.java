@@ -6,6 +6,7 @@ import java.util.concurrent.ExecutionException;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.updater.*;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.monitoring.SearchMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -113,6 +114,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
             snapshotSource = new TimetableSnapshotSource(graph);
             // Add snapshot source to graph
             graph.timetableSnapshotSource = (snapshotSource);
+            SearchMetrics.getInstance().registerSnapshotSource(graph.routerId, snapshotSource);
         }
         // Set properties of realtime data snapshot source
         if (logFrequency != null) {
@@ -4,11 +4,20 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.opentripplanner.common.model.T2;
 import org.opentripplanner.model.Agency;
 import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.model.Route;
@@ -29,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
@@ -38,7 +48,7 @@ import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
  * necessary to provide planning threads a consistent constant view of a graph with realtime data at
  * a specific point in time.
  */
-public class TimetableSnapshotSource {
+public class TimetableSnapshotSource implements TimetableSnapshotSourceMXBean {
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshotSource.class);
 
     /**
@@ -56,22 +66,24 @@ public class TimetableSnapshotSource {
     private int appliedBlockCount = 0;
 
     /**
-     * If a timetable snapshot is requested less than this number of milliseconds after the previous
-     * snapshot, just return the same one. Throttles the potentially resource-consuming task of
-     * duplicating a TripPattern -> Timetable map and indexing the new Timetables.
+     * If a timetable snapshot is committed less than this number of milliseconds after the previous
+     * one, the commit is deferred until this delay has elapsed. Throttles the potentially
+     * resource-consuming task of duplicating a TripPattern -> Timetable map and indexing the new
+     * Timetables.
      */
     public int maxSnapshotFrequency = 1000; // msec
 
     /**
-     * The last committed snapshot that was handed off to a routing thread. This snapshot may be
-     * given to more than one routing thread if the maximum snapshot frequency is exceeded.
+     * The last committed snapshot. It is published atomically by the writer thread, so routing
+     * threads can read it at any time without blocking or taking a lock. The same snapshot is
+     * given to all routing threads until the next commit.
      */
-    private volatile TimetableSnapshot snapshot = null;
+    private final AtomicReference<TimetableSnapshot> snapshot = new AtomicReference<>();
 
     /**
      * The working copy of the timetable snapshot. Should not be visible to routing threads. Should
      * only be modified by a thread that holds a lock on {@link #bufferLock}. All public methods that
-     * might modify this buffer will correctly acquire the lock.
+     * might modify this buffer will correctly acquire the lock. Routing threads never take this lock.
      */
     private final TimetableSnapshot buffer = new TimetableSnapshot();
 
@@ -80,6 +92,17 @@ public class TimetableSnapshotSource {
      */
     private final ReentrantLock bufferLock = new ReentrantLock(true);
 
+    /**
+     * Commits that were throttled by maxSnapshotFrequency are run later on this thread, so that
+     * updates become visible even if no further update message arrives.
+     */
+    private static final ScheduledExecutorService deferredCommitExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("TimetableSnapshotCommit-%d").setDaemon(true).build());
+
+    /** True if a deferred commit has been scheduled and has not run yet. */
+    private final AtomicBoolean deferredCommitScheduled = new AtomicBoolean(false);
+
     /**
      * A synchronized cache of trip patterns that are added to the graph due to GTFS-realtime messages.
      */
@@ -90,7 +113,29 @@ public class TimetableSnapshotSource {
 
     protected ServiceDate lastPurgeDate = null;
 
-    protected long lastSnapshotTime = -1;
+    protected volatile long lastSnapshotTime = -1;
+
+    /* Commit statistics, only written by the thread holding bufferLock. */
+
+    private volatile long commitCount = 0;
+
+    private volatile long lastCommitNanos = 0;
+
+    private volatile long maxCommitNanos = 0;
+
+    private volatile long totalCommitNanos = 0;
+
+    private volatile int lastCommitTimetableCount = 0;
+
+    private volatile int lastBatchSize = 0;
+
+    private volatile int lastSkippedCount = 0;
+
+    /**
+     * The trip updates currently applied to the buffer, by feed id and then by trip id and service date. Trip updates
+     * identical to the ones remembered here are skipped. Only accessed while holding bufferLock.
+     */
+    private final Map<String, Map<T2<String, ServiceDate>, TripUpdate>> appliedTripUpdates = new HashMap<>();
 
     private final TimeZone timeZone;
 
@@ -114,55 +159,114 @@ public class TimetableSnapshotSource {
      * @return an up-to-date snapshot mapping TripPatterns to Timetables. This snapshot and the
      *         timetable objects it references are guaranteed to never change, so the requesting
      *         thread is provided a consistent view of all TripTimes. The routing thread need only
-     *         release its reference to the snapshot to release resources.
+     *         release its reference to the snapshot to release resources. This never blocks.
      */
     public TimetableSnapshot getTimetableSnapshot() {
-        TimetableSnapshot snapshotToReturn;
-
-        // Try to get a lock on the buffer
-        if (bufferLock.tryLock()) {
-            // Make a new snapshot if necessary
-            try {
-                snapshotToReturn = getTimetableSnapshot(false);
-            } finally {
-                bufferLock.unlock();
-            }
-        } else {
-            // No lock could be obtained because there is either a snapshot commit busy or updates
-            // are applied at this moment, just return the current snapshot
-            snapshotToReturn = snapshot;
-        }
+        return snapshot.get();
+    }
 
-        return snapshotToReturn;
+    /**
+     * Commit any updates that are waiting in the buffer, even if the last commit was less than
+     * maxSnapshotFrequency milliseconds ago. Called by the deferred commit task, and by tests.
+     */
+    public void commitPendingUpdates() {
+        bufferLock.lock();
+        try {
+            deferredCommitScheduled.set(false);
+            commit(false, true);
+        } finally {
+            bufferLock.unlock();
+        }
     }
 
-    private TimetableSnapshot getTimetableSnapshot(final boolean force) {
+    /**
+     * Commit the buffer and publish the resulting snapshot if it contains changes, or if forced.
+     * Must be called while holding bufferLock. Unforced commits closer together than
+     * maxSnapshotFrequency are deferred, unless ignoreFrequency is true.
+     */
+    private void commit(final boolean force, final boolean ignoreFrequency) {
+        if (!force && !buffer.isDirty()) {
+            LOG.debug("Buffer was unchanged, keeping old snapshot.");
+            return;
+        }
         final long now = System.currentTimeMillis();
-        if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
-            if (force || buffer.isDirty()) {
-                LOG.debug("Committing {}", buffer.toString());
-                snapshot = buffer.commit(force);
-            } else {
-                LOG.debug("Buffer was unchanged, keeping old snapshot.");
+        final long wait = lastSnapshotTime + maxSnapshotFrequency - now;
+        if (!force && !ignoreFrequency && wait >= 0) {
+            LOG.debug("Snapshot frequency exceeded. Deferring commit by {} msec.", wait + 1);
+            if (deferredCommitScheduled.compareAndSet(false, true)) {
+                deferredCommitExecutor.schedule(this::commitPendingUpdates, wait + 1, TimeUnit.MILLISECONDS);
             }
-            lastSnapshotTime = System.currentTimeMillis();
-        } else {
-            LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
+            return;
         }
-        return snapshot;
+        LOG.debug("Committing {}", buffer.toString());
+        final int timetableCount = buffer.getDirtyTimetableCount();
+        final long startNanos = System.nanoTime();
+        snapshot.set(buffer.commit(true));
+        final long commitNanos = System.nanoTime() - startNanos;
+        lastSnapshotTime = System.currentTimeMillis();
+        commitCount++;
+        lastCommitNanos = commitNanos;
+        totalCommitNanos += commitNanos;
+        maxCommitNanos = Math.max(maxCommitNanos, commitNanos);
+        lastCommitTimetableCount = timetableCount;
+        LOG.debug("Committed {} updated timetables in {} msec.", timetableCount, commitNanos / 1000000.0);
+    }
+
+    /** @return the age in milliseconds of the snapshot currently handed to routing threads, or -1 if there is none. */
+    @Override
+    public long getSnapshotAgeMillis() {
+        return snapshot.get() == null ? -1 : System.currentTimeMillis() - lastSnapshotTime;
+    }
+
+    /** @return the number of snapshots committed since this source was created. */
+    @Override
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /** @return the time spent on the last commit, in nanoseconds. */
+    @Override
+    public long getLastCommitNanos() {
+        return lastCommitNanos;
+    }
+
+    /** @return the longest time spent on a single commit, in nanoseconds. */
+    @Override
+    public long getMaxCommitNanos() {
+        return maxCommitNanos;
+    }
+
+    /** @return the total time spent on commits, in nanoseconds. */
+    @Override
+    public long getTotalCommitNanos() {
+        return totalCommitNanos;
+    }
+
+    /** @return the number of timetables copied and re-indexed by the last commit. */
+    @Override
+    public int getLastCommitTimetableCount() {
+        return lastCommitTimetableCount;
+    }
+
+    /** @return the number of trip updates in the last applied update message. */
+    @Override
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /** @return the number of trip updates in the last message that were skipped because their trip did not change. */
+    @Override
+    public int getLastSkippedCount() {
+        return lastSkippedCount;
     }
 
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot. A
      * GTFS-RT feed is always applied against a single static feed (indicated by feedId).
-<<<<<<< HEAD
-     * 
-=======
      *
      * However, multi-feed support is not completed and we currently assume there is only one static
      * feed when matching IDs.
      *
->>>>>>> 7296be8ffd532a13afb0bec263a9f436ab787022
      * @param graph graph to update (needed for adding/changing stop patterns)
      * @param fullDataset true iff the list with updates represent all updates that are active right
      *        now, i.e. all previous updates should be disregarded
@@ -179,13 +283,13 @@ public class TimetableSnapshotSource {
         bufferLock.lock();
 
         try {
-            if (fullDataset) {
-                // Remove all updates from the buffer
-                buffer.clear(feedId);
-            }
-
             LOG.debug("message contains {} trip updates", updates.size());
-            int uIndex = 0;
+            lastBatchSize = updates.size();
+
+            // Resolve the trip and service date of every update before touching the buffer, so we can tell which
+            // trips changed since the previous message.
+            final List<TripUpdate> tripUpdates = new ArrayList<>(updates.size());
+            final List<ServiceDate> serviceDates = new ArrayList<>(updates.size());
             for (TripUpdate tripUpdate : updates) {
                 if (fuzzyTripMatcher != null && tripUpdate.hasTrip()) {
                     final TripDescriptor trip = fuzzyTripMatcher.match(feedId, tripUpdate.getTrip());
@@ -211,6 +315,44 @@ public class TimetableSnapshotSource {
                     // TODO: figure out the correct service date. For the special case that a trip
                     // starts for example at 40:00, yesterday would probably be a better guess.
                 }
+                tripUpdates.add(tripUpdate);
+                serviceDates.add(serviceDate);
+            }
+
+            // The trip updates currently applied to the buffer for this feed. Unchanged trips are skipped.
+            Map<T2<String, ServiceDate>, TripUpdate> previous = appliedTripUpdates.get(feedId);
+            if (previous == null) {
+                previous = new HashMap<>();
+            }
+            final Map<T2<String, ServiceDate>, TripUpdate> applied;
+            boolean incremental = true;
+            if (fullDataset) {
+                // Only trips that changed or disappeared since the previous message need work, but this is only
+                // possible when they can be reverted in place. Otherwise remove all updates from the buffer.
+                incremental = canApplyIncrementally(previous, tripUpdates, serviceDates);
+                if (incremental) {
+                    revertRemovedTrips(feedId, previous, tripUpdates, serviceDates);
+                } else {
+                    buffer.clear(feedId);
+                    previous = new HashMap<>();
+                }
+                applied = new HashMap<>();
+            } else {
+                applied = previous;
+            }
+
+            int uIndex = 0;
+            int skipped = 0;
+            for (int u = 0; u < tripUpdates.size(); u++) {
+                final TripUpdate tripUpdate = tripUpdates.get(u);
+                final ServiceDate serviceDate = serviceDates.get(u);
+                final T2<String, ServiceDate> key = tripKey(tripUpdate, serviceDate);
+                final TripUpdate previousUpdate = key == null ? null : previous.get(key);
+                if (previousUpdate != null && sameContent(previousUpdate, tripUpdate)) {
+                    applied.put(key, previousUpdate);
+                    skipped++;
+                    continue;
+                }
 
                 uIndex += 1;
                 LOG.debug("trip update #{} ({} updates) :",
@@ -218,48 +360,59 @@ public class TimetableSnapshotSource {
                 LOG.trace("{}", tripUpdate);
 
                 // Determine what kind of trip update this is
-                boolean applied = false;
+                boolean success = false;
                 final TripDescriptor.ScheduleRelationship tripScheduleRelationship = determineTripScheduleRelationship(
                         tripUpdate);
                 switch (tripScheduleRelationship) {
                     case SCHEDULED:
-                        applied = handleScheduledTrip(tripUpdate, feedId, serviceDate);
+                        success = handleScheduledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case ADDED:
-                        applied = validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
+                        success = validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
                         break;
                     case UNSCHEDULED:
-                        applied = handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
+                        success = handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case CANCELED:
-                        applied = handleCanceledTrip(tripUpdate, feedId, serviceDate);
+                        success = handleCanceledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case MODIFIED:
-                        applied = validateAndHandleModifiedTrip(graph, tripUpdate, feedId, serviceDate);
+                        success = validateAndHandleModifiedTrip(graph, tripUpdate, feedId, serviceDate);
                         break;
                 }
 
-                if (applied) {
+                if (success) {
                     appliedBlockCount++;
+                    if (key != null) {
+                        applied.put(key, tripUpdate);
+                    }
                 } else {
                     LOG.warn("Failed to apply TripUpdate.");
                     LOG.trace(" Contents: {}", tripUpdate);
+                    if (fullDataset && previousUpdate != null) {
+                        // As if the buffer had been cleared, the trip falls back to its scheduled times.
+                        revertToScheduled(feedId, key.first, serviceDate);
+                    } else if (previousUpdate != null) {
+                        // The buffer still contains the previous update of this trip.
+                        applied.put(key, previousUpdate);
+                    }
                 }
 
                 if (appliedBlockCount % logFrequency == 0) {
                     LOG.info("Applied {} trip updates.", appliedBlockCount);
                 }
             }
-            LOG.debug("end of update message");
+            appliedTripUpdates.put(feedId, applied);
+            lastSkippedCount = skipped;
+            LOG.debug("end of update message, {} unchanged trip updates skipped", skipped);
 
             // Make a snapshot after each message in anticipation of incoming requests
             // Purge data if necessary (and force new snapshot if anything was purged)
-            // Make sure that the public (locking) getTimetableSnapshot function is not called.
             if (purgeExpiredData) {
                 final boolean modified = purgeExpiredData();
-                getTimetableSnapshot(modified);
+                commit(modified, false);
             } else {
-                getTimetableSnapshot(false);
+                commit(false, false);
             }
         } finally {
             // Always release lock
@@ -267,6 +420,94 @@ public class TimetableSnapshotSource {
         }
     }
 
+    /**
+     * @return the key under which the given trip update is remembered between messages, or null if it has no trip id.
+     */
+    private static T2<String, ServiceDate> tripKey(final TripUpdate tripUpdate, final ServiceDate serviceDate) {
+        if (!tripUpdate.getTrip().hasTripId()) {
+            return null;
+        }
+        return new T2<>(tripUpdate.getTrip().getTripId(), serviceDate);
+    }
+
+    /**
+     * @return true if both trip updates carry the same information. The timestamp is ignored because producers
+     *         typically refresh it on every message even when the trip did not change.
+     */
+    private static boolean sameContent(final TripUpdate a, final TripUpdate b) {
+        if (a.equals(b)) {
+            return true;
+        }
+        if (!a.hasTimestamp() && !b.hasTimestamp()) {
+            return false;
+        }
+        return a.toBuilder().clearTimestamp().build().equals(b.toBuilder().clearTimestamp().build());
+    }
+
+    /**
+     * A full dataset can be applied on top of the buffer as long as every trip that changed or disappeared since the
+     * previous message was only delayed or canceled, before and after. Such trips only ever replace the TripTimes of a
+     * scheduled trip in its own pattern, which is easily reverted. Added and modified trips create new patterns.
+     */
+    private boolean canApplyIncrementally(final Map<T2<String, ServiceDate>, TripUpdate> previous,
+            final List<TripUpdate> tripUpdates, final List<ServiceDate> serviceDates) {
+        final Set<T2<String, ServiceDate>> keys = new HashSet<>();
+        for (int u = 0; u < tripUpdates.size(); u++) {
+            final TripUpdate tripUpdate = tripUpdates.get(u);
+            final T2<String, ServiceDate> key = tripKey(tripUpdate, serviceDates.get(u));
+            if (key == null || !keys.add(key)) {
+                return false;
+            }
+            final TripUpdate previousUpdate = previous.get(key);
+            if (previousUpdate != null && sameContent(previousUpdate, tripUpdate)) {
+                continue;
+            }
+            if (!isRevertible(tripUpdate) || (previousUpdate != null && !isRevertible(previousUpdate))) {
+                return false;
+            }
+        }
+        for (final Map.Entry<T2<String, ServiceDate>, TripUpdate> entry : previous.entrySet()) {
+            if (!keys.contains(entry.getKey()) && !isRevertible(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isRevertible(final TripUpdate tripUpdate) {
+        final TripDescriptor.ScheduleRelationship relationship = determineTripScheduleRelationship(tripUpdate);
+        return relationship == TripDescriptor.ScheduleRelationship.SCHEDULED
+                || relationship == TripDescriptor.ScheduleRelationship.CANCELED;
+    }
+
+    /** Restore the scheduled times of all trips that were updated by the previous message but are absent now. */
+    private void revertRemovedTrips(final String feedId, final Map<T2<String, ServiceDate>, TripUpdate> previous,
+            final List<TripUpdate> tripUpdates, final List<ServiceDate> serviceDates) {
+        final Set<T2<String, ServiceDate>> keys = new HashSet<>();
+        for (int u = 0; u < tripUpdates.size(); u++) {
+            keys.add(tripKey(tripUpdates.get(u), serviceDates.get(u)));
+        }
+        for (final T2<String, ServiceDate> key : previous.keySet()) {
+            if (!keys.contains(key)) {
+                revertToScheduled(feedId, key.first, key.second);
+            }
+        }
+    }
+
+    /** Put the scheduled trip times of a trip back into the buffer. */
+    private boolean revertToScheduled(final String feedId, final String tripId, final ServiceDate serviceDate) {
+        final TripPattern pattern = getPatternForTripId(feedId, tripId);
+        if (pattern == null) {
+            return false;
+        }
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+        if (tripIndex == -1) {
+            return false;
+        }
+        final TripTimes scheduledTripTimes = new TripTimes(pattern.scheduledTimetable.getTripTimes(tripIndex));
+        return buffer.update(feedId, pattern, scheduledTripTimes, serviceDate);
+    }
+
     /**
      * Determine how the trip update should be handled.
      *
@@ -919,6 +1160,10 @@ public class TimetableSnapshotSource {
 
         lastPurgeDate = previously;
 
+        for (Map<T2<String, ServiceDate>, TripUpdate> applied : appliedTripUpdates.values()) {
+            applied.keySet().removeIf(key -> previously.compareTo(key.second) >= 0);
+        }
+
         return buffer.purgeExpiredData(previously);
     }
 
@@ -0,0 +1,25 @@
+package org.opentripplanner.updater.stoptime;
+
+/**
+ * The JMX view of a TimetableSnapshotSource: how old the snapshot seen by routing threads is, and how much work
+ * committing new snapshots takes. Registered per router by SearchMetrics.registerSnapshotSource.
+ */
+public interface TimetableSnapshotSourceMXBean {
+
+    long getSnapshotAgeMillis();
+
+    long getCommitCount();
+
+    long getLastCommitNanos();
+
+    long getMaxCommitNanos();
+
+    long getTotalCommitNanos();
+
+    int getLastCommitTimetableCount();
+
+    int getLastBatchSize();
+
+    int getLastSkippedCount();
+
+}
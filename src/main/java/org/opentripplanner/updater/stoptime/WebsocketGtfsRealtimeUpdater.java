@@ -10,6 +10,7 @@ import org.opentripplanner.updater.GraphUpdater;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.monitoring.SearchMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -87,6 +88,7 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
             TimetableSnapshotSource snapshotSource = new TimetableSnapshotSource(graph);
             // Add snapshot source to graph
             graph.timetableSnapshotSource = (snapshotSource);
+            SearchMetrics.getInstance().registerSnapshotSource(graph.routerId, snapshotSource);
         }
     }
 
@@ -163,6 +163,7 @@ public abstract class WFSNotePollingGraphUpdater extends PollingGraphUpdater {
     private class WFSGraphWriter implements GraphWriterRunnable {
         public void run(Graph graph) {
             notesSource.setNotes(notesForEdge);
+            graph.invalidateHeuristicStreetSearchCache();
         }
     }
 
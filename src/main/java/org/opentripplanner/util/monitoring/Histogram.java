@@ -0,0 +1,164 @@
+package org.opentripplanner.util.monitoring;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-bucket histogram of non-negative long values that can be recorded into from many threads at once without
+ * locking. Bucket upper bounds are inclusive, and values above the last bound land in an overflow bucket. This is
+ * deliberately simple: it has exactly the information needed to export a Prometheus histogram and to estimate
+ * percentiles to within one bucket.
+ */
+public class Histogram {
+
+    private final String name;
+
+    private final String help;
+
+    private final long[] bounds;
+
+    /** One counter per bound plus one for the overflow bucket. */
+    private final LongAdder[] buckets;
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public Histogram(String name, String help, long[] bounds) {
+        this.name = name;
+        this.help = help;
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return bucket bounds in a 1-2-5 sequence (1, 2, 5, 10, 20, 50...) up to and including the first one that is
+     * at least the given maximum.
+     */
+    public static long[] exponentialBounds(long maximum) {
+        long[] bounds = new long[64];
+        int n = 0;
+        for (long decade = 1; ; decade *= 10) {
+            for (int multiplier : new int[] {1, 2, 5}) {
+                bounds[n++] = decade * multiplier;
+                if (bounds[n - 1] >= maximum) return Arrays.copyOf(bounds, n);
+            }
+        }
+    }
+
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        if (bucket < 0) bucket = -bucket - 1;
+        buckets[bucket].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /** @return a copy of the inclusive upper bounds of all buckets except the overflow bucket. */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /** @return the number of values in each bucket, the last element being the overflow bucket. Not cumulative. */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /** @return a consistent-enough view of this histogram for monitoring, taken from one read of every bucket. */
+    public Summary getSummary() {
+        long[] counts = getBucketCounts();
+        long count = 0;
+        for (long c : counts) count += c;
+        long maximum = max.get();
+        return new Summary(count, count == 0 ? 0 : (double) getSum() / count,
+                percentile(counts, count, 0.5, maximum), percentile(counts, count, 0.9, maximum),
+                percentile(counts, count, 0.99, maximum), maximum);
+    }
+
+    /**
+     * @return the upper bound of the bucket containing the given fraction of all values, or the largest recorded
+     * value if that bucket is the overflow bucket or if the bound is larger than the largest recorded value.
+     */
+    private long percentile(long[] counts, long count, double fraction, long maximum) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(bounds[i], maximum);
+        }
+        return maximum;
+    }
+
+    /** Summary statistics of a histogram, exposed as a composite value through JMX. */
+    public static class Summary {
+
+        private final long count;
+
+        private final double mean;
+
+        private final long p50;
+
+        private final long p90;
+
+        private final long p99;
+
+        private final long max;
+
+        @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+        public Summary(long count, double mean, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.opentripplanner.util.monitoring;
+
+import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Process-wide histograms of the work done by each routing request: how many vertices and states the searches
+ * touched, how large the priority queue grew, and where the time went. Each request fills in its own DebugOutput
+ * without any sharing, and the totals are folded in here once when the request is done, so the search loop itself
+ * never touches shared counters. Routers configured with a RoutingExecutor also report how many requests are waiting
+ * for a routing thread, how long they waited, and how many were rejected because too many were already waiting.
+ * Routers with realtime updates report the age of their timetable snapshot and the cost of committing new ones.
+ *
+ * The histograms are exported through JMX (see registerMBean) and in the Prometheus text format by the metrics web
+ * service. Percentiles and bucket counts make it possible to find the slowest requests in production, which averages
+ * do not.
+ */
+public class SearchMetrics implements SearchMetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchMetrics.class);
+
+    public static final String OBJECT_NAME = "org.opentripplanner:type=SearchMetrics";
+
+    /** Prefix of the JMX names of the realtime snapshot sources, followed by the quoted router id. */
+    public static final String SNAPSHOT_SOURCE_OBJECT_NAME = "org.opentripplanner:type=TimetableSnapshotSource,router=";
+
+    private static final SearchMetrics INSTANCE = new SearchMetrics();
+
+    private static final long[] COUNT_BOUNDS = Histogram.exponentialBounds(10_000_000);
+
+    private static final long[] MILLIS_BOUNDS = Histogram.exponentialBounds(100_000);
+
+    private final Histogram visitedVertices = new Histogram("otp_search_visited_vertices",
+            "Number of vertices expanded by the searches of a routing request.", COUNT_BOUNDS);
+
+    private final Histogram statesCreated = new Histogram("otp_search_states_created",
+            "Number of states produced by edge traversals during a routing request.", COUNT_BOUNDS);
+
+    private final Histogram statesDominated = new Histogram("otp_search_states_dominated",
+            "Number of states rejected or evicted as dominated during a routing request.", COUNT_BOUNDS);
+
+    private final Histogram queuePeakSize = new Histogram("otp_search_queue_peak_size",
+            "Largest priority queue size reached by any search of a routing request.", COUNT_BOUNDS);
+
+    private final Histogram heuristicInitMillis = new Histogram("otp_search_heuristic_init_milliseconds",
+            "Time spent initializing the remaining weight heuristic of a routing request.", MILLIS_BOUNDS);
+
+    private final Histogram searchAttemptMillis = new Histogram("otp_search_attempt_milliseconds",
+            "Time spent in each search attempt made by GraphPathFinder while collecting itineraries.", MILLIS_BOUNDS);
+
+    private final Histogram renderingMillis = new Histogram("otp_search_rendering_milliseconds",
+            "Time spent converting the paths of a routing request into itineraries.", MILLIS_BOUNDS);
+
+    private final Histogram totalMillis = new Histogram("otp_search_total_milliseconds",
+            "Total time spent calculating and rendering a routing request.", MILLIS_BOUNDS);
+
+    private final Histogram queueWaitMillis = new Histogram("otp_routing_queue_wait_milliseconds",
+            "Time spent by each routing request waiting for a routing thread.", MILLIS_BOUNDS);
+
+    private final List<Histogram> histograms = Arrays.asList(visitedVertices, statesCreated, statesDominated,
+            queuePeakSize, heuristicInitMillis, searchAttemptMillis, renderingMillis, totalMillis, queueWaitMillis);
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+
+    private final LongAdder rejectedRequests = new LongAdder();
+
+    /** The realtime snapshot source of each router that has one, by router id. */
+    private final Map<String, TimetableSnapshotSource> snapshotSources = new ConcurrentSkipListMap<>();
+
+    public static SearchMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /** Register the shared instance with the platform MBean server, once. Failures are logged, not thrown. */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            LOG.info("Search metrics registered with JMX as {}.", OBJECT_NAME);
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.debug("Search metrics were already registered with JMX.");
+        } catch (JMException e) {
+            LOG.warn("Could not register search metrics with JMX.", e);
+        }
+    }
+
+    /**
+     * Fold the debug output of one completed routing request into the histograms. The timings that are only known
+     * once the paths have been rendered are skipped for requests that failed before that point.
+     */
+    public void record(DebugOutput debugOutput) {
+        visitedVertices.record(debugOutput.visitedVertices);
+        statesCreated.record(debugOutput.statesCreated);
+        statesDominated.record(debugOutput.statesDominated);
+        queuePeakSize.record(debugOutput.queuePeakSize);
+        heuristicInitMillis.record(debugOutput.heuristicInitTime);
+        for (long attemptTime : debugOutput.searchAttemptTimes) {
+            searchAttemptMillis.record(attemptTime);
+        }
+        if (debugOutput.totalTime > 0) {
+            renderingMillis.record(debugOutput.renderingTime);
+            totalMillis.record(debugOutput.totalTime);
+        }
+        if (debugOutput.timedOut) {
+            timedOut.increment();
+        }
+    }
+
+    /** Called by a RoutingExecutor when a request starts waiting for a routing thread. */
+    public void requestQueued() {
+        queuedRequests.incrementAndGet();
+    }
+
+    /** Called by a RoutingExecutor when a request stops waiting, because it started, was rejected or was abandoned. */
+    public void requestLeftQueue() {
+        queuedRequests.decrementAndGet();
+    }
+
+    /** Record how long a request that started waited for a routing thread. */
+    public void recordQueueWait(long millis) {
+        queueWaitMillis.record(millis);
+    }
+
+    /** Called by a RoutingExecutor when a request is turned away because its queue is full. */
+    public void requestRejected() {
+        rejectedRequests.increment();
+    }
+
+    /**
+     * Export the snapshot age and commit statistics of the realtime snapshot source of a router, through JMX and in
+     * the Prometheus text format. A source registered for the same router replaces the previous one, e.g. when the
+     * router is reloaded. JMX failures are logged, not thrown.
+     */
+    public synchronized void registerSnapshotSource(String routerId, TimetableSnapshotSource source) {
+        String router = routerId == null ? "" : routerId;
+        snapshotSources.put(router, source);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(SNAPSHOT_SOURCE_OBJECT_NAME + ObjectName.quote(router));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(source, name);
+        } catch (JMException e) {
+            LOG.warn("Could not register the timetable snapshot source of router {} with JMX.", router, e);
+        }
+    }
+
+    public List<Histogram> getHistograms() {
+        return histograms;
+    }
+
+    /** Write all metrics in the Prometheus text exposition format, version 0.0.4. */
+    public void writePrometheus(Writer writer) throws IOException {
+        for (Histogram histogram : histograms) {
+            String name = histogram.getName();
+            writer.write("# HELP " + name + " " + histogram.getHelp() + "\n");
+            writer.write("# TYPE " + name + " histogram\n");
+            long[] bounds = histogram.getBounds();
+            long[] counts = histogram.getBucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i];
+                writer.write(name + "_bucket{le=\"" + bounds[i] + "\"} " + cumulative + "\n");
+            }
+            cumulative += counts[bounds.length];
+            writer.write(name + "_bucket{le=\"+Inf\"} " + cumulative + "\n");
+            writer.write(name + "_sum " + histogram.getSum() + "\n");
+            writer.write(name + "_count " + cumulative + "\n");
+        }
+        writer.write("# HELP otp_search_timed_out_total Number of routing requests whose search timed out.\n");
+        writer.write("# TYPE otp_search_timed_out_total counter\n");
+        writer.write("otp_search_timed_out_total " + timedOut.sum() + "\n");
+        writer.write("# HELP otp_routing_queued_requests Number of routing requests waiting for a routing thread.\n");
+        writer.write("# TYPE otp_routing_queued_requests gauge\n");
+        writer.write("otp_routing_queued_requests " + queuedRequests.get() + "\n");
+        writer.write("# HELP otp_routing_rejected_total Number of routing requests rejected because the queue was full.\n");
+        writer.write("# TYPE otp_routing_rejected_total counter\n");
+        writer.write("otp_routing_rejected_total " + rejectedRequests.sum() + "\n");
+        if (snapshotSources.isEmpty()) return;
+        writeSnapshotMetric(writer, "otp_realtime_snapshot_age_milliseconds", "gauge",
+                "Age of the timetable snapshot currently used by routing requests, -1 if there is none.",
+                TimetableSnapshotSource::getSnapshotAgeMillis);
+        writeSnapshotMetric(writer, "otp_realtime_commits_total", "counter",
+                "Number of timetable snapshots committed.",
+                TimetableSnapshotSource::getCommitCount);
+        writeSnapshotMetric(writer, "otp_realtime_commit_milliseconds_total", "counter",
+                "Total time spent committing timetable snapshots.",
+                source -> source.getTotalCommitNanos() / 1e6);
+        writeSnapshotMetric(writer, "otp_realtime_last_commit_milliseconds", "gauge",
+                "Time spent committing the last timetable snapshot.",
+                source -> source.getLastCommitNanos() / 1e6);
+        writeSnapshotMetric(writer, "otp_realtime_max_commit_milliseconds", "gauge",
+                "Longest time spent committing a single timetable snapshot.",
+                source -> source.getMaxCommitNanos() / 1e6);
+        writeSnapshotMetric(writer, "otp_realtime_last_commit_timetables", "gauge",
+                "Number of timetables copied and re-indexed by the last commit.",
+                TimetableSnapshotSource::getLastCommitTimetableCount);
+        writeSnapshotMetric(writer, "otp_realtime_last_batch_trip_updates", "gauge",
+                "Number of trip updates in the last applied update message.",
+                TimetableSnapshotSource::getLastBatchSize);
+        writeSnapshotMetric(writer, "otp_realtime_last_batch_skipped_trip_updates", "gauge",
+                "Number of trip updates in the last message that were skipped because their trip did not change.",
+                TimetableSnapshotSource::getLastSkippedCount);
+    }
+
+    /** Write one metric of the realtime snapshot sources, with one sample per router. */
+    private void writeSnapshotMetric(Writer writer, String name, String type, String help,
+            Function<TimetableSnapshotSource, Number> value) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+        for (Map.Entry<String, TimetableSnapshotSource> entry : snapshotSources.entrySet()) {
+            writer.write(name + "{router=\"" + escapeLabelValue(entry.getKey()) + "\"} " +
+                    value.apply(entry.getValue()) + "\n");
+        }
+    }
+
+    /** @return the label value with backslashes, double quotes and line feeds escaped as the text format requires. */
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /* JMX attributes */
+
+    @Override
+    public Histogram.Summary getVisitedVertices() {
+        return visitedVertices.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getStatesCreated() {
+        return statesCreated.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getStatesDominated() {
+        return statesDominated.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getQueuePeakSize() {
+        return queuePeakSize.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getHeuristicInitMillis() {
+        return heuristicInitMillis.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getSearchAttemptMillis() {
+        return searchAttemptMillis.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getRenderingMillis() {
+        return renderingMillis.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getTotalMillis() {
+        return totalMillis.getSummary();
+    }
+
+    @Override
+    public Histogram.Summary getQueueWaitMillis() {
+        return queueWaitMillis.getSummary();
+    }
+
+    @Override
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedRequests.sum();
+    }
+
+}
@@ -0,0 +1,33 @@
+package org.opentripplanner.util.monitoring;
+
+/**
+ * The JMX view of SearchMetrics. Each histogram attribute summarizes one histogram over all routing requests since
+ * startup, and the counts are totals since startup except for the number of queued requests, which is current.
+ */
+public interface SearchMetricsMXBean {
+
+    Histogram.Summary getVisitedVertices();
+
+    Histogram.Summary getStatesCreated();
+
+    Histogram.Summary getStatesDominated();
+
+    Histogram.Summary getQueuePeakSize();
+
+    Histogram.Summary getHeuristicInitMillis();
+
+    Histogram.Summary getSearchAttemptMillis();
+
+    Histogram.Summary getRenderingMillis();
+
+    Histogram.Summary getTotalMillis();
+
+    Histogram.Summary getQueueWaitMillis();
+
+    long getTimedOutCount();
+
+    int getQueuedRequests();
+
+    long getRejectedCount();
+
+}
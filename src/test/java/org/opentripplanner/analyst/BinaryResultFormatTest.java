@@ -0,0 +1,132 @@
+package org.opentripplanner.analyst;
+
+import junit.framework.TestCase;
+import org.opentripplanner.analyst.cluster.ResultEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+public class BinaryResultFormatTest extends TestCase {
+
+    public void testResultSetRoundTrip() throws IOException {
+        ResultSet resultSet = resultSet();
+        for (boolean compress : new boolean[] { false, true }) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            resultSet.writeBinary(output, compress);
+            ResultSet read = ResultSet.readBinary(new ByteArrayInputStream(output.toByteArray()));
+            assertSameResults(resultSet, read);
+        }
+    }
+
+    /** Delta-encoded times close to one another take much less room than in JSON. */
+    public void testSmallerThanJson() throws IOException {
+        ResultSet resultSet = resultSet();
+        // JSON cannot represent a histogram without bins
+        resultSet.histograms.remove("empty");
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        resultSet.writeJson(json);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        resultSet.writeBinary(binary, false);
+        assertTrue(binary.size() * 3 < json.size());
+    }
+
+    public void testResultEnvelopeRoundTrip() throws IOException {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.jobId = "job";
+        envelope.id = "origin";
+        envelope.profile = true;
+        envelope.bestCase = resultSet();
+        envelope.worstCase = new ResultSet();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        envelope.writeBinary(output, true);
+        ResultEnvelope read = ResultEnvelope.readBinary(new ByteArrayInputStream(output.toByteArray()));
+
+        assertEquals("job", read.jobId);
+        assertEquals("origin", read.id);
+        assertNull(read.destinationPointsetId);
+        assertTrue(read.profile);
+        assertSameResults(envelope.bestCase, read.bestCase);
+        assertSameResults(envelope.worstCase, read.worstCase);
+        assertNull(read.avgCase);
+        assertNull(read.pointEstimate);
+        assertNull(read.spread);
+    }
+
+    public void testPointSetRoundTrip() throws IOException {
+        PointSet points = PointSet.fromGeoJson(new File("src/test/resources/pointset/population.geo.json"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        points.writeBinary(output, false);
+        PointSet read = PointSet.readBinary(new ByteArrayInputStream(output.toByteArray()));
+
+        assertEquals(points.id, read.id);
+        assertEquals(points.capacity, read.capacity);
+        assertTrue(Arrays.equals(points.ids, read.ids));
+        for (int i = 0; i < points.capacity; i++) {
+            assertEquals(points.getLat(i), read.getLat(i), 1e-6);
+            assertEquals(points.getLon(i), read.getLon(i), 1e-6);
+        }
+        assertEquals(points.properties.keySet(), read.properties.keySet());
+        for (Map.Entry<String, int[]> entry : points.properties.entrySet()) {
+            assertTrue(Arrays.equals(entry.getValue(), read.properties.get(entry.getKey())));
+        }
+        assertEquals(read.getFeature(0).getProperty("age"), points.getFeature(0).getProperty("age"));
+    }
+
+    public void testWrongKind() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        resultSet().writeBinary(output, false);
+        try {
+            ResultEnvelope.readBinary(new ByteArrayInputStream(output.toByteArray()));
+            fail("A ResultSet should not be read as a ResultEnvelope.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMissingCoordinates() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryResultFormat.writeInts(new DataOutputStream(output), null);
+        try {
+            BinaryResultFormat.readCoordinates(new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+            fail("An absent int array should not be read as coordinates.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static ResultSet resultSet() {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = "points_1";
+        resultSet.times = new int[2000];
+        for (int i = 0; i < resultSet.times.length; i++) {
+            // Unreachable points are marked with Integer.MAX_VALUE
+            resultSet.times[i] = i % 100 == 0 ? Integer.MAX_VALUE : 1800 + (i % 37) * 5;
+        }
+        Histogram histogram = new Histogram();
+        histogram.counts = new int[] { 0, 3, 10, 25, 60, 140, 0, 1_000_000 };
+        histogram.sums = new int[] { 0, -12, 40, 500, Integer.MIN_VALUE, 7, 7, 7 };
+        resultSet.histograms.put("jobs", histogram);
+        resultSet.histograms.put("empty", new Histogram());
+        return resultSet;
+    }
+
+    private static void assertSameResults(ResultSet expected, ResultSet actual) {
+        assertEquals(expected.id, actual.id);
+        assertTrue(Arrays.equals(expected.times, actual.times));
+        assertEquals(expected.histograms.keySet(), actual.histograms.keySet());
+        for (String propertyId : expected.histograms.keySet()) {
+            assertTrue(Arrays.equals(expected.histograms.get(propertyId).counts,
+                    actual.histograms.get(propertyId).counts));
+            assertTrue(Arrays.equals(expected.histograms.get(propertyId).sums,
+                    actual.histograms.get(propertyId).sums));
+        }
+    }
+
+}
@@ -214,17 +214,17 @@ public class TimetableFilterTest extends TestCase {
         assertNotSame(pattern, newtp);
 
         // TODO getNumScheduledTrips is zero - why?
-        assertEquals(2, newtp.scheduledTimetable.tripTimes.size());
+        assertEquals(2, newtp.scheduledTimetable.getTripTimes().size());
         assertEquals(2, newtp.scheduledTimetable.frequencyEntries.size());
 
         assertEquals(3, newtp.stopPattern.size);
 
         // make sure the times are correct
-        assertEquals(pattern.scheduledTimetable.tripTimes.get(0).getDepartureTime(0),
-                newtp.scheduledTimetable.tripTimes.get(0).getDepartureTime(0));
+        assertEquals(pattern.scheduledTimetable.getTripTimes().get(0).getDepartureTime(0),
+                newtp.scheduledTimetable.getTripTimes().get(0).getDepartureTime(0));
         // after the skipped stop: dwell times should be removed
-        assertEquals(pattern.scheduledTimetable.tripTimes.get(0).getDepartureTime(3) - 30,
-                newtp.scheduledTimetable.tripTimes.get(0).getDepartureTime(2));
+        assertEquals(pattern.scheduledTimetable.getTripTimes().get(0).getDepartureTime(3) - 30,
+                newtp.scheduledTimetable.getTripTimes().get(0).getDepartureTime(2));
 
         assertEquals(pattern.stopPattern.stops[3], newtp.stopPattern.stops[2]);
 
@@ -258,17 +258,17 @@ public class TimetableFilterTest extends TestCase {
         assertNotSame(pattern, newtp);
         assertNotSame(pattern, clone);
 
-        assertEquals(1, newtp.scheduledTimetable.tripTimes.size());
+        assertEquals(1, newtp.scheduledTimetable.getTripTimes().size());
         assertEquals(1, newtp.scheduledTimetable.frequencyEntries.size());
 
         assertEquals(3, newtp.stopPattern.size);
 
         // make sure the times are correct
-        assertEquals(pattern.scheduledTimetable.tripTimes.get(0).getDepartureTime(0),
-                newtp.scheduledTimetable.tripTimes.get(0).getDepartureTime(0));
+        assertEquals(pattern.scheduledTimetable.getTripTimes().get(0).getDepartureTime(0),
+                newtp.scheduledTimetable.getTripTimes().get(0).getDepartureTime(0));
         // after the skipped stop: dwell times should be removed
-        assertEquals(pattern.scheduledTimetable.tripTimes.get(0).getDepartureTime(3) - 30,
-                newtp.scheduledTimetable.tripTimes.get(0).getDepartureTime(2));
+        assertEquals(pattern.scheduledTimetable.getTripTimes().get(0).getDepartureTime(3) - 30,
+                newtp.scheduledTimetable.getTripTimes().get(0).getDepartureTime(2));
 
         assertEquals(pattern.stopPattern.stops[3], newtp.stopPattern.stops[2]);
 
@@ -281,11 +281,11 @@ public class TimetableFilterTest extends TestCase {
                 newtp.scheduledTimetable.frequencyEntries.get(0).tripTimes.getDepartureTime(2));
 
         // make sure the times are correct on the trips that were not modified
-        assertEquals(pattern.scheduledTimetable.tripTimes.get(0).getDepartureTime(0),
-                clone.scheduledTimetable.tripTimes.get(0).getDepartureTime(0));
+        assertEquals(pattern.scheduledTimetable.getTripTimes().get(0).getDepartureTime(0),
+                clone.scheduledTimetable.getTripTimes().get(0).getDepartureTime(0));
         // after the skipped stop: dwell times should be removed
-        assertEquals(pattern.scheduledTimetable.tripTimes.get(0).getDepartureTime(3),
-                clone.scheduledTimetable.tripTimes.get(0).getDepartureTime(3));
+        assertEquals(pattern.scheduledTimetable.getTripTimes().get(0).getDepartureTime(3),
+                clone.scheduledTimetable.getTripTimes().get(0).getDepartureTime(3));
 
         assertEquals(pattern.stopPattern.stops[3], clone.stopPattern.stops[3]);
 
@@ -312,7 +312,7 @@ public class TimetableFilterTest extends TestCase {
 
         assertNotSame(pattern, newtp);
 
-        assertEquals(2, newtp.scheduledTimetable.tripTimes.size());
+        assertEquals(2, newtp.scheduledTimetable.getTripTimes().size());
         assertEquals(2, newtp.scheduledTimetable.frequencyEntries.size());
 
         assertEquals(2, newtp.stopPattern.size);
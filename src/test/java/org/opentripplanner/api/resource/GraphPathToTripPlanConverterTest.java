@@ -136,6 +136,33 @@ public class GraphPathToTripPlanConverterTest {
         assertEquals("WALK", itinerary.legs.get(0).mode);
     }
 
+    /**
+     * Test that walk steps and their elevation profiles are left out when the request does not ask for them.
+     */
+    @Test
+    public void testWithoutStepsAndElevation() {
+        GraphPath graphPath = buildPaths()[0];
+        RoutingRequest options = graphPath.states.getFirst().getOptions();
+
+        options.showElevation = false;
+        Itinerary itinerary = GraphPathToTripPlanConverter.generateItinerary(graphPath, false, false, locale);
+        int nSteps = 0;
+        for (Leg leg : itinerary.legs) {
+            for (WalkStep step : leg.walkSteps) {
+                assertNull(step.elevation);
+                nSteps++;
+            }
+        }
+        assertTrue(nSteps > 0);
+
+        options.showSteps = false;
+        itinerary = GraphPathToTripPlanConverter.generateItinerary(graphPath, false, false, locale);
+        for (Leg leg : itinerary.legs) {
+            assertNull(leg.walkSteps);
+            assertNotNull(leg.legGeometry);
+        }
+    }
+
     /**
      * Test that empty graph paths throw a TrivialPathException
      */
@@ -0,0 +1,102 @@
+package org.opentripplanner.api.resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.api.model.JSONObjectMapperProvider;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TripPlanWriterTest extends GtfsTest {
+
+    /** Midnight on 15 September 2009 in New York, when trips 1.1 and 1.2 leave stop A at 00:00 and 00:20. */
+    private static final long MIDNIGHT = 1252987200L;
+
+    /** The streamed response must hold the same JSON as the complete Response serialized by Jersey. */
+    public void testSameJsonAsResponse() throws IOException {
+        ObjectMapper mapper = new JSONObjectMapperProvider().getContext(Response.class);
+        RoutingRequest request = request();
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        assertEquals(2, paths.size());
+
+        Response response = new Response(null);
+        response.setPlan(GraphPathToTripPlanConverter.generatePlan(paths, request));
+        response.elevationMetadata = new ElevationMetadata();
+        response.elevationMetadata.ellipsoidToGeoidDifference = graph.ellipsoidToGeoidDifference;
+        response.elevationMetadata.geoidElevation = request.geoidElevation;
+        response.debugOutput = request.rctx.debugOutput;
+        ObjectNode expected = (ObjectNode) mapper.readTree(mapper.writeValueAsBytes(response));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TripPlanWriter(new Response(null), request, graph, paths).write(output);
+        ObjectNode written = (ObjectNode) mapper.readTree(output.toByteArray());
+
+        // The timings differ, since the itineraries were generated twice
+        assertTrue(written.has("debugOutput"));
+        expected.remove("debugOutput");
+        written.remove("debugOutput");
+        assertEquals(2, written.get("plan").get("itineraries").size());
+        assertEquals(expected, written);
+    }
+
+    /** A response abandoned before its entity is written must still clean up the request, once. */
+    public void testCloseWithoutWriteCleansUp() throws IOException {
+        AtomicInteger cleanups = new AtomicInteger();
+        RoutingRequest request = request(cleanups);
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        TripPlanWriter writer = new TripPlanWriter(new Response(null), request, graph, paths);
+        writer.close();
+        assertEquals(1, cleanups.get());
+        writer.close();
+        assertEquals(1, cleanups.get());
+    }
+
+    /** Closing the writer when the request is done must not clean up a request that write already cleaned up. */
+    public void testCloseAfterWriteCleansUpOnce() throws IOException {
+        AtomicInteger cleanups = new AtomicInteger();
+        RoutingRequest request = request(cleanups);
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        TripPlanWriter writer = new TripPlanWriter(new Response(null), request, graph, paths);
+        writer.write(new ByteArrayOutputStream());
+        assertEquals(1, cleanups.get());
+        writer.close();
+        assertEquals(1, cleanups.get());
+    }
+
+    private RoutingRequest request() {
+        return request(new AtomicInteger());
+    }
+
+    /** @param cleanups counts the calls to cleanup() on the request */
+    private RoutingRequest request(AtomicInteger cleanups) {
+        String feedId = graph.getFeedIds().iterator().next();
+        RoutingRequest request = new RoutingRequest() {
+            @Override
+            public void cleanup() {
+                cleanups.incrementAndGet();
+                super.cleanup();
+            }
+        };
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.dateTime = MIDNIGHT;
+        request.from = new GenericLocation(null, feedId + ":A");
+        request.to = new GenericLocation(null, feedId + ":C");
+        request.setNumItineraries(2);
+        request.setRoutingContext(graph);
+        return request;
+    }
+
+    @Override
+    public String getFeedName() {
+        return "testagency.zip";
+    }
+}
@@ -0,0 +1,134 @@
+package org.opentripplanner.common.geometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class PackedRTreeSpatialIndexTest extends TestCase {
+
+    private static final double X0 = -0.05;
+
+    private static final double Y0 = 44.0;
+
+    private static final double XSCALE = Math.cos(Y0 * Math.PI / 180);
+
+    private static class DummyObject {
+        Envelope envelope;
+
+        @Override
+        public String toString() {
+            return envelope.toString();
+        }
+    }
+
+    /**
+     * Insert random objects, some packed at once and some one by one, remove some of them, and check that queries
+     * return exactly the remaining objects intersecting the query envelope.
+     */
+    public void testQueriesMatchBruteForce() {
+        Random rand = new Random(42);
+        List<DummyObject> packed = randomObjects(rand, 5000);
+        PackedRTreeSpatialIndex<DummyObject> index = new PackedRTreeSpatialIndex<>(packed, o -> o.envelope);
+        List<DummyObject> all = new ArrayList<>(packed);
+        // Enough insertions and removals for the tree to be packed again at least once.
+        for (DummyObject o : randomObjects(rand, 6000)) {
+            index.insert(o.envelope, o);
+            all.add(o);
+        }
+        for (int i = 0; i < 3000; i++) {
+            DummyObject o = all.remove(rand.nextInt(all.size()));
+            assertTrue(index.remove(o.envelope, o));
+        }
+        assertEquals(all.size(), index.size());
+
+        for (int i = 0; i < 500; i++) {
+            Envelope query = randomEnvelope(rand, 0.01);
+            HashSet<DummyObject> expected = new HashSet<>();
+            for (DummyObject o : all) {
+                if (o.envelope.intersects(query)) expected.add(o);
+            }
+            assertEquals(expected, new HashSet<>(index.query(query)));
+        }
+    }
+
+    /** Check that nearest returns the same objects, in the same order, as sorting them all by distance. */
+    public void testNearestMatchesBruteForce() {
+        Random rand = new Random(43);
+        List<DummyObject> packed = randomObjects(rand, 3000);
+        PackedRTreeSpatialIndex<DummyObject> index = new PackedRTreeSpatialIndex<>(packed, o -> o.envelope);
+        List<DummyObject> all = new ArrayList<>(packed);
+        for (DummyObject o : randomObjects(rand, 200)) {
+            index.insert(o.envelope, o);
+            all.add(o);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            Coordinate point = new Coordinate(X0 + rand.nextDouble() * 0.1, Y0 + rand.nextDouble() * 0.1);
+            double maxDistance = 0.01;
+            List<DummyObject> expected = new ArrayList<>();
+            for (DummyObject o : all) {
+                if (distance(point, o) <= maxDistance && o.envelope.getWidth() < 0.005) expected.add(o);
+            }
+            expected.sort(Comparator.comparingDouble(o -> distance(point, o)));
+
+            PackedRTreeSpatialIndex.Nearest<DummyObject> nearest = index.nearest(point.x, point.y, XSCALE,
+                    maxDistance, o -> o.envelope.getWidth() < 0.005, o -> distance(point, o));
+            List<DummyObject> found = new ArrayList<>();
+            double lastDistance = 0;
+            while (nearest.hasNext()) {
+                DummyObject o = nearest.next();
+                assertTrue(nearest.distance() >= lastDistance);
+                assertEquals(distance(point, o), nearest.distance());
+                lastDistance = nearest.distance();
+                found.add(o);
+            }
+            assertEquals(expected.size(), found.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(distance(point, expected.get(j)), distance(point, found.get(j)));
+            }
+        }
+    }
+
+    public void testEmptyIndex() {
+        PackedRTreeSpatialIndex<DummyObject> index = new PackedRTreeSpatialIndex<>(Collections.emptyList(),
+                o -> o.envelope);
+        assertTrue(index.query(new Envelope(-180, 180, -90, 90)).isEmpty());
+        assertFalse(index.nearest(0, 0, 1, 1, o -> true, o -> 0).hasNext());
+        DummyObject o = new DummyObject();
+        o.envelope = new Envelope(1, 2, 1, 2);
+        index.insert(o.envelope, o);
+        assertEquals(Collections.singletonList(o), index.query(new Envelope(0, 1.5, 0, 1.5)));
+        assertTrue(index.remove(o.envelope, o));
+        assertEquals(0, index.size());
+    }
+
+    /** The distance from a point to the envelope of an object, in the local equirectangular projection. */
+    private static double distance(Coordinate point, DummyObject o) {
+        double dx = Math.max(0, Math.max(o.envelope.getMinX() - point.x, point.x - o.envelope.getMaxX())) * XSCALE;
+        double dy = Math.max(0, Math.max(o.envelope.getMinY() - point.y, point.y - o.envelope.getMaxY()));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static List<DummyObject> randomObjects(Random rand, int n) {
+        List<DummyObject> objects = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            DummyObject o = new DummyObject();
+            o.envelope = randomEnvelope(rand, 0.01);
+            objects.add(o);
+        }
+        return objects;
+    }
+
+    private static Envelope randomEnvelope(Random rand, double maxSize) {
+        Coordinate a = new Coordinate(X0 + rand.nextDouble() * 0.1, Y0 + rand.nextDouble() * 0.1);
+        Coordinate b = new Coordinate(a.x + rand.nextDouble() * maxSize, a.y + rand.nextDouble() * maxSize);
+        return new Envelope(a, b);
+    }
+}
@@ -0,0 +1,115 @@
+package org.opentripplanner.common.pqueue;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class TestIndexedBinHeap extends TestCase {
+
+    private static final int N = 50000;
+
+    private static class Item implements IndexedHeapElement {
+        final int value;
+        int heapIndex;
+
+        Item(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int getHeapIndex() {
+            return heapIndex;
+        }
+
+        @Override
+        public void setHeapIndex(int heapIndex) {
+            this.heapIndex = heapIndex;
+        }
+    }
+
+    public void testOrdering() {
+        Random random = new Random(42);
+        IndexedBinHeap<Item> q = new IndexedBinHeap<>();
+        List<Integer> expected = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) {
+            int value = random.nextInt(10000);
+            expected.add(value);
+            q.insert(new Item(value), value);
+        }
+        Collections.sort(expected);
+        List<Integer> result = new ArrayList<>(N);
+        while (!q.empty()) {
+            result.add(q.extract_min().value);
+        }
+        assertEquals(expected, result);
+        assertEquals(0, q.size());
+        assertNull(q.peek_min());
+        assertNull(q.extract_min());
+    }
+
+    public void testDecreaseKeyAndRemove() {
+        Random random = new Random(42);
+        IndexedBinHeap<Item> q = new IndexedBinHeap<>(10);
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Item item = new Item(i);
+            items.add(item);
+            // start with priorities in reverse order of the values
+            q.insert(item, 2000 - i);
+        }
+        // decrease every key so that priority equals value, in random order
+        List<Item> shuffled = new ArrayList<>(items);
+        Collections.shuffle(shuffled, random);
+        for (Item item : shuffled) {
+            q.insert_or_dec_key(item, item.value);
+            assertEquals((double) item.value, q.key(item));
+        }
+        // a larger key does not replace a smaller one in insert_or_dec_key
+        q.insert_or_dec_key(items.get(0), 5000);
+        assertEquals(0.0, q.key(items.get(0)));
+        assertEquals(1000, q.size());
+
+        // remove all odd values
+        for (Item item : shuffled) {
+            if (item.value % 2 == 1) {
+                assertTrue(q.remove(item));
+                assertFalse(q.contains(item));
+                assertFalse(q.remove(item));
+            }
+        }
+        assertEquals(500, q.size());
+
+        // rekey can also move an element down
+        q.rekey(items.get(0), 10000);
+
+        List<Integer> result = new ArrayList<>();
+        while (!q.empty()) {
+            result.add(q.extract_min().value);
+        }
+        assertEquals(500, result.size());
+        for (int i = 0; i < 499; i++) {
+            assertEquals(2 * (i + 1), (int) result.get(i));
+        }
+        assertEquals(0, (int) result.get(499));
+    }
+
+    public void testReinsertAfterExtract() {
+        IndexedBinHeap<Item> q = new IndexedBinHeap<>();
+        Item a = new Item(1);
+        Item b = new Item(2);
+        q.insert(a, 1);
+        q.insert(b, 2);
+        assertSame(a, q.extract_min());
+        assertFalse(q.contains(a));
+        assertTrue(q.contains(b));
+        q.insert_or_dec_key(a, 3);
+        assertTrue(q.contains(a));
+        assertSame(b, q.extract_min());
+        assertSame(a, q.extract_min());
+        assertTrue(q.empty());
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.opentripplanner.graph_builder;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.standalone.CommandLineParameters;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GraphBuilderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Build a small transit feed on top of a saved street graph, and refuse to when the OSM input is not the one it
+     * was built from.
+     */
+    @Test
+    public void testBaseGraph() throws IOException {
+        CommandLineParameters params = new CommandLineParameters();
+        params.cacheDirectory = temporaryFolder.newFolder("cache");
+
+        File streetsDir = temporaryFolder.newFolder("streets");
+        copyResource("module/osm/skoyen.osm.pbf", new File(streetsDir, "map.osm.pbf"));
+        writeConfig(streetsDir, "{\"transit\": false}");
+        GraphBuilder streetBuilder = GraphBuilder.forDirectory(params, streetsDir);
+        assertNotNull(streetBuilder);
+        streetBuilder.run();
+        Graph streets = streetBuilder.getGraph();
+        assertEquals(1, streets.osmInputHashes.size());
+
+        File transitDir = temporaryFolder.newFolder("transit");
+        copyResource("module/osm/skoyen.osm.pbf", new File(transitDir, "map.osm.pbf"));
+        writeConfig(transitDir, "{\"baseGraph\": \"../streets/Graph.obj\"}");
+        writeGtfs(new File(transitDir, "gtfs.zip"));
+        GraphBuilder transitBuilder = GraphBuilder.forDirectory(params, transitDir);
+        assertNotNull(transitBuilder);
+        transitBuilder.run();
+        Graph graph = transitBuilder.getGraph();
+        assertTrue(graph.hasStreets);
+        assertTrue(graph.hasTransit);
+        assertEquals(streets.osmInputHashes, graph.osmInputHashes);
+        for (Vertex vertex : streets.getVertices()) {
+            assertNotNull(vertex.getLabel(), graph.getVertex(vertex.getLabel()));
+        }
+
+        // The stops are linked to the streets of the base graph, and to each other through them.
+        List<TransitStop> stops = new ArrayList<>();
+        for (Vertex vertex : graph.getVertices()) {
+            if (vertex instanceof TransitStop) stops.add((TransitStop) vertex);
+        }
+        assertEquals(2, stops.size());
+        for (TransitStop stop : stops) {
+            assertTrue(stop.getLabel(), hasOutgoing(stop, StreetTransitLink.class));
+            assertTrue(stop.getLabel(), hasOutgoing(stop, SimpleTransfer.class));
+        }
+
+        // Same file name, different content
+        copyResource("module/osm/map.osm.pbf", new File(transitDir, "map.osm.pbf"));
+        assertNull(GraphBuilder.forDirectory(params, transitDir));
+
+        // OSM input missing
+        new File(transitDir, "map.osm.pbf").delete();
+        assertNull(GraphBuilder.forDirectory(params, transitDir));
+    }
+
+    private static boolean hasOutgoing(Vertex vertex, Class<? extends Edge> edgeClass) {
+        for (Edge edge : vertex.getOutgoing()) {
+            if (edgeClass.isInstance(edge)) return true;
+        }
+        return false;
+    }
+
+    /** Write a feed with one trip between two stops about 450 meters apart, on the streets around Skøyen station. */
+    private static void writeGtfs(File file) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            writeEntry(zip, "agency.txt", "agency_id,agency_name,agency_url,agency_timezone",
+                    "agency,Agency,http://example.com,Europe/Oslo");
+            writeEntry(zip, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+                    "west,West,59.9220,10.6760",
+                    "east,East,59.9215,10.6840");
+            writeEntry(zip, "routes.txt", "route_id,agency_id,route_short_name,route_type",
+                    "route,agency,1,3");
+            writeEntry(zip, "calendar.txt",
+                    "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+                    "service,1,1,1,1,1,1,1,20200101,20301231");
+            writeEntry(zip, "trips.txt", "route_id,service_id,trip_id",
+                    "route,service,trip");
+            writeEntry(zip, "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+                    "trip,08:00:00,08:00:00,west,1",
+                    "trip,08:03:00,08:03:00,east,2");
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, String... lines) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private void copyResource(String name, File file) throws IOException {
+        Files.copy(new File(getClass().getResource(name).getFile()), file);
+    }
+
+    private static void writeConfig(File dir, String json) throws IOException {
+        Files.write(json, new File(dir, GraphBuilder.BUILDER_CONFIG_FILENAME), StandardCharsets.UTF_8);
+    }
+}
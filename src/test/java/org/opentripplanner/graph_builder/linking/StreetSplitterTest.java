@@ -79,6 +79,47 @@ public class StreetSplitterTest {
         );
     }
 
+    /**
+     * Tests that an origin at a coordinate that was linked before is linked to the same places again, using the
+     * snapping cache, and that the cache is emptied when the street network changes.
+     */
+    @Test
+    public void testSnappingCache() {
+        Graph g = new Graph();
+        StreetVertex a = new IntersectionVertex(g, "A", 1.0, 1.0);
+        StreetVertex b = new IntersectionVertex(g, "B", 0.0, 1.0);
+        StreetVertex c = new IntersectionVertex(g, "C", 1.0, 0.0);
+        createStreetEdge(a, b, "a -> b");
+        createStreetEdge(b, a, "b -> a");
+        createStreetEdge(a, c, "a -> c");
+        g.index(false);
+        g.snappingCache = new SnappingCache(10);
+
+        List<Coordinate> firstSplits = linkedSplitPoints(g);
+        assertEquals(2, g.snappingCache.size());
+        List<Coordinate> secondSplits = linkedSplitPoints(g);
+        assertEquals(2, g.snappingCache.size());
+        assertEquals(2, firstSplits.size());
+        assertEquals(firstSplits, secondSplits);
+
+        new IntersectionVertex(g, "D", 0.5, 0.5);
+        assertEquals(0, g.snappingCache.size());
+    }
+
+    /** Link an origin and destination, and return the points where the origin was linked to the street network. */
+    private List<Coordinate> linkedSplitPoints(Graph g) {
+        RoutingRequest request = new RoutingRequest(TraverseMode.WALK);
+        request.from = new GenericLocation(0.999, 0.4);
+        request.to = new GenericLocation(0.701, 1.001);
+        request.setRoutingContext(g);
+        List<Coordinate> splitPoints = new ArrayList<>();
+        for (Edge edge : request.rctx.fromVertex.getOutgoing()) {
+            splitPoints.add(edge.getToVertex().getCoordinate());
+        }
+        request.cleanup();
+        return splitPoints;
+    }
+
     /**
      * Tests the full lifecycle of creating and disposing of all vertices and edges associated with a floating bike
      * rental. Floating bike rentals need to be inserted into the StreetNetwork once found in updater data and then
@@ -27,7 +27,10 @@ import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -149,6 +152,42 @@ public class LinkingTest {
         }
     }
 
+    /**
+     * Test that looking up the closest edges of stations on several threads links every stop to the same points of
+     * the street network as linking them one at a time, including the stops that are close to each other.
+     */
+    @Test
+    public void testParallelLinkingMatchesSequential () throws UnsupportedEncodingException {
+        Graph g1 = buildGraphNoTransit();
+        addExtraStops(g1);
+        addRegularStopGrid(g1);
+        g1.index(true);
+        g1.streetIndex.getStreetSplitter().linkAllStationsToGraph(1);
+
+        Graph g2 = buildGraphNoTransit();
+        addExtraStops(g2);
+        addRegularStopGrid(g2);
+        g2.index(true);
+        g2.streetIndex.getStreetSplitter().linkAllStationsToGraph(4);
+
+        assertEquals(g1.countVertices(), g2.countVertices());
+        assertEquals(g1.countEdges(), g2.countEdges());
+        for (TransitStop ts : Iterables.filter(g1.getVertices(), TransitStop.class)) {
+            TransitStop other = (TransitStop) g2.getVertex(ts.getLabel());
+            assertEquals("Stop " + ts + " linked differently", linkedCoordinates(ts), linkedCoordinates(other));
+        }
+    }
+
+    /** The coordinates of the street vertices a stop is linked to, in a stable order. */
+    private static List<Coordinate> linkedCoordinates (TransitStop ts) {
+        List<Coordinate> coordinates = new ArrayList<>();
+        for (Edge e : stls(ts.getOutgoing())) {
+            coordinates.add(e.getToVertex().getCoordinate());
+        }
+        Collections.sort(coordinates);
+        return coordinates;
+    }
+
     private TObjectIntMap<String> jaggedArrayToVertexMap(int[] value, Graph g) {
         TObjectIntMap<String> ret = new TObjectIntHashMap<String>();
 
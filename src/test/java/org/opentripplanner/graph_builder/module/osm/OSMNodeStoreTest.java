@@ -0,0 +1,91 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.junit.Test;
+import org.opentripplanner.graph_builder.module.GraphBuilderModuleSummary;
+import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OSMNodeStoreTest {
+
+    /** Store more nodes than the initial capacity, and check that they all come back with their coordinates. */
+    @Test
+    public void testStorages() {
+        for (OSMNodeStore.Storage storage : OSMNodeStore.Storage.values()) {
+            OSMNodeStore store = new OSMNodeStore(storage);
+            Random random = new Random(42);
+            Map<Long, OSMNode> expected = new HashMap<>();
+            for (int i = 0; i < 200000; i++) {
+                OSMNode node = new OSMNode();
+                node.setId(random.nextInt(1000000));
+                node.lat = Math.round((random.nextDouble() * 180 - 90) * 1e7) / 1e7;
+                node.lon = Math.round((random.nextDouble() * 360 - 180) * 1e7) / 1e7;
+                if (i % 100 == 0) {
+                    node.addTag("highway", "traffic_signals");
+                }
+                if (!store.containsKey(node.getId())) {
+                    store.put(node);
+                    expected.put(node.getId(), node);
+                }
+            }
+            assertEquals(expected.size(), store.size());
+            for (OSMNode node : expected.values()) {
+                OSMNode stored = store.get(node.getId());
+                assertNotNull(stored);
+                assertEquals(node, stored);
+                assertEquals(node.lat, stored.lat, 1e-9);
+                assertEquals(node.lon, stored.lon, 1e-9);
+                if (node.getTags() != null) {
+                    assertSame(node, stored);
+                }
+            }
+            for (long id = 1000000; id < 1001000; id++) {
+                assertFalse(store.containsKey(id));
+                assertNull(store.get(id));
+            }
+        }
+    }
+
+    /** Build the same street network with nodes on and off the heap. */
+    @Test
+    public void testSameGraphOffHeap() throws Exception {
+        Graph onHeap = buildGraph(OSMNodeStore.Storage.HEAP);
+        Graph offHeap = buildGraph(OSMNodeStore.Storage.OFF_HEAP);
+        assertEquals(onHeap.countVertices(), offHeap.countVertices());
+        assertEquals(onHeap.countEdges(), offHeap.countEdges());
+        for (Vertex v : onHeap.getVertices()) {
+            Vertex other = offHeap.getVertex(v.getLabel());
+            assertNotNull(other);
+            assertEquals(v.getLat(), other.getLat(), 1e-7);
+            assertEquals(v.getLon(), other.getLon(), 1e-7);
+            assertEquals(v.getDegreeOut(), other.getDegreeOut());
+        }
+        assertTrue(onHeap.countEdges() > 0);
+    }
+
+    private Graph buildGraph(OSMNodeStore.Storage storage) throws Exception {
+        Graph graph = new Graph();
+        OpenStreetMapModule loader = new OpenStreetMapModule();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        loader.nodeStorage = storage;
+        AnyFileBasedOpenStreetMapProviderImpl provider = new AnyFileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8")));
+        loader.setProvider(provider);
+        loader.buildGraph(graph, new GraphBuilderModuleSummary(loader));
+        return graph;
+    }
+}
@@ -0,0 +1,67 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.scenario.ConvertToFrequency;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Make sure that running the frequency searches of a RAPTOR worker in parallel gives exactly the same results as
+ * running them sequentially.
+ */
+public class ParallelRaptorWorkerTest extends TestCase {
+
+    @Test
+    public void testParallelMatchesSequential () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        indexGraphAndLinkStations(gg);
+
+        RepeatedRaptorProfileRouter sequential = makeRouter(gg);
+        sequential.raptorParallelism = 1;
+        sequential.route();
+
+        RepeatedRaptorProfileRouter parallel = makeRouter(gg);
+        parallel.raptorParallelism = 4;
+        parallel.route();
+
+        assertTrue(parallel.raptorWorkerData.hasFrequencies);
+        assertFalse(sequential.timeSurfaceRangeSet.min.times.isEmpty());
+        assertEquals(sequential.timeSurfaceRangeSet.min.times, parallel.timeSurfaceRangeSet.min.times);
+        assertEquals(sequential.timeSurfaceRangeSet.avg.times, parallel.timeSurfaceRangeSet.avg.times);
+        assertEquals(sequential.timeSurfaceRangeSet.max.times, parallel.timeSurfaceRangeSet.max.times);
+    }
+
+    /** Make a router for a frequency-based scenario, with a fixed random seed for the Monte Carlo draws. */
+    private static RepeatedRaptorProfileRouter makeRouter (Graph gg) {
+        ProfileRequest pr = new ProfileRequest();
+        pr.date = new LocalDate(2015, 6, 10);
+        pr.fromTime = 7 * 3600;
+        pr.toTime = 8 * 3600;
+        pr.fromLat = pr.toLat = 39.9621;
+        pr.fromLon = pr.toLon = -83.0007;
+        pr.accessModes = pr.egressModes = pr.directModes = new QualifiedModeSet("WALK");
+        pr.transitModes = new TraverseModeSet("TRANSIT");
+
+        ConvertToFrequency ctf = new ConvertToFrequency();
+        ctf.groupBy = ConvertToFrequency.ConversionGroup.ROUTE_DIRECTION;
+        ctf.routeId = new String [] { "route" };
+        ctf.windowStart = 5 * 3600;
+        ctf.windowEnd = 10 * 3600;
+
+        pr.scenario = new Scenario(0);
+        pr.scenario.modifications = Arrays.asList(ctf);
+
+        RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(gg, pr);
+        router.randomSeed = 42L;
+        return router;
+    }
+}
@@ -0,0 +1,156 @@
+package org.opentripplanner.routing.algorithm.ch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContractionHierarchyTest {
+
+    private static final int SIZE = 8;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                grid[x][y] = new IntersectionVertex(graph, x + "_" + y, x * 0.001, 45 + y * 0.001);
+                // Free-flowing intersections have no turn costs, so A* weights only depend on the edges.
+                grid[x][y].freeFlowing = true;
+            }
+        }
+        Random random = new Random(42);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (x + 1 < SIZE) connect(grid[x][y], grid[x + 1][y], 60 + random.nextInt(100));
+                if (y + 1 < SIZE) connect(grid[x][y], grid[x][y + 1], 60 + random.nextInt(100));
+            }
+        }
+    }
+
+    private void connect(IntersectionVertex a, IntersectionVertex b, double length) {
+        new StreetEdge(a, b, GeometryUtils.makeLineString(a.getLon(), a.getLat(), b.getLon(), b.getLat()),
+                a.getLabel() + "-" + b.getLabel(), length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, GeometryUtils.makeLineString(b.getLon(), b.getLat(), a.getLon(), a.getLat()),
+                b.getLabel() + "-" + a.getLabel(), length, StreetTraversalPermission.ALL, true);
+    }
+
+    private static Edge edge(Vertex from, Vertex to) {
+        for (Edge edge : from.getOutgoing()) {
+            if (edge.getToVertex() == to) return edge;
+        }
+        return null;
+    }
+
+    @Test
+    public void testSameWeightsAsAStar() {
+        ContractionHierarchy hierarchy = ContractionHierarchyBuilder.build(graph, TraverseMode.WALK);
+        // Every street edge is a node.
+        assertEquals(4 * SIZE * (SIZE - 1), hierarchy.getNodeCount());
+        assertSameWeightsAsAStar(hierarchy, TraverseMode.WALK);
+    }
+
+    /** Turn costs and turn restrictions are part of the weights of the hierarchy. */
+    @Test
+    public void testSameWeightsAsAStarWithTurns() {
+        for (IntersectionVertex[] column : grid) {
+            for (IntersectionVertex vertex : column) {
+                vertex.freeFlowing = false;
+            }
+        }
+        int c = SIZE / 2;
+        Edge from = edge(grid[c - 1][c], grid[c][c]);
+        graph.addTurnRestriction(from, new TurnRestriction(from, edge(grid[c][c], grid[c][c + 1]),
+                TurnRestrictionType.NO_TURN, new TraverseModeSet(TraverseMode.CAR)));
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.CAR}) {
+            assertSameWeightsAsAStar(ContractionHierarchyBuilder.build(graph, mode), mode);
+        }
+    }
+
+    private void assertSameWeightsAsAStar(ContractionHierarchy hierarchy, TraverseMode mode) {
+        ContractionHierarchyRouter router = new ContractionHierarchyRouter(hierarchy);
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            Vertex from = grid[random.nextInt(SIZE)][random.nextInt(SIZE)];
+            Vertex to = grid[random.nextInt(SIZE)][random.nextInt(SIZE)];
+            if (from == to) continue;
+            RoutingRequest request = new RoutingRequest(mode);
+            request.setRoutingContext(graph, from, to);
+            assertTrue(hierarchy.accepts(request, graph));
+            ShortestPathTree spt = new AStar().getShortestPathTree(request);
+            GraphPath expected = spt.getPath(to, false);
+            GraphPath actual = router.route(request);
+            assertNotNull(actual);
+            assertEquals(expected.getWeight(), actual.getWeight(), 1e-6);
+            assertEquals(from, actual.states.getFirst().getVertex());
+            assertEquals(to, actual.states.getLast().getVertex());
+        }
+    }
+
+    @Test
+    public void testRejectsChangedWeights() {
+        ContractionHierarchy hierarchy = ContractionHierarchyBuilder.build(graph, TraverseMode.WALK);
+        RoutingRequest request = new RoutingRequest(TraverseMode.WALK);
+        assertTrue(hierarchy.accepts(request, graph));
+        request.walkSpeed *= 2;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.turnReluctance = 2;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.elevatorBoardCost = 0;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.walkingBike = true;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.watts = 500;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.weight = 80;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.maximumMicromobilitySpeed = 8;
+        assertFalse(hierarchy.accepts(request, graph));
+        request = new RoutingRequest(TraverseMode.WALK);
+        request.minimumMicromobilitySpeed = 2;
+        assertFalse(hierarchy.accepts(request, graph));
+        assertFalse(hierarchy.accepts(new RoutingRequest(TraverseMode.CAR), graph));
+    }
+
+    @Test
+    public void testArriveByFallsBackOnAStar() {
+        ContractionHierarchy hierarchy = ContractionHierarchyBuilder.build(graph, TraverseMode.WALK);
+        RoutingRequest request = new RoutingRequest(TraverseMode.WALK);
+        request.setArriveBy(true);
+        request.setRoutingContext(graph, grid[0][0], grid[SIZE - 1][SIZE - 1]);
+        assertFalse(hierarchy.accepts(request, graph));
+        assertNull(new ContractionHierarchyRouter(hierarchy).route(request));
+    }
+}
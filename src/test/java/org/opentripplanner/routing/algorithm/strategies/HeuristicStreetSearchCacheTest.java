@@ -0,0 +1,88 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.List;
+
+public class HeuristicStreetSearchCacheTest extends GtfsTest {
+
+    /** 07:50 on 15 September 2009 in New York, ten minutes before trip 1.3 leaves stop A for stop C. */
+    private static final long DATE_TIME = 1253015400L;
+
+    public void testSearchesAreReused() {
+        HeuristicStreetSearchCache cache = new HeuristicStreetSearchCache(10);
+        graph.heuristicStreetSearchCache = cache;
+
+        List<GraphPath> coldPaths = new GraphPathFinder(router).getPaths(request(TraverseMode.WALK));
+        assertEquals(2, cache.size());
+        List<GraphPath> warmPaths = new GraphPathFinder(router).getPaths(request(TraverseMode.WALK));
+        assertEquals(2, cache.size());
+
+        assertFalse(coldPaths.isEmpty());
+        assertEquals(coldPaths.size(), warmPaths.size());
+        for (int i = 0; i < coldPaths.size(); i++) {
+            assertEquals(coldPaths.get(i).getTrips(), warmPaths.get(i).getTrips());
+            assertEquals(coldPaths.get(i).getWeight(), warmPaths.get(i).getWeight());
+        }
+    }
+
+    public void testChangingTheGraphEmptiesTheCache() {
+        HeuristicStreetSearchCache cache = new HeuristicStreetSearchCache(10);
+        graph.heuristicStreetSearchCache = cache;
+        new GraphPathFinder(router).getPaths(request(TraverseMode.WALK));
+        assertEquals(2, cache.size());
+        new IntersectionVertex(graph, "new intersection", -73.0, 40.0);
+        assertEquals(0, cache.size());
+    }
+
+    public void testCarSearchesAreNotCached() {
+        RoutingRequest request = request(TraverseMode.CAR);
+        assertNull(HeuristicStreetSearchCache.key(request, true));
+        assertNotNull(HeuristicStreetSearchCache.key(request(TraverseMode.WALK), true));
+    }
+
+    public void testKeyCoversMicromobilityAndElevatorSettings() {
+        List<Object> key = HeuristicStreetSearchCache.key(request(TraverseMode.MICROMOBILITY), true);
+        RoutingRequest faster = request(TraverseMode.MICROMOBILITY);
+        faster.maximumMicromobilitySpeed += 1;
+        assertFalse(key.equals(HeuristicStreetSearchCache.key(faster, true)));
+        RoutingRequest slower = request(TraverseMode.MICROMOBILITY);
+        slower.minimumMicromobilitySpeed += 0.1;
+        assertFalse(key.equals(HeuristicStreetSearchCache.key(slower, true)));
+        RoutingRequest elevator = request(TraverseMode.MICROMOBILITY);
+        elevator.elevatorHopCost += 10;
+        assertFalse(key.equals(HeuristicStreetSearchCache.key(elevator, true)));
+        assertEquals(key, HeuristicStreetSearchCache.key(request(TraverseMode.MICROMOBILITY), true));
+    }
+
+    public void testOtherCostModelsAreNotCached() {
+        RoutingRequest request = request(TraverseMode.WALK);
+        request.traversalCostModel = new ConstantIntersectionTraversalCostModel(10);
+        assertNull(HeuristicStreetSearchCache.key(request, true));
+    }
+
+    private RoutingRequest request(TraverseMode streetMode) {
+        String feedId = graph.getFeedIds().iterator().next();
+        RoutingRequest request = new RoutingRequest();
+        request.setModes(new TraverseModeSet(streetMode, TraverseMode.TRANSIT));
+        request.dateTime = DATE_TIME;
+        request.from = new GenericLocation(null, feedId + ":A");
+        request.to = new GenericLocation(null, feedId + ":C");
+        request.setNumItineraries(1);
+        request.setRoutingContext(graph);
+        return request;
+    }
+
+    @Override
+    public String getFeedName() {
+        return "testagency.zip";
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 import org.opentripplanner.routing.graph.Graph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class StateEditorTest {
 
@@ -18,6 +19,31 @@ public class StateEditorTest {
         assertEquals(999999999, stateEditor.child.getTimeSeconds());
     }
 
+    /**
+     * Rental distances are shared with the parent state until they change, and never allocated when they stay zero.
+     */
+    @Test
+    public final void testRentalDistancesAreCopiedOnWrite() {
+        RoutingRequest routingRequest = new RoutingRequest();
+        StateEditor stateEditor = new StateEditor(routingRequest, null);
+        stateEditor.incrementVehicleRentalDistance(0);
+        State parent = stateEditor.makeState();
+        assertSame(RentalDistances.ZERO, parent.rentalDistances);
+
+        StateEditor childEditor = parent.edit(null);
+        childEditor.incrementVehicleRentalDistance(120);
+        childEditor.incrementCarRentalDistance(30);
+        State child = childEditor.makeState();
+        assertEquals(120, child.getVehicleRentalDistance(), 0);
+        assertEquals(30, child.getCarRentalDriveDistance(), 0);
+        assertEquals(0, child.getTransportationNetworkCompanyDriveDistance(), 0);
+        assertEquals(0, parent.getVehicleRentalDistance(), 0);
+
+        StateEditor grandChildEditor = child.edit(null);
+        grandChildEditor.incrementTimeInSeconds(10);
+        assertSame(child.rentalDistances, grandChildEditor.makeState().rentalDistances);
+    }
+
     /**
      * Test update of non transit options.
      */
@@ -3,12 +3,15 @@ package org.opentripplanner.routing.edgetype;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarServiceData;
 import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.TimeZone;
 
 import com.google.common.collect.Iterables;
@@ -23,6 +26,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.PatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -305,4 +310,75 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    /**
+     * Searching the trips sorted by time at each stop must find the same trips as searching through all of them, also
+     * after some trips of a copy of the timetable are updated and merged into the sorted trips.
+     */
+    @Test
+    public void testNextTripMatchesLinearSearch() {
+        Random random = new Random(42);
+        TripTimes base = timetable.getTripTimes(0);
+        Timetable sorted = new Timetable(pattern);
+        for (int i = 0; i < 100; i++) {
+            sorted.addTripTimes(randomTripTimes(base, random));
+        }
+        sorted.finish();
+        assertSameNextTrips(sorted);
+
+        Timetable updated = new Timetable(sorted, serviceDate);
+        for (int i = 0; i < 10; i++) {
+            updated.setTripTimes(random.nextInt(100), randomTripTimes(base, random));
+        }
+        updated.addTripTimes(randomTripTimes(base, random));
+        updated.finish();
+        assertSameNextTrips(updated);
+    }
+
+    /** Trips can only be changed through the Timetable, which keeps track of those to sort again. */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTripTimesAreReadOnly() {
+        timetable.getTripTimes().add(timetable.getTripTimes(0));
+    }
+
+    /** Compare with a timetable holding the same trips that was never finished, so it searches them linearly. */
+    private void assertSameNextTrips(Timetable sorted) {
+        Timetable linear = new Timetable(pattern);
+        for (TripTimes tt : sorted.getTripTimes()) {
+            linear.addTripTimes(tt);
+        }
+        ServiceDay serviceDay = new ServiceDay(graph, serviceDate, graph.getCalendarService(), "agency");
+        Vertex stop = graph.getVertex(graph.getFeedIds().iterator().next() + ":A");
+        RoutingRequest options = new RoutingRequest();
+        int found = 0;
+        for (int time = -600; time < 24 * 3600; time += 97) {
+            State s0 = new State(stop, serviceDay.time(time), options);
+            for (int stopIndex = 0; stopIndex < pattern.getStops().size(); stopIndex++) {
+                for (boolean boarding : new boolean[] {true, false}) {
+                    TripTimes expected = linear.getNextTrip(s0, serviceDay, stopIndex, boarding);
+                    assertSame(expected, sorted.getNextTrip(s0, serviceDay, stopIndex, boarding));
+                    if (expected != null) found++;
+                }
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    /** A copy of the given trip at a random time of day, which is sometimes canceled and often overtaken. */
+    private static TripTimes randomTripTimes(TripTimes base, Random random) {
+        TripTimes tt = new TripTimes(base);
+        if (random.nextInt(10) == 0) {
+            tt.cancel();
+            return tt;
+        }
+        // Multiples of a minute, so that several trips pass stops at the same time.
+        int time = random.nextInt(24 * 60) * 60;
+        for (int stop = 0; stop < tt.getNumStops(); stop++) {
+            tt.updateArrivalTime(stop, time);
+            time += random.nextInt(3) * 60;
+            tt.updateDepartureTime(stop, time);
+            time += random.nextInt(10) * 60;
+        }
+        return tt;
+    }
 }
@@ -0,0 +1,123 @@
+package org.opentripplanner.routing.graph;
+
+import org.junit.Test;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EdgeAdjacencyTest {
+
+    @Test
+    public void testRowsMatchVertexEdgeLists() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "A", 0.000, 45.000);
+        IntersectionVertex b = new IntersectionVertex(graph, "B", 0.001, 45.001);
+        IntersectionVertex c = new IntersectionVertex(graph, "C", 0.002, 45.000);
+        new SimpleConcreteEdge(a, b);
+        new SimpleConcreteEdge(a, c);
+        new SimpleConcreteEdge(b, c);
+        new SimpleConcreteEdge(c, a);
+
+        Map<Vertex, List<Edge>> outgoing = new HashMap<>();
+        Map<Vertex, List<Edge>> incoming = new HashMap<>();
+        for (Vertex v : graph.getVertices()) {
+            outgoing.put(v, new ArrayList<>(v.getOutgoing()));
+            incoming.put(v, new ArrayList<>(v.getIncoming()));
+        }
+
+        EdgeAdjacency adjacency = EdgeAdjacency.build(graph.getVertices());
+        assertEquals(3, adjacency.getRowCount());
+        assertEquals(4, adjacency.getEdgeCount());
+        for (Vertex v : graph.getVertices()) {
+            assertSame(adjacency, v.getVertexEdges().getAdjacency());
+            int row = v.getVertexEdges().getRow();
+            assertTrue(row >= 0);
+            assertEquals(outgoing.get(v), outgoing(adjacency, row));
+            assertEquals(incoming.get(v), incoming(adjacency, row));
+            // The row is the only copy of the edge lists of an attached vertex.
+            assertEquals(0, v.getVertexEdges().getOverlayOutgoing().length);
+            assertEquals(0, v.getVertexEdges().getOverlayIncoming().length);
+            assertEquals(outgoing.get(v), new ArrayList<>(v.getOutgoing()));
+            assertEquals(incoming.get(v), new ArrayList<>(v.getIncoming()));
+            assertEquals(outgoing.get(v).size(), v.getDegreeOut());
+            assertEquals(incoming.get(v).size(), v.getDegreeIn());
+        }
+    }
+
+    @Test
+    public void testOverlayAndDetach() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "A", 0.000, 45.000);
+        IntersectionVertex b = new IntersectionVertex(graph, "B", 0.001, 45.001);
+        Edge ab = new SimpleConcreteEdge(a, b);
+        EdgeAdjacency adjacency = EdgeAdjacency.build(graph.getVertices());
+        VertexEdges attached = a.getVertexEdges();
+
+        // A temporary vertex is never part of the adjacency, the edges linking it are kept in overlays.
+        IntersectionVertex temporary = new IntersectionVertex(null, "T", 0.0005, 45.0005);
+        Edge at = new SimpleConcreteEdge(a, temporary);
+        Edge ta = new SimpleConcreteEdge(temporary, a);
+        assertNull(temporary.getVertexEdges().getAdjacency());
+        assertEquals(-1, temporary.getVertexEdges().getRow());
+        assertArrayEquals(new Edge[] {at}, a.getVertexEdges().getOverlayOutgoing());
+        assertArrayEquals(new Edge[] {ta}, a.getVertexEdges().getOverlayIncoming());
+        assertEquals(Arrays.asList(ab), outgoing(adjacency, a.getVertexEdges().getRow()));
+        assertEquals(Arrays.asList(ab, at), new ArrayList<>(a.getOutgoing()));
+        assertEquals(Arrays.asList(ab), new ArrayList<>(b.getIncoming()));
+        // The edge lists are views of the row and overlay, which the realtime code checks edges against.
+        assertTrue(a.getOutgoing().contains(at));
+        assertTrue(b.getIncoming().contains(ab));
+        assertFalse(b.getIncoming().contains(at));
+        assertEquals(2, a.getDegreeOut());
+        // A search still holding the previous snapshot sees the row without the new edges, never half of a change.
+        assertEquals(0, attached.getOverlayOutgoing().length);
+        assertEquals(0, attached.getOverlayIncoming().length);
+
+        // Removing the overlay edges returns the vertex to its plain row.
+        a.removeOutgoing(at);
+        a.removeIncoming(ta);
+        assertSame(adjacency, a.getVertexEdges().getAdjacency());
+        assertEquals(0, a.getVertexEdges().getOverlayOutgoing().length);
+        assertEquals(0, a.getVertexEdges().getOverlayIncoming().length);
+
+        // Removing an edge of the row detaches the vertex until the adjacency is rebuilt.
+        assertTrue(a.removeOutgoing(ab));
+        assertTrue(b.removeIncoming(ab));
+        assertFalse(a.removeOutgoing(ab));
+        assertNull(a.getVertexEdges().getAdjacency());
+        assertNull(b.getVertexEdges().getAdjacency());
+        assertTrue(a.getOutgoing().isEmpty());
+        assertTrue(b.getIncoming().isEmpty());
+        adjacency = EdgeAdjacency.build(graph.getVertices());
+        assertSame(adjacency, a.getVertexEdges().getAdjacency());
+        assertTrue(a.getVertexEdges().getRow() >= 0);
+        assertEquals(0, adjacency.getEdgeCount());
+    }
+
+    private static List<Edge> outgoing(EdgeAdjacency adjacency, int row) {
+        List<Edge> edges = new ArrayList<>();
+        for (int e = adjacency.outgoingStart(row); e < adjacency.outgoingEnd(row); e++) {
+            edges.add(adjacency.getEdge(e));
+        }
+        return edges;
+    }
+
+    private static List<Edge> incoming(EdgeAdjacency adjacency, int row) {
+        List<Edge> edges = new ArrayList<>();
+        for (int i = adjacency.incomingStart(row); i < adjacency.incomingEnd(row); i++) {
+            edges.add(adjacency.getIncomingEdge(i));
+        }
+        return edges;
+    }
+}
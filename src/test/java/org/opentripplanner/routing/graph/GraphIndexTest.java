@@ -8,14 +8,23 @@ import org.opentripplanner.model.Stop;
 import org.opentripplanner.model.Trip;
 import org.opentripplanner.GtfsTest;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.index.GraphQLQueryExecutor;
+import org.opentripplanner.index.GraphQLResponseCache;
+import org.opentripplanner.index.model.StopTimesInPattern;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.model.calendar.ServiceDate;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.vertextype.TransitStop;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Check that the graph index is created, that GTFS elements can be found in the index, and that
@@ -98,6 +107,46 @@ public class GraphIndexTest extends GtfsTest {
         assertTrue(stops.size() >= 3); // Query can overselect
     }
 
+    /**
+     * The departure boards found by walking the trips in order of departure must hold the same departures as the
+     * first ones of the complete daily timetables of each stop.
+     */
+    public void testStopTimesForStop() {
+        TimeZone timeZone = graph.getTimeZone();
+        ServiceDate serviceDate = new ServiceDate(2009, 8, 7);
+        int nDepartures = 0;
+        for (int hour = 0; hour < 24; hour += 5) {
+            long startTime = serviceDate.getAsDate(timeZone).getTime() / 1000 + hour * 3600;
+            for (Stop stop : graph.index.stopForId.values()) {
+                Map<String, List<Long>> expected = new HashMap<>();
+                for (ServiceDate date : new ServiceDate[] {serviceDate.previous(), serviceDate}) {
+                    for (StopTimesInPattern stopTimes : graph.index.getStopTimesForStop(stop, date, false)) {
+                        for (TripTimeShort t : stopTimes.times) {
+                            long departure = t.serviceDay + t.realtimeDeparture;
+                            if (t.realtimeDeparture != -1 && departure >= startTime) {
+                                expected.computeIfAbsent(stopTimes.pattern.id, k -> new ArrayList<>()).add(departure);
+                            }
+                        }
+                    }
+                }
+                for (List<Long> departures : expected.values()) {
+                    Collections.sort(departures);
+                    departures.subList(Math.min(3, departures.size()), departures.size()).clear();
+                }
+                Map<String, List<Long>> found = new HashMap<>();
+                for (StopTimesInPattern stopTimes : graph.index.stopTimesForStop(stop, startTime, 24 * 3600, 3, false)) {
+                    for (TripTimeShort t : stopTimes.times) {
+                        found.computeIfAbsent(stopTimes.pattern.id, k -> new ArrayList<>())
+                                .add(t.serviceDay + t.realtimeDeparture);
+                        nDepartures++;
+                    }
+                }
+                assertEquals(expected, found);
+            }
+        }
+        assertTrue(nDepartures > 0);
+    }
+
     public void testGraphQLSimple() {
         String query =
                 "query Agency{" +
@@ -131,6 +180,50 @@ public class GraphIndexTest extends GtfsTest {
 
     }
 
+    public void testGraphQLLimits() {
+        // Depth 3, complexity 1 + 1 + (1 + 10 * 1) for the agency, its name and the list of routes and their names
+        String query = "{ agency(id: \"agency\") { name routes { shortName } } }";
+        Map<String, Object> variables = new HashMap<>();
+
+        graph.graphQLMaxDepth = 2;
+        assertEquals(400, graph.index.getGraphQLResponse(query, variables, null).getStatus());
+        graph.graphQLMaxDepth = 3;
+        assertEquals(200, graph.index.getGraphQLResponse(query, variables, null).getStatus());
+
+        graph.graphQLMaxComplexity = 12;
+        assertEquals(400, graph.index.getGraphQLResponse(query, variables, null).getStatus());
+        graph.graphQLMaxComplexity = 13;
+        assertEquals(200, graph.index.getGraphQLResponse(query, variables, null).getStatus());
+
+        // Fragments count as if their fields were written out
+        String fragmentQuery = "{ agency(id: \"agency\") { ...names } } fragment names on Agency { routes { shortName } }";
+        graph.graphQLMaxComplexity = 11;
+        assertEquals(400, graph.index.getGraphQLResponse(fragmentQuery, variables, null).getStatus());
+    }
+
+    public void testGraphQLResponseCache() {
+        String query = "query Agency($id: String!) { agency(id: $id) { name } }";
+        Map<String, Object> variables = Collections.singletonMap("id", "agency");
+        GraphQLResponseCache cache = new GraphQLResponseCache(60, 10);
+        GraphQLQueryExecutor executor = graph.index.graphQLExecutor;
+
+        ExecutionResult first = executor.execute(query, null, variables, 0, 0, cache, null);
+        assertTrue(first.getErrors().isEmpty());
+        assertEquals("Fake Agency", ((Map) ((Map) first.getData()).get("agency")).get("name"));
+        assertSame(first, executor.execute(query, null, new HashMap<>(variables), 0, 0, cache, null));
+        // Another realtime snapshot, or other variables, give another response
+        assertNotSame(first, executor.execute(query, null, variables, 0, 0, cache, new Object()));
+        ExecutionResult other = executor.execute(query, null, Collections.singletonMap("id", "azerty"), 0, 0,
+                cache, null);
+        assertNotSame(first, other);
+        assertNull(((Map) other.getData()).get("agency"));
+
+        // Errors are not cached
+        ExecutionResult invalid = executor.execute("{ agency { name } }", null, null, 0, 0, cache, null);
+        assertFalse(invalid.getErrors().isEmpty());
+        assertNotSame(invalid, executor.execute("{ agency { name } }", null, null, 0, 0, cache, null));
+    }
+
     public void testGraphQLIntrospectionQuery() {
         String query = "  query IntrospectionQuery {\n"
             + "    __schema {\n"
@@ -0,0 +1,133 @@
+package org.opentripplanner.routing.graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedStreetNetworkTest {
+
+    @Test
+    public void testWriteAndMap() throws IOException {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "A", 0.000, 45.000);
+        IntersectionVertex b = new IntersectionVertex(graph, "B", 0.001, 45.001);
+        IntersectionVertex c = new IntersectionVertex(graph, "C", 0.002, 45.000);
+        LineString bent = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(0.000, 45.000), new Coordinate(0.0005, 45.0008), new Coordinate(0.001, 45.001)});
+        StreetEdge ab = new StreetEdge(a, b, bent, "ab", 150, StreetTraversalPermission.ALL, false);
+        ab.setCarSpeed(13.5f);
+        ab.setRoundabout(true);
+        StreetEdge bc = new StreetEdge(b, c, GeometryUtils.makeLineString(0.001, 45.001, 0.002, 45.000), "bc", 120,
+                StreetTraversalPermission.PEDESTRIAN, false);
+        bc.setStairs(true);
+        new SimpleConcreteEdge(c, a); // not a street edge, should be left out
+
+        File file = File.createTempFile("street", ".map");
+        file.deleteOnExit();
+        MappedStreetNetwork.write(graph, file);
+        MappedStreetNetwork network = MappedStreetNetwork.open(file);
+        graph.rebuildVertexAndEdgeIndices();
+
+        assertEquals(3, network.getVertexCount());
+        assertEquals(2, network.getEdgeCount());
+
+        MappedStreetNetwork.VertexView vertex = network.newVertexView();
+        MappedStreetNetwork.EdgeView edge = network.newEdgeView();
+        int checkedEdges = 0;
+        for (int v = 0; v < network.getVertexCount(); v++) {
+            vertex.seek(v);
+            Vertex original = graph.getVertexById(vertex.getOriginalIndex());
+            assertEquals(original.getLon(), vertex.getLon(), 0);
+            assertEquals(original.getLat(), vertex.getLat(), 0);
+            assertEquals(original == c ? 0 : 1, vertex.getDegreeOut());
+            for (int i = 0; i < vertex.getDegreeOut(); i++) {
+                edge.seek(vertex.getOutgoingEdge(i));
+                assertEquals(v, edge.getFromVertex());
+                StreetEdge street = (StreetEdge) graph.getEdgeById(edge.getOriginalId());
+                assertEquals(street.getLength_mm(), edge.getLength_mm());
+                assertEquals(street.getCarSpeed(), edge.getCarSpeed(), 0);
+                assertEquals(street.getPermission(), edge.getPermission());
+                assertEquals(street.isRoundabout(), edge.hasFlag(MappedStreetNetwork.FLAG_ROUNDABOUT));
+                assertEquals(street.isStairs(), edge.hasFlag(MappedStreetNetwork.FLAG_STAIRS));
+                assertFalse(edge.hasFlag(MappedStreetNetwork.FLAG_BACK));
+                assertTrue(street.getGeometry().equalsExact(edge.getGeometry(), 1e-6));
+                // Walk back through the incoming adjacency of the target vertex
+                vertex.seek(edge.getToVertex());
+                assertEquals(1, vertex.getDegreeIn());
+                assertEquals(edge.getIndex(), vertex.getIncomingEdge(0));
+                vertex.seek(v);
+                checkedEdges++;
+            }
+        }
+        assertEquals(2, checkedEdges);
+    }
+
+    @Test
+    public void testSavedGraphReadsGeometriesFromMappedFile() throws IOException, ClassNotFoundException {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "A", 0.000, 45.000);
+        IntersectionVertex b = new IntersectionVertex(graph, "B", 0.001, 45.001);
+        LineString bent = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(0.000, 45.000), new Coordinate(0.0005, 45.0008), new Coordinate(0.001, 45.001)});
+        StreetEdge ab = new StreetEdge(a, b, bent, "ab", 150, StreetTraversalPermission.ALL, false);
+        StreetEdge ba = new StreetEdge(b, a, (LineString) bent.reverse(), "ba", 150, StreetTraversalPermission.ALL,
+                true);
+
+        File directory = Files.createTempDirectory("mapped").toFile();
+        File graphFile = new File(directory, "Graph.obj");
+        File streetNetworkFile = Graph.streetNetworkFile(graphFile);
+        try {
+            graph.mapStreetNetwork(streetNetworkFile);
+            assertNotNull(graph.getMappedStreetNetwork());
+            assertTrue(bent.equalsExact(ab.getGeometry(), 1e-6));
+            assertTrue(bent.reverse().equalsExact(ba.getGeometry(), 1e-6));
+
+            for (GraphFormat format : GraphFormat.values()) {
+                graph.save(graphFile, format);
+                Graph loaded = Graph.load(graphFile, Graph.LoadLevel.FULL);
+                assertNotNull(loaded.getMappedStreetNetwork());
+                StreetEdge loadedAb = (StreetEdge) loaded.getEdgeById(ab.getId());
+                StreetEdge loadedBa = (StreetEdge) loaded.getEdgeById(ba.getId());
+                assertTrue(bent.equalsExact(loadedAb.getGeometry(), 1e-6));
+                assertTrue(bent.reverse().equalsExact(loadedBa.getGeometry(), 1e-6));
+            }
+
+            // A graph whose geometries were unmapped holds them again and no longer needs the file.
+            Graph loaded = Graph.load(graphFile, Graph.LoadLevel.FULL);
+            loaded.unmapStreetNetwork();
+            assertNull(loaded.getMappedStreetNetwork());
+            loaded.save(graphFile, GraphFormat.JAVA);
+            assertTrue(streetNetworkFile.delete());
+            StreetEdge unmapped = (StreetEdge) Graph.load(graphFile, Graph.LoadLevel.FULL).getEdgeById(ab.getId());
+            assertTrue(bent.equalsExact(unmapped.getGeometry(), 1e-6));
+
+            // A mapped graph cannot be loaded without its street network file.
+            graph.save(graphFile, GraphFormat.JAVA);
+            try {
+                Graph.load(graphFile, Graph.LoadLevel.FULL);
+                fail("A mapped graph should not be loaded without its street network file.");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            graphFile.delete();
+            streetNetworkFile.delete();
+            directory.delete();
+        }
+    }
+}
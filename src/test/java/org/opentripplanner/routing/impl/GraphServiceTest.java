@@ -12,11 +12,13 @@ import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphFormat;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 
 import java.io.*;
+import java.nio.channels.Channels;
 
 
 public class GraphServiceTest extends TestCase {
@@ -187,6 +189,32 @@ public class GraphServiceTest extends TestCase {
         assertEquals(0, graphService.getRouterIds().size());
     }
 
+    @Test
+    public final void testGraphServiceFileBinaryFormat() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        smallGraph.save(Channels.newChannel(baos));
+        byte[] binaryGraphData = baos.toByteArray();
+
+        GraphService graphService = new GraphService();
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        graphSourceFactory.save("A", new ByteArrayInputStream(binaryGraphData));
+        File graphFile = new File(new File(basePath, "A"), InputStreamGraphSource.GRAPH_FILENAME);
+        assertEquals(GraphFormat.BINARY, GraphFormat.detect(graphFile));
+
+        // The graph source should detect the binary format by itself
+        boolean registered = graphService.registerGraph("A", graphSourceFactory.createGraphSource("A"));
+        assertTrue(registered);
+        Graph graph = graphService.getRouter("A").graph;
+        assertEquals(smallGraph.getVertices().size(), graph.getVertices().size());
+        assertEquals(smallGraph.getEdges().size(), graph.getEdges().size());
+        assertNotNull(graph.getVertex("v1"));
+
+        // Java serialized graphs are still detected as such
+        graphSourceFactory.save("B", new ByteArrayInputStream(smallGraphData));
+        assertEquals(GraphFormat.JAVA, GraphFormat.detect(new File(new File(basePath, "B"),
+                InputStreamGraphSource.GRAPH_FILENAME)));
+    }
+
     @Test
     public final void testGraphServiceAutoscan() throws IOException {
 
@@ -0,0 +1,67 @@
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.model.FeedScopedId;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ParallelItinerarySearchTest extends GtfsTest {
+
+    /** Midnight on 15 September 2009 in New York, when trips 1.1 and 1.2 leave stop A at 00:00 and 00:20. */
+    private static final long MIDNIGHT = 1252987200L;
+
+    public void testParallelSearchFindsSameTripsAsSequentialSearch() {
+        Set<List<FeedScopedId>> sequential = trips(search(false));
+        Set<List<FeedScopedId>> parallel = trips(search(true));
+        assertEquals(2, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+
+    public void testParallelSearchWithoutResults() {
+        RoutingRequest request = request(true);
+        request.dateTime = MIDNIGHT + 9 * 3600;
+        request.maxHours = 1;
+        assertTrue(new GraphPathFinder(router).getPaths(request).isEmpty());
+    }
+
+    private List<GraphPath> search(boolean parallel) {
+        RoutingRequest request = request(parallel);
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        assertFalse(request.rctx.aborted);
+        return paths;
+    }
+
+    private RoutingRequest request(boolean parallel) {
+        String feedId = graph.getFeedIds().iterator().next();
+        RoutingRequest request = new RoutingRequest();
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.dateTime = MIDNIGHT;
+        request.from = new GenericLocation(null, feedId + ":A");
+        request.to = new GenericLocation(null, feedId + ":C");
+        request.setNumItineraries(2);
+        request.parallelItinerarySearch = parallel;
+        request.itinerarySearchSlice = 10 * 60;
+        request.setRoutingContext(graph);
+        return request;
+    }
+
+    private static Set<List<FeedScopedId>> trips(List<GraphPath> paths) {
+        Set<List<FeedScopedId>> trips = new HashSet<>();
+        for (GraphPath path : paths) {
+            trips.add(path.getTrips());
+        }
+        return trips;
+    }
+
+    @Override
+    public String getFeedName() {
+        return "testagency.zip";
+    }
+}
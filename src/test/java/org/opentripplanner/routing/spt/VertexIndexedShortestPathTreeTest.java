@@ -0,0 +1,108 @@
+package org.opentripplanner.routing.spt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class VertexIndexedShortestPathTreeTest {
+
+    private static final int SIZE = 10;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                grid[x][y] = new IntersectionVertex(graph, x + "_" + y, x * 0.001, 45 + y * 0.001);
+            }
+        }
+        Random random = new Random(42);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (x + 1 < SIZE) connect(grid[x][y], grid[x + 1][y], 60 + random.nextInt(100));
+                if (y + 1 < SIZE) connect(grid[x][y], grid[x][y + 1], 60 + random.nextInt(100));
+            }
+        }
+        graph.rebuildVertexAndEdgeIndices();
+    }
+
+    private static void connect(Vertex a, Vertex b, double length) {
+        new StreetEdge(a, b, GeometryUtils.makeLineString(a.getLon(), a.getLat(), b.getLon(), b.getLat()),
+                a.getLabel() + "-" + b.getLabel(), length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, GeometryUtils.makeLineString(b.getLon(), b.getLat(), a.getLon(), a.getLat()),
+                b.getLabel() + "-" + a.getLabel(), length, StreetTraversalPermission.ALL, true);
+    }
+
+    @Test
+    public void testSameStatesAsMapTree() {
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.BICYCLE, TraverseMode.CAR}) {
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                ShortestPathTree indexed = search(mode, arriveBy, true, grid[0][0], grid[SIZE - 1][SIZE - 1]);
+                ShortestPathTree mapped = search(mode, arriveBy, false, grid[0][0], grid[SIZE - 1][SIZE - 1]);
+                assertTrue(indexed instanceof VertexIndexedShortestPathTree);
+                assertFalse(mapped instanceof VertexIndexedShortestPathTree);
+                assertSameStates(mapped, indexed);
+            }
+        }
+    }
+
+    @Test
+    public void testVerticesBeyondIndexBound() {
+        // A vertex created after the graph was indexed, like the temporary vertices of a request.
+        IntersectionVertex temporary = new IntersectionVertex(null, "temporary", 0.0105, 45.0095);
+        assertTrue(temporary.getIndex() >= graph.getVertexIndexBound());
+        connect(grid[SIZE - 1][SIZE - 1], temporary, 50);
+
+        ShortestPathTree indexed = search(TraverseMode.WALK, false, true, grid[0][0], temporary);
+        ShortestPathTree mapped = search(TraverseMode.WALK, false, false, grid[0][0], temporary);
+        assertNotNull(indexed.getState(temporary));
+        assertTrue(indexed.getVertices().contains(temporary));
+        assertSameStates(mapped, indexed);
+    }
+
+    private ShortestPathTree search(TraverseMode mode, boolean arriveBy, boolean vertexIndexed, Vertex from,
+            Vertex to) {
+        RoutingRequest request = new RoutingRequest(mode);
+        request.setArriveBy(arriveBy);
+        request.vertexIndexedShortestPathTree = vertexIndexed;
+        request.setRoutingContext(graph, from, to);
+        return new AStar().getShortestPathTree(request);
+    }
+
+    private static void assertSameStates(ShortestPathTree expected, ShortestPathTree actual) {
+        assertEquals(expected.getVertexCount(), actual.getVertexCount());
+        assertEquals(expected.getVertices(), actual.getVertices());
+        assertEquals(expected.getAllStates().size(), actual.getAllStates().size());
+        for (Vertex vertex : expected.getVertices()) {
+            List<State> expectedStates = expected.getStates(vertex);
+            List<State> actualStates = actual.getStates(vertex);
+            assertEquals(expectedStates.size(), actualStates.size());
+            for (int i = 0; i < expectedStates.size(); i++) {
+                assertEquals(expectedStates.get(i).getWeight(), actualStates.get(i).getWeight(), 0);
+                assertEquals(expectedStates.get(i).getBackEdge(), actualStates.get(i).getBackEdge());
+            }
+        }
+    }
+}
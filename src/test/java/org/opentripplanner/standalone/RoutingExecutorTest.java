@@ -0,0 +1,76 @@
+package org.opentripplanner.standalone;
+
+import org.junit.Test;
+import org.opentripplanner.util.monitoring.SearchMetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoutingExecutorTest {
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        RoutingExecutor executor = new RoutingExecutor("test", 1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Occupy the only routing thread, then the only place in the queue.
+        CompletableFuture<Long> first = CompletableFuture.supplyAsync(() -> executor.execute(queueWaitTime -> {
+            running.countDown();
+            await(release);
+            return queueWaitTime;
+        }));
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Long> second = CompletableFuture.supplyAsync(() -> executor.execute(queueWaitTime -> queueWaitTime));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (executor.getQueuedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, executor.getQueuedCount());
+
+        long rejectedBefore = SearchMetrics.getInstance().getRejectedCount();
+        try {
+            executor.execute(queueWaitTime -> queueWaitTime);
+            fail("A request should be rejected when the queue is full.");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(rejectedBefore + 1, SearchMetrics.getInstance().getRejectedCount());
+
+        Thread.sleep(50);
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        // The queued request waited at least as long as the first one was held.
+        assertTrue(second.get(10, TimeUnit.SECONDS) >= 50);
+        assertEquals(0, executor.getQueuedCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExceptionsReachTheCaller() {
+        RoutingExecutor executor = new RoutingExecutor("test", 1, 0);
+        try {
+            executor.execute(queueWaitTime -> {
+                throw new IllegalArgumentException("bad request");
+            });
+            fail("The exception of the task should be rethrown.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad request", e.getMessage());
+        }
+        executor.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -9,11 +9,16 @@ import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarServiceData;
 
 import java.io.File;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
+import javax.management.ObjectName;
+
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -42,6 +47,7 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.trippattern.RealTimeState;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStopDepart;
+import org.opentripplanner.util.monitoring.SearchMetrics;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
@@ -126,13 +132,40 @@ public class TimetableSnapshotSourceTest {
         assertNotNull(snapshot);
         assertSame(snapshot, updater.getTimetableSnapshot());
 
+        // An identical update does not change anything
         updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
+        assertEquals(1, updater.getLastSkippedCount());
         assertSame(snapshot, updater.getTimetableSnapshot());
 
-        updater.maxSnapshotFrequency = (-1);
+        final TripUpdate.Builder otherCancellation = TripUpdate.parseFrom(cancellation).toBuilder();
+        otherCancellation.getTripBuilder().setTripId("1.2");
+        updater.applyTripUpdates(graph, fullDataset, Arrays.asList(otherCancellation.build()), feedId);
+        assertSame(snapshot, updater.getTimetableSnapshot());
+
+        // The last update was throttled, it is published by the deferred commit
+        updater.commitPendingUpdates();
         final TimetableSnapshot newSnapshot = updater.getTimetableSnapshot();
         assertNotNull(newSnapshot);
         assertNotSame(snapshot, newSnapshot);
+        assertEquals(2, updater.getCommitCount());
+        assertEquals(1, updater.getLastCommitTimetableCount());
+        assertTrue(updater.getSnapshotAgeMillis() >= 0);
+    }
+
+    @Test
+    public void testCommitMetricsAreExported() throws Exception {
+        updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
+        SearchMetrics.getInstance().registerSnapshotSource("snapshot-test", updater);
+
+        StringWriter writer = new StringWriter();
+        SearchMetrics.getInstance().writePrometheus(writer);
+        String text = writer.toString();
+        assertTrue(text.contains("# TYPE otp_realtime_snapshot_age_milliseconds gauge"));
+        assertTrue(text.contains("otp_realtime_commits_total{router=\"snapshot-test\"} 1\n"));
+        assertTrue(text.contains("otp_realtime_last_batch_trip_updates{router=\"snapshot-test\"} 1\n"));
+
+        ObjectName name = new ObjectName(SearchMetrics.SNAPSHOT_SOURCE_OBJECT_NAME + ObjectName.quote("snapshot-test"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CommitCount"));
     }
 
     @Test
@@ -212,6 +245,42 @@ public class TimetableSnapshotSourceTest {
         assertEquals(RealTimeState.SCHEDULED, forToday.getTripTimes(tripIndex2).getRealTimeState());
     }
 
+    @Test
+    public void testSkipUnchangedTripUpdates() {
+        final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+
+        final TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.getTripBuilder().setTripId("1.1");
+        final StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder();
+        stopTimeUpdateBuilder.setStopSequence(2);
+        stopTimeUpdateBuilder.getArrivalBuilder().setDelay(1);
+        stopTimeUpdateBuilder.getDepartureBuilder().setDelay(1);
+        tripUpdateBuilder.setTimestamp(1);
+
+        updater.maxSnapshotFrequency = (-1);
+        updater.applyTripUpdates(graph, true, Arrays.asList(tripUpdateBuilder.build()), feedId);
+        final TimetableSnapshot snapshot = updater.getTimetableSnapshot();
+        assertEquals(1, snapshot.resolve(pattern, serviceDate).getTripTimes(tripIndex).getArrivalDelay(1));
+        assertEquals(0, updater.getLastSkippedCount());
+
+        // Same content with a newer timestamp, nothing should be applied nor committed
+        tripUpdateBuilder.setTimestamp(2);
+        updater.applyTripUpdates(graph, true, Arrays.asList(tripUpdateBuilder.build()), feedId);
+        assertEquals(1, updater.getLastSkippedCount());
+        assertSame(snapshot, updater.getTimetableSnapshot());
+
+        // The trip disappears from the full dataset, it should be back to its scheduled times
+        updater.applyTripUpdates(graph, true, Collections.<TripUpdate>emptyList(), feedId);
+        final TimetableSnapshot newSnapshot = updater.getTimetableSnapshot();
+        assertNotSame(snapshot, newSnapshot);
+        final TripTimes tripTimes = newSnapshot.resolve(pattern, serviceDate).getTripTimes(tripIndex);
+        assertEquals(RealTimeState.SCHEDULED, tripTimes.getRealTimeState());
+        assertEquals(0, tripTimes.getArrivalDelay(1));
+    }
+
     @Test
     public void testHandleAddedTrip() throws ParseException {
         // GIVEN
@@ -0,0 +1,51 @@
+package org.opentripplanner.util.monitoring;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testExponentialBounds() {
+        assertArrayEquals(new long[] {1, 2, 5, 10, 20, 50, 100}, Histogram.exponentialBounds(100));
+        assertArrayEquals(new long[] {1, 2, 5, 10, 20}, Histogram.exponentialBounds(11));
+    }
+
+    @Test
+    public void testBucketsAndSummary() {
+        Histogram histogram = new Histogram("test", "A test histogram.", new long[] {10, 100, 1000});
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(5000);
+        assertArrayEquals(new long[] {10, 90, 0, 1}, histogram.getBucketCounts());
+        assertEquals(5050 + 5000, histogram.getSum());
+        Histogram.Summary summary = histogram.getSummary();
+        assertEquals(101, summary.getCount());
+        assertEquals(100, summary.getP50());
+        assertEquals(100, summary.getP99());
+        assertEquals(5000, summary.getMax());
+    }
+
+    @Test
+    public void testPrometheusFormat() throws IOException {
+        StringWriter writer = new StringWriter();
+        SearchMetrics.getInstance().writePrometheus(writer);
+        String text = writer.toString();
+        assertTrue(text.contains("# TYPE otp_search_visited_vertices histogram"));
+        assertTrue(text.contains("otp_search_visited_vertices_bucket{le=\"+Inf\"}"));
+        assertTrue(text.contains("otp_search_timed_out_total"));
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() {
+        assertEquals("plain", SearchMetrics.escapeLabelValue("plain"));
+        assertEquals("a\\\\b\\\"c\\nd", SearchMetrics.escapeLabelValue("a\\b\"c\nd"));
+    }
+}